@@ -0,0 +1,144 @@
+/**
+ * Copyright 2010-2011 Joseph Panico
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.diffkit.bench;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.lang.StringUtils;
+
+import org.diffkit.diff.diffor.DKEqualsDiffor;
+import org.diffkit.diff.engine.DKColumnComparison;
+import org.diffkit.diff.engine.DKDiff;
+import org.diffkit.diff.engine.DKStandardTableComparison;
+import org.diffkit.diff.engine.DKTableModel;
+import org.diffkit.diff.sns.DKAbstractSink;
+
+/**
+ * Seeded, synthetic rows for the benchmarks. Every row has a zero padded
+ * String key in column 0, followed by String value columns, so the rows are
+ * already in the order that DKTableModel.createGenericStringModel() sorts
+ * them. The rhs rows are a copy of the lhs rows in which a diffRate fraction
+ * of the rows are mutated: half of those get a changed value (a column diff),
+ * the other half are dropped (a row diff).
+ * 
+ * @author jpanico
+ */
+public class BenchmarkData {
+
+   public static final long SEED = 20110101L;
+   private static final int KEY_WIDTH = 10;
+
+   private BenchmarkData() {
+   }
+
+   public static DKTableModel createModel(int columnCount_) {
+      return DKTableModel.createGenericStringModel(columnCount_, new int[] { 0 });
+   }
+
+   public static List<Object[]> createLhsRows(int rowCount_, int columnCount_) {
+      Random random = new Random(SEED);
+      List<Object[]> rows = new ArrayList<Object[]>(rowCount_);
+      for (int i = 0; i < rowCount_; i++) {
+         Object[] row = new Object[columnCount_];
+         row[0] = StringUtils.leftPad(Integer.toString(i), KEY_WIDTH, '0');
+         for (int j = 1; j < columnCount_; j++)
+            row[j] = Long.toString(random.nextLong(), Character.MAX_RADIX);
+         rows.add(row);
+      }
+      return rows;
+   }
+
+   public static List<Object[]> createRhsRows(List<Object[]> lhsRows_, double diffRate_) {
+      Random random = new Random(SEED + 1);
+      List<Object[]> rows = new ArrayList<Object[]>(lhsRows_.size());
+      for (Object[] lhsRow : lhsRows_) {
+         if (random.nextDouble() >= diffRate_) {
+            rows.add(lhsRow.clone());
+            continue;
+         }
+         if (random.nextBoolean())
+            continue;
+         Object[] row = lhsRow.clone();
+         int column = 1 + random.nextInt(row.length - 1);
+         row[column] = row[column] + "x";
+         rows.add(row);
+      }
+      return rows;
+   }
+
+   /**
+    * compares every value column with DKEqualsDiffor
+    */
+   public static DKStandardTableComparison createComparison(DKTableModel model_) {
+      int columnCount = model_.getColumns().length;
+      int[] valueIdxs = new int[columnCount - 1];
+      for (int i = 0; i < valueIdxs.length; i++)
+         valueIdxs[i] = i + 1;
+      DKColumnComparison[] map = DKColumnComparison.createColumnPlans(model_, model_,
+         valueIdxs, DKEqualsDiffor.getInstance());
+      // diff indexes are into map, not into the columns
+      int[] diffIdxs = new int[map.length];
+      for (int i = 0; i < diffIdxs.length; i++)
+         diffIdxs[i] = i;
+      return new DKStandardTableComparison(model_, model_, DKDiff.Kind.BOTH, map,
+         diffIdxs, new int[][] { { 0 }, { 0 } }, Long.MAX_VALUE);
+   }
+
+   /**
+    * writes a header line of the model_ column names, then rows_, as a ','
+    * delimited temp file that is deleted on exit
+    */
+   public static File writeCsv(List<Object[]> rows_, DKTableModel model_, String prefix_)
+      throws IOException {
+      File file = File.createTempFile(prefix_, ".csv");
+      file.deleteOnExit();
+      BufferedWriter writer = new BufferedWriter(new FileWriter(file));
+      try {
+         writer.write(StringUtils.join(model_.getColumnNames(), ','));
+         writer.newLine();
+         for (Object[] row : rows_) {
+            writer.write(StringUtils.join(row, ','));
+            writer.newLine();
+         }
+      }
+      finally {
+         writer.close();
+      }
+      return file;
+   }
+
+   /**
+    * keeps only the counts that DKAbstractSink keeps, so that the sink costs as
+    * little as a sink can
+    */
+   public static class CountingSink extends DKAbstractSink {
+
+      public CountingSink() {
+         super(null);
+      }
+
+      // @Override
+      public Kind getKind() {
+         return Kind.MEMORY;
+      }
+   }
+}
@@ -0,0 +1,85 @@
+/**
+ * Copyright 2010-2011 Joseph Panico
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.diffkit.bench;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.diffkit.diff.engine.DKDiffEngine;
+import org.diffkit.diff.engine.DKStandardTableComparison;
+import org.diffkit.diff.engine.DKTableModel;
+import org.diffkit.diff.sns.DKListSource;
+
+/**
+ * The DKDiffEngine merge loop over in memory sources, so that what is measured
+ * is key comparison, column diffing and diff delivery, not parsing or IO.
+ * 
+ * @author jpanico
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DiffEngineBenchmark {
+
+   @Param({ "100000" })
+   public int rowCount;
+
+   @Param({ "8" })
+   public int columnCount;
+
+   @Param({ "0", "0.01", "0.1" })
+   public double diffRate;
+
+   private DKTableModel _model;
+   private DKStandardTableComparison _comparison;
+   private List<Object[]> _lhsRows;
+   private List<Object[]> _rhsRows;
+
+   @Setup
+   public void setup() {
+      _model = BenchmarkData.createModel(columnCount);
+      _comparison = BenchmarkData.createComparison(_model);
+      _lhsRows = BenchmarkData.createLhsRows(rowCount, columnCount);
+      _rhsRows = BenchmarkData.createRhsRows(_lhsRows, diffRate);
+   }
+
+   /**
+    * @return diff count, so that the work can't be dead code eliminated
+    */
+   @Benchmark
+   public long diff() throws IOException {
+      BenchmarkData.CountingSink sink = new BenchmarkData.CountingSink();
+      new DKDiffEngine().diff(new DKListSource(_model, _lhsRows),
+         new DKListSource(_model, _rhsRows), sink, _comparison, null);
+      return sink.getDiffCount();
+   }
+}
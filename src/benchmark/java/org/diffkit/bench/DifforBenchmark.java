@@ -0,0 +1,143 @@
+/**
+ * Copyright 2010-2011 Joseph Panico
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.diffkit.bench;
+
+import java.math.BigDecimal;
+import java.util.Date;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.diffkit.common.DKCalendarSpan;
+import org.diffkit.diff.diffor.DKChainDiffor;
+import org.diffkit.diff.diffor.DKConvertingDiffor;
+import org.diffkit.diff.diffor.DKDateDiffor;
+import org.diffkit.diff.diffor.DKEqualsDiffor;
+import org.diffkit.diff.diffor.DKIdentityDiffor;
+import org.diffkit.diff.diffor.DKNumberDiffor;
+import org.diffkit.diff.diffor.DKTextDiffor;
+import org.diffkit.diff.engine.DKDiffor;
+
+/**
+ * isDiff() of each DKDiffor implementation, over pairs of values of the kind
+ * that diffor is meant for. One pair in ten is a diff, which for the lenient
+ * diffors (number, date, text) means a pair that is outside their tolerance;
+ * most of the other pairs are within it but not equal, so the lenient path is
+ * the one measured.
+ * 
+ * @author jpanico
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DifforBenchmark {
+
+   private static final int PAIR_COUNT = 1024;
+
+   @Param({ "equals", "identity", "number", "date", "text", "converting", "chain" })
+   public String diffor;
+
+   private DKDiffor _diffor;
+   private Object[] _lhs;
+   private Object[] _rhs;
+
+   @Setup
+   public void setup() {
+      Random random = new Random(BenchmarkData.SEED);
+      _lhs = new Object[PAIR_COUNT];
+      _rhs = new Object[PAIR_COUNT];
+      for (int i = 0; i < PAIR_COUNT; i++) {
+         boolean isDiff = (i % 10) == 0;
+         long value = random.nextInt(1000000);
+         if (diffor.equals("equals")) {
+            _lhs[i] = "value" + value;
+            _rhs[i] = isDiff ? "value" + (value + 1) : "value" + value;
+         }
+         else if (diffor.equals("identity")) {
+            _lhs[i] = "value" + value;
+            _rhs[i] = isDiff ? "value" + value : _lhs[i];
+         }
+         else if (diffor.equals("number")) {
+            _lhs[i] = BigDecimal.valueOf(value, 2);
+            _rhs[i] = BigDecimal.valueOf(isDiff ? value + 100 : value + 1, 2);
+         }
+         else if (diffor.equals("date")) {
+            _lhs[i] = new Date(value * 1000L);
+            _rhs[i] = new Date(value * 1000L + (isDiff ? 60000L : 500L));
+         }
+         else if (diffor.equals("text") || diffor.equals("chain")) {
+            _lhs[i] = "  The quick brown fox " + value + " jumps over the lazy dog";
+            _rhs[i] = isDiff ? "The quick brown fox " + (value + 1) + " jumps over the lazy dog"
+               : "The  Quick\tbrown fox " + value + " jumps over the lazy dog\n";
+         }
+         else if (diffor.equals("converting")) {
+            _lhs[i] = BigDecimal.valueOf(value, 2).toPlainString();
+            _rhs[i] = BigDecimal.valueOf(isDiff ? value + 1 : value, 2);
+         }
+         else
+            throw new IllegalArgumentException(String.format("invalid diffor->%s", diffor));
+      }
+      _diffor = createDiffor(diffor);
+   }
+
+   private static DKDiffor createDiffor(String name_) {
+      if (name_.equals("equals"))
+         return DKEqualsDiffor.getInstance();
+      if (name_.equals("identity"))
+         return DKIdentityDiffor.getInstance();
+      if (name_.equals("number"))
+         return new DKNumberDiffor(0.5, false);
+      if (name_.equals("date"))
+         return new DKDateDiffor(new DKCalendarSpan(1, DKCalendarSpan.Unit.SECOND));
+      if (name_.equals("text"))
+         return new DKTextDiffor(null, true, null);
+      if (name_.equals("converting"))
+         return new DKConvertingDiffor(BigDecimal.class, null, new DKNumberDiffor());
+      if (name_.equals("chain"))
+         return new DKChainDiffor(DKEqualsDiffor.getInstance(), new DKTextDiffor(null,
+            true, null));
+      throw new IllegalArgumentException(String.format("invalid name_->%s", name_));
+   }
+
+   /**
+    * @return diff count, so that the work can't be dead code eliminated
+    */
+   @Benchmark
+   @OperationsPerInvocation(PAIR_COUNT)
+   public int isDiff() {
+      int count = 0;
+      for (int i = 0; i < PAIR_COUNT; i++) {
+         if (_diffor.isDiff(_lhs[i], _rhs[i], null))
+            count++;
+      }
+      return count;
+   }
+}
@@ -0,0 +1,106 @@
+/**
+ * Copyright 2010-2011 Joseph Panico
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.diffkit.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import org.diffkit.diff.engine.DKTableModel;
+import org.diffkit.diff.sns.DKFileSource;
+
+/**
+ * Reads every row of a generated CSV through DKFileSource, in each of its
+ * parsing modes: line by line, memory mapped, and memory mapped with chunks
+ * parsed on a thread per processor.
+ * 
+ * @author jpanico
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FileSourceBenchmark {
+
+   @Param({ "100000" })
+   public int rowCount;
+
+   @Param({ "8" })
+   public int columnCount;
+
+   @Param({ "line", "mapped", "parallel" })
+   public String mode;
+
+   private DKTableModel _model;
+   private File _file;
+   private Boolean _memoryMapped;
+   private Integer _parseThreadCount;
+
+   @Setup
+   public void setup() throws IOException {
+      _model = BenchmarkData.createModel(columnCount);
+      _file = BenchmarkData.writeCsv(BenchmarkData.createLhsRows(rowCount, columnCount),
+         _model, "FileSourceBenchmark");
+      if (mode.equals("line")) {
+         _memoryMapped = Boolean.FALSE;
+         _parseThreadCount = 1;
+      }
+      else if (mode.equals("mapped")) {
+         _memoryMapped = Boolean.TRUE;
+         _parseThreadCount = 1;
+      }
+      else if (mode.equals("parallel")) {
+         _memoryMapped = Boolean.TRUE;
+         _parseThreadCount = Runtime.getRuntime().availableProcessors();
+      }
+      else
+         throw new IllegalArgumentException(String.format("invalid mode->%s", mode));
+   }
+
+   @Benchmark
+   public long readAll(Blackhole blackhole_) throws IOException {
+      DKFileSource source = new DKFileSource(_file.getAbsolutePath(), _model, null, null,
+         null, null, ",", true, true, null, null, _memoryMapped, _parseThreadCount);
+      source.open(null);
+      long count = 0;
+      try {
+         Object[] row = null;
+         while ((row = source.getNextRow()) != null) {
+            blackhole_.consume(row);
+            count++;
+         }
+      }
+      finally {
+         source.close(null);
+      }
+      return count;
+   }
+}
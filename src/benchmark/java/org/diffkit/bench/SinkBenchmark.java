@@ -0,0 +1,175 @@
+/**
+ * Copyright 2010-2011 Joseph Panico
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.diffkit.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.output.NullWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.diffkit.db.DKDBColumn;
+import org.diffkit.db.DKDBConnectionInfo;
+import org.diffkit.db.DKDBFlavor;
+import org.diffkit.db.DKDBPrimaryKey;
+import org.diffkit.db.DKDBTable;
+import org.diffkit.db.DKDatabase;
+import org.diffkit.diff.engine.DKDiffEngine;
+import org.diffkit.diff.engine.DKSink;
+import org.diffkit.diff.engine.DKStandardTableComparison;
+import org.diffkit.diff.engine.DKTableModel;
+import org.diffkit.diff.sns.DKDBSink;
+import org.diffkit.diff.sns.DKDefaultFormatter;
+import org.diffkit.diff.sns.DKListSource;
+import org.diffkit.diff.sns.DKSqlPatchSink;
+import org.diffkit.diff.sns.DKWriterSink;
+import org.diffkit.util.DKSqlUtil;
+
+/**
+ * The write path of each sink: a diff of in memory sources that differ in
+ * diffRate of their rows, recorded to a DKWriterSink (formatting to a
+ * NullWriter), a DKDBSink (in memory H2) or a DKSqlPatchSink (temp file). The
+ * engine's own share can be read off DiffEngineBenchmark at the same diffRate.
+ * 
+ * @author jpanico
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SinkBenchmark {
+
+   private static final String RHS_TABLE_NAME = "BENCH_SINK_RHS";
+
+   @Param({ "100000" })
+   public int rowCount;
+
+   @Param({ "8" })
+   public int columnCount;
+
+   @Param({ "0.1" })
+   public double diffRate;
+
+   @Param({ "writer", "db", "sqlPatch" })
+   public String sink;
+
+   private DKTableModel _model;
+   private DKStandardTableComparison _comparison;
+   private List<Object[]> _lhsRows;
+   private List<Object[]> _rhsRows;
+   private DKDBConnectionInfo _connectionInfo;
+   private DKDatabase _database;
+   private Connection _connection;
+   private DKDBSink _dbSink;
+
+   @Setup
+   public void setup() throws SQLException {
+      _model = BenchmarkData.createModel(columnCount);
+      _comparison = BenchmarkData.createComparison(_model);
+      _lhsRows = BenchmarkData.createLhsRows(rowCount, columnCount);
+      _rhsRows = BenchmarkData.createRhsRows(_lhsRows, diffRate);
+      _connectionInfo = new DKDBConnectionInfo("bench", DKDBFlavor.H2, "mem:bench.sink",
+         null, null, "bench", "bench");
+      _database = new DKDatabase(_connectionInfo);
+      // held open for the life of the benchmark, which keeps the mem: database
+      // alive
+      _connection = _database.getConnection();
+      if (sink.equals("sqlPatch"))
+         this.createRhsTable();
+   }
+
+   /**
+    * DKSqlPatchSink needs the rhs table, to generate its DML
+    */
+   private void createRhsTable() throws SQLException {
+      String[] columnNames = _model.getColumnNames();
+      DKDBColumn[] columns = new DKDBColumn[columnNames.length];
+      for (int i = 0; i < columns.length; i++)
+         columns[i] = new DKDBColumn(columnNames[i], i + 1, "VARCHAR", 32, (i > 0));
+      DKDBPrimaryKey primaryKey = new DKDBPrimaryKey("PK_" + RHS_TABLE_NAME,
+         new String[] { columnNames[0] });
+      DKDBTable table = new DKDBTable(null, null, RHS_TABLE_NAME, columns, primaryKey);
+      if (_database.tableExists(table))
+         _database.dropTable(table);
+      _database.createTable(table);
+   }
+
+   /**
+    * keeps the diff tables from growing across iterations
+    */
+   @TearDown(Level.Iteration)
+   public void dropDiffTables() throws SQLException {
+      if (_dbSink == null)
+         return;
+      _database.dropTable(_dbSink.getDiffTable());
+      _database.dropTable(_dbSink.getDiffContextTable());
+      _dbSink = null;
+   }
+
+   @TearDown
+   public void tearDown() {
+      DKSqlUtil.close(_connection);
+   }
+
+   /**
+    * @return diff count, so that the work can't be dead code eliminated
+    */
+   @Benchmark
+   public long record() throws IOException, SQLException {
+      File patchFile = null;
+      DKSink diffSink = null;
+      if (sink.equals("writer"))
+         diffSink = new DKWriterSink(new NullWriter(), DKDefaultFormatter.getInstance());
+      else if (sink.equals("db"))
+         diffSink = _dbSink = new DKDBSink(_database);
+      else if (sink.equals("sqlPatch")) {
+         patchFile = File.createTempFile("SinkBenchmark", ".sql");
+         // DKSqlPatchSink refuses to overwrite
+         patchFile.delete();
+         diffSink = new DKSqlPatchSink(_connectionInfo, RHS_TABLE_NAME,
+            patchFile.getAbsolutePath());
+      }
+      else
+         throw new IllegalArgumentException(String.format("invalid sink->%s", sink));
+      try {
+         new DKDiffEngine().diff(new DKListSource(_model, _lhsRows), new DKListSource(
+            _model, _rhsRows), diffSink, _comparison, null);
+         return diffSink.getDiffCount();
+      }
+      finally {
+         if (patchFile != null)
+            patchFile.delete();
+      }
+   }
+}
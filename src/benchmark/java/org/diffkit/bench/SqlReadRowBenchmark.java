@@ -0,0 +1,161 @@
+/**
+ * Copyright 2010-2011 Joseph Panico
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.diffkit.bench;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import org.diffkit.db.DKDBConnectionInfo;
+import org.diffkit.db.DKDBFlavor;
+import org.diffkit.db.DKDatabase;
+import org.diffkit.util.DKSqlRowReader;
+import org.diffkit.util.DKSqlUtil;
+import org.diffkit.util.DKSqlUtil.ReadType;
+
+/**
+ * Selects every row of an in memory H2 table and reads each one, with all
+ * columns read as OBJECT or all as STRING. readAll() is the baseline, that
+ * goes through DKSqlUtil.readRow() for each row; readAllWithRowReader() goes
+ * through a DKSqlRowReader, as DKDBSource does.
+ * 
+ * @author jpanico
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SqlReadRowBenchmark {
+
+   private static final String TABLE_NAME = "BENCH_READ_ROW";
+   private static final String[] COLUMN_NAMES = { "ID", "NAME", "AMOUNT", "UPDATED" };
+
+   @Param({ "100000" })
+   public int rowCount;
+
+   @Param({ "OBJECT", "STRING" })
+   public ReadType readType;
+
+   private Connection _connection;
+   private ReadType[] _readTypes;
+
+   @Setup
+   public void setup() throws SQLException {
+      DKDBConnectionInfo connectionInfo = new DKDBConnectionInfo("bench", DKDBFlavor.H2,
+         "mem:bench.readrow", null, null, "bench", "bench");
+      // held open for the life of the benchmark, which keeps the mem: database
+      // alive
+      _connection = new DKDatabase(connectionInfo).getConnection();
+      Statement statement = _connection.createStatement();
+      try {
+         statement.executeUpdate(String.format("DROP TABLE IF EXISTS %s", TABLE_NAME));
+         statement.executeUpdate(String.format(
+            "CREATE TABLE %s (ID INTEGER PRIMARY KEY, NAME VARCHAR(32), "
+               + "AMOUNT DECIMAL(12,2), UPDATED TIMESTAMP)", TABLE_NAME));
+      }
+      finally {
+         DKSqlUtil.close(statement);
+      }
+      PreparedStatement insert = _connection.prepareStatement(String.format(
+         "INSERT INTO %s VALUES (?, ?, ?, ?)", TABLE_NAME));
+      try {
+         long now = System.currentTimeMillis();
+         for (int i = 0; i < rowCount; i++) {
+            insert.setInt(1, i);
+            insert.setString(2, "name" + i);
+            insert.setBigDecimal(3, BigDecimal.valueOf(i, 2));
+            insert.setTimestamp(4, new Timestamp(now - i * 1000L));
+            insert.addBatch();
+            if ((i % 1000) == 999)
+               insert.executeBatch();
+         }
+         insert.executeBatch();
+      }
+      finally {
+         DKSqlUtil.close(insert);
+      }
+      _readTypes = new ReadType[COLUMN_NAMES.length];
+      Arrays.fill(_readTypes, readType);
+   }
+
+   @TearDown
+   public void tearDown() {
+      DKSqlUtil.close(_connection);
+   }
+
+   @Benchmark
+   public long readAll(Blackhole blackhole_) throws SQLException {
+      Statement statement = _connection.createStatement();
+      ResultSet resultSet = null;
+      long count = 0;
+      try {
+         resultSet = statement.executeQuery(String.format("SELECT * FROM %s ORDER BY ID",
+            TABLE_NAME));
+         while (resultSet.next()) {
+            blackhole_.consume(DKSqlUtil.readRow(resultSet, COLUMN_NAMES, _readTypes));
+            count++;
+         }
+      }
+      finally {
+         DKSqlUtil.close(resultSet);
+         DKSqlUtil.close(statement);
+      }
+      return count;
+   }
+
+   @Benchmark
+   public long readAllWithRowReader(Blackhole blackhole_) throws SQLException {
+      Statement statement = _connection.createStatement();
+      ResultSet resultSet = null;
+      long count = 0;
+      try {
+         resultSet = statement.executeQuery(String.format("SELECT * FROM %s ORDER BY ID",
+            TABLE_NAME));
+         DKSqlRowReader rowReader = new DKSqlRowReader(resultSet, COLUMN_NAMES, _readTypes);
+         while (resultSet.next()) {
+            blackhole_.consume(rowReader.readRow());
+            count++;
+         }
+      }
+      finally {
+         DKSqlUtil.close(resultSet);
+         DKSqlUtil.close(statement);
+      }
+      return count;
+   }
+}
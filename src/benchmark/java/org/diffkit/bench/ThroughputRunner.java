@@ -0,0 +1,237 @@
+/**
+ * Copyright 2010-2011 Joseph Panico
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.diffkit.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.OptionBuilder;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.apache.commons.cli.PosixParser;
+import org.apache.commons.io.FileUtils;
+
+import org.diffkit.db.DKDBConnectionInfo;
+import org.diffkit.db.DKDBConnectionPool;
+import org.diffkit.diff.conf.DKBatchRunner;
+import org.diffkit.util.DKDataGenerator;
+
+/**
+ * End to end throughput of a DiffKit plan over generated data. Generates a
+ * lhs/rhs pair with DKDataGenerator (same options), writes a DKMagicPlan that
+ * diffs them, then runs it -runs times, through the same path as
+ * "diffkit-app -planfiles". After each run it prints rows read per second
+ * (lhs + rhs), the peak heap used, GC time, and whether the diff count matches
+ * what was generated.
+ * <p>
+ * e.g. java -Xmx2g -cp ... org.diffkit.bench.ThroughputRunner -rows 10000000
+ * -diffRate 0.001 -target H2 -dir /data/bench
+ * 
+ * @author jpanico
+ */
+public class ThroughputRunner {
+
+   private static final String RUNS_OPTION_KEY = "runs";
+   private static final long MEGABYTE = 1024 * 1024;
+
+   private ThroughputRunner() {
+   }
+
+   public static void main(String[] args_) throws Exception {
+      Options options = DKDataGenerator.createOptions();
+      OptionBuilder.withArgName("count");
+      OptionBuilder.hasArg();
+      OptionBuilder.withDescription("number of times to run the plan. default is 3");
+      options.addOption(OptionBuilder.create(RUNS_OPTION_KEY));
+      CommandLine line = null;
+      try {
+         line = new PosixParser().parse(options, args_);
+      }
+      catch (ParseException e_) {
+         System.err.println(e_.getMessage());
+         new HelpFormatter().printHelp("java -cp ... " + ThroughputRunner.class.getName(),
+            options);
+         System.exit(1);
+      }
+      DKDataGenerator generator = DKDataGenerator.create(line);
+      DKDataGenerator.Target target = DKDataGenerator.getTarget(line);
+      File dir = DKDataGenerator.getDir(line);
+      String name = DKDataGenerator.getName(line);
+      int runs = Integer.parseInt(line.getOptionValue(RUNS_OPTION_KEY, "3"));
+
+      System.out.println(String.format("generating %s into %s", generator, target));
+      long start = System.currentTimeMillis();
+      DKDataGenerator.Counts counts = generator.generate(target, dir, name);
+      System.out.println(String.format("generated %s in %sms", counts,
+         System.currentTimeMillis() - start));
+
+      File sinkFile = new File(dir, name + ".diff");
+      String planPath = writePlan(generator, target, dir, name, sinkFile);
+      long rowCount = counts.getLhsRowCount() + counts.getRhsRowCount();
+      boolean allMatched = true;
+      try {
+         for (int i = 1; i <= runs; i++) {
+            // DKFileSink refuses to overwrite
+            sinkFile.delete();
+            Measurement measurement = new Measurement();
+            DKBatchRunner.Result result = new DKBatchRunner(
+               Collections.singletonList(planPath), 1, 1).run().get(0);
+            measurement.end();
+            if (result.isFailure()) {
+               System.err.println(String.format("run %s failed", i));
+               result.getError().printStackTrace();
+               System.exit(1);
+            }
+            boolean matched = (result.getDiffCount() == counts.getExpectedDiffCount());
+            allMatched &= matched;
+            double seconds = Math.max(result.getElapsedMillis(), 1) / 1000d;
+            System.out.println(String.format(
+               "run=%s rows=%s elapsedMs=%s rowsPerSec=%.0f peakHeapMB=%s gcMs=%s gcCount=%s diffs=%s expectedDiffs=%s%s",
+               i, rowCount, result.getElapsedMillis(), rowCount / seconds,
+               measurement._peakHeapBytes / MEGABYTE, measurement._gcMillis,
+               measurement._gcCount, result.getDiffCount(),
+               counts.getExpectedDiffCount(), matched ? "" : " MISMATCH"));
+         }
+      }
+      finally {
+         DKDBConnectionPool.closeAll();
+      }
+      System.exit(allMatched ? 0 : 1);
+   }
+
+   /**
+    * @return URL of the plan file
+    */
+   private static String writePlan(DKDataGenerator generator_,
+                                   DKDataGenerator.Target target_, File dir_,
+                                   String name_, File sinkFile_) throws IOException {
+      StringBuilder plan = new StringBuilder();
+      plan.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+      plan.append("<beans xmlns=\"http://www.springframework.org/schema/beans\"\n");
+      plan.append("   xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\"\n");
+      plan.append("   xsi:schemaLocation=\"http://www.springframework.org/schema/beans\n");
+      plan.append("http://www.springframework.org/schema/beans/spring-beans-3.0.xsd\">\n");
+      plan.append("   <bean id=\"plan\" class=\"org.diffkit.diff.conf.DKMagicPlan\">\n");
+      DKDBConnectionInfo connectionInfo = DKDataGenerator.getConnectionInfo(target_,
+         dir_, name_);
+      if (connectionInfo == null) {
+         appendProperty(plan, "lhsFilePath",
+            DKDataGenerator.getLhsFile(dir_, name_).getAbsolutePath());
+         appendProperty(plan, "rhsFilePath",
+            DKDataGenerator.getRhsFile(dir_, name_).getAbsolutePath());
+         plan.append("      <property name=\"keyColumnNames\">\n");
+         plan.append(String.format("         <list><value>%s</value></list>\n",
+            DKDataGenerator.KEY_COLUMN_NAME));
+         plan.append("      </property>\n");
+         boolean isSorted = (generator_.getKeyDistribution() != DKDataGenerator.KeyDistribution.SHUFFLED);
+         appendProperty(plan, "isSorted", Boolean.toString(isSorted));
+      }
+      else {
+         appendProperty(plan, "lhsDBTableName", DKDataGenerator.getLhsTableName(name_));
+         appendProperty(plan, "rhsDBTableName", DKDataGenerator.getRhsTableName(name_));
+         plan.append("      <property name=\"dbConnectionInfo\" ref=\"connectionInfo\" />\n");
+      }
+      appendProperty(plan, "sinkFilePath", sinkFile_.getAbsolutePath());
+      plan.append("   </bean>\n");
+      if (connectionInfo != null) {
+         plan.append("   <bean id=\"connectionInfo\" class=\"org.diffkit.db.DKDBConnectionInfo\">\n");
+         appendConstructorArg(plan, 0, connectionInfo.getName());
+         appendConstructorArg(plan, 1, connectionInfo.getFlavor().toString());
+         appendConstructorArg(plan, 2, connectionInfo.getDatabase());
+         plan.append("      <constructor-arg index=\"3\"><null /></constructor-arg>\n");
+         plan.append("      <constructor-arg index=\"4\"><null /></constructor-arg>\n");
+         appendConstructorArg(plan, 5, connectionInfo.getUsername());
+         appendConstructorArg(plan, 6, connectionInfo.getPassword());
+         plan.append("   </bean>\n");
+      }
+      plan.append("</beans>\n");
+      File planFile = new File(dir_, name_ + ".plan.xml");
+      FileUtils.writeStringToFile(planFile, plan.toString());
+      // a bare absolute path would be resolved against the working dir
+      return "file:" + planFile.getAbsolutePath();
+   }
+
+   private static void appendProperty(StringBuilder plan_, String name_, String value_) {
+      plan_.append(String.format("      <property name=\"%s\" value=\"%s\" />\n", name_,
+         value_));
+   }
+
+   private static void appendConstructorArg(StringBuilder plan_, int index_,
+                                            String value_) {
+      plan_.append(String.format("      <constructor-arg index=\"%s\" value=\"%s\" />\n",
+         index_, value_));
+   }
+
+   /**
+    * heap and GC usage from construction to end()
+    */
+   private static class Measurement {
+      private final long _startGcMillis;
+      private final long _startGcCount;
+      private long _peakHeapBytes;
+      private long _gcMillis;
+      private long _gcCount;
+
+      private Measurement() {
+         // so that garbage from earlier runs isn't charged to this one
+         System.gc();
+         for (MemoryPoolMXBean pool : getHeapPools())
+            pool.resetPeakUsage();
+         _startGcMillis = getGcMillis();
+         _startGcCount = getGcCount();
+      }
+
+      private void end() {
+         _peakHeapBytes = 0;
+         for (MemoryPoolMXBean pool : getHeapPools())
+            _peakHeapBytes += pool.getPeakUsage().getUsed();
+         _gcMillis = getGcMillis() - _startGcMillis;
+         _gcCount = getGcCount() - _startGcCount;
+      }
+
+      private static List<MemoryPoolMXBean> getHeapPools() {
+         List<MemoryPoolMXBean> pools = new ArrayList<MemoryPoolMXBean>();
+         for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP)
+               pools.add(pool);
+         }
+         return pools;
+      }
+
+      private static long getGcMillis() {
+         long millis = 0;
+         for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans())
+            millis += Math.max(collector.getCollectionTime(), 0);
+         return millis;
+      }
+
+      private static long getGcCount() {
+         long count = 0;
+         for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans())
+            count += Math.max(collector.getCollectionCount(), 0);
+         return count;
+      }
+   }
+}
@@ -15,6 +15,7 @@
  */
 package org.diffkit.common;
 
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -34,7 +35,8 @@ import org.apache.commons.lang.mutable.MutableInt;
  * 
  * @author jpanico
  */
-public class DKCountingBag {
+public class DKCountingBag implements Serializable {
+   private static final long serialVersionUID = 1L;
    @SuppressWarnings({ "unchecked", "rawtypes" })
    private static final Comparator STORAGE_ENTRY_COMPARATOR = new ComparatorChain(
       Arrays.asList(Collections.reverseOrder(new MapEntryValueComparator()),
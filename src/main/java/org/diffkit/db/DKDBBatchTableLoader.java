@@ -0,0 +1,355 @@
+/**
+ * Copyright 2010-2011 Joseph Panico
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.diffkit.db;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang.ArrayUtils;
+import org.apache.commons.lang.BooleanUtils;
+import org.apache.commons.lang.ClassUtils;
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.diffkit.common.DKValidate;
+import org.diffkit.util.DKCsvTokenizer;
+import org.diffkit.util.DKSqlUtil;
+
+/**
+ * Loads a CSV file, whose first record is a header of column names, through
+ * one parameterized INSERT per connection, using JDBC batching. The file is
+ * tokenized on the calling thread, and batches of records are handed off to
+ * threadCount workers, each of which binds typed values and commits on its
+ * own connection. Table columns that are not named in the header are not
+ * loaded. Empty fields are loaded as NULL, except into character columns.
+ * <p>
+ * The load is not atomic: batches that were committed before a failure
+ * remain in the table.
+ *
+ * @author jpanico
+ */
+public class DKDBBatchTableLoader implements DKDBTableLoader {
+   public static final int DEFAULT_BATCH_SIZE = 1000;
+   public static final int DEFAULT_THREAD_COUNT = Math.min(4,
+      Runtime.getRuntime().availableProcessors());
+   private static final long OFFER_TIMEOUT_MILLIS = 100;
+   /**
+    * end of input marker; compared by identity
+    */
+   private static final List<String[]> END = Collections.unmodifiableList(new ArrayList<String[]>(
+      0));
+
+   private final DKDatabase _database;
+   private final int _threadCount;
+   private final int _batchSize;
+   private final Logger _log = LoggerFactory.getLogger(this.getClass());
+
+   public DKDBBatchTableLoader(DKDatabase database_) {
+      this(database_, DEFAULT_THREAD_COUNT, DEFAULT_BATCH_SIZE);
+   }
+
+   /**
+    * @param threadCount_
+    *           number of concurrent connections that rows are inserted over
+    * @param batchSize_
+    *           number of rows in each JDBC batch, and in each commit
+    */
+   public DKDBBatchTableLoader(DKDatabase database_, int threadCount_, int batchSize_) {
+      _database = database_;
+      _threadCount = threadCount_;
+      _batchSize = batchSize_;
+      DKValidate.notNull(_database);
+      if ((_threadCount < 1) || (_batchSize < 1))
+         throw new IllegalArgumentException(String.format(
+            "invalid threadCount_->%s or batchSize_->%s", threadCount_, batchSize_));
+   }
+
+   /**
+    * @return true if the load succeeded
+    * @throws IOException
+    */
+   public boolean load(DKDBTable table_, File csvFile_) throws IOException, SQLException {
+      _log.debug("table_->{}", table_);
+      _log.debug("csvFile_->{}", csvFile_);
+      DKValidate.notNull(table_, csvFile_);
+      if (!csvFile_.canRead())
+         throw new IOException(String.format("can't read csvFile_->%s", csvFile_));
+      if (!_database.tableExists(table_))
+         throw new IOException(String.format("table_->%s does not exist in database->%s",
+            table_, _database));
+
+      DKCsvTokenizer tokenizer = new DKCsvTokenizer(new FileReader(csvFile_));
+      try {
+         String[] header = tokenizer.next();
+         if (header == null)
+            throw new IOException(String.format("no header in csvFile_->%s", csvFile_));
+         for (int i = 0; i < header.length; i++)
+            header[i] = StringUtils.trim(header[i]);
+         String[] tableColumnNames = table_.getColumnNames();
+         DKDBTypeInfo[] tableTypeInfos = _database.getColumnConcreteTypeInfos(table_);
+         List<String> columnNames = new ArrayList<String>(tableColumnNames.length);
+         List<DKDBTypeInfo> typeInfos = new ArrayList<DKDBTypeInfo>(
+            tableColumnNames.length);
+         List<Integer> fieldIdxs = new ArrayList<Integer>(tableColumnNames.length);
+         for (int i = 0; i < tableColumnNames.length; i++) {
+            int fieldIdx = ArrayUtils.indexOf(header, tableColumnNames[i]);
+            if (fieldIdx < 0)
+               continue;
+            columnNames.add(tableColumnNames[i]);
+            typeInfos.add(tableTypeInfos[i]);
+            fieldIdxs.add(fieldIdx);
+         }
+         if (columnNames.isEmpty())
+            throw new IOException(String.format(
+               "header->%s names none of the columns->%s of table_->%s",
+               Arrays.toString(header), Arrays.toString(tableColumnNames), table_));
+         String[] loadColumnNames = columnNames.toArray(new String[columnNames.size()]);
+         _log.debug("loadColumnNames->{}", Arrays.toString(loadColumnNames));
+         String insertDML = _database.getSqlGenerator().generateParameterizedInsertDML(
+            loadColumnNames, table_.getSchema(), table_.getTableName());
+         long rowCount = this.load(tokenizer, header.length, insertDML, loadColumnNames,
+            typeInfos.toArray(new DKDBTypeInfo[typeInfos.size()]),
+            ArrayUtils.toPrimitive(fieldIdxs.toArray(new Integer[fieldIdxs.size()])));
+         _log.info("loaded {} rows into table->{}", rowCount, table_);
+         return true;
+      }
+      finally {
+         tokenizer.close();
+      }
+   }
+
+   private long load(DKCsvTokenizer tokenizer_, int fieldCount_, final String insertDML_,
+                     final String[] columnNames_, final DKDBTypeInfo[] typeInfos_,
+                     final int[] fieldIdxs_) throws IOException, SQLException {
+      final BlockingQueue<List<String[]>> queue = new ArrayBlockingQueue<List<String[]>>(
+         _threadCount * 2);
+      ExecutorService executor = Executors.newFixedThreadPool(_threadCount);
+      List<Future<Long>> workers = new ArrayList<Future<Long>>(_threadCount);
+      try {
+         for (int i = 0; i < _threadCount; i++) {
+            workers.add(executor.submit(new Callable<Long>() {
+               public Long call() throws Exception {
+                  return Long.valueOf(insertBatches(queue, insertDML_, columnNames_,
+                     typeInfos_, fieldIdxs_));
+               }
+            }));
+         }
+         if (!this.enqueueRecords(tokenizer_, fieldCount_, queue, workers)) {
+            // a worker has failed; surface its exception
+            for (Future<Long> worker : workers) {
+               if (worker.isDone())
+                  this.get(worker);
+            }
+            throw new RuntimeException("load worker terminated unexpectedly");
+         }
+         long rowCount = 0;
+         for (Future<Long> worker : workers)
+            rowCount += this.get(worker);
+         return rowCount;
+      }
+      finally {
+         executor.shutdownNow();
+      }
+   }
+
+   /**
+    * @return false if a worker terminated before all of the records, and the
+    *         END markers, were queued
+    */
+   private boolean enqueueRecords(DKCsvTokenizer tokenizer_, int fieldCount_,
+                                  BlockingQueue<List<String[]>> queue_,
+                                  List<Future<Long>> workers_) throws IOException {
+      List<String[]> batch = new ArrayList<String[]>(_batchSize);
+      String[] record = null;
+      while ((record = tokenizer_.next()) != null) {
+         if (record.length != fieldCount_)
+            throw new IOException(String.format(
+               "number of values->%s in record->%s does not match number of header columns->%s",
+               record.length, tokenizer_.getRecordNumber(), fieldCount_));
+         batch.add(record);
+         if (batch.size() == _batchSize) {
+            if (!this.enqueue(batch, queue_, workers_))
+               return false;
+            batch = new ArrayList<String[]>(_batchSize);
+         }
+      }
+      if (!batch.isEmpty() && !this.enqueue(batch, queue_, workers_))
+         return false;
+      for (int i = 0; i < _threadCount; i++) {
+         if (!this.enqueue(END, queue_, workers_))
+            return false;
+      }
+      return true;
+   }
+
+   /**
+    * @return false if a worker has terminated, so that batch_ might never be
+    *         taken
+    */
+   private boolean enqueue(List<String[]> batch_, BlockingQueue<List<String[]>> queue_,
+                           List<Future<Long>> workers_) {
+      try {
+         while (!queue_.offer(batch_, OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+            for (Future<Long> worker : workers_) {
+               if (worker.isDone())
+                  return false;
+            }
+         }
+         return true;
+      }
+      catch (InterruptedException e_) {
+         Thread.currentThread().interrupt();
+         throw new RuntimeException(e_);
+      }
+   }
+
+   private long get(Future<Long> worker_) throws SQLException {
+      try {
+         return worker_.get().longValue();
+      }
+      catch (InterruptedException e_) {
+         Thread.currentThread().interrupt();
+         throw new RuntimeException(e_);
+      }
+      catch (ExecutionException e_) {
+         Throwable cause = e_.getCause();
+         if (cause instanceof SQLException)
+            throw (SQLException) cause;
+         if (cause instanceof RuntimeException)
+            throw (RuntimeException) cause;
+         throw new RuntimeException(cause);
+      }
+   }
+
+   /**
+    * runs on a worker thread, until it takes END from queue_
+    *
+    * @return number of rows inserted
+    */
+   private long insertBatches(BlockingQueue<List<String[]>> queue_, String insertDML_,
+                              String[] columnNames_, DKDBTypeInfo[] typeInfos_,
+                              int[] fieldIdxs_) throws SQLException, InterruptedException {
+      Connection connection = _database.getConnection();
+      if (connection == null)
+         throw new SQLException(String.format("can't get connection from database->%s",
+            _database));
+      PreparedStatement statement = null;
+      long rowCount = 0;
+      try {
+         connection.setAutoCommit(false);
+         statement = connection.prepareStatement(insertDML_);
+         List<String[]> batch = null;
+         while ((batch = queue_.take()) != END) {
+            for (String[] record : batch) {
+               for (int i = 0; i < fieldIdxs_.length; i++)
+                  this.bind(statement, i + 1, record[fieldIdxs_[i]], columnNames_[i],
+                     typeInfos_[i]);
+               statement.addBatch();
+            }
+            statement.executeBatch();
+            connection.commit();
+            rowCount += batch.size();
+            _log.debug("inserted {} rows", rowCount);
+         }
+         return rowCount;
+      }
+      catch (SQLException e_) {
+         DKSqlUtil.rollback(connection);
+         throw e_;
+      }
+      finally {
+         DKSqlUtil.close(statement);
+         DKSqlUtil.close(connection);
+      }
+   }
+
+   private void bind(PreparedStatement statement_, int parameterIndex_, String value_,
+                     String columnName_, DKDBTypeInfo typeInfo_) throws SQLException {
+      DKSqlUtil.WriteType writeType = typeInfo_.getWriteType();
+      if ((value_ == null)
+         || ((value_.length() == 0) && (writeType != DKSqlUtil.WriteType.STRING))) {
+         statement_.setNull(parameterIndex_, typeInfo_.getJavaSqlType());
+         return;
+      }
+      try {
+         switch (writeType) {
+         case NUMBER:
+            int sqlType = typeInfo_.getJavaSqlType();
+            if ((sqlType == Types.BOOLEAN) || (sqlType == Types.BIT))
+               statement_.setBoolean(parameterIndex_, this.parseBoolean(value_));
+            else
+               statement_.setBigDecimal(parameterIndex_, new BigDecimal(value_.trim()));
+            return;
+         case DATE:
+            String dateString = value_.trim();
+            if (dateString.indexOf(' ') < 0)
+               statement_.setDate(parameterIndex_, java.sql.Date.valueOf(dateString));
+            else
+               statement_.setDate(parameterIndex_, new java.sql.Date(Timestamp.valueOf(
+                  dateString).getTime()));
+            return;
+         case TIME:
+            statement_.setTime(parameterIndex_, java.sql.Time.valueOf(value_.trim()));
+            return;
+         case TIMESTAMP:
+            statement_.setTimestamp(parameterIndex_, Timestamp.valueOf(value_.trim()));
+            return;
+         default:
+            statement_.setString(parameterIndex_, value_);
+         }
+      }
+      catch (IllegalArgumentException e_) {
+         // includes NumberFormatException
+         throw new RuntimeException(String.format(
+            "can't convert value->%s for column->%s of type->%s", value_, columnName_,
+            typeInfo_), e_);
+      }
+   }
+
+   private boolean parseBoolean(String value_) {
+      String trimmed = value_.trim();
+      if (trimmed.equals("1"))
+         return true;
+      if (trimmed.equals("0"))
+         return false;
+      return BooleanUtils.toBoolean(trimmed);
+   }
+
+   public String toString() {
+      return String.format("%s[%s]", ClassUtils.getShortClassName(this.getClass()),
+         _database);
+   }
+}
@@ -16,6 +16,8 @@
 package org.diffkit.db;
 
 import org.apache.commons.lang.ClassUtils;
+import org.apache.commons.lang.builder.EqualsBuilder;
+import org.apache.commons.lang.builder.HashCodeBuilder;
 import org.apache.commons.lang.NotImplementedException;
 import org.apache.commons.lang.StringUtils;
 
@@ -142,6 +144,42 @@ public class DKDBConnectionInfo {
       return _password;
    }
 
+   /**
+    * two connectionInfos that are equal share a DKDBConnectionPool
+    */
+   public boolean equals(Object target_) {
+      if (target_ == null)
+         return false;
+      if (target_ == this)
+         return true;
+      if (target_.getClass() != getClass())
+         return false;
+
+      DKDBConnectionInfo rhs = (DKDBConnectionInfo) target_;
+
+      EqualsBuilder builder = new EqualsBuilder();
+      builder.append(_name, rhs._name);
+      builder.append(_flavor, rhs._flavor);
+      builder.append(_database, rhs._database);
+      builder.append(_host, rhs._host);
+      builder.append(_port, rhs._port);
+      builder.append(_username, rhs._username);
+      builder.append(_password, rhs._password);
+      return builder.isEquals();
+   }
+
+   public int hashCode() {
+      HashCodeBuilder builder = new HashCodeBuilder(29, 59);
+      builder.append(_name);
+      builder.append(_flavor);
+      builder.append(_database);
+      builder.append(_host);
+      builder.append(_port);
+      builder.append(_username);
+      builder.append(_password);
+      return builder.toHashCode();
+   }
+
    public String toString() {
       return String.format("%s[%s(flavor=%s,database=%s,host=%s,port=%s)]",
          ClassUtils.getShortClassName(this.getClass()), this.getName(), this.getFlavor(),
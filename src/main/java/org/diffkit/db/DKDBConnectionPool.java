@@ -0,0 +1,463 @@
+/**
+ * Copyright 2010-2011 Joseph Panico
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.diffkit.db;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import org.apache.commons.lang.ClassUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.diffkit.common.DKValidate;
+import org.diffkit.common.annot.ThreadSafe;
+import org.diffkit.util.DKSqlUtil;
+
+/**
+ * A bounded pool of physical JDBC Connections to the database described by one
+ * DKDBConnectionInfo. Borrowers get a proxy whose close() does not close the
+ * physical Connection, but instead closes any Statements created through the
+ * proxy, rolls back any uncommitted work, and returns the Connection to the
+ * pool. So code that already closes its Connections is pooled unchanged.
+ * <p>
+ * An idle Connection is validated before it is lent again, if it has been idle
+ * for more than VALIDATION_INTERVAL_MILLIS. A background evictor closes
+ * Connections that have been idle for longer than idleTimeoutMillis, and logs
+ * a warning, once, with the borrowing stack, for each Connection that has been
+ * borrowed for longer than leakThresholdMillis.
+ * 
+ * @author jpanico
+ */
+@ThreadSafe
+public class DKDBConnectionPool {
+   public static final int DEFAULT_MAX_SIZE = 32;
+   public static final long DEFAULT_MAX_WAIT_MILLIS = 60 * 1000;
+   public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 5 * 60 * 1000;
+   /**
+    * long; a DKDBSource legitimately holds its Connection for a whole diff
+    */
+   public static final long DEFAULT_LEAK_THRESHOLD_MILLIS = 60 * 60 * 1000;
+
+   private static final String USERNAME_KEY = "user";
+   private static final String PASSWORD_KEY = "password";
+   private static final long VALIDATION_INTERVAL_MILLIS = 5 * 1000;
+   private static final int VALIDATION_TIMEOUT_SECONDS = 5;
+   private static final long EVICTION_INTERVAL_MILLIS = 30 * 1000;
+   private static final int STATEMENT_PRUNE_INTERVAL = 100;
+   private static final Map<DKDBConnectionInfo, DKDBConnectionPool> POOLS = new HashMap<DKDBConnectionInfo, DKDBConnectionPool>();
+   private static final Timer EVICTOR = new Timer(
+      ClassUtils.getShortClassName(DKDBConnectionPool.class) + "-evictor", true);
+
+   private final DKDBConnectionInfo _connectionInfo;
+   private final int _maxSize;
+   private final long _maxWaitMillis;
+   private final long _idleTimeoutMillis;
+   private final long _leakThresholdMillis;
+   /**
+    * most recently returned first
+    */
+   private final LinkedList<PooledConnection> _idle = new LinkedList<PooledConnection>();
+   private final Set<PooledConnection> _borrowed = new HashSet<PooledConnection>();
+   private final TimerTask _evictionTask;
+   /**
+    * idle + borrowed + being opened
+    */
+   private int _size;
+   private boolean _isClosed;
+   private final Logger _log = LoggerFactory.getLogger(this.getClass());
+
+   /**
+    * @return the shared pool for connectionInfo_, created with the default
+    *         settings on first use
+    */
+   public static DKDBConnectionPool getInstance(DKDBConnectionInfo connectionInfo_) {
+      DKValidate.notNull(connectionInfo_);
+      synchronized (POOLS) {
+         DKDBConnectionPool pool = POOLS.get(connectionInfo_);
+         if (pool == null) {
+            pool = new DKDBConnectionPool(connectionInfo_, DEFAULT_MAX_SIZE,
+               DEFAULT_MAX_WAIT_MILLIS, DEFAULT_IDLE_TIMEOUT_MILLIS,
+               DEFAULT_LEAK_THRESHOLD_MILLIS);
+            POOLS.put(connectionInfo_, pool);
+         }
+         return pool;
+      }
+   }
+
+   /**
+    * closes every shared pool. Connections that are still borrowed are
+    * closed when they are returned
+    */
+   public static void closeAll() {
+      List<DKDBConnectionPool> pools = null;
+      synchronized (POOLS) {
+         pools = new ArrayList<DKDBConnectionPool>(POOLS.values());
+      }
+      for (DKDBConnectionPool pool : pools)
+         pool.close();
+   }
+
+   public DKDBConnectionPool(DKDBConnectionInfo connectionInfo_, int maxSize_,
+                             long maxWaitMillis_, long idleTimeoutMillis_,
+                             long leakThresholdMillis_) {
+      _connectionInfo = connectionInfo_;
+      _maxSize = maxSize_;
+      _maxWaitMillis = maxWaitMillis_;
+      _idleTimeoutMillis = idleTimeoutMillis_;
+      _leakThresholdMillis = leakThresholdMillis_;
+      DKValidate.notNull(_connectionInfo);
+      if (_maxSize < 1)
+         throw new IllegalArgumentException(String.format("invalid maxSize_->%s",
+            maxSize_));
+      if ((_maxWaitMillis < 0) || (_idleTimeoutMillis < 0) || (_leakThresholdMillis < 0))
+         throw new IllegalArgumentException(String.format(
+            "invalid maxWaitMillis_->%s idleTimeoutMillis_->%s leakThresholdMillis_->%s",
+            maxWaitMillis_, idleTimeoutMillis_, leakThresholdMillis_));
+      _evictionTask = new TimerTask() {
+         public void run() {
+            evict();
+         }
+      };
+      EVICTOR.schedule(_evictionTask, EVICTION_INTERVAL_MILLIS, EVICTION_INTERVAL_MILLIS);
+   }
+
+   public DKDBConnectionInfo getConnectionInfo() {
+      return _connectionInfo;
+   }
+
+   public int getMaxSize() {
+      return _maxSize;
+   }
+
+   public synchronized int getSize() {
+      return _size;
+   }
+
+   public synchronized int getIdleCount() {
+      return _idle.size();
+   }
+
+   public synchronized int getBorrowedCount() {
+      return _borrowed.size();
+   }
+
+   /**
+    * blocks for up to maxWaitMillis when all maxSize Connections are borrowed
+    * 
+    * @return a proxy; close() it to return the Connection to the pool
+    */
+   public Connection getConnection() throws SQLException {
+      long deadline = System.currentTimeMillis() + _maxWaitMillis;
+      while (true) {
+         PooledConnection candidate = null;
+         synchronized (this) {
+            this.ensureNotClosed();
+            while (_idle.isEmpty() && (_size >= _maxSize)) {
+               long remaining = deadline - System.currentTimeMillis();
+               if (remaining <= 0)
+                  throw new SQLException(String.format(
+                     "timed out after %sms waiting for one of maxSize->%s connections to %s",
+                     _maxWaitMillis, _maxSize, _connectionInfo));
+               try {
+                  this.wait(remaining);
+               }
+               catch (InterruptedException e_) {
+                  Thread.currentThread().interrupt();
+                  throw new SQLException("interrupted waiting for connection");
+               }
+               this.ensureNotClosed();
+            }
+            if (_idle.isEmpty())
+               _size++;
+            else
+               candidate = _idle.removeFirst();
+         }
+         if (candidate == null)
+            return this.lend(new PooledConnection(this.openConnection()));
+         if (this.validate(candidate))
+            return this.lend(candidate);
+         _log.info("discarding invalid connection->{}", candidate);
+         this.discard(candidate);
+      }
+   }
+
+   /**
+    * runs one eviction pass: closes the Connections that have been idle for
+    * longer than idleTimeoutMillis, and reports possible leaks. Normally
+    * called by the background evictor
+    */
+   public void evict() {
+      List<PooledConnection> expired = new ArrayList<PooledConnection>();
+      synchronized (this) {
+         long now = System.currentTimeMillis();
+         for (Iterator<PooledConnection> it = _idle.iterator(); it.hasNext();) {
+            PooledConnection idle = it.next();
+            if (now - idle._lastUsed < _idleTimeoutMillis)
+               continue;
+            it.remove();
+            _size--;
+            expired.add(idle);
+         }
+         if (!expired.isEmpty())
+            this.notifyAll();
+         for (PooledConnection borrowed : _borrowed) {
+            if (borrowed._isLeakReported || (now - borrowed._borrowedAt < _leakThresholdMillis))
+               continue;
+            borrowed._isLeakReported = true;
+            _log.warn(String.format(
+               "connection to %s has been borrowed for %sms; possible leak by:",
+               _connectionInfo, now - borrowed._borrowedAt), borrowed._borrower);
+         }
+      }
+      if (!expired.isEmpty())
+         _log.debug("evicting->{}", expired.size());
+      for (PooledConnection idle : expired)
+         DKSqlUtil.close(idle._connection);
+   }
+
+   /**
+    * closes all idle Connections; borrowed Connections are closed when they
+    * are returned. The pool can't be used afterwards
+    */
+   public void close() {
+      List<PooledConnection> idle = null;
+      synchronized (this) {
+         if (_isClosed)
+            return;
+         _isClosed = true;
+         _evictionTask.cancel();
+         idle = new ArrayList<PooledConnection>(_idle);
+         _size -= _idle.size();
+         _idle.clear();
+         this.notifyAll();
+      }
+      synchronized (POOLS) {
+         if (POOLS.get(_connectionInfo) == this)
+            POOLS.remove(_connectionInfo);
+      }
+      _log.info("closing->{}", this);
+      for (PooledConnection connection : idle)
+         DKSqlUtil.close(connection._connection);
+   }
+
+   private Connection openConnection() throws SQLException {
+      boolean isOpened = false;
+      try {
+         Class.forName(_connectionInfo.getDriverName());
+         String jdbcUrl = _connectionInfo.getJDBCUrl();
+         _log.debug("jdbcUrl->{}", jdbcUrl);
+         Properties properties = new Properties();
+         properties.put(USERNAME_KEY, _connectionInfo.getUsername());
+         properties.put(PASSWORD_KEY, _connectionInfo.getPassword());
+         Connection connection = DriverManager.getConnection(jdbcUrl, properties);
+         isOpened = true;
+         return connection;
+      }
+      catch (ClassNotFoundException e_) {
+         throw new RuntimeException(e_);
+      }
+      finally {
+         if (!isOpened) {
+            synchronized (this) {
+               _size--;
+               this.notifyAll();
+            }
+         }
+      }
+   }
+
+   private boolean validate(PooledConnection connection_) {
+      try {
+         if (System.currentTimeMillis() - connection_._lastUsed < VALIDATION_INTERVAL_MILLIS)
+            return !connection_._connection.isClosed();
+         try {
+            return connection_._connection.isValid(VALIDATION_TIMEOUT_SECONDS);
+         }
+         catch (AbstractMethodError e_) {
+            // pre JDBC 4 driver
+            return !connection_._connection.isClosed();
+         }
+      }
+      catch (SQLException e_) {
+         _log.debug(null, e_);
+         return false;
+      }
+   }
+
+   private synchronized Connection lend(PooledConnection connection_) {
+      connection_._borrowedAt = System.currentTimeMillis();
+      connection_._borrower = new Throwable("borrowed here");
+      connection_._isLeakReported = false;
+      _borrowed.add(connection_);
+      return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+         new Class<?>[] { Connection.class }, new Lease(connection_));
+   }
+
+   private void giveBack(PooledConnection connection_) {
+      boolean isReusable = connection_.reset();
+      synchronized (this) {
+         _borrowed.remove(connection_);
+         connection_._borrower = null;
+         if (isReusable && !_isClosed) {
+            connection_._lastUsed = System.currentTimeMillis();
+            _idle.addFirst(connection_);
+            this.notifyAll();
+            return;
+         }
+      }
+      this.discard(connection_);
+   }
+
+   private void discard(PooledConnection connection_) {
+      synchronized (this) {
+         _size--;
+         this.notifyAll();
+      }
+      DKSqlUtil.close(connection_._connection);
+   }
+
+   private void ensureNotClosed() {
+      if (_isClosed)
+         throw new RuntimeException(String.format("pool->%s is closed!", this));
+   }
+
+   public String toString() {
+      return String.format("%s[%s, maxSize=%s]",
+         ClassUtils.getShortClassName(this.getClass()), _connectionInfo, _maxSize);
+   }
+
+   private static class PooledConnection {
+      private final Connection _connection;
+      private final List<Statement> _statements = new ArrayList<Statement>();
+      private long _lastUsed;
+      private long _borrowedAt;
+      private Throwable _borrower;
+      private boolean _isLeakReported;
+
+      private PooledConnection(Connection connection_) {
+         _connection = connection_;
+         _lastUsed = System.currentTimeMillis();
+      }
+
+      /**
+       * remembers statement_ so that it can be closed on return, if the
+       * borrower doesn't; forgets the ones that are already closed every so
+       * often, so that long borrowings don't pile them up
+       */
+      private void addStatement(Statement statement_) {
+         _statements.add(statement_);
+         if (_statements.size() % STATEMENT_PRUNE_INTERVAL != 0)
+            return;
+         for (Iterator<Statement> it = _statements.iterator(); it.hasNext();) {
+            try {
+               if (it.next().isClosed())
+                  it.remove();
+            }
+            catch (Throwable e_) {
+               // pre JDBC 4 driver; keep it
+            }
+         }
+      }
+
+      /**
+       * @return false if the Connection should not be reused
+       */
+      private boolean reset() {
+         for (Statement statement : _statements)
+            DKSqlUtil.close(statement);
+         _statements.clear();
+         try {
+            if (_connection.isClosed())
+               return false;
+            if (!_connection.getAutoCommit()) {
+               _connection.rollback();
+               _connection.setAutoCommit(true);
+            }
+            return true;
+         }
+         catch (SQLException e_) {
+            LoggerFactory.getLogger(DKDBConnectionPool.class).warn(null, e_);
+            return false;
+         }
+      }
+
+      public String toString() {
+         return _connection.toString();
+      }
+   }
+
+   /**
+    * one borrowing of a PooledConnection; it can't be used once it has been
+    * closed, even though the PooledConnection lives on
+    */
+   private class Lease implements InvocationHandler {
+      private final PooledConnection _pooled;
+      private boolean _isReturned;
+
+      private Lease(PooledConnection pooled_) {
+         _pooled = pooled_;
+      }
+
+      public Object invoke(Object proxy_, Method method_, Object[] args_)
+         throws Throwable {
+         String methodName = method_.getName();
+         if (methodName.equals("close")) {
+            if (!_isReturned) {
+               _isReturned = true;
+               giveBack(_pooled);
+            }
+            return null;
+         }
+         if (methodName.equals("isClosed") && _isReturned)
+            return Boolean.TRUE;
+         if (methodName.equals("equals"))
+            return Boolean.valueOf(proxy_ == args_[0]);
+         if (methodName.equals("hashCode"))
+            return Integer.valueOf(System.identityHashCode(proxy_));
+         if (methodName.equals("toString"))
+            return String.format("%s[%s]", ClassUtils.getShortClassName(
+               DKDBConnectionPool.class), _pooled);
+         if (_isReturned)
+            throw new SQLException("connection has already been returned to the pool");
+         try {
+            Object result = method_.invoke(_pooled._connection, args_);
+            if (result instanceof Statement)
+               _pooled.addStatement((Statement) result);
+            return result;
+         }
+         catch (InvocationTargetException e_) {
+            throw e_.getCause();
+         }
+      }
+   }
+}
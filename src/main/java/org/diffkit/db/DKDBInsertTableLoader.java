@@ -37,6 +37,9 @@ import org.diffkit.util.DKStringUtil;
 import org.diffkit.util.DKStringUtil.Quote;
 
 /**
+ * Renders each CSV line as a literal INSERT. DKDBBatchTableLoader binds typed
+ * values through a PreparedStatement instead, and should be preferred.
+ *
  * @author jpanico
  */
 public class DKDBInsertTableLoader implements DKDBTableLoader {
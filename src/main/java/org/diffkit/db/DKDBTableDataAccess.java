@@ -100,24 +100,28 @@ public class DKDBTableDataAccess {
    public List<DKDBTable> getTables(String catalog_, String schema_, String tableName_)
       throws SQLException {
       Connection connection = this.getConnection();
-      DatabaseMetaData dbMeta = connection.getMetaData();
-      List<Map<String, ?>> tableMaps = this.getTableMaps(catalog_, schema_, tableName_,
-         dbMeta);
-      if ((tableMaps == null) || (tableMaps.isEmpty()))
-         return null;
-      List<DKDBTable> tables = new ArrayList<DKDBTable>(tableMaps.size());
-      for (Map<String, ?> tableMap : tableMaps) {
-         _log.debug("tableMap->{}", tableMap);
-         List<Map<String, ?>> columMaps = this.getColumnMaps(tableMap, dbMeta);
-         _log.debug("columMaps->{}", columMaps);
-         List<Map<String, ?>> pkMaps = this.getPKMaps(tableMap, dbMeta);
-         _log.debug("pkMaps->{}", pkMaps);
-         DKDBTable table = this.constructTable(tableMap, columMaps, pkMaps);
-         _log.debug("table->{}", table);
-         tables.add(table);
+      try {
+         DatabaseMetaData dbMeta = connection.getMetaData();
+         List<Map<String, ?>> tableMaps = this.getTableMaps(catalog_, schema_,
+            tableName_, dbMeta);
+         if ((tableMaps == null) || (tableMaps.isEmpty()))
+            return null;
+         List<DKDBTable> tables = new ArrayList<DKDBTable>(tableMaps.size());
+         for (Map<String, ?> tableMap : tableMaps) {
+            _log.debug("tableMap->{}", tableMap);
+            List<Map<String, ?>> columMaps = this.getColumnMaps(tableMap, dbMeta);
+            _log.debug("columMaps->{}", columMaps);
+            List<Map<String, ?>> pkMaps = this.getPKMaps(tableMap, dbMeta);
+            _log.debug("pkMaps->{}", pkMaps);
+            DKDBTable table = this.constructTable(tableMap, columMaps, pkMaps);
+            _log.debug("table->{}", table);
+            tables.add(table);
+         }
+         return tables;
+      }
+      finally {
+         this.returnConnection(connection);
       }
-      this.returnConnection(connection);
-      return tables;
    }
 
    private DKDBTable constructTable(Map<String, ?> tableMap_,
@@ -32,10 +32,16 @@ import org.diffkit.util.DKNumberUtil;
 import org.diffkit.util.DKSqlUtil;
 
 /**
+ * The type info rows that the driver reports are read once per
+ * DKDBConnectionInfo, and shared by every DKDBTypeInfoDataAccess (so every
+ * DKDatabase, and every plan in a batch) for that connectionInfo.
+ * 
  * @author jpanico
  */
 public class DKDBTypeInfoDataAccess {
 
+   private static final Map<DKDBConnectionInfo, List<Map<String, ?>>> TYPE_INFO_MAPS = new HashMap<DKDBConnectionInfo, List<Map<String, ?>>>();
+
    private final DKDatabase _database;
    private Map<DKDBType, DKDBTypeInfo> _typeToTypeInfoMap;
    private Map<String, DKDBTypeInfo> _nameToTypeInfoMap;
@@ -138,9 +144,7 @@ public class DKDBTypeInfoDataAccess {
    }
 
    private void ensureMaps() throws SQLException {
-      Connection connection = this.getConnection();
-      DatabaseMetaData dbMeta = connection.getMetaData();
-      List<Map<String, ?>> entryMaps = this.getTypeInfoMaps(dbMeta);
+      List<Map<String, ?>> entryMaps = this.getTypeInfoMaps();
       _typeToTypeInfoMap = new HashMap<DKDBType, DKDBTypeInfo>();
       _nameToTypeInfoMap = new HashMap<String, DKDBTypeInfo>();
       _javaSqlTypeToTypeInfoMap = new HashMap<Integer, DKDBTypeInfo>();
@@ -154,7 +158,6 @@ public class DKDBTypeInfoDataAccess {
          _nameToTypeInfoMap.put(typeInfo.getName(), typeInfo);
          _javaSqlTypeToTypeInfoMap.put(new Integer(typeInfo.getJavaSqlType()), typeInfo);
       }
-      this.returnConnection(connection);
    }
 
    private DKDBTypeInfo constructTypeInfo(Map<String, ?> typeInfoMap_) {
@@ -171,6 +174,27 @@ public class DKDBTypeInfoDataAccess {
          DKNumberUtil.getInt(maxPrecision, -1), DKBooleanUtil.toBoolean(isCaseSensitive));
    }
 
+   /**
+    * from TYPE_INFO_MAPS, which is filled on first use
+    */
+   private List<Map<String, ?>> getTypeInfoMaps() throws SQLException {
+      DKDBConnectionInfo connectionInfo = _database.getConnectionInfo();
+      synchronized (TYPE_INFO_MAPS) {
+         List<Map<String, ?>> typeInfoMaps = TYPE_INFO_MAPS.get(connectionInfo);
+         if (typeInfoMaps != null)
+            return typeInfoMaps;
+         Connection connection = this.getConnection();
+         try {
+            typeInfoMaps = this.getTypeInfoMaps(connection.getMetaData());
+         }
+         finally {
+            this.returnConnection(connection);
+         }
+         TYPE_INFO_MAPS.put(connectionInfo, typeInfoMaps);
+         return typeInfoMaps;
+      }
+   }
+
    private List<Map<String, ?>> getTypeInfoMaps(DatabaseMetaData dbMeta_)
       throws SQLException {
       ResultSet typeInfoRS = dbMeta_.getTypeInfo();
@@ -16,13 +16,11 @@
 package org.diffkit.db;
 
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
-import java.util.Properties;
 
 import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.collections.MapUtils;
@@ -38,8 +36,6 @@ import org.diffkit.util.DKSqlUtil;
  */
 public class DKDatabase {
 
-   private static final String USERNAME_KEY = "user";
-   private static final String PASSWORD_KEY = "password";
    private final DKDBConnectionInfo _connectionInfo;
    private final boolean _caseSensitive;
    private final DKDBTypeInfoDataAccess _typeInfoDataAccess;
@@ -62,19 +58,12 @@ public class DKDatabase {
       return _typeInfoDataAccess;
    }
 
+   /**
+    * borrows from the DKDBConnectionPool shared by all DKDatabases that have
+    * an equal ConnectionInfo; close() the Connection to give it back
+    */
    public Connection getConnection() throws SQLException {
-      try {
-         Class.forName(_connectionInfo.getDriverName());
-      }
-      catch (ClassNotFoundException e_) {
-         throw new RuntimeException(e_);
-      }
-      String jdbcUrl = _connectionInfo.getJDBCUrl();
-      _log.debug("jdbcUrl->{}", jdbcUrl);
-      Properties properties = new Properties();
-      properties.put(USERNAME_KEY, _connectionInfo.getUsername());
-      properties.put(PASSWORD_KEY, _connectionInfo.getPassword());
-      return DriverManager.getConnection(jdbcUrl, properties);
+      return DKDBConnectionPool.getInstance(_connectionInfo).getConnection();
    }
 
    public DKDBConnectionInfo getConnectionInfo() {
@@ -165,8 +154,9 @@ public class DKDatabase {
    }
 
    public boolean canConnect() {
+      Connection connection = null;
       try {
-         Connection connection = this.getConnection();
+         connection = this.getConnection();
          if (connection == null)
             return false;
          Map<String, ?> dbInfo = DKSqlUtil.getDatabaseInfo(connection);
@@ -180,6 +170,9 @@ public class DKDatabase {
          _log.debug(null, e_);
          return false;
       }
+      finally {
+         DKSqlUtil.close(connection);
+      }
    }
 
    public DKSqlGenerator getSqlGenerator() {
@@ -205,7 +198,7 @@ public class DKDatabase {
          return null;
       String createSql = _sqlGenerator.generateCreateDDL(table_);
       _log.debug("createSql->{}", createSql);
-      if (!DKSqlUtil.executeUpdate(createSql, this.getConnection()))
+      if (!this.executeUpdate(createSql))
          throw new SQLException("execute was not successful");
       return this.getTable(table_.getCatalog(), table_.getSchema(), table_.getTableName());
    }
@@ -240,7 +233,7 @@ public class DKDatabase {
          return false;
       String dropSql = _sqlGenerator.generateDropDDL(table_);
       _log.debug("dropSql->{}", dropSql);
-      return DKSqlUtil.executeUpdate(dropSql, this.getConnection());
+      return this.executeUpdate(dropSql);
    }
 
    public boolean tableExists(DKDBTable table_) throws SQLException {
@@ -360,7 +353,7 @@ public class DKDatabase {
       _log.debug("insertSql->{}", insertSql);
       Connection connection = this.getConnection();
       boolean insert = DKSqlUtil.executeUpdate(insertSql, connection);
-      // DKSqlUtil.close(connection);
+      DKSqlUtil.close(connection);
       return insert;
    }
 
@@ -371,7 +364,7 @@ public class DKDatabase {
       _log.debug("selectSql->{}", selectSql);
       Connection connection = this.getConnection();
       List<Map<String, ?>> rows = DKSqlUtil.readRows(selectSql, connection);
-      // DKSqlUtil.close(connection);
+      DKSqlUtil.close(connection);
       return rows;
    }
 
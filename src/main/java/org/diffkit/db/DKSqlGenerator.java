@@ -36,6 +36,24 @@ import org.diffkit.util.DKStringUtil;
  */
 public class DKSqlGenerator {
 
+   /**
+    * how each type of column is formatted as text for the row digest
+    */
+   private static enum DigestFormat {
+      TEXT, EXACT, APPROXIMATE, DATE, TIME, TIMESTAMP
+   }
+
+   /**
+    * upper bound on the length of any non-TEXT value formatted for the row
+    * digest, and of the length prefix of a TEXT value
+    */
+   private static final int MAX_FORMATTED_LENGTH = 48;
+   /**
+    * number of 32 bit chunks of the row digest (of at least 128 bits, in
+    * every flavor) that generateRowHashNumberExpression() can take
+    */
+   public static final int ROW_HASH_CHUNK_COUNT = 4;
+
    private final DKDatabase _database;
    private final Logger _log = LoggerFactory.getLogger(this.getClass());
 
@@ -297,12 +315,343 @@ public class DKSqlGenerator {
       return insertDML;
    }
 
+   /**
+    * @return an INSERT with a ? parameter for each of columnNames_, in that
+    *         order, suitable for a PreparedStatement
+    */
+   public String generateParameterizedInsertDML(String[] columnNames_,
+                                                String schemaName_, String tableName_) {
+      if (ArrayUtils.isEmpty(columnNames_) || (tableName_ == null))
+         throw new IllegalArgumentException("null or empty value not allowed here");
+      String tableIdentifier = this.generateQualifiedTableIdentifierString(schemaName_,
+         tableName_);
+      String[] columnNames = new String[columnNames_.length];
+      String[] parameters = new String[columnNames_.length];
+      for (int i = 0; i < columnNames_.length; i++) {
+         columnNames[i] = this.generateIdentifierString(columnNames_[i]);
+         parameters[i] = "?";
+      }
+      String insertDML = String.format("INSERT INTO %s %s\nVALUES %s", tableIdentifier,
+         DKStringUtil.toSetString(columnNames), DKStringUtil.toSetString(parameters));
+      _log.debug("insertDML->{}", insertDML);
+      return insertDML;
+   }
+
    public String generateSelectDML(DKDBTable table_) {
       return String.format(
          "SELECT * FROM %s",
          this.generateIdentifierString(this.generateQualifiedTableIdentifierString(table_)));
    }
 
+   /**
+    * @return an expression that evaluates, in each row, to a digest of the
+    *         text of the columns_ values. Each value is formatted losslessly
+    *         (full precision times, the exact bits of floats, text uncut), is
+    *         length prefixed, and NULL has its own marker, so two rows only
+    *         share a digest (barring collisions) when their columns have
+    *         exactly the same values. null if supportsRowHash(columns_) is
+    *         false. The ORACLE digest is STANDARD_HASH(), which needs Oracle
+    *         12c or later.
+    */
+   public String generateRowHashExpression(DKDBColumn[] columns_) {
+      if ((columns_ == null) || (columns_.length == 0))
+         throw new IllegalArgumentException("null or empty value not allowed here");
+      if (!this.supportsRowHash(columns_))
+         return null;
+      String[] images = new String[columns_.length];
+      for (int i = 0; i < columns_.length; i++) {
+         String text = this.generateTextExpression(columns_[i]);
+         String length = this.generateIntegerTextExpression(this.generateLengthExpression(text));
+         images[i] = String.format("COALESCE(%s, 'n')", this.generateConcatExpression(
+            length, "':'", text));
+      }
+      String image = (images.length == 1) ? images[0]
+         : this.generateConcatExpression(images);
+      switch (_database.getFlavor()) {
+      case H2:
+         return String.format("HASH('SHA256', STRINGTOUTF8(%s), 1)", image);
+      case MYSQL:
+      case POSTGRES:
+         return String.format("MD5(%s)", image);
+      case SQLSERVER:
+         return String.format("HASHBYTES('MD5', %s)", image);
+      case ORACLE:
+         return String.format("STANDARD_HASH(%s, 'SHA256')", image);
+      default:
+         // supportsRowHash() has already turned away every other flavor
+         throw new IllegalStateException(String.format("unexpected flavor->%s",
+            _database.getFlavor()));
+      }
+   }
+
+   /**
+    * @param rowHashIdentifier_
+    *           names a column holding the result of
+    *           generateRowHashExpression(); it may be referenced more than once
+    * @param chunk_
+    *           in [0, ROW_HASH_CHUNK_COUNT); which 32 bits of the digest
+    * @return a numeric expression, in [0, 2^32), taken from bits [32 * chunk_,
+    *         32 * (chunk_ + 1)) of the digest, that can be SUM()ed; null if
+    *         this flavor has no digest function
+    */
+   public String generateRowHashNumberExpression(String rowHashIdentifier_, int chunk_) {
+      DKValidate.notNull(rowHashIdentifier_);
+      if ((chunk_ < 0) || (chunk_ >= ROW_HASH_CHUNK_COUNT))
+         throw new IllegalArgumentException(String.format("invalid chunk_->%s", chunk_));
+      // 1 based position of the chunk, in hex digits and in bytes
+      int hexStart = (8 * chunk_) + 1;
+      int byteStart = (4 * chunk_) + 1;
+      switch (_database.getFlavor()) {
+      case H2:
+         // no hex conversion in H2; add up the value of each of 8 hex digits
+         StringBuilder builder = new StringBuilder("(");
+         for (int i = 0; i < 8; i++) {
+            if (i > 0)
+               builder.append(" + ");
+            builder.append(String.format(
+               "CAST(LOCATE(SUBSTRING(CAST(%s AS VARCHAR), %s, 1), '0123456789abcdef') - 1 AS BIGINT) * %s",
+               rowHashIdentifier_, hexStart + i, 1L << (4 * (7 - i))));
+         }
+         return builder.append(")").toString();
+      case MYSQL:
+         return String.format("CAST(CONV(SUBSTRING(%s, %s, 8), 16, 10) AS UNSIGNED)",
+            rowHashIdentifier_, hexStart);
+      case POSTGRES:
+         return String.format("CAST(CAST('x' || SUBSTR(%s, %s, 8) AS BIT(32)) AS BIGINT)",
+            rowHashIdentifier_, hexStart);
+      case SQLSERVER:
+         return String.format("CAST(SUBSTRING(%s, %s, 4) AS BIGINT)", rowHashIdentifier_,
+            byteStart);
+      case ORACLE:
+         return String.format("TO_NUMBER(SUBSTR(RAWTOHEX(%s), %s, 8), 'XXXXXXXX')",
+            rowHashIdentifier_, hexStart);
+      default:
+         return null;
+      }
+   }
+
+   /**
+    * @return true if generateRowHashExpression() can generate a digest for
+    *         this flavor; for ORACLE that assumes 12c or later
+    */
+   public boolean supportsRowHash() {
+      switch (_database.getFlavor()) {
+      case H2:
+      case MYSQL:
+      case POSTGRES:
+      case SQLSERVER:
+      case ORACLE:
+         return true;
+      default:
+         return false;
+      }
+   }
+
+   /**
+    * @return true if generateRowHashExpression() can generate a digest of
+    *         columns_ for this flavor: every column has a type that can be
+    *         formatted without loss, and none is a LOB, or so wide that the
+    *         digested text could be cut short
+    */
+   public boolean supportsRowHash(DKDBColumn[] columns_) {
+      if (!this.supportsRowHash() || (columns_ == null))
+         return false;
+      long imageLength = 0;
+      for (DKDBColumn column : columns_) {
+         DigestFormat format = this.getDigestFormat(column);
+         if (format == null) {
+            _log.info("can't digest column->{}", column);
+            return false;
+         }
+         if (format != DigestFormat.TEXT)
+            imageLength += MAX_FORMATTED_LENGTH;
+         else if (column.getSize() > 0)
+            imageLength += column.getSize() + MAX_FORMATTED_LENGTH;
+         else
+            imageLength = Long.MAX_VALUE;
+         if (imageLength > this.getMaxDigestImageLength()) {
+            _log.info("digested text could exceed maxDigestImageLength->{}",
+               this.getMaxDigestImageLength());
+            return false;
+         }
+      }
+      return true;
+   }
+
+   /**
+    * @return the longest text that the digest function (or the concatenation
+    *         that feeds it) takes without error or truncation
+    */
+   private long getMaxDigestImageLength() {
+      switch (_database.getFlavor()) {
+      case ORACLE:
+         // VARCHAR2
+         return 4000;
+      case SQLSERVER:
+         // HASHBYTES input, in NVARCHAR characters
+         return 4000;
+      default:
+         return Long.MAX_VALUE;
+      }
+   }
+
+   /**
+    * @return null if column_ can't be digested: unknown types, LOBs, and
+    *         anything else that can't be formatted losslessly
+    */
+   private DigestFormat getDigestFormat(DKDBColumn column_) {
+      DKDBType type = null;
+      try {
+         type = this.getConcreteType(column_);
+      }
+      catch (IllegalArgumentException e_) {
+         // unrecognized type
+      }
+      if (type == null)
+         return null;
+      switch (type) {
+      case CHAR:
+      case NCHAR:
+      case VARCHAR:
+      case NVARCHAR:
+      case _ORACLE_VARCHAR2:
+      case _POSTGRES_BPCHAR:
+      case _H2_VARCHAR_IGNORECASE:
+         return DigestFormat.TEXT;
+      case BIT:
+      case BOOLEAN:
+      case TINYINT:
+      case SMALLINT:
+      case INTEGER:
+      case BIGINT:
+      case DECIMAL:
+      case NUMERIC:
+      case _ORACLE_NUMBER:
+      case _MYSQL_INT:
+      case _SQLSERVER_INT:
+      case _POSTGRES_BOOL:
+      case _POSTGRES_INT2:
+      case _POSTGRES_INT4:
+      case _POSTGRES_INT8:
+         return DigestFormat.EXACT;
+      case FLOAT:
+      case DOUBLE:
+      case REAL:
+      case _MYSQL_DOUBLE_PRECISION:
+      case _POSTGRES_FLOAT4:
+      case _POSTGRES_FLOAT8:
+         // Oracle's FLOAT is a NUMBER
+         return (_database.getFlavor() == DKDBFlavor.ORACLE) ? DigestFormat.EXACT
+            : DigestFormat.APPROXIMATE;
+      case DATE:
+         return DigestFormat.DATE;
+      case TIME:
+         return DigestFormat.TIME;
+      case TIMESTAMP:
+      case _MYSQL_DATETIME:
+      case _SQLSERVER_DATETIME:
+      case _SQLSERVER_DATETIME2:
+      case _SQLSERVER_SMALLDATETIME:
+         return DigestFormat.TIMESTAMP;
+      default:
+         return null;
+      }
+   }
+
+   /**
+    * @return column_ formatted as text, without loss, for the row digest
+    */
+   private String generateTextExpression(DKDBColumn column_) {
+      String identifier = this.generateIdentifierString(column_.getName());
+      DigestFormat format = this.getDigestFormat(column_);
+      DKDBFlavor flavor = _database.getFlavor();
+      switch (format) {
+      case TEXT:
+         // already text; a cast could cut it short
+         return identifier;
+      case APPROXIMATE:
+         // the exact bits, where the default text has too few digits
+         if (flavor == DKDBFlavor.POSTGRES)
+            return String.format("ENCODE(FLOAT8SEND(CAST(%s AS DOUBLE PRECISION)), 'hex')",
+               identifier);
+         if (flavor == DKDBFlavor.SQLSERVER)
+            return String.format(
+               "CONVERT(VARCHAR(18), CONVERT(VARBINARY(8), CAST(%s AS FLOAT)), 1)",
+               identifier);
+         break;
+      case DATE:
+         // an Oracle DATE has a time of day
+         if (flavor == DKDBFlavor.ORACLE)
+            return String.format("TO_CHAR(%s, 'YYYY-MM-DD HH24:MI:SS')", identifier);
+         if (flavor == DKDBFlavor.POSTGRES)
+            return String.format("TO_CHAR(%s, 'YYYY-MM-DD')", identifier);
+         if (flavor == DKDBFlavor.SQLSERVER)
+            return String.format("CONVERT(VARCHAR(40), %s, 121)", identifier);
+         break;
+      case TIME:
+         if (flavor == DKDBFlavor.SQLSERVER)
+            return String.format("CONVERT(VARCHAR(40), %s, 121)", identifier);
+         break;
+      case TIMESTAMP:
+         if (flavor == DKDBFlavor.ORACLE)
+            return String.format("TO_CHAR(%s, 'YYYY-MM-DD HH24:MI:SS.FF9')", identifier);
+         if (flavor == DKDBFlavor.POSTGRES)
+            return String.format("TO_CHAR(%s, 'YYYY-MM-DD HH24:MI:SS.US')", identifier);
+         if (flavor == DKDBFlavor.SQLSERVER)
+            return String.format("CONVERT(VARCHAR(40), %s, 121)", identifier);
+         break;
+      default:
+         break;
+      }
+      // the default conversion is lossless for everything else: exact
+      // numbers everywhere, and times and floats in H2 and MySQL
+      switch (flavor) {
+      case MYSQL:
+         return String.format("CAST(%s AS CHAR)", identifier);
+      case ORACLE:
+         return String.format("TO_CHAR(%s)", identifier);
+      case SQLSERVER:
+         return String.format("CAST(%s AS VARCHAR(%s))", identifier, MAX_FORMATTED_LENGTH);
+      default:
+         return String.format("CAST(%s AS VARCHAR)", identifier);
+      }
+   }
+
+   private String generateIntegerTextExpression(String expression_) {
+      switch (_database.getFlavor()) {
+      case MYSQL:
+         return String.format("CAST(%s AS CHAR)", expression_);
+      case ORACLE:
+         return String.format("TO_CHAR(%s)", expression_);
+      case SQLSERVER:
+         return String.format("CAST(%s AS VARCHAR(20))", expression_);
+      default:
+         return String.format("CAST(%s AS VARCHAR)", expression_);
+      }
+   }
+
+   private String generateLengthExpression(String expression_) {
+      switch (_database.getFlavor()) {
+      case ORACLE:
+         return String.format("LENGTH(%s)", expression_);
+      case SQLSERVER:
+         return String.format("DATALENGTH(%s)", expression_);
+      default:
+         return String.format("CHAR_LENGTH(%s)", expression_);
+      }
+   }
+
+   private String generateConcatExpression(String... expressions_) {
+      switch (_database.getFlavor()) {
+      case MYSQL:
+         return String.format("CONCAT(%s)", StringUtils.join(expressions_, ", "));
+      case SQLSERVER:
+         return StringUtils.join(expressions_, " + ");
+      default:
+         return StringUtils.join(expressions_, " || ");
+      }
+   }
+
    private DKDBType getConcreteType(DKDBColumn column_) {
       if (column_ == null)
          return null;
@@ -44,6 +44,7 @@ import org.slf4j.LoggerFactory;
 import org.diffkit.common.DKDistProperties;
 import org.diffkit.common.DKRuntime;
 import org.diffkit.common.DKUserException;
+import org.diffkit.db.DKDBConnectionPool;
 import org.diffkit.db.DKDBFlavor;
 import org.diffkit.diff.engine.DKContext;
 import org.diffkit.diff.engine.DKContext.UserKey;
@@ -67,6 +68,15 @@ public class DKApplication {
    private static final String PLAN_FILE_OPTION_KEY = "planfiles";
    private static final String ERROR_ON_DIFF_OPTION_KEY = "errorOnDiff";
    private static final String DEMO_DB_OPTION_KEY = "demoDB";
+   private static final String BATCH_OPTION_KEY = "batch";
+   private static final String THREADS_OPTION_KEY = "threads";
+   private static final String DB_THREADS_OPTION_KEY = "dbThreads";
+   private static final String PLAN_BEAN_NAME = "plan";
+   /**
+    * optional; plan files can supply their own DKDiffEngine (e.g.
+    * DKParallelDiffEngine) under this name
+    */
+   private static final String ENGINE_BEAN_NAME = "engine";
    private static final Options OPTIONS = new Options();
 
    private static final String LOGBACK_FILE_NAME = "logback.xml";
@@ -94,7 +104,24 @@ public class DKApplication {
          "exit with error status code (-1) if diffs are detected. otherwise will always exit with 0 unless an operating Exception was encountered"));
       optionGroup.addOption(new Option(DEMO_DB_OPTION_KEY,
          "run embedded demo H2 database"));
+
+      OptionBuilder.withArgName("manifestFile");
+      OptionBuilder.hasArg();
+      OptionBuilder.withDescription("perform the diffs of every plan in the manifest file (one -planfiles value per line), concurrently");
+      optionGroup.addOption(OptionBuilder.create(BATCH_OPTION_KEY));
       OPTIONS.addOptionGroup(optionGroup);
+
+      OptionBuilder.withArgName("count");
+      OptionBuilder.hasArg();
+      OptionBuilder.withDescription("with -batch, the most plans to run at once; default is the number of processors");
+      OPTIONS.addOption(OptionBuilder.create(THREADS_OPTION_KEY));
+
+      OptionBuilder.withArgName("count");
+      OptionBuilder.hasArg();
+      OptionBuilder.withDescription(String.format(
+         "with -batch, the most plans to run at once against any one database; default is %s",
+         DKBatchRunner.DEFAULT_DB_THREAD_COUNT));
+      OPTIONS.addOption(OptionBuilder.create(DB_THREADS_OPTION_KEY));
    }
 
    public static void main(String[] args_) {
@@ -116,6 +143,12 @@ public class DKApplication {
                line.hasOption(ERROR_ON_DIFF_OPTION_KEY));
          else if (line.hasOption(DEMO_DB_OPTION_KEY))
             runDemoDB();
+         else if (line.hasOption(BATCH_OPTION_KEY))
+            runBatch(line.getOptionValue(BATCH_OPTION_KEY), parseCount(line,
+               THREADS_OPTION_KEY, Runtime.getRuntime().availableProcessors()),
+               parseCount(line, DB_THREADS_OPTION_KEY,
+                  DKBatchRunner.DEFAULT_DB_THREAD_COUNT),
+               line.hasOption(ERROR_ON_DIFF_OPTION_KEY));
          else
             printInvalidArguments(args_);
       }
@@ -161,8 +194,9 @@ public class DKApplication {
       systemLog.info("planFilesString_->{}", planFilesString_);
       String[] planFiles = planFilesString_.split("\\,");
       userLog.info("planfile(s)->{}", Arrays.toString(planFiles));
-      DKPlan plan = (DKPlan) DKSpringUtil.getBean("plan", planFiles,
-         DKApplication.class.getClassLoader());
+      Map<String, ?> beans = getPlanBeans(planFiles);
+      DKPlan plan = getPlan(beans);
+      DKDiffEngine engine = getEngine(beans);
       systemLog.info("plan->{}", plan);
       DKSource lhsSource = plan.getLhsSource();
       DKSource rhsSource = plan.getRhsSource();
@@ -174,9 +208,10 @@ public class DKApplication {
       userLog.info("tableComparison->{}", tableComparison);
       Map<UserKey, Object> userDictionary = new HashMap<UserKey, Object>();
       userDictionary.put(UserKey.PLAN_FILES, planFilesString_);
-      DKContext diffContext = doDiff(lhsSource, rhsSource, sink, tableComparison,
-         userDictionary);
+      DKContext diffContext = doDiff(engine, lhsSource, rhsSource, sink,
+         tableComparison, userDictionary);
       userLog.info(sink.generateSummary(diffContext));
+      DKDBConnectionPool.closeAll();
       if (plan.getSink().getDiffCount() == 0)
          System.exit(0);
       if (errorOnDiff_)
@@ -184,12 +219,70 @@ public class DKApplication {
       System.exit(0);
    }
 
+   private static void runBatch(String manifestFilePath_, int threadCount_,
+                                int dbThreadCount_, boolean errorOnDiff_)
+      throws Exception {
+      Logger userLog = DKRuntime.getInstance().getUserLog();
+      userLog.info("manifest->{}", manifestFilePath_);
+      List<String> plans = DKBatchRunner.readManifest(new File(manifestFilePath_));
+      DKBatchRunner runner = new DKBatchRunner(plans, threadCount_, dbThreadCount_);
+      List<DKBatchRunner.Result> results = runner.run();
+      userLog.info(DKBatchRunner.generateSummary(results));
+      DKDBConnectionPool.closeAll();
+      System.exit(DKBatchRunner.getExitCode(results, errorOnDiff_));
+   }
+
+   /**
+    * @return default_ if the option is absent
+    */
+   private static int parseCount(CommandLine line_, String optionKey_, int default_) {
+      String value = line_.getOptionValue(optionKey_);
+      if (value == null)
+         return default_;
+      try {
+         int count = Integer.parseInt(value.trim());
+         if (count > 0)
+            return count;
+      }
+      catch (NumberFormatException e_) {
+         // reported below
+      }
+      throw new DKUserException(String.format("invalid -%s->%s", optionKey_, value));
+   }
+
+   /**
+    * @return the plan and (optional) engine beans
+    */
+   static Map<String, ?> getPlanBeans(String[] planFiles_) {
+      Map<String, ?> beans = DKSpringUtil.getBeans(new String[] { PLAN_BEAN_NAME,
+         ENGINE_BEAN_NAME }, planFiles_, DKApplication.class.getClassLoader());
+      if ((beans == null) || (beans.get(PLAN_BEAN_NAME) == null))
+         throw new RuntimeException(String.format(
+            "no bean named->%s in planFiles->%s", PLAN_BEAN_NAME,
+            Arrays.toString(planFiles_)));
+      return beans;
+   }
+
+   static DKPlan getPlan(Map<String, ?> beans_) {
+      return (DKPlan) beans_.get(PLAN_BEAN_NAME);
+   }
+
+   /**
+    * @return null if the plan files did not supply an engine
+    */
+   static DKDiffEngine getEngine(Map<String, ?> beans_) {
+      return (DKDiffEngine) beans_.get(ENGINE_BEAN_NAME);
+   }
+
    @SuppressWarnings("unchecked")
-   private static DKContext doDiff(DKSource lhsSource_, DKSource rhsSource_,
-                                   DKSink sink_, DKTableComparison tableComparison_,
+   static DKContext doDiff(DKDiffEngine engine_, DKSource lhsSource_,
+                                   DKSource rhsSource_, DKSink sink_,
+                                   DKTableComparison tableComparison_,
                                    Map<UserKey, Object> userDictionary_) throws Exception {
       Logger systemLog = getSystemLog();
-      DKDiffEngine engine = new DKDiffEngine();
+      DKDiffEngine engine = engine_;
+      if (engine == null)
+         engine = new DKDiffEngine();
       userDictionary_ = DKMapUtil.combine(userDictionary_,
          tableComparison_.getUserDictionary());
       systemLog.info("engine->{}", engine);
@@ -0,0 +1,393 @@
+/**
+ * Copyright 2010-2011 Joseph Panico
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.diffkit.diff.conf;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang.ClassUtils;
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.time.DurationFormatUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.diffkit.common.DKRuntime;
+import org.diffkit.common.DKUserException;
+import org.diffkit.common.DKValidate;
+import org.diffkit.common.annot.ThreadSafe;
+import org.diffkit.db.DKDBConnectionInfo;
+import org.diffkit.diff.engine.DKContext;
+import org.diffkit.diff.engine.DKContext.UserKey;
+import org.diffkit.diff.engine.DKSink;
+import org.diffkit.diff.engine.DKSource;
+import org.diffkit.diff.sns.DKDBSink;
+import org.diffkit.diff.sns.DKDBSource;
+import org.diffkit.diff.sns.DKPipelinedSource;
+
+/**
+ * Runs many plans in one JVM, concurrently, so that Spring, the JDBC drivers,
+ * the DKDBConnectionPools, and the database type metadata are set up once per
+ * batch, instead of once per plan. At most threadCount_ plans run at once, and
+ * at most dbThreadCount_ of those can be diffing against any one database
+ * (identified, as for DKDBConnectionPool, by its DKDBConnectionInfo). A plan
+ * that uses more than one database waits for a turn on each of them, always
+ * in the same order, so plans can't deadlock. Loading a plan (which may read
+ * table metadata) happens before it waits.
+ * 
+ * A plan that fails is reported in its Result; the other plans carry on.
+ * 
+ * @author jpanico
+ */
+@ThreadSafe
+public class DKBatchRunner {
+   public static final int DEFAULT_DB_THREAD_COUNT = 4;
+   public static final int FAILURE_EXIT_CODE = 1;
+   public static final int DIFF_EXIT_CODE = -1;
+
+   private static final String COMMENT_PREFIX = "#";
+
+   private final List<String> _plans;
+   private final int _threadCount;
+   private final int _dbThreadCount;
+   /**
+    * guarded by itself
+    */
+   private final Map<DKDBConnectionInfo, DatabaseGate> _gates = new HashMap<DKDBConnectionInfo, DatabaseGate>();
+   private final Logger _log = LoggerFactory.getLogger(this.getClass());
+
+   /**
+    * @param plans_
+    *           each element is a comma separated list of plan files, as for
+    *           -planfiles
+    */
+   public DKBatchRunner(List<String> plans_, int threadCount_, int dbThreadCount_) {
+      DKValidate.notNull(plans_);
+      if ((threadCount_ < 1) || (dbThreadCount_ < 1))
+         throw new IllegalArgumentException(String.format(
+            "invalid threadCount_->%s or dbThreadCount_->%s", threadCount_,
+            dbThreadCount_));
+      _plans = new ArrayList<String>(plans_);
+      _threadCount = threadCount_;
+      _dbThreadCount = dbThreadCount_;
+   }
+
+   /**
+    * one plan (comma separated plan files) per line; blank lines, and lines
+    * starting with '#', are skipped
+    */
+   @SuppressWarnings("unchecked")
+   public static List<String> readManifest(File manifestFile_) throws IOException {
+      DKValidate.notNull(manifestFile_);
+      if (!manifestFile_.canRead())
+         throw new DKUserException(String.format("can't read manifest file [%s]",
+            manifestFile_));
+      List<String> plans = new ArrayList<String>();
+      for (String line : (List<String>) FileUtils.readLines(manifestFile_)) {
+         line = StringUtils.trimToNull(line);
+         if ((line == null) || line.startsWith(COMMENT_PREFIX))
+            continue;
+         plans.add(line);
+      }
+      if (plans.isEmpty())
+         throw new DKUserException(String.format("no plans in manifest file [%s]",
+            manifestFile_));
+      return plans;
+   }
+
+   public List<String> getPlans() {
+      return Collections.unmodifiableList(_plans);
+   }
+
+   public int getThreadCount() {
+      return _threadCount;
+   }
+
+   public int getDbThreadCount() {
+      return _dbThreadCount;
+   }
+
+   /**
+    * @return one Result per plan, in manifest order
+    */
+   public List<Result> run() throws InterruptedException {
+      _log.info("plans->{} threadCount->{} dbThreadCount->{}", new Object[] {
+         _plans.size(), _threadCount, _dbThreadCount });
+      if (_plans.isEmpty())
+         return new ArrayList<Result>();
+      ExecutorService executor = Executors.newFixedThreadPool(Math.min(_threadCount,
+         _plans.size()));
+      try {
+         List<Future<Result>> futures = new ArrayList<Future<Result>>(_plans.size());
+         for (final String plan : _plans) {
+            futures.add(executor.submit(new Callable<Result>() {
+               public Result call() {
+                  return runPlan(plan);
+               }
+            }));
+         }
+         List<Result> results = new ArrayList<Result>(_plans.size());
+         for (Future<Result> future : futures)
+            results.add(get(future));
+         return results;
+      }
+      finally {
+         executor.shutdownNow();
+      }
+   }
+
+   private static Result get(Future<Result> future_) throws InterruptedException {
+      try {
+         return future_.get();
+      }
+      catch (ExecutionException e_) {
+         // runPlan() catches everything
+         throw new RuntimeException(e_.getCause());
+      }
+   }
+
+   private Result runPlan(String planFilesString_) {
+      Logger userLog = DKRuntime.getInstance().getUserLog();
+      long start = System.currentTimeMillis();
+      try {
+         userLog.info("starting plan->{}", planFilesString_);
+         String[] planFiles = planFilesString_.split("\\,");
+         Map<String, ?> beans = DKApplication.getPlanBeans(planFiles);
+         DKPlan plan = DKApplication.getPlan(beans);
+         _log.info("plan->{}", plan);
+         DKSink sink = plan.getSink();
+         List<DatabaseGate> gates = this.getGates(plan);
+         for (int i = 0; i < gates.size(); i++) {
+            try {
+               gates.get(i).acquire();
+            }
+            catch (InterruptedException e_) {
+               release(gates.subList(0, i));
+               throw e_;
+            }
+         }
+         DKContext context = null;
+         try {
+            Map<UserKey, Object> userDictionary = new HashMap<UserKey, Object>();
+            userDictionary.put(UserKey.PLAN_FILES, planFilesString_);
+            context = DKApplication.doDiff(DKApplication.getEngine(beans),
+               plan.getLhsSource(), plan.getRhsSource(), sink,
+               plan.getTableComparison(), userDictionary);
+         }
+         finally {
+            release(gates);
+         }
+         userLog.info("plan->{}\n{}", planFilesString_, sink.generateSummary(context));
+         return new Result(planFilesString_, sink.getDiffCount(), null,
+            System.currentTimeMillis() - start);
+      }
+      catch (Throwable e_) {
+         _log.error(String.format("plan->%s failed", planFilesString_), e_);
+         return new Result(planFilesString_, -1, e_, System.currentTimeMillis() - start);
+      }
+   }
+
+   private static void release(List<DatabaseGate> gates_) {
+      for (DatabaseGate gate : gates_)
+         gate.release();
+   }
+
+   /**
+    * @return the gate of each distinct database that plan_ reads or writes,
+    *         in acquisition order
+    */
+   private List<DatabaseGate> getGates(DKPlan plan_) {
+      List<DKDBConnectionInfo> connectionInfos = new ArrayList<DKDBConnectionInfo>();
+      addConnectionInfo(plan_.getLhsSource(), connectionInfos);
+      addConnectionInfo(plan_.getRhsSource(), connectionInfos);
+      if (plan_.getSink() instanceof DKDBSink)
+         addConnectionInfo(
+            ((DKDBSink) plan_.getSink()).getDatabase().getConnectionInfo(),
+            connectionInfos);
+      List<DatabaseGate> gates = new ArrayList<DatabaseGate>(connectionInfos.size());
+      synchronized (_gates) {
+         for (DKDBConnectionInfo connectionInfo : connectionInfos) {
+            DatabaseGate gate = _gates.get(connectionInfo);
+            if (gate == null) {
+               gate = new DatabaseGate(connectionInfo, _gates.size(), _dbThreadCount);
+               _gates.put(connectionInfo, gate);
+            }
+            gates.add(gate);
+         }
+      }
+      Collections.sort(gates, DatabaseGate.ORDER_COMPARATOR);
+      return gates;
+   }
+
+   private static void addConnectionInfo(DKSource source_,
+                                         List<DKDBConnectionInfo> connectionInfos_) {
+      if (source_ instanceof DKPipelinedSource)
+         source_ = ((DKPipelinedSource) source_).getSource();
+      if (source_ instanceof DKDBSource)
+         addConnectionInfo(((DKDBSource) source_).getDatabase().getConnectionInfo(),
+            connectionInfos_);
+   }
+
+   private static void addConnectionInfo(DKDBConnectionInfo connectionInfo_,
+                                         List<DKDBConnectionInfo> connectionInfos_) {
+      if ((connectionInfo_ != null) && !connectionInfos_.contains(connectionInfo_))
+         connectionInfos_.add(connectionInfo_);
+   }
+
+   public static String generateSummary(List<Result> results_) {
+      StringBuilder builder = new StringBuilder();
+      builder.append("--- batch summary ---\n");
+      int diffCount = 0;
+      int failureCount = 0;
+      for (Result result : results_) {
+         String elapsed = DKRuntime.getInstance().getIsTest() ? "xxx"
+            : DurationFormatUtils.formatDurationHMS(result.getElapsedMillis());
+         if (result.isFailure()) {
+            failureCount++;
+            builder.append(String.format("%s failed in %s: %s\n", result.getPlan(),
+               elapsed, result.getError()));
+         }
+         else {
+            if (result.getDiffCount() > 0)
+               diffCount++;
+            builder.append(String.format("%s has %s diffs in %s\n", result.getPlan(),
+               result.getDiffCount(), elapsed));
+         }
+      }
+      builder.append(String.format("%s plans, %s with diffs, %s failed\n",
+         results_.size(), diffCount, failureCount));
+      builder.append("---------------------\n");
+      return builder.toString();
+   }
+
+   /**
+    * @return FAILURE_EXIT_CODE if any plan failed; otherwise DIFF_EXIT_CODE if
+    *         errorOnDiff_ and any plan has diffs; otherwise 0
+    */
+   public static int getExitCode(List<Result> results_, boolean errorOnDiff_) {
+      boolean hasDiffs = false;
+      for (Result result : results_) {
+         if (result.isFailure())
+            return FAILURE_EXIT_CODE;
+         hasDiffs |= (result.getDiffCount() > 0);
+      }
+      return (hasDiffs && errorOnDiff_) ? DIFF_EXIT_CODE : 0;
+   }
+
+   public String toString() {
+      return String.format("%s[plans=%s, threadCount=%s, dbThreadCount=%s]",
+         ClassUtils.getShortClassName(this.getClass()), _plans.size(), _threadCount,
+         _dbThreadCount);
+   }
+
+   /**
+    * the outcome of one plan
+    */
+   public static class Result {
+      private final String _plan;
+      private final long _diffCount;
+      private final Throwable _error;
+      private final long _elapsedMillis;
+
+      private Result(String plan_, long diffCount_, Throwable error_, long elapsedMillis_) {
+         _plan = plan_;
+         _diffCount = diffCount_;
+         _error = error_;
+         _elapsedMillis = elapsedMillis_;
+      }
+
+      public String getPlan() {
+         return _plan;
+      }
+
+      /**
+       * @return -1 if the plan failed
+       */
+      public long getDiffCount() {
+         return _diffCount;
+      }
+
+      /**
+       * @return null unless the plan failed
+       */
+      public Throwable getError() {
+         return _error;
+      }
+
+      public boolean isFailure() {
+         return (_error != null);
+      }
+
+      public long getElapsedMillis() {
+         return _elapsedMillis;
+      }
+
+      public String toString() {
+         return String.format("%s[%s, diffCount=%s, error=%s]",
+            ClassUtils.getShortClassName(this.getClass()), _plan, _diffCount, _error);
+      }
+   }
+
+   /**
+    * caps the number of plans running against one database
+    */
+   private static class DatabaseGate {
+      private static final Comparator<DatabaseGate> ORDER_COMPARATOR = new Comparator<DatabaseGate>() {
+         public int compare(DatabaseGate lhs_, DatabaseGate rhs_) {
+            return (lhs_._ordinal < rhs_._ordinal) ? -1 : ((lhs_._ordinal == rhs_._ordinal) ? 0
+               : 1);
+         }
+      };
+
+      private final DKDBConnectionInfo _connectionInfo;
+      /**
+       * gates are always acquired in ascending _ordinal
+       */
+      private final int _ordinal;
+      private final Semaphore _permits;
+
+      private DatabaseGate(DKDBConnectionInfo connectionInfo_, int ordinal_, int permits_) {
+         _connectionInfo = connectionInfo_;
+         _ordinal = ordinal_;
+         _permits = new Semaphore(permits_, true);
+      }
+
+      private void acquire() throws InterruptedException {
+         _permits.acquire();
+      }
+
+      private void release() {
+         _permits.release();
+      }
+
+      public String toString() {
+         return String.format("%s[%s]", ClassUtils.getShortClassName(this.getClass()),
+            _connectionInfo);
+      }
+   }
+}
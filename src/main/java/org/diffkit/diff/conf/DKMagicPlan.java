@@ -26,6 +26,7 @@ import org.diffkit.diff.engine.DKSink;
 import org.diffkit.diff.engine.DKSource;
 import org.diffkit.diff.engine.DKStandardTableComparison;
 import org.diffkit.diff.engine.DKTableComparison;
+import org.diffkit.diff.sns.DKPipelinedSource;
 
 /**
  * @author jpanico
@@ -63,6 +64,13 @@ public class DKMagicPlan implements DKPlan {
    private Long _maxDiffs;
    private Boolean _withSummary;
    private String[] _groupByColumnNames;
+   private Integer _readAheadDepth;
+   private Integer _readAheadBatchSize;
+   private Long _sortMemoryBudget;
+   private String _sortTempDir;
+   private Boolean _memoryMapped;
+   private Integer _parseThreadCount;
+   private Integer _fetchSize;
    private DKPassthroughPlan _builtPlan;
    private final Logger _log = LoggerFactory.getLogger(this.getClass());
 
@@ -266,6 +274,83 @@ public class DKMagicPlan implements DKPlan {
       _groupByColumnNames = groupByColumnNames_;
    }
 
+   /**
+    * when set, both sources are wrapped in a DKPipelinedSource with a buffer of
+    * this many batches
+    */
+   public Integer getReadAheadDepth() {
+      return _readAheadDepth;
+   }
+
+   public void setReadAheadDepth(Integer readAheadDepth_) {
+      _readAheadDepth = readAheadDepth_;
+   }
+
+   public Integer getReadAheadBatchSize() {
+      return _readAheadBatchSize;
+   }
+
+   public void setReadAheadBatchSize(Integer readAheadBatchSize_) {
+      _readAheadBatchSize = readAheadBatchSize_;
+   }
+
+   /**
+    * approximate heap, in bytes, used to sort a file source when isSorted is
+    * false
+    */
+   public Long getSortMemoryBudget() {
+      return _sortMemoryBudget;
+   }
+
+   public void setSortMemoryBudget(Long sortMemoryBudget_) {
+      _sortMemoryBudget = sortMemoryBudget_;
+   }
+
+   /**
+    * directory for the spill files of a file source sort
+    */
+   public String getSortTempDir() {
+      return _sortTempDir;
+   }
+
+   public void setSortTempDir(String sortTempDir_) {
+      _sortTempDir = sortTempDir_;
+   }
+
+   /**
+    * read file sources through a memory mapped window
+    */
+   public Boolean getMemoryMapped() {
+      return _memoryMapped;
+   }
+
+   public void setMemoryMapped(Boolean memoryMapped_) {
+      _memoryMapped = memoryMapped_;
+   }
+
+   /**
+    * when > 1, file sources are parsed in chunks on this many threads
+    */
+   public Integer getParseThreadCount() {
+      return _parseThreadCount;
+   }
+
+   public void setParseThreadCount(Integer parseThreadCount_) {
+      _parseThreadCount = parseThreadCount_;
+   }
+
+   /**
+    * JDBC fetch size for DB sources; when null, each source chooses one for
+    * its database flavor and row width
+    */
+   public Integer getFetchSize() {
+      return _fetchSize;
+   }
+
+   public void setFetchSize(Integer fetchSize_) {
+      _fetchSize = fetchSize_;
+   }
+
    public DKDBConnectionInfo getDbConnectionInfo() {
       return _dbConnectionInfo;
    }
@@ -352,6 +437,16 @@ public class DKMagicPlan implements DKPlan {
       catch (Exception e_) {
          throw new RuntimeException(e_);
       }
+      if ((_readAheadDepth != null) || (_readAheadBatchSize != null)) {
+         int depth = (_readAheadDepth == null) ? DKPipelinedSource.DEFAULT_DEPTH
+            : _readAheadDepth;
+         int batchSize = (_readAheadBatchSize == null) ? DKPipelinedSource.DEFAULT_BATCH_SIZE
+            : _readAheadBatchSize;
+         _builtPlan.setLhsSource(new DKPipelinedSource(_builtPlan.getLhsSource(), depth,
+            batchSize));
+         _builtPlan.setRhsSource(new DKPipelinedSource(_builtPlan.getRhsSource(), depth,
+            batchSize));
+      }
       return _builtPlan;
    }
 }
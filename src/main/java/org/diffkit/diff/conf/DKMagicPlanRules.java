@@ -18,6 +18,11 @@ package org.diffkit.diff.conf;
 import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.lang.ArrayUtils;
 
 import org.diffkit.common.kvc.DKKeyValueCoder;
 import org.diffkit.db.DKDBConnectionInfo;
@@ -173,8 +178,60 @@ public class DKMagicPlanRules {
       "defaultDelimiter", "if no delimiter is specified in plan, use ','",
       DKFileSource.class, "delimiter_", null, false, new Constant(","));
    private static final DKMagicPlanRule IS_SORTED_RULE = new DKMagicPlanRule("isSorted",
-      "hardwire isSorted to true", DKFileSource.class, "isSorted_", null, true,
-      new Constant(Boolean.TRUE));
+      "assign isSorted from the Plan to the FileSource", DKFileSource.class, "isSorted_",
+      "isSorted", true, new PlanValue(true));
+   private static final DKMagicPlanRule DEFAULT_IS_SORTED_RULE = new DKMagicPlanRule(
+      "defaultIsSorted", "hardwire isSorted to true", DKFileSource.class, "isSorted_",
+      null, false, new Constant(Boolean.TRUE));
+   private static final DKMagicPlanRule SORT_MEMORY_BUDGET_RULE = new DKMagicPlanRule(
+      "sortMemoryBudget", "assign sortMemoryBudget from the Plan to the FileSource",
+      DKFileSource.class, "sortMemoryBudget_", "sortMemoryBudget", true, new PlanValue(
+         true));
+   private static final DKMagicPlanRule DEFAULT_SORT_MEMORY_BUDGET_RULE = new DKMagicPlanRule(
+      "defaultSortMemoryBudget", "let the FileSource choose its own sortMemoryBudget",
+      DKFileSource.class, "sortMemoryBudget_", null, false, new Constant(null));
+   private static final DKMagicPlanRule SORT_TEMP_DIR_RULE = new DKMagicPlanRule(
+      "sortTempDir", "assign sortTempDir from the Plan to the FileSource",
+      DKFileSource.class, "sortTempDirPath_", "sortTempDir", true, new PlanValue(true));
+   private static final DKMagicPlanRule DEFAULT_SORT_TEMP_DIR_RULE = new DKMagicPlanRule(
+      "defaultSortTempDir", "use java.io.tmpdir for the FileSource sort",
+      DKFileSource.class, "sortTempDirPath_", null, false, new Constant(null));
+   private static final DKMagicPlanRule MEMORY_MAPPED_RULE = new DKMagicPlanRule(
+      "memoryMapped", "assign memoryMapped from the Plan to the FileSource",
+      DKFileSource.class, "memoryMapped_", "memoryMapped", true, new PlanValue(true));
+   private static final DKMagicPlanRule DEFAULT_MEMORY_MAPPED_RULE = new DKMagicPlanRule(
+      "defaultMemoryMapped", "read the FileSource line by line", DKFileSource.class,
+      "memoryMapped_", null, false, new Constant(Boolean.FALSE));
+   private static final DKMagicPlanRule PARSE_THREAD_COUNT_RULE = new DKMagicPlanRule(
+      "parseThreadCount", "assign parseThreadCount from the Plan to the FileSource",
+      DKFileSource.class, "parseThreadCount_", "parseThreadCount", true, new PlanValue(
+         true));
+   private static final DKMagicPlanRule DEFAULT_PARSE_THREAD_COUNT_RULE = new DKMagicPlanRule(
+      "defaultParseThreadCount", "parse the FileSource on a single thread",
+      DKFileSource.class, "parseThreadCount_", null, false, new Constant(null));
+   private static final DKMagicPlanRule FETCH_SIZE_RULE = new DKMagicPlanRule(
+      "fetchSize", "assign fetchSize from the Plan to the DBSource", DKDBSource.class,
+      "fetchSize_", "fetchSize", true, new PlanValue(true));
+   private static final DKMagicPlanRule DEFAULT_FETCH_SIZE_RULE = new DKMagicPlanRule(
+      "defaultFetchSize",
+      "let the DBSource choose a fetch size for its flavor and row width",
+      DKDBSource.class, "fetchSize_", null, false, new Constant(null));
+   private static final DKMagicPlanRule READ_COLUMN_NAMES_RULE = new DKMagicPlanRule(
+      "readColumnNames",
+      "if diffColumnNames is specified in plan, and the sink is not a SqlPatchSink, then the FileSource only reads those, plus the display columns",
+      DKFileSource.class, "readColumnNames_", "diffColumnNames", true,
+      new ProjectedColumnNames(false));
+   private static final DKMagicPlanRule DEFAULT_READ_COLUMN_NAMES_RULE = new DKMagicPlanRule(
+      "defaultReadColumnNames", "the FileSource reads every column", DKFileSource.class,
+      "readColumnNames_", null, false, new Constant(null));
+   private static final DKMagicPlanRule FILE_IGNORE_COLUMN_NAMES_RULE = new DKMagicPlanRule(
+      "fileIgnoreColumnNames",
+      "if ignoreColumnNames is specified in plan, and the sink is not a SqlPatchSink, then the FileSource skips those, except for the display columns",
+      DKFileSource.class, "ignoreColumnNames_", "ignoreColumnNames", true,
+      new ProjectedColumnNames(true));
+   private static final DKMagicPlanRule DEFAULT_FILE_IGNORE_COLUMN_NAMES_RULE = new DKMagicPlanRule(
+      "defaultFileIgnoreColumnNames", "the FileSource skips no columns",
+      DKFileSource.class, "ignoreColumnNames_", null, false, new Constant(null));
    private static final DKMagicPlanRule VALIDATE_LAZILY_RULE = new DKMagicPlanRule(
       "validateLazily", "hardwire validateLazily to false", DKFileSource.class,
       "validateLazily_", null, true, new Constant(Boolean.FALSE));
@@ -299,7 +356,13 @@ public class DKMagicPlanRules {
       RHS_SPREADSHEET_FILE_PATH_RULE, FILE_SINK_RULE, FILE_SINK_PATH_RULE,
       SQL_PATCH_SINK_RULE, SQL_PATCH_SINK_RHS_TABLE_NAME_RULE, SQL_PATCH_FILE_PATH_RULE,
       DEFAULT_SINK_RULE, AUTOMATIC_TABLE_COMPARISON_RULE, DELIMITER_RULE,
-      DEFAULT_DELIMITER_RULE, IS_SORTED_RULE, VALIDATE_LAZILY_RULE, DIFF_KIND_RULE,
+      DEFAULT_DELIMITER_RULE, IS_SORTED_RULE, DEFAULT_IS_SORTED_RULE,
+      SORT_MEMORY_BUDGET_RULE, DEFAULT_SORT_MEMORY_BUDGET_RULE, SORT_TEMP_DIR_RULE,
+      DEFAULT_SORT_TEMP_DIR_RULE, MEMORY_MAPPED_RULE, DEFAULT_MEMORY_MAPPED_RULE,
+      PARSE_THREAD_COUNT_RULE, DEFAULT_PARSE_THREAD_COUNT_RULE, FETCH_SIZE_RULE,
+      DEFAULT_FETCH_SIZE_RULE, READ_COLUMN_NAMES_RULE,
+      DEFAULT_READ_COLUMN_NAMES_RULE, FILE_IGNORE_COLUMN_NAMES_RULE,
+      DEFAULT_FILE_IGNORE_COLUMN_NAMES_RULE, VALIDATE_LAZILY_RULE, DIFF_KIND_RULE,
       DEFAULT_DIFF_KIND_RULE, DIFF_COLUMN_NAMES_RULE, IGNORE_COLUMN_NAMES_RULE,
       DISPLAY_COLUMN_NAMES_RULE, MAX_DIFFS_RULE, DEFAULT_MAX_DIFFS_RULE,
       NUMBER_TOLERANCE_RULE, TOLERANCE_MAP_RULE, WITH_SUMMARY_RULE,
@@ -380,6 +443,45 @@ public class DKMagicPlanRules {
       }
    }
 
+   /**
+    * the column names from the plan key, adjusted so that the display columns
+    * are always read; doesn't apply when the sink writes out whole rows (a
+    * SqlPatchSink inserts them), since those need every column
+    */
+   private static class ProjectedColumnNames extends RuleImplementation {
+      private final boolean _isIgnore;
+
+      private ProjectedColumnNames(boolean isIgnore_) {
+         _isIgnore = isIgnore_;
+      }
+
+      @Override
+      public boolean applies(DKMagicDependency<?> dependency_, DKMagicPlan providedPlan_) {
+         if (!super.applies(dependency_, providedPlan_))
+            return false;
+         if (providedPlan_.getSqlPatchFilePath() != null)
+            return false;
+         return !(providedPlan_.getProvidedPlan().getSink() instanceof DKSqlPatchSink);
+      }
+
+      @Override
+      public Object resolve(DKMagicDependency<?> dependency_, DKMagicPlan providedPlan_) {
+         String[] columnNames = (String[]) DKKeyValueCoder.getInstance().getValueAtPath(
+            this.getRule().getMagicPlanKey(), providedPlan_);
+         String[] displayColumnNames = providedPlan_.getDisplayColumnNames();
+         if (ArrayUtils.isEmpty(columnNames) || ArrayUtils.isEmpty(displayColumnNames))
+            return columnNames;
+         List<String> projected = new ArrayList<String>(Arrays.asList(columnNames));
+         for (String displayColumnName : displayColumnNames) {
+            if (_isIgnore)
+               projected.remove(displayColumnName);
+            else if (!projected.contains(displayColumnName))
+               projected.add(displayColumnName);
+         }
+         return projected.toArray(new String[projected.size()]);
+      }
+   }
+
    private static class DefaultSink extends RuleImplementation {
 
       @Override
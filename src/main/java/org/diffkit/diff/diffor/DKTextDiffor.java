@@ -15,25 +15,49 @@
  */
 package org.diffkit.diff.diffor;
 
-import java.util.regex.Pattern;
+import java.text.Normalizer;
 
+import org.apache.commons.lang.ClassUtils;
 import org.apache.commons.lang.StringUtils;
 import org.diffkit.diff.engine.DKContext;
 import org.diffkit.diff.engine.DKDiffor;
 
 /**
+ * Compares Strings after normalizing whitespace: each run of spaces, tabs, CRs
+ * and LFs counts as a single space, and leading and trailing whitespace (any
+ * char <= ' ') is ignored; a String that is all whitespace is the same as
+ * null. Any of the _ignoreChars are dropped before normalizing. Optionally
+ * ignores case, and compares in a Unicode normal form.
+ * 
+ * isDiff() walks both Strings with a cursor apiece, folding as it goes, so it
+ * does not allocate (except to apply a Unicode normal form, when the input is
+ * not already in that form).
+ * 
  * @author jpanico
  */
 public class DKTextDiffor implements DKDiffor {
 
-	private static final Pattern NEWLINE_TAB_PATTERN = Pattern
-			.compile("[\n\r\t]{1}");
-	private static final Pattern SPACE_RUN_PATTERN = Pattern.compile("[ ]+");
-
 	private final String _ignoreChars;
+	private final boolean _ignoreCase;
+	private final Normalizer.Form _normalForm;
 
 	public DKTextDiffor(String ignoreChars_) {
-		_ignoreChars = ignoreChars_;
+		this(ignoreChars_, false, null);
+	}
+
+	/**
+	 * @param ignoreCase_
+	 *            compare chars the way String.equalsIgnoreCase() does
+	 * @param normalForm_
+	 *            if not null, both sides are brought to this Unicode normal
+	 *            form before comparing; e.g. NFC treats "e" + combining acute
+	 *            the same as precomposed "é"
+	 */
+	public DKTextDiffor(String ignoreChars_, boolean ignoreCase_,
+			Normalizer.Form normalForm_) {
+		_ignoreChars = StringUtils.isEmpty(ignoreChars_) ? null : ignoreChars_;
+		_ignoreCase = ignoreCase_;
+		_normalForm = normalForm_;
 	}
 
 	/**
@@ -50,22 +74,122 @@ public class DKTextDiffor implements DKDiffor {
 		boolean equals = lhs_.equals(rhs_);
 		if (equals)
 			return false;
-		String normalizedLhs = this.normalize((String) lhs_);
-		String normalizedRhs = this.normalize((String) rhs_);
-		lhsNull = (normalizedLhs == null);
-		rhsNull = (normalizedRhs == null);
+		String lhs = this.toNormalForm((String) lhs_);
+		String rhs = this.toNormalForm((String) rhs_);
+		int lhsEnd = this.findEnd(lhs);
+		int rhsEnd = this.findEnd(rhs);
+		int lhsIdx = this.findStart(lhs, lhsEnd);
+		int rhsIdx = this.findStart(rhs, rhsEnd);
+		lhsNull = (lhsIdx >= lhsEnd);
+		rhsNull = (rhsIdx >= rhsEnd);
 		if (lhsNull && rhsNull)
 			return false;
 		if (lhsNull || rhsNull)
 			return true;
-		return !normalizedLhs.equals(normalizedRhs);
+		while (true) {
+			lhsIdx = this.skipIgnored(lhs, lhsIdx, lhsEnd);
+			rhsIdx = this.skipIgnored(rhs, rhsIdx, rhsEnd);
+			boolean lhsDone = (lhsIdx >= lhsEnd);
+			boolean rhsDone = (rhsIdx >= rhsEnd);
+			if (lhsDone || rhsDone)
+				return (lhsDone != rhsDone);
+			char lhsChar = lhs.charAt(lhsIdx);
+			char rhsChar = rhs.charAt(rhsIdx);
+			// fold a whitespace run into one space. The run cannot reach
+			// xxxEnd, because findEnd() stops at a significant char
+			if (isSpace(lhsChar)) {
+				lhsChar = ' ';
+				lhsIdx = this.skipSpace(lhs, lhsIdx, lhsEnd);
+			} else
+				lhsIdx++;
+			if (isSpace(rhsChar)) {
+				rhsChar = ' ';
+				rhsIdx = this.skipSpace(rhs, rhsIdx, rhsEnd);
+			} else
+				rhsIdx++;
+			if (!this.charsMatch(lhsChar, rhsChar))
+				return true;
+		}
+	}
+
+	private String toNormalForm(String target_) {
+		if ((_normalForm == null) || Normalizer.isNormalized(target_, _normalForm))
+			return target_;
+		return Normalizer.normalize(target_, _normalForm);
+	}
+
+	/**
+	 * @return index of the first significant char, or end_ if there is none
+	 */
+	private int findStart(String target_, int end_) {
+		int idx = 0;
+		while ((idx < end_) && this.isInsignificant(target_.charAt(idx)))
+			idx++;
+		return idx;
+	}
+
+	/**
+	 * @return one past the index of the last significant char
+	 */
+	private int findEnd(String target_) {
+		int end = target_.length();
+		while ((end > 0) && this.isInsignificant(target_.charAt(end - 1)))
+			end--;
+		return end;
+	}
+
+	private int skipIgnored(String target_, int idx_, int end_) {
+		if (_ignoreChars == null)
+			return idx_;
+		while ((idx_ < end_) && this.isIgnored(target_.charAt(idx_)))
+			idx_++;
+		return idx_;
+	}
+
+	/**
+	 * @return index of the first char past the whitespace run starting at
+	 *         idx_; ignored chars inside the run are part of it
+	 */
+	private int skipSpace(String target_, int idx_, int end_) {
+		while (idx_ < end_) {
+			char c = target_.charAt(idx_);
+			if (!isSpace(c) && !this.isIgnored(c))
+				break;
+			idx_++;
+		}
+		return idx_;
+	}
+
+	private boolean isInsignificant(char c_) {
+		return (c_ <= ' ') || this.isIgnored(c_);
+	}
+
+	private boolean isIgnored(char c_) {
+		return (_ignoreChars != null) && (_ignoreChars.indexOf(c_) >= 0);
+	}
+
+	private static boolean isSpace(char c_) {
+		return (c_ == ' ') || (c_ == '\n') || (c_ == '\r') || (c_ == '\t');
+	}
+
+	/**
+	 * same rule as String.regionMatches(true, ...)
+	 */
+	private boolean charsMatch(char lhs_, char rhs_) {
+		if (lhs_ == rhs_)
+			return true;
+		if (!_ignoreCase)
+			return false;
+		char lhsUpper = Character.toUpperCase(lhs_);
+		char rhsUpper = Character.toUpperCase(rhs_);
+		if (lhsUpper == rhsUpper)
+			return true;
+		return (Character.toLowerCase(lhsUpper) == Character.toLowerCase(rhsUpper));
 	}
 
-	private String normalize(String target_) {
-		String normalizedString = NEWLINE_TAB_PATTERN.matcher(target_)
-				.replaceAll(" ");
-		normalizedString = SPACE_RUN_PATTERN.matcher(normalizedString)
-				.replaceAll(" ");
-		return StringUtils.trimToNull(normalizedString);
+	public String toString() {
+		return String.format("%s[%s,%s,%s]",
+				ClassUtils.getShortClassName(this.getClass()), _ignoreChars,
+				_ignoreCase, _normalForm);
 	}
 }
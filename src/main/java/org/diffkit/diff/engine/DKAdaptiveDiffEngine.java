@@ -0,0 +1,87 @@
+/**
+ * Copyright 2010-2011 Joseph Panico
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.diffkit.diff.engine;
+
+import java.io.IOException;
+import java.util.Map;
+
+import org.apache.commons.lang.ClassUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.diffkit.common.DKValidate;
+import org.diffkit.diff.engine.DKContext.UserKey;
+
+/**
+ * Chooses, for each diff, between the key ordered merge of DKDiffEngine and the
+ * hash join of DKHashDiffEngine, based on the row count estimates of the
+ * sources. The hash join is chosen when both sources are DKUnorderedSource and
+ * the smaller of them is estimated to fit within the hash engine's
+ * memoryBudget, so that neither side has to be sorted and nothing has to be
+ * spilled. Otherwise the sources are merged, in key order, as usual.
+ *
+ * @author jpanico
+ */
+public class DKAdaptiveDiffEngine extends DKDiffEngine {
+   private final DKHashDiffEngine _hashEngine;
+   private final Logger _log = LoggerFactory.getLogger(this.getClass());
+
+   public DKAdaptiveDiffEngine() {
+      this(new DKHashDiffEngine());
+   }
+
+   public DKAdaptiveDiffEngine(DKHashDiffEngine hashEngine_) {
+      _hashEngine = hashEngine_;
+      DKValidate.notNull(_hashEngine);
+   }
+
+   public DKHashDiffEngine getHashEngine() {
+      return _hashEngine;
+   }
+
+   @Override
+   public DKContext diff(DKSource lhs_, DKSource rhs_, DKSink sink_,
+                         DKTableComparison tableComparison_,
+                         Map<UserKey, ?> userDictionary_) throws IOException {
+      DKValidate.notNull(lhs_, rhs_, sink_, tableComparison_);
+      if (this.isHashable(lhs_, rhs_)) {
+         _log.info("using hashEngine->{}", _hashEngine);
+         return _hashEngine.diff(lhs_, rhs_, sink_, tableComparison_, userDictionary_);
+      }
+      _log.info("using merge");
+      return super.diff(lhs_, rhs_, sink_, tableComparison_, userDictionary_);
+   }
+
+   private boolean isHashable(DKSource lhs_, DKSource rhs_) throws IOException {
+      if (!(lhs_ instanceof DKUnorderedSource) || !(rhs_ instanceof DKUnorderedSource))
+         return false;
+      long lhsRowCount = DKHashDiffEngine.estimateRowCount(lhs_);
+      long rhsRowCount = DKHashDiffEngine.estimateRowCount(rhs_);
+      _log.info("lhsRowCount->{} rhsRowCount->{}", lhsRowCount, rhsRowCount);
+      if ((lhsRowCount < 0) || (rhsRowCount < 0))
+         return false;
+      DKSource buildSource = (lhsRowCount < rhsRowCount) ? lhs_ : rhs_;
+      long tableSize = DKHashDiffEngine.estimateTableSize(Math.min(lhsRowCount,
+         rhsRowCount), buildSource.getModel());
+      _log.info("tableSize->{}", tableSize);
+      return (tableSize <= _hashEngine.getMemoryBudget());
+   }
+
+   public String toString() {
+      return String.format("%s[%s]", ClassUtils.getShortClassName(this.getClass()),
+         _hashEngine);
+   }
+}
@@ -0,0 +1,385 @@
+/**
+ * Copyright 2010-2011 Joseph Panico
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.diffkit.diff.engine;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.lang.ArrayUtils;
+import org.apache.commons.lang.ClassUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.diffkit.common.DKValidate;
+import org.diffkit.diff.engine.DKContext.UserKey;
+
+/**
+ * Reconciles two sources that are both DKChecksumSources and
+ * DKPartitionableSources (e.g. two databases) top down. Starting with the whole
+ * key space, it asks both sides for an aggregate checksum (row count plus
+ * SUMs of the row digests, over the key columns and the diffed columns) of the
+ * range. Ranges whose checksums agree are skipped; ranges that disagree are
+ * split into at most fanout sub-ranges, on boundaries supplied by the bigger
+ * side, and reconciled recursively. Once a disagreeing range has no more than
+ * leafRowCount rows on either side (or can't be split further) it becomes a
+ * leaf. The normal merge then runs over the concatenation, in key order, of
+ * just the leaf ranges. So the sink sees the same diffs as from a full merge,
+ * except that rowSteps only count the rows in the leaves.
+ * <p>
+ * The checksum queries for the two sides run concurrently. Falls back to the
+ * full merge when either side does not support checksums or partitioning,
+ * when the two sides can't compute comparable digests, or when the diffed
+ * columns can't be digested (e.g. LOBs).
+ *
+ * @author jpanico
+ */
+public class DKBisectionDiffEngine extends DKDiffEngine {
+   public static final int DEFAULT_FANOUT = 16;
+   public static final long DEFAULT_LEAF_ROW_COUNT = 10000;
+
+   private final int _fanout;
+   private final long _leafRowCount;
+   private final Logger _log = LoggerFactory.getLogger(this.getClass());
+
+   public DKBisectionDiffEngine() {
+      this(DEFAULT_FANOUT, DEFAULT_LEAF_ROW_COUNT);
+   }
+
+   /**
+    * @param fanout_
+    *           maximum number of sub-ranges each disagreeing range is split into
+    * @param leafRowCount_
+    *           disagreeing ranges with no more than this many rows, on either
+    *           side, are merged instead of split
+    */
+   public DKBisectionDiffEngine(int fanout_, long leafRowCount_) {
+      _fanout = fanout_;
+      _leafRowCount = leafRowCount_;
+      if (_fanout < 2)
+         throw new IllegalArgumentException(String.format("invalid fanout_->%s",
+            fanout_));
+      if (_leafRowCount < 1)
+         throw new IllegalArgumentException(String.format("invalid leafRowCount_->%s",
+            leafRowCount_));
+   }
+
+   public int getFanout() {
+      return _fanout;
+   }
+
+   public long getLeafRowCount() {
+      return _leafRowCount;
+   }
+
+   @Override
+   public DKContext diff(DKSource lhs_, DKSource rhs_, DKSink sink_,
+                         DKTableComparison tableComparison_,
+                         Map<UserKey, ?> userDictionary_) throws IOException {
+      DKValidate.notNull(lhs_, rhs_, sink_, tableComparison_);
+      if (!isReconcilable(lhs_) || !isReconcilable(rhs_)) {
+         _log.info("sources can't compute range checksums; falling back to full diff");
+         return super.diff(lhs_, rhs_, sink_, tableComparison_, userDictionary_);
+      }
+      String lhsChecksumKind = ((DKChecksumSource) lhs_).getChecksumKind();
+      String rhsChecksumKind = ((DKChecksumSource) rhs_).getChecksumKind();
+      _log.info("lhsChecksumKind->{} rhsChecksumKind->{}", lhsChecksumKind,
+         rhsChecksumKind);
+      if ((lhsChecksumKind == null) || !lhsChecksumKind.equals(rhsChecksumKind)) {
+         _log.info("checksums not comparable; falling back to full diff");
+         return super.diff(lhs_, rhs_, sink_, tableComparison_, userDictionary_);
+      }
+      String[][] diffColumnNames = DKChecksumDiffEngine.getDigestColumnNames(tableComparison_);
+      String[][] columnNames = new String[2][];
+      columnNames[DKSide.LEFT_INDEX] = (String[]) ArrayUtils.addAll(
+         tableComparison_.getLhsModel().getKeyColumnNames(),
+         diffColumnNames[DKSide.LEFT_INDEX]);
+      columnNames[DKSide.RIGHT_INDEX] = (String[]) ArrayUtils.addAll(
+         tableComparison_.getRhsModel().getKeyColumnNames(),
+         diffColumnNames[DKSide.RIGHT_INDEX]);
+      List<DKSource> lhsLeaves = new ArrayList<DKSource>();
+      List<DKSource> rhsLeaves = new ArrayList<DKSource>();
+      ExecutorService executor = Executors.newSingleThreadExecutor();
+      try {
+         Range root = new Range(lhs_, rhs_, null, null, null);
+         if (!root.computeChecksums(columnNames, executor)) {
+            _log.info("columns can't be digested; falling back to full diff");
+            return super.diff(lhs_, rhs_, sink_, tableComparison_, userDictionary_);
+         }
+         this.reconcile(root, columnNames, executor, lhsLeaves, rhsLeaves);
+      }
+      finally {
+         executor.shutdownNow();
+      }
+      _log.info("leafCount->{}", lhsLeaves.size());
+      return super.diff(new ConcatenatedSource(lhs_, lhsLeaves), new ConcatenatedSource(
+         rhs_, rhsLeaves), sink_, tableComparison_, userDictionary_);
+   }
+
+   private static boolean isReconcilable(DKSource source_) {
+      return (source_ instanceof DKChecksumSource)
+         && (source_ instanceof DKPartitionableSource);
+   }
+
+   /**
+    * depth first, in key order, so that the leaves come out in key order
+    */
+   private void reconcile(Range range_, String[][] columnNames_,
+                          ExecutorService executor_, List<DKSource> lhsLeaves_,
+                          List<DKSource> rhsLeaves_) throws IOException {
+      // the root's were computed up front
+      if ((range_._parent != null) && !range_.computeChecksums(columnNames_, executor_))
+         throw new RuntimeException(String.format("no checksum for range->%s", range_));
+      if (range_.checksumsAgree())
+         return;
+      List<Range> subRanges = null;
+      if ((range_.getRowCount() > _leafRowCount) && range_.isNarrower())
+         subRanges = range_.split(_fanout);
+      if (subRanges == null) {
+         _log.debug("leaf->{}", range_);
+         lhsLeaves_.add(range_._lhs);
+         rhsLeaves_.add(range_._rhs);
+         return;
+      }
+      for (Range subRange : subRanges)
+         this.reconcile(subRange, columnNames_, executor_, lhsLeaves_, rhsLeaves_);
+   }
+
+   public String toString() {
+      return String.format("%s[fanout=%s, leafRowCount=%s]",
+         ClassUtils.getShortClassName(this.getClass()), _fanout, _leafRowCount);
+   }
+
+   /**
+    * a key range, and the partition of each side that covers it
+    */
+   private class Range {
+      private final DKSource _lhs;
+      private final DKSource _rhs;
+      private final int _depth;
+      private final Object _lowerBound;
+      private final Object _upperBound;
+      private final Range _parent;
+      private Object[] _lhsChecksum;
+      private Object[] _rhsChecksum;
+
+      private Range(DKSource lhs_, DKSource rhs_, Range parent_, Object lowerBound_,
+                    Object upperBound_) {
+         _lhs = lhs_;
+         _rhs = rhs_;
+         _parent = parent_;
+         _depth = (parent_ == null) ? 0 : parent_._depth + 1;
+         _lowerBound = lowerBound_;
+         _upperBound = upperBound_;
+      }
+
+      /**
+       * @return false if either side can't digest columnNames_
+       */
+      private boolean computeChecksums(final String[][] columnNames_,
+                                       ExecutorService executor_) throws IOException {
+         Future<Object[]> rhsChecksum = executor_.submit(new Callable<Object[]>() {
+            public Object[] call() throws Exception {
+               return ((DKChecksumSource) _rhs).getAggregateChecksum(columnNames_[DKSide.RIGHT_INDEX]);
+            }
+         });
+         _lhsChecksum = ((DKChecksumSource) _lhs).getAggregateChecksum(columnNames_[DKSide.LEFT_INDEX]);
+         try {
+            _rhsChecksum = rhsChecksum.get();
+         }
+         catch (InterruptedException e_) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e_);
+         }
+         catch (ExecutionException e_) {
+            Throwable cause = e_.getCause();
+            if (cause instanceof IOException)
+               throw (IOException) cause;
+            if (cause instanceof RuntimeException)
+               throw (RuntimeException) cause;
+            throw new RuntimeException(cause);
+         }
+         if ((_lhsChecksum == null) || (_rhsChecksum == null))
+            return false;
+         _log.debug("range->{} lhsChecksum->{} rhsChecksum->{}", new Object[] { this,
+            Arrays.toString(_lhsChecksum), Arrays.toString(_rhsChecksum) });
+         return true;
+      }
+
+      private long getRowCount() {
+         return Math.max(getRowCount(_lhsChecksum), getRowCount(_rhsChecksum));
+      }
+
+      /**
+       * every aggregate, after the row count, must agree
+       */
+      private boolean checksumsAgree() {
+         if (getRowCount(_lhsChecksum) != getRowCount(_rhsChecksum))
+            return false;
+         if (_lhsChecksum.length != _rhsChecksum.length)
+            return false;
+         for (int i = 1; i < _lhsChecksum.length; i++) {
+            Object lhsSum = _lhsChecksum[i];
+            Object rhsSum = _rhsChecksum[i];
+            if ((lhsSum == null) || (rhsSum == null)) {
+               if (lhsSum != rhsSum)
+                  return false;
+            }
+            else if (new BigDecimal(lhsSum.toString()).compareTo(new BigDecimal(
+               rhsSum.toString())) != 0)
+               return false;
+         }
+         return true;
+      }
+
+      /**
+       * a range that holds all of its parent's rows, on both sides, was not
+       * narrowed by the parent's boundaries (e.g. a run of duplicate leading
+       * key values), so splitting it again would never end
+       */
+      private boolean isNarrower() {
+         if (_parent == null)
+            return true;
+         return (getRowCount(_lhsChecksum) < getRowCount(_parent._lhsChecksum))
+            || (getRowCount(_rhsChecksum) < getRowCount(_parent._rhsChecksum));
+      }
+
+      /**
+       * boundaries come from whichever side has more rows in the range
+       * 
+       * @return null if the range can't be split
+       */
+      private List<Range> split(int fanout_) throws IOException {
+         DKSource source = (getRowCount(_lhsChecksum) >= getRowCount(_rhsChecksum)) ? _lhs
+            : _rhs;
+         Object[] boundaries = ((DKPartitionableSource) source).getPartitionBoundaries(fanout_);
+         if (ArrayUtils.isEmpty(boundaries))
+            return null;
+         Object[] bounds = new Object[boundaries.length + 2];
+         bounds[0] = _lowerBound;
+         System.arraycopy(boundaries, 0, bounds, 1, boundaries.length);
+         bounds[bounds.length - 1] = _upperBound;
+         List<Range> subRanges = new ArrayList<Range>(bounds.length - 1);
+         for (int i = 0; i < bounds.length - 1; i++) {
+            DKSource lhs = ((DKPartitionableSource) _lhs).createPartition(bounds[i],
+               bounds[i + 1]);
+            DKSource rhs = ((DKPartitionableSource) _rhs).createPartition(bounds[i],
+               bounds[i + 1]);
+            if (!isReconcilable(lhs) || !isReconcilable(rhs))
+               return null;
+            subRanges.add(new Range(lhs, rhs, this, bounds[i], bounds[i + 1]));
+         }
+         return subRanges;
+      }
+
+      private long getRowCount(Object[] checksum_) {
+         return ((Number) checksum_[0]).longValue();
+      }
+
+      public String toString() {
+         return String.format("[%s, %s) depth=%s", _lowerBound, _upperBound, _depth);
+      }
+   }
+
+   /**
+    * vends the rows of each of the leaf partitions, one after the other; they
+    * are disjoint and in key order, so the rows are in key order
+    */
+   private static class ConcatenatedSource implements DKSource {
+      private final DKSource _source;
+      private final List<DKSource> _partitions;
+      private transient DKContext _context;
+      private transient int _partitionIndex;
+      private transient long _lastIndex;
+      private transient boolean _isOpen;
+
+      /**
+       * @param source_
+       *           the unpartitioned source; supplies model and URI
+       */
+      private ConcatenatedSource(DKSource source_, List<DKSource> partitions_) {
+         _source = source_;
+         _partitions = partitions_;
+      }
+
+      public DKTableModel getModel() {
+         return _source.getModel();
+      }
+
+      public URI getURI() throws IOException {
+         return _source.getURI();
+      }
+
+      public Kind getKind() {
+         return _source.getKind();
+      }
+
+      public long getLastIndex() {
+         return _lastIndex;
+      }
+
+      public void open(DKContext context_) throws IOException {
+         if (_isOpen)
+            throw new RuntimeException("already open!");
+         _context = context_;
+         _partitionIndex = 0;
+         _lastIndex = -1;
+         if (!_partitions.isEmpty())
+            _partitions.get(0).open(_context);
+         _isOpen = true;
+      }
+
+      public Object[] getNextRow() throws IOException {
+         if (!_isOpen)
+            throw new RuntimeException("not open!");
+         while (_partitionIndex < _partitions.size()) {
+            Object[] row = _partitions.get(_partitionIndex).getNextRow();
+            if (row != null) {
+               _lastIndex++;
+               return row;
+            }
+            _partitions.get(_partitionIndex).close(_context);
+            if (++_partitionIndex < _partitions.size())
+               _partitions.get(_partitionIndex).open(_context);
+         }
+         return null;
+      }
+
+      public void close(DKContext context_) throws IOException {
+         if (!_isOpen)
+            throw new RuntimeException("not open!");
+         if (_partitionIndex < _partitions.size())
+            _partitions.get(_partitionIndex).close(context_);
+         _partitionIndex = _partitions.size();
+         _context = null;
+         _isOpen = false;
+      }
+
+      public String toString() {
+         return String.format("%s[%s, partitionCount=%s]",
+            ClassUtils.getShortClassName(this.getClass()), _source, _partitions.size());
+      }
+   }
+}
@@ -0,0 +1,148 @@
+/**
+ * Copyright 2010-2011 Joseph Panico
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.diffkit.diff.engine;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+
+import org.apache.commons.lang.ClassUtils;
+
+import org.diffkit.common.DKValidate;
+import org.diffkit.common.annot.Immutable;
+
+/**
+ * How far a diff had got: the resume points of both sides and of the sink, as
+ * of the end of _rowStep. Every row that the sources had returned up to then
+ * had been fully diffed, and every resulting diff recorded in the sink.
+ * 
+ * Persisted with java serialization, so the resume points must hold only
+ * Serializable values.
+ * 
+ * @author jpanico
+ */
+@Immutable
+public class DKCheckpoint implements Serializable {
+
+   private static final long serialVersionUID = 1L;
+
+   private final Serializable _lhsPoint;
+   private final Serializable _rhsPoint;
+   private final Serializable _sinkPoint;
+   private final long _rowStep;
+
+   public DKCheckpoint(Serializable lhsPoint_, Serializable rhsPoint_,
+                       Serializable sinkPoint_, long rowStep_) {
+      _lhsPoint = lhsPoint_;
+      _rhsPoint = rhsPoint_;
+      _sinkPoint = sinkPoint_;
+      _rowStep = rowStep_;
+      DKValidate.notNull(_lhsPoint, _rhsPoint, _sinkPoint);
+   }
+
+   public Serializable getLhsPoint() {
+      return _lhsPoint;
+   }
+
+   public Serializable getRhsPoint() {
+      return _rhsPoint;
+   }
+
+   public Serializable getSinkPoint() {
+      return _sinkPoint;
+   }
+
+   public long getRowStep() {
+      return _rowStep;
+   }
+
+   /**
+    * @return null if there is no checkpoint at file_
+    */
+   public static DKCheckpoint read(File file_) throws IOException {
+      DKValidate.notNull(file_);
+      File file = file_;
+      // write() was interrupted between removing file_ and renaming the
+      // (complete) temp file
+      if (!file.exists())
+         file = getTempFile(file_);
+      if (!file.exists())
+         return null;
+      ObjectInputStream inputStream = new ObjectInputStream(new BufferedInputStream(
+         new FileInputStream(file)));
+      try {
+         return (DKCheckpoint) inputStream.readObject();
+      }
+      catch (ClassNotFoundException e_) {
+         throw new RuntimeException(e_);
+      }
+      finally {
+         inputStream.close();
+      }
+   }
+
+   /**
+    * writes to a temporary file next to file_, which then replaces file_, so
+    * that a crash while writing leaves the previous checkpoint intact
+    */
+   public void write(File file_) throws IOException {
+      DKValidate.notNull(file_);
+      File tempFile = getTempFile(file_);
+      FileOutputStream fileStream = new FileOutputStream(tempFile);
+      ObjectOutputStream outputStream = new ObjectOutputStream(new BufferedOutputStream(
+         fileStream));
+      try {
+         outputStream.writeObject(this);
+         outputStream.flush();
+         fileStream.getFD().sync();
+      }
+      finally {
+         outputStream.close();
+      }
+      // renameTo() won't replace an existing file on some platforms
+      if (tempFile.renameTo(file_))
+         return;
+      if (file_.exists() && !file_.delete())
+         throw new IOException(String.format("can't replace checkpoint file->%s", file_));
+      if (!tempFile.renameTo(file_))
+         throw new IOException(String.format("can't rename->%s to->%s", tempFile, file_));
+   }
+
+   /**
+    * removes the checkpoint at file_, if there is one
+    */
+   public static void delete(File file_) {
+      DKValidate.notNull(file_);
+      file_.delete();
+      getTempFile(file_).delete();
+   }
+
+   private static File getTempFile(File file_) {
+      return new File(file_.getPath() + ".tmp");
+   }
+
+   public String toString() {
+      return String.format("%s[rowStep=%s, lhs=%s, rhs=%s, sink=%s]",
+         ClassUtils.getShortClassName(this.getClass()), _rowStep, _lhsPoint, _rhsPoint,
+         _sinkPoint);
+   }
+}
@@ -0,0 +1,224 @@
+/**
+ * Copyright 2010-2011 Joseph Panico
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.diffkit.diff.engine;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang.ClassUtils;
+import org.apache.commons.lang.ObjectUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.diffkit.common.DKComparableComparator;
+import org.diffkit.common.DKValidate;
+import org.diffkit.diff.engine.DKContext.UserKey;
+
+/**
+ * Diffs two DKChecksumSources in two passes. The first pass merges just the
+ * keys and a digest of the diffed columns of each row, computed where the rows
+ * live, to find the keys that are on only one side, or whose digests differ.
+ * The second pass fetches just those rows, in full, and runs the normal merge
+ * over them. Rows whose digests match can't have any diffs (the digests are
+ * only equal when the diffed columns have the same text), so the sink sees the
+ * same diffs as from a full merge, except that rowSteps only count the fetched
+ * rows.
+ * <p>
+ * Falls back to the full merge when either side is not a DKChecksumSource, when
+ * the two sides can't compute comparable digests, or when more than
+ * maxFetchKeys keys, on either side, need fetching.
+ *
+ * @author jpanico
+ */
+public class DKChecksumDiffEngine extends DKDiffEngine {
+   public static final int DEFAULT_MAX_FETCH_KEYS = 100000;
+
+   private final int _maxFetchKeys;
+   private final Logger _log = LoggerFactory.getLogger(this.getClass());
+
+   public DKChecksumDiffEngine() {
+      this(DEFAULT_MAX_FETCH_KEYS);
+   }
+
+   /**
+    * @param maxFetchKeys_
+    *           upper bound on the number of keys, per side, held in memory for
+    *           the second pass
+    */
+   public DKChecksumDiffEngine(int maxFetchKeys_) {
+      _maxFetchKeys = maxFetchKeys_;
+      if (_maxFetchKeys < 0)
+         throw new IllegalArgumentException(String.format("invalid maxFetchKeys_->%s",
+            maxFetchKeys_));
+   }
+
+   public int getMaxFetchKeys() {
+      return _maxFetchKeys;
+   }
+
+   @Override
+   public DKContext diff(DKSource lhs_, DKSource rhs_, DKSink sink_,
+                         DKTableComparison tableComparison_,
+                         Map<UserKey, ?> userDictionary_) throws IOException {
+      DKValidate.notNull(lhs_, rhs_, sink_, tableComparison_);
+      if (!(lhs_ instanceof DKChecksumSource) || !(rhs_ instanceof DKChecksumSource)) {
+         _log.info("sources can't compute checksums; falling back to full diff");
+         return super.diff(lhs_, rhs_, sink_, tableComparison_, userDictionary_);
+      }
+      DKChecksumSource lhs = (DKChecksumSource) lhs_;
+      DKChecksumSource rhs = (DKChecksumSource) rhs_;
+      String[][] columnNames = getDigestColumnNames(tableComparison_);
+      String lhsChecksumKind = lhs.getChecksumKind();
+      String rhsChecksumKind = rhs.getChecksumKind();
+      _log.info("lhsChecksumKind->{} rhsChecksumKind->{}", lhsChecksumKind,
+         rhsChecksumKind);
+      if ((columnNames[DKSide.LEFT_INDEX].length > 0)
+         && ((lhsChecksumKind == null) || !lhsChecksumKind.equals(rhsChecksumKind))) {
+         _log.info("checksums not comparable; falling back to full diff");
+         return super.diff(lhs_, rhs_, sink_, tableComparison_, userDictionary_);
+      }
+      DKSource lhsChecksums = lhs.createChecksumSource(columnNames[DKSide.LEFT_INDEX]);
+      DKSource rhsChecksums = rhs.createChecksumSource(columnNames[DKSide.RIGHT_INDEX]);
+      if ((lhsChecksums == null) || (rhsChecksums == null)) {
+         _log.info("checksums not available; falling back to full diff");
+         return super.diff(lhs_, rhs_, sink_, tableComparison_, userDictionary_);
+      }
+      List<List<Object[]>> fetchKeys = this.findFetchKeys(lhsChecksums, rhsChecksums,
+         tableComparison_.getLhsModel().getKey().length);
+      if (fetchKeys == null) {
+         _log.info("more than maxFetchKeys->{}; falling back to full diff", _maxFetchKeys);
+         return super.diff(lhs_, rhs_, sink_, tableComparison_, userDictionary_);
+      }
+      return super.diff(lhs.createKeyedSource(fetchKeys.get(DKSide.LEFT_INDEX)),
+         rhs.createKeyedSource(fetchKeys.get(DKSide.RIGHT_INDEX)), sink_,
+         tableComparison_, userDictionary_);
+   }
+
+   /**
+    * @return the lhs and rhs names of the diffed columns, in the same order on
+    *         both sides; empty if only row diffs are wanted
+    */
+   static String[][] getDigestColumnNames(DKTableComparison tableComparison_) {
+      int[] diffIndexes = tableComparison_.getDiffIndexes();
+      if ((tableComparison_.getKind() == DKDiff.Kind.ROW_DIFF) || (diffIndexes == null))
+         return new String[][] { new String[0], new String[0] };
+      DKColumnComparison[] columnComparisons = tableComparison_.getMap();
+      String[][] columnNames = new String[2][diffIndexes.length];
+      for (int i = 0; i < diffIndexes.length; i++) {
+         DKColumnComparison columnComparison = columnComparisons[diffIndexes[i]];
+         columnNames[DKSide.LEFT_INDEX][i] = columnComparison._lhsColumn.getName();
+         columnNames[DKSide.RIGHT_INDEX][i] = columnComparison._rhsColumn.getName();
+      }
+      return columnNames;
+   }
+
+   /**
+    * merges the checksum rows by key
+    * 
+    * @return the keys that have to be fetched in full, for each side, indexed
+    *         by DKSide; null if there are more than _maxFetchKeys on either
+    *         side
+    */
+   private List<List<Object[]>> findFetchKeys(DKSource lhs_, DKSource rhs_,
+                                              int keyLength_) throws IOException {
+      Comparator<Object[]> keyComparator = createKeyComparator(keyLength_);
+      List<Object[]> lhsFetchKeys = new ArrayList<Object[]>();
+      List<Object[]> rhsFetchKeys = new ArrayList<Object[]>();
+      List<List<Object[]>> fetchKeys = new ArrayList<List<Object[]>>(2);
+      fetchKeys.add(DKSide.LEFT_INDEX, lhsFetchKeys);
+      fetchKeys.add(DKSide.RIGHT_INDEX, rhsFetchKeys);
+      long matchCount = 0;
+      lhs_.open(null);
+      try {
+         rhs_.open(null);
+         try {
+            Object[] lhsRow = lhs_.getNextRow();
+            Object[] rhsRow = rhs_.getNextRow();
+            for (long step = 1; (lhsRow != null) || (rhsRow != null); step++) {
+               if (step % PROGRESS_BATCH_SIZE == 0)
+                  USER_LOG.info("checksums->{}", step);
+               int comparison = (lhsRow == null) ? 1 : ((rhsRow == null) ? -1
+                  : keyComparator.compare(lhsRow, rhsRow));
+               if (comparison < 0) {
+                  lhsFetchKeys.add(Arrays.copyOf(lhsRow, keyLength_));
+                  lhsRow = lhs_.getNextRow();
+               }
+               else if (comparison > 0) {
+                  rhsFetchKeys.add(Arrays.copyOf(rhsRow, keyLength_));
+                  rhsRow = rhs_.getNextRow();
+               }
+               else {
+                  if (checksumsEqual(lhsRow[keyLength_], rhsRow[keyLength_]))
+                     matchCount++;
+                  else {
+                     lhsFetchKeys.add(Arrays.copyOf(lhsRow, keyLength_));
+                     rhsFetchKeys.add(Arrays.copyOf(rhsRow, keyLength_));
+                  }
+                  lhsRow = lhs_.getNextRow();
+                  rhsRow = rhs_.getNextRow();
+               }
+               if ((lhsFetchKeys.size() > _maxFetchKeys)
+                  || (rhsFetchKeys.size() > _maxFetchKeys))
+                  return null;
+            }
+         }
+         finally {
+            rhs_.close(null);
+         }
+      }
+      finally {
+         lhs_.close(null);
+      }
+      _log.info("matchCount->{} lhsFetchCount->{} rhsFetchCount->{}", new Object[] {
+         matchCount, lhsFetchKeys.size(),
+         rhsFetchKeys.size() });
+      return fetchKeys;
+   }
+
+   /**
+    * orders the checksum rows on their leading keyLength_ key values
+    */
+   private static Comparator<Object[]> createKeyComparator(final int keyLength_) {
+      final DKComparableComparator comparator = DKComparableComparator.getInstance();
+      return new Comparator<Object[]>() {
+         @SuppressWarnings("unchecked")
+         public int compare(Object[] lhs_, Object[] rhs_) {
+            for (int i = 0; i < keyLength_; i++) {
+               int comparison = comparator.compare((Comparable<Object>) lhs_[i],
+                  (Comparable<Object>) rhs_[i]);
+               if (comparison != 0)
+                  return comparison;
+            }
+            return 0;
+         }
+      };
+   }
+
+   private static boolean checksumsEqual(Object lhs_, Object rhs_) {
+      if ((lhs_ instanceof byte[]) && (rhs_ instanceof byte[]))
+         return Arrays.equals((byte[]) lhs_, (byte[]) rhs_);
+      return ObjectUtils.equals(lhs_, rhs_);
+   }
+
+   public String toString() {
+      return String.format("%s[maxFetchKeys=%s]",
+         ClassUtils.getShortClassName(this.getClass()), _maxFetchKeys);
+   }
+}
@@ -0,0 +1,67 @@
+/**
+ * Copyright 2010-2011 Joseph Panico
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.diffkit.diff.engine;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * A DKSource that can compute a digest of each row where the rows live (e.g.
+ * in the database), so that engines such as DKChecksumDiffEngine only need to
+ * fetch, in full, the rows whose digests differ.
+ *
+ * @author jpanico
+ */
+public interface DKChecksumSource extends DKSource {
+
+   /**
+    * @return identifies how this source computes digests; digests from two
+    *         sources can only be compared if their checksum kinds are equal.
+    *         null if this source cannot compute digests
+    */
+   public String getChecksumKind();
+
+   /**
+    * @param columnNames_
+    *           the columns that are digested, in this order; empty means only
+    *           the keys are vended, with a null digest
+    * @return a new, unopened, DKSource whose rows are the key values of each
+    *         row of this source, in the order of the model key, followed by
+    *         the row's digest; in key order. null if this source cannot compute
+    *         digests of columnNames_
+    */
+   public DKSource createChecksumSource(String[] columnNames_) throws IOException;
+
+   /**
+    * @param columnNames_
+    *           the columns that are digested; should include the key columns,
+    *           so that sources with the same digested values under different
+    *           keys do not agree
+    * @return the (Long) number of rows in this source, followed by one or
+    *         more order independent (Number) aggregates of their digests, each
+    *         null if there are no rows. null if this source cannot compute
+    *         digests of columnNames_
+    */
+   public Object[] getAggregateChecksum(String[] columnNames_) throws IOException;
+
+   /**
+    * @param keys_
+    *           key values, in the order of the model key, sorted in key order
+    * @return a new, unopened, DKSource that vends only the rows of this source
+    *         that have one of keys_, in key order
+    */
+   public DKSource createKeyedSource(List<Object[]> keys_) throws IOException;
+}
@@ -41,6 +41,7 @@ public class DKContext {
    public final DKTableComparison _tableComparison;
    public final Map<UserKey, Object> _userDictionary = new HashMap<UserKey, Object>();
    public final long _id = UUID.randomUUID().getLeastSignificantBits();
+   public final DKMetrics _metrics;
    // current or last
    public long _rowStep;
    // current or last
@@ -49,6 +50,8 @@ public class DKContext {
    public int _lhsColumnIdx;
    // column index of the current or last rhs value diff'd
    public int _rhsColumnIdx;
+   // _rowStep and the sink's diff count, as of the last publishProgress()
+   private volatile Progress _progress = new Progress(0, 0);
    private final StopWatch _stopwatch = new StopWatch();
 
    /**
@@ -60,6 +63,7 @@ public class DKContext {
       _rhs = null;
       _sink = null;
       _tableComparison = null;
+      _metrics = new DKMetrics();
    }
 
    /**
@@ -71,17 +75,30 @@ public class DKContext {
       _rhs = null;
       _sink = sink_;
       _tableComparison = tableComparison_;
+      _metrics = new DKMetrics();
    }
 
    public DKContext(DKSource lhs_, DKSource rhs_, DKSink sink_,
                     DKTableComparison tableComparison_, Map<UserKey, ?> userDictionary_) {
+      this(lhs_, rhs_, sink_, tableComparison_, userDictionary_, new DKMetrics());
+   }
+
+   /**
+    * @param metrics_
+    *           where the diff of this context records its DKMetrics; e.g. a
+    *           child of the DKMetrics of an enclosing context
+    */
+   public DKContext(DKSource lhs_, DKSource rhs_, DKSink sink_,
+                    DKTableComparison tableComparison_,
+                    Map<UserKey, ?> userDictionary_, DKMetrics metrics_) {
       _lhs = lhs_;
       _rhs = rhs_;
       _sink = sink_;
       _tableComparison = tableComparison_;
+      _metrics = metrics_;
       if (userDictionary_ != null)
          _userDictionary.putAll(userDictionary_);
-      DKValidate.notNull(_lhs, _rhs, _sink, _tableComparison);
+      DKValidate.notNull(_lhs, _rhs, _sink, _tableComparison, _metrics);
    }
 
    public void open() throws IOException {
@@ -95,13 +112,66 @@ public class DKContext {
 
    public void close() throws IOException {
       _stopwatch.stop();
-      _sink.close(this);
+      this.closeSinkTimed();
       if (_lhs != null)
          _lhs.close(this);
       if (_rhs != null)
          _rhs.close(this);
    }
 
+   /**
+    * opens only the sink, for engines that read through sources derived from
+    * _lhs and _rhs (e.g. key range partitions) rather than from _lhs and _rhs
+    * themselves
+    */
+   public void openSink() throws IOException {
+      _sink.open(this);
+      _stopwatch.start();
+   }
+
+   public void closeSink() throws IOException {
+      _stopwatch.stop();
+      this.closeSinkTimed();
+   }
+
+   /**
+    * makes _rowStep, the diff count of _sink, and _metrics visible to other
+    * threads (e.g. JMX), which otherwise must not read them while the diff
+    * runs. Only the thread that diffs this context may call it; engines call
+    * it every so many rowSteps, and closing the sink calls it once more.
+    */
+   public void publishProgress() {
+      _metrics.publish();
+      _progress = new Progress(_rowStep, _sink.getDiffCount());
+   }
+
+   /**
+    * safe from any thread
+    */
+   public long getPublishedRowStep() {
+      return _progress._rowStep;
+   }
+
+   /**
+    * safe from any thread
+    */
+   public long getPublishedDiffCount() {
+      return _progress._diffCount;
+   }
+
+   /**
+    * closing is where sinks flush whatever they still buffer
+    */
+   private void closeSinkTimed() throws IOException {
+      DKFlightRecorder.Event event = DKFlightRecorder
+         .begin(DKFlightRecorder.EventKind.SINK_FLUSH);
+      long start = _metrics.startTimer(true);
+      _sink.close(this);
+      _metrics.stopTimer(DKMetrics.Stage.SINK_FLUSH, start);
+      event.commit(_id, _sink, _sink.getDiffCount(), true);
+      this.publishProgress();
+   }
+
    public String getElapsedTimeString() {
       return _stopwatch.toString();
    }
@@ -138,6 +208,10 @@ public class DKContext {
       return _stopwatch.getTime();
    }
 
+   public DKMetrics getMetrics() {
+      return _metrics;
+   }
+
    public Map<UserKey, ?> getUserDictionary() {
       return _userDictionary;
    }
@@ -149,4 +223,14 @@ public class DKContext {
    public String getDescription() {
       return ReflectionToStringBuilder.toString(this);
    }
+
+   private static class Progress {
+      private final long _rowStep;
+      private final long _diffCount;
+
+      private Progress(long rowStep_, long diffCount_) {
+         _rowStep = rowStep_;
+         _diffCount = diffCount_;
+      }
+   }
 }
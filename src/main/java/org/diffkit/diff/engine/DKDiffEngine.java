@@ -15,7 +15,9 @@
  */
 package org.diffkit.diff.engine;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.Serializable;
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.Map;
@@ -26,6 +28,7 @@ import org.slf4j.LoggerFactory;
 import org.diffkit.common.DKValidate;
 import org.diffkit.common.annot.NotThreadSafe;
 import org.diffkit.common.annot.Stateless;
+import org.diffkit.diff.diffor.DKEqualsDiffor;
 import org.diffkit.diff.engine.DKContext.UserKey;
 
 /**
@@ -34,10 +37,89 @@ import org.diffkit.diff.engine.DKContext.UserKey;
 @NotThreadSafe
 @Stateless
 public class DKDiffEngine {
-   private static final long PROGRESS_BATCH_SIZE = 1000;
+   static final long PROGRESS_BATCH_SIZE = 1000;
+   public static final long DEFAULT_METRICS_LOG_INTERVAL = 60 * 1000;
    private final Logger _log = LoggerFactory.getLogger(this.getClass());
-   private static final Logger USER_LOG = LoggerFactory.getLogger("user");
+   static final Logger USER_LOG = LoggerFactory.getLogger("user");
    private final boolean _isDebug = _log.isDebugEnabled();
+   /**
+    * read rows from DKReusableRowSources into one recycled buffer per side
+    */
+   private final boolean _reuseRowBuffers;
+   /**
+    * null means no checkpoints
+    */
+   private final File _checkpointFile;
+   /**
+    * minimum number of row steps between checkpoints
+    */
+   private final long _checkpointInterval;
+   /**
+    * millis between structured metrics log lines
+    */
+   private final long _metricsLogInterval;
+
+   public DKDiffEngine() {
+      this(false);
+   }
+
+   /**
+    * @param reuseRowBuffers_
+    *           when both sources are DKReusableRowSources, read each side's rows
+    *           into a single buffer, instead of a new array per row; rows that
+    *           end up in diffs are copied out of the buffer
+    */
+   public DKDiffEngine(boolean reuseRowBuffers_) {
+      this(reuseRowBuffers_, null, 0);
+   }
+
+   /**
+    * @param checkpointFilePath_
+    *           when the sources are DKResumableSources and the sink is a
+    *           DKResumableSink, a DKCheckpoint is written here every
+    *           checkpointInterval_ rows, and removed once the diff completes.
+    *           If a checkpoint is already there when the diff starts, the diff
+    *           resumes from it. null turns checkpoints off
+    */
+   public DKDiffEngine(boolean reuseRowBuffers_, String checkpointFilePath_,
+                       long checkpointInterval_) {
+      this(reuseRowBuffers_, checkpointFilePath_, checkpointInterval_,
+         DEFAULT_METRICS_LOG_INTERVAL);
+   }
+
+   /**
+    * @param metricsLogInterval_
+    *           millis between the lines that log the DKMetrics of a running
+    *           diff; <= 0 turns the log lines off (the metrics are still
+    *           available over JMX)
+    */
+   public DKDiffEngine(boolean reuseRowBuffers_, String checkpointFilePath_,
+                       long checkpointInterval_, long metricsLogInterval_) {
+      _metricsLogInterval = metricsLogInterval_;
+      _reuseRowBuffers = reuseRowBuffers_;
+      _checkpointFile = (checkpointFilePath_ == null) ? null : new File(
+         checkpointFilePath_);
+      _checkpointInterval = checkpointInterval_;
+      if ((_checkpointFile != null) && (_checkpointInterval < 1))
+         throw new IllegalArgumentException(String.format(
+            "invalid checkpointInterval_->%s", checkpointInterval_));
+   }
+
+   public boolean getReuseRowBuffers() {
+      return _reuseRowBuffers;
+   }
+
+   public File getCheckpointFile() {
+      return _checkpointFile;
+   }
+
+   public long getCheckpointInterval() {
+      return _checkpointInterval;
+   }
+
+   public long getMetricsLogInterval() {
+      return _metricsLogInterval;
+   }
 
    public DKContext diff(DKSource lhs_, DKSource rhs_, DKSink sink_,
                          DKTableComparison tableComparison_,
@@ -52,34 +134,64 @@ public class DKDiffEngine {
       DKContext context = new DKContext(lhs_, rhs_, sink_, tableComparison_,
          userDictionary_);
       _log.info("context->{}", context);
-      this.diff(context);
+      DKMetricsReporter reporter = DKMetricsReporter.start(context, _metricsLogInterval);
+      try {
+         this.diff(context);
+      }
+      finally {
+         reporter.stop();
+      }
       return context;
    }
 
-   private void diff(DKContext context_) throws IOException {
+   protected void diff(DKContext context_) throws IOException {
       long maxDiffs = context_._tableComparison.getMaxDiffs();
       _log.info("maxDiffs->{}", maxDiffs);
+      boolean hashRows = this.setRowHashers(context_);
+      _log.info("hashRows->{}", hashRows);
+      // the buffer of each side; null if rows are not read into buffers
+      Object[][] buffers = null;
+      if (_reuseRowBuffers && (context_._lhs instanceof DKReusableRowSource)
+         && (context_._rhs instanceof DKReusableRowSource))
+         buffers = new Object[2][];
+      _log.info("reuseRowBuffers->{}", (buffers != null));
+      boolean copyRows = (buffers != null);
+      boolean checkpoint = this.resume(context_);
+      _log.info("checkpoint->{}", checkpoint);
+      long checkpointStep = context_._rowStep;
       context_.open();
       int oneSide = -1;
       Object[][] rows = new Object[2][];
       Comparator<Object[]> rowComparator = context_._tableComparison.getRowComparator();
       _log.info("rowComparator->{}", rowComparator);
+      DKMetrics metrics = context_._metrics;
       while (context_._sink.getDiffCount() < maxDiffs) {
          if (_isDebug)
             _log.debug("diffCount->{}", context_._sink.getDiffCount());
+         // only between rows that are fully diffed on both sides
+         if (checkpoint && (rows[DKSide.LEFT_INDEX] == null)
+            && (rows[DKSide.RIGHT_INDEX] == null)
+            && (context_._rowStep - checkpointStep >= _checkpointInterval)
+            && this.writeCheckpoint(context_))
+            checkpointStep = context_._rowStep;
          boolean oneSided = false;
          context_._rowStep++;
          context_._columnStep = 0;
-         if (context_._rowStep % PROGRESS_BATCH_SIZE == 0)
+         if (context_._rowStep % PROGRESS_BATCH_SIZE == 0) {
             USER_LOG.info("->{}", context_._rowStep);
+            context_.publishProgress();
+         }
+         boolean sampled = metrics.isSampled(context_._rowStep);
          if (rows[DKSide.LEFT_INDEX] == null)
-            rows[DKSide.LEFT_INDEX] = context_._lhs.getNextRow();
+            rows[DKSide.LEFT_INDEX] = getNextRow(context_._lhs, buffers, DKSide.LEFT_INDEX,
+               metrics, sampled);
          if (rows[DKSide.LEFT_INDEX] == null) {
             oneSided = true;
             oneSide = DKSide.RIGHT_INDEX;
          }
          if (rows[DKSide.RIGHT_INDEX] == null)
-            rows[DKSide.RIGHT_INDEX] = context_._rhs.getNextRow();
+            rows[DKSide.RIGHT_INDEX] = getNextRow(context_._rhs, buffers,
+               DKSide.RIGHT_INDEX, metrics, sampled);
          if (rows[DKSide.RIGHT_INDEX] == null) {
             if (oneSided)
                break;
@@ -91,50 +203,196 @@ public class DKDiffEngine {
             _log.debug("oneSide->{}", oneSide);
          }
          if (oneSided) {
-            this.recordRowDiff(rows[oneSide], oneSide, context_, context_._sink);
+            this.recordRowDiff(copyRow(rows[oneSide], copyRows), oneSide, context_,
+               context_._sink);
             rows[oneSide] = null;
             continue;
          }
          assert ((rows[DKSide.LEFT_INDEX] != null) && (rows[DKSide.RIGHT_INDEX] != null));
+         long compareStart = metrics.startTimer(sampled);
          int comparison = rowComparator.compare(rows[DKSide.LEFT_INDEX],
             rows[DKSide.RIGHT_INDEX]);
+         metrics.stopTimer(DKMetrics.Stage.KEY_COMPARE, compareStart);
          // LEFT < RIGHT
          if (comparison < 0) {
-            this.recordRowDiff(rows[DKSide.LEFT_INDEX], DKSide.LEFT_INDEX, context_,
-               context_._sink);
+            this.recordRowDiff(copyRow(rows[DKSide.LEFT_INDEX], copyRows),
+               DKSide.LEFT_INDEX, context_, context_._sink);
             rows[DKSide.LEFT_INDEX] = null;
          }
          // LEFT > RIGHT
          else if (comparison > 0) {
-            this.recordRowDiff(rows[DKSide.RIGHT_INDEX], DKSide.RIGHT_INDEX, context_,
-               context_._sink);
+            this.recordRowDiff(copyRow(rows[DKSide.RIGHT_INDEX], copyRows),
+               DKSide.RIGHT_INDEX, context_, context_._sink);
             rows[DKSide.RIGHT_INDEX] = null;
          }
          // at this point you know the keys are aligned
          else {
-            this.diffRow(rows[DKSide.LEFT_INDEX], rows[DKSide.RIGHT_INDEX], context_,
-               context_._sink);
+            // equal hashes mean equal diff values, so there can be no diffs
+            if (!hashRows
+               || (((DKRowHashSource) context_._lhs).getRowHash() != ((DKRowHashSource) context_._rhs).getRowHash()))
+               this.diffRow(rows[DKSide.LEFT_INDEX], rows[DKSide.RIGHT_INDEX], context_,
+                  context_._sink, copyRows);
             rows[DKSide.LEFT_INDEX] = null;
             rows[DKSide.RIGHT_INDEX] = null;
          }
       }
       context_.close();
+      if (checkpoint)
+         DKCheckpoint.delete(_checkpointFile);
+   }
+
+   /**
+    * if checkpoints are possible, and there is one at _checkpointFile, sets
+    * the resume points of both sources and the sink, and the rowStep of
+    * context_, from it. Must precede DKContext.open()
+    * 
+    * @return true if checkpoints can be written for context_
+    */
+   private boolean resume(DKContext context_) throws IOException {
+      if ((_checkpointFile == null) || !(context_._lhs instanceof DKResumableSource)
+         || !(context_._rhs instanceof DKResumableSource)
+         || !(context_._sink instanceof DKResumableSink)) {
+         if (_checkpointFile != null)
+            _log.warn("sources or sink can't be resumed; no checkpoints");
+         return false;
+      }
+      DKCheckpoint checkpoint = DKCheckpoint.read(_checkpointFile);
+      if (checkpoint == null)
+         return true;
+      USER_LOG.info("resuming from checkpoint->{}", _checkpointFile);
+      _log.info("checkpoint->{}", checkpoint);
+      ((DKResumableSource) context_._lhs).setResumePoint(checkpoint.getLhsPoint());
+      ((DKResumableSource) context_._rhs).setResumePoint(checkpoint.getRhsPoint());
+      ((DKResumableSink) context_._sink).setResumePoint(checkpoint.getSinkPoint());
+      context_._rowStep = checkpoint.getRowStep();
+      return true;
+   }
+
+   /**
+    * @return false if any of the sources or the sink couldn't describe its
+    *         position, in which case nothing was written
+    */
+   private boolean writeCheckpoint(DKContext context_) throws IOException {
+      Serializable lhsPoint = ((DKResumableSource) context_._lhs).getResumePoint();
+      Serializable rhsPoint = ((DKResumableSource) context_._rhs).getResumePoint();
+      if ((lhsPoint == null) || (rhsPoint == null))
+         return false;
+      Serializable sinkPoint = ((DKResumableSink) context_._sink).getResumePoint();
+      if (sinkPoint == null)
+         return false;
+      DKCheckpoint checkpoint = new DKCheckpoint(lhsPoint, rhsPoint, sinkPoint,
+         context_._rowStep);
+      if (_isDebug)
+         _log.debug("checkpoint->{}", checkpoint);
+      checkpoint.write(_checkpointFile);
+      return true;
+   }
+
+   /**
+    * @param buffers_
+    *           null, or the buffer of each side, which is replaced by the
+    *           array that the source returns
+    */
+   private static Object[] getNextRow(DKSource source_, Object[][] buffers_,
+                                      int sideIdx_, DKMetrics metrics_, boolean sampled_)
+      throws IOException {
+      long start = metrics_.startTimer(sampled_);
+      Object[] row = getNextRow(source_, buffers_, sideIdx_);
+      metrics_.stopTimer(DKMetrics.Stage.forSide(sideIdx_), start);
+      return row;
+   }
+
+   private static Object[] getNextRow(DKSource source_, Object[][] buffers_, int sideIdx_)
+      throws IOException {
+      if (buffers_ == null)
+         return source_.getNextRow();
+      Object[] row = ((DKReusableRowSource) source_).getNextRow(buffers_[sideIdx_]);
+      if (row != null)
+         buffers_[sideIdx_] = row;
+      return row;
+   }
+
+   private static Object[] copyRow(Object[] row_, boolean copy_) {
+      return copy_ ? row_.clone() : row_;
    }
 
-   private void diffRow(Object[] lhs_, Object[] rhs_, DKContext context_, DKSink sink_)
+   /**
+    * turns on row hashing in both sources, if both are DKRowHashSources and
+    * every diffed column uses DKEqualsDiffor; with any other DKDiffor, values
+    * that are not equals() may still not be a diff, or the reverse
+    * 
+    * @return true if both sources will hash their rows
+    */
+   private boolean setRowHashers(DKContext context_) {
+      if (!(context_._lhs instanceof DKRowHashSource)
+         || !(context_._rhs instanceof DKRowHashSource))
+         return false;
+      DKRowHashSource lhs = (DKRowHashSource) context_._lhs;
+      DKRowHashSource rhs = (DKRowHashSource) context_._rhs;
+      DKRowHasher[] hashers = createRowHashers(context_._tableComparison);
+      if ((hashers != null) && lhs.setRowHasher(hashers[DKSide.LEFT_INDEX])
+         && rhs.setRowHasher(hashers[DKSide.RIGHT_INDEX]))
+         return true;
+      lhs.setRowHasher(null);
+      rhs.setRowHasher(null);
+      return false;
+   }
+
+   /**
+    * @return lhs and rhs hashers of the diffed columns, or null if hashes can't
+    *         stand in for comparing them
+    */
+   private static DKRowHasher[] createRowHashers(DKTableComparison tableComparison_) {
+      if (tableComparison_.getKind() == DKDiff.Kind.ROW_DIFF)
+         return null;
+      int[] diffIndexes = tableComparison_.getDiffIndexes();
+      DKColumnComparison[] columnComparisons = tableComparison_.getMap();
+      if ((diffIndexes == null) || (diffIndexes.length == 0)
+         || (columnComparisons == null))
+         return null;
+      int[] lhsIndexes = new int[diffIndexes.length];
+      int[] rhsIndexes = new int[diffIndexes.length];
+      for (int i = 0; i < diffIndexes.length; i++) {
+         DKColumnComparison columnComparison = columnComparisons[diffIndexes[i]];
+         if (!(columnComparison._diffor instanceof DKEqualsDiffor))
+            return null;
+         lhsIndexes[i] = columnComparison._lhsColumn.getIndex();
+         rhsIndexes[i] = columnComparison._rhsColumn.getIndex();
+      }
+      return new DKRowHasher[] { new DKRowHasher(lhsIndexes), new DKRowHasher(rhsIndexes) };
+   }
+
+   protected void diffRow(Object[] lhs_, Object[] rhs_, DKContext context_, DKSink sink_)
       throws IOException {
+      this.diffRow(lhs_, rhs_, context_, sink_, false);
+   }
+
+   /**
+    * @param copyRows_
+    *           the diffs get copies of lhs_ and rhs_, which are buffers that
+    *           will be reused
+    */
+   protected void diffRow(Object[] lhs_, Object[] rhs_, DKContext context_,
+                          DKSink sink_, boolean copyRows_) throws IOException {
       DKDiff.Kind kind = context_._tableComparison.getKind();
       if (kind == DKDiff.Kind.ROW_DIFF)
          return;
       int[] diffIndexes = context_._tableComparison.getDiffIndexes();
-      _log.debug("diffIndexes->{}", Arrays.toString(diffIndexes));
+      if (_isDebug)
+         _log.debug("diffIndexes->{}", Arrays.toString(diffIndexes));
       if ((diffIndexes == null) || (diffIndexes.length == 0))
          return;
       DKColumnComparison[] columnComparisons = context_._tableComparison.getMap();
-      _log.debug("columnComparisons->{}", Arrays.toString(columnComparisons));
+      if (_isDebug)
+         _log.debug("columnComparisons->{}", Arrays.toString(columnComparisons));
       // not supposed to happen, but play it safe
       if ((columnComparisons == null) || (columnComparisons.length == 0))
          return;
+      DKMetrics metrics = context_._metrics;
+      boolean sampled = metrics.isSampled(context_._rowStep);
+      long start = metrics.startTimer(sampled);
+      // time spent in the sink, which is not part of COLUMN_DIFF
+      long sinkNanos = 0;
       DKColumnDiffRow diffRow = null;
       for (int i = 0; i < diffIndexes.length; i++) {
          context_._columnStep++;
@@ -144,19 +402,24 @@ public class DKDiffEngine {
             if (diffRow == null)
                // key side arbitrary; keyValeus guaranteed to match on both
                // sides
-               diffRow = new DKColumnDiffRow(context_._rowStep, lhs_, rhs_,
-                  context_._tableComparison);
+               diffRow = new DKColumnDiffRow(context_._rowStep, copyRow(lhs_,
+                  copyRows_), copyRow(rhs_, copyRows_), context_._tableComparison);
             DKColumnDiff columnDiff = diffRow.createDiff(context_._columnStep,
                columnComparisons[diffIndexes[i]].getLHValue(lhs_),
                columnComparisons[diffIndexes[i]].getRHValue(rhs_));
+            long sinkStart = metrics.startTimer(sampled);
             sink_.record(columnDiff, context_);
+            sinkNanos += metrics.stopTimer(DKMetrics.Stage.SINK_RECORD, sinkStart);
          }
       }
+      metrics.stopTimer(DKMetrics.Stage.COLUMN_DIFF, (start == DKMetrics.UNTIMED) ? start
+         : start + sinkNanos);
    }
 
-   private void recordRowDiff(Object[] row_, int sideIdx_, DKContext context_,
+   protected void recordRowDiff(Object[] row_, int sideIdx_, DKContext context_,
                               DKSink sink_) throws IOException {
-      _log.debug("row_->{} sideIdx_->{}", row_, sideIdx_);
+      if (_isDebug)
+         _log.debug("row_->{} sideIdx_->{}", row_, sideIdx_);
       DKDiff.Kind kind = context_._tableComparison.getKind();
       if (kind == DKDiff.Kind.COLUMN_DIFF)
          return;
@@ -166,7 +429,10 @@ public class DKDiffEngine {
       long rowStep = context_.getRowStep();
       DKSide side = DKSide.getEnumForConstant(sideIdx_);
       DKRowDiff rowDiff = new DKRowDiff(rowStep, row_, side, tableComparison);
+      DKMetrics metrics = context_._metrics;
+      long start = metrics.startTimer(metrics.isSampled(rowStep));
       sink_.record(rowDiff, context_);
+      metrics.stopTimer(DKMetrics.Stage.SINK_RECORD, start);
    }
 
 }
@@ -0,0 +1,363 @@
+/**
+ * Copyright 2010-2011 Joseph Panico
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.diffkit.diff.engine;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.diffkit.common.annot.NotThreadSafe;
+import org.diffkit.common.annot.ThreadSafe;
+
+/**
+ * Custom Java Flight Recorder events, so that a recording of a slow diff shows
+ * the plan, the tables, the SQL and the stage that it is in, alongside the
+ * generic JDBC and GC activity.
+ * <p>
+ * DiffKit builds for Java 1.6, and jdk.jfr only exists in later JVMs, so the
+ * event types are not classes; they are defined when this class loads, by
+ * reflection through jdk.jfr.EventFactory. Where that is missing, or fails,
+ * isAvailable() is false and every event is a no-op. Events are only
+ * populated when a recording has their type enabled, so that the cost to a
+ * diff without a recording is one check per event.
+ *
+ * @author jpanico
+ */
+@ThreadSafe
+public final class DKFlightRecorder {
+
+   /**
+    * the event types, each registered as org.diffkit.&lt;name&gt;, in the
+    * DiffKit category. The values passed to commit() are in field order
+    */
+   public static enum EventKind {
+      DIFF_START("DiffStart", "Diff Start", "contextId", Long.TYPE, "plan",
+         String.class, "lhsTable", String.class, "rhsTable", String.class, "lhs",
+         String.class, "rhs", String.class, "sink", String.class),
+      DIFF("Diff", "Diff", "contextId", Long.TYPE, "plan", String.class, "lhsTable",
+         String.class, "rhsTable", String.class, "rowStep", Long.TYPE, "diffCount",
+         Long.TYPE),
+      DIFF_RATE("DiffRate", "Diff Rate", "contextId", Long.TYPE, "rowStep", Long.TYPE,
+         "diffCount", Long.TYPE, "rowsPerSecond", Double.TYPE, "diffsPerSecond",
+         Double.TYPE),
+      SOURCE_OPEN("SourceOpen", "Source Open", "contextId", Long.TYPE, "source",
+         String.class, "kind", String.class),
+      SOURCE_QUERY("SourceQuery", "Source Query", "contextId", Long.TYPE, "source",
+         String.class, "sql", String.class, "fetchSize", Integer.TYPE),
+      FETCH_BATCH("FetchBatch", "Fetch Batch", "contextId", Long.TYPE, "source",
+         String.class, "firstIndex", Long.TYPE, "rowCount", Integer.TYPE, "readNanos",
+         Long.TYPE),
+      SINK_FLUSH("SinkFlush", "Sink Flush", "contextId", Long.TYPE, "sink",
+         String.class, "diffCount", Long.TYPE, "isClose", Boolean.TYPE);
+
+      private final String _name;
+      private final String _label;
+      private final String[] _fieldNames;
+      private final Class<?>[] _fieldTypes;
+
+      /**
+       * @param fields_
+       *           alternating field name and (primitive or String) type
+       */
+      private EventKind(String name_, String label_, Object... fields_) {
+         _name = "org.diffkit." + name_;
+         _label = label_;
+         _fieldNames = new String[fields_.length / 2];
+         _fieldTypes = new Class<?>[fields_.length / 2];
+         for (int i = 0; i < _fieldNames.length; i++) {
+            _fieldNames[i] = (String) fields_[i * 2];
+            _fieldTypes[i] = (Class<?>) fields_[(i * 2) + 1];
+         }
+      }
+
+      public String getName() {
+         return _name;
+      }
+   }
+
+   /**
+    * rows per FETCH_BATCH event, for sources that have no batch of their own
+    */
+   public static final int DEFAULT_FETCH_BATCH_SIZE = 10000;
+   private static final Logger LOG = LoggerFactory.getLogger(DKFlightRecorder.class);
+   private static final Jfr JFR = Jfr.create();
+   private static final Event NOOP_EVENT = new Event(null, null);
+
+   private DKFlightRecorder() {
+   }
+
+   /**
+    * @return true if this JVM can record DiffKit events
+    */
+   public static boolean isAvailable() {
+      return (JFR != null);
+   }
+
+   /**
+    * @return true if a recording is capturing events of kind_
+    */
+   public static boolean isEnabled(EventKind kind_) {
+      return (JFR != null) && JFR.isEnabled(kind_);
+   }
+
+   /**
+    * starts the clock on an event of kind_, which is recorded by its
+    * commit(); a no-op Event if !isEnabled(kind_)
+    */
+   public static Event begin(EventKind kind_) {
+      if (!isEnabled(kind_))
+         return NOOP_EVENT;
+      Object event = JFR.begin(kind_);
+      return (event == null) ? NOOP_EVENT : new Event(kind_, event);
+   }
+
+   /**
+    * records an event of kind_ that has no duration
+    */
+   public static void commit(EventKind kind_, Object... values_) {
+      begin(kind_).commit(values_);
+   }
+
+   /**
+    * @return null unless FETCH_BATCH is enabled
+    */
+   public static FetchTimer createFetchTimer(long contextId_, String source_,
+                                             int batchSize_) {
+      if (!isEnabled(EventKind.FETCH_BATCH))
+         return null;
+      return new FetchTimer(contextId_, source_,
+         (batchSize_ > 0) ? batchSize_ : DEFAULT_FETCH_BATCH_SIZE);
+   }
+
+   public static long getContextId(DKContext context_) {
+      return (context_ == null) ? 0 : context_._id;
+   }
+
+   /**
+    * one in-flight event
+    */
+   @NotThreadSafe
+   public static final class Event {
+      private final EventKind _kind;
+      private final Object _event;
+
+      private Event(EventKind kind_, Object event_) {
+         _kind = kind_;
+         _event = event_;
+      }
+
+      /**
+       * @param values_
+       *           one per field of the EventKind, in order
+       */
+      public void commit(Object... values_) {
+         if (_event != null)
+            JFR.commit(_kind, _event, values_);
+      }
+   }
+
+   /**
+    * times the reads of a source, and records a FETCH_BATCH event for each
+    * batchSize rows; the event spans the whole batch, and readNanos is the
+    * part of that spent inside the source
+    */
+   @NotThreadSafe
+   public static final class FetchTimer {
+      private final long _contextId;
+      private final String _source;
+      private final int _batchSize;
+      private Event _event;
+      private long _firstIndex;
+      private int _rowCount;
+      private long _readNanos;
+
+      private FetchTimer(long contextId_, String source_, int batchSize_) {
+         _contextId = contextId_;
+         _source = source_;
+         _batchSize = batchSize_;
+         _event = begin(EventKind.FETCH_BATCH);
+      }
+
+      /**
+       * @param start_
+       *           System.nanoTime() from before the read
+       * @param isRow_
+       *           false if the read found the end
+       */
+      public void stop(long start_, boolean isRow_) {
+         _readNanos += System.nanoTime() - start_;
+         if (isRow_)
+            _rowCount++;
+         if (!isRow_ || (_rowCount >= _batchSize))
+            this.flush();
+      }
+
+      /**
+       * records the partial batch, if any
+       */
+      public void flush() {
+         if (_rowCount == 0)
+            return;
+         _event.commit(_contextId, _source, _firstIndex, _rowCount, _readNanos);
+         _firstIndex += _rowCount;
+         _rowCount = 0;
+         _readNanos = 0;
+         _event = begin(EventKind.FETCH_BATCH);
+      }
+   }
+
+   /**
+    * the reflective calls into jdk.jfr
+    */
+   private static final class Jfr {
+      private final Object[] _eventTypes;
+      private final Object[] _factories;
+      private final Method _newEvent;
+      private final Method _isEnabled;
+      private final Method _begin;
+      private final Method _end;
+      private final Method _shouldCommit;
+      private final Method _set;
+      private final Method _commit;
+
+      /**
+       * @return null if jdk.jfr is not there, or not usable
+       */
+      private static Jfr create() {
+         try {
+            return new Jfr();
+         }
+         catch (ClassNotFoundException e_) {
+            LOG.debug("no jdk.jfr; DiffKit events are off");
+         }
+         catch (Throwable e_) {
+            LOG.warn("can't define DiffKit events; they are off", e_);
+         }
+         return null;
+      }
+
+      private Jfr() throws Exception {
+         Class<?> factoryClass = Class.forName("jdk.jfr.EventFactory");
+         Class<?> eventClass = Class.forName("jdk.jfr.Event");
+         Class<?> annotationClass = Class.forName("jdk.jfr.AnnotationElement");
+         Class<?> descriptorClass = Class.forName("jdk.jfr.ValueDescriptor");
+         Class<?> nameClass = Class.forName("jdk.jfr.Name");
+         Class<?> labelClass = Class.forName("jdk.jfr.Label");
+         Class<?> categoryClass = Class.forName("jdk.jfr.Category");
+         Constructor<?> annotationConstructor = annotationClass.getConstructor(
+            Class.class, Object.class);
+         Constructor<?> descriptorConstructor = descriptorClass.getConstructor(
+            Class.class, String.class, List.class);
+         Method create = factoryClass.getMethod("create", List.class, List.class);
+         Method getEventType = factoryClass.getMethod("getEventType");
+         Object category = Array.newInstance(String.class, 1);
+         Array.set(category, 0, "DiffKit");
+         EventKind[] kinds = EventKind.values();
+         _factories = new Object[kinds.length];
+         _eventTypes = new Object[kinds.length];
+         for (EventKind kind : kinds) {
+            List<Object> annotations = new ArrayList<Object>();
+            annotations.add(annotationConstructor.newInstance(nameClass, kind._name));
+            annotations.add(annotationConstructor.newInstance(labelClass, kind._label));
+            annotations.add(annotationConstructor.newInstance(categoryClass, category));
+            List<Object> fields = new ArrayList<Object>();
+            for (int i = 0; i < kind._fieldNames.length; i++)
+               fields.add(descriptorConstructor.newInstance(kind._fieldTypes[i],
+                  kind._fieldNames[i], Collections.singletonList(annotationConstructor.newInstance(
+                     labelClass, kind._fieldNames[i]))));
+            _factories[kind.ordinal()] = create.invoke(null, annotations, fields);
+            _eventTypes[kind.ordinal()] = getEventType.invoke(_factories[kind.ordinal()]);
+         }
+         _newEvent = factoryClass.getMethod("newEvent");
+         _isEnabled = getEventType.getReturnType().getMethod("isEnabled");
+         _begin = eventClass.getMethod("begin");
+         _end = eventClass.getMethod("end");
+         _shouldCommit = eventClass.getMethod("shouldCommit");
+         _set = eventClass.getMethod("set", Integer.TYPE, Object.class);
+         _commit = eventClass.getMethod("commit");
+         LOG.info("eventKinds->{}", Arrays.toString(kinds));
+      }
+
+      private boolean isEnabled(EventKind kind_) {
+         try {
+            return ((Boolean) _isEnabled.invoke(_eventTypes[kind_.ordinal()])).booleanValue();
+         }
+         catch (Exception e_) {
+            LOG.debug(null, e_);
+            return false;
+         }
+      }
+
+      /**
+       * @return null if the event could not be created
+       */
+      private Object begin(EventKind kind_) {
+         try {
+            Object event = _newEvent.invoke(_factories[kind_.ordinal()]);
+            _begin.invoke(event);
+            return event;
+         }
+         catch (Exception e_) {
+            LOG.debug(null, e_);
+            return null;
+         }
+      }
+
+      private void commit(EventKind kind_, Object event_, Object[] values_) {
+         if ((values_ == null) || (values_.length != kind_._fieldTypes.length))
+            throw new IllegalArgumentException(String.format(
+               "invalid values_ for kind_->%s", kind_));
+         try {
+            _end.invoke(event_);
+            if (!((Boolean) _shouldCommit.invoke(event_)).booleanValue())
+               return;
+            for (int i = 0; i < values_.length; i++)
+               _set.invoke(event_, i, coerce(values_[i], kind_._fieldTypes[i]));
+            _commit.invoke(event_);
+         }
+         catch (Exception e_) {
+            LOG.debug(null, e_);
+         }
+      }
+
+      /**
+       * jdk.jfr insists on the exact boxed type of each field
+       */
+      private static Object coerce(Object value_, Class<?> type_) {
+         if (value_ == null)
+            return null;
+         if (type_ == String.class)
+            return value_.toString();
+         if (!(value_ instanceof Number))
+            return value_;
+         Number number = (Number) value_;
+         if (type_ == Long.TYPE)
+            return Long.valueOf(number.longValue());
+         if (type_ == Integer.TYPE)
+            return Integer.valueOf(number.intValue());
+         if (type_ == Double.TYPE)
+            return Double.valueOf(number.doubleValue());
+         return value_;
+      }
+   }
+}
@@ -0,0 +1,668 @@
+/**
+ * Copyright 2010-2011 Joseph Panico
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.diffkit.diff.engine;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+import org.apache.commons.lang.ClassUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.diffkit.common.DKUserException;
+import org.diffkit.common.DKValidate;
+import org.diffkit.common.annot.NotThreadSafe;
+import org.diffkit.diff.engine.DKContext.UserKey;
+import org.diffkit.util.DKArrayUtil;
+
+/**
+ * Diffs two sources without requiring either of them to be in key order. The
+ * rows of the build side are loaded into a hash table keyed on their key
+ * values, and the probe side is then streamed against that table. Probe rows
+ * with no match are recorded as row diffs as they are encountered; build rows
+ * still left in the table at the end are recorded as row diffs after that.
+ * Duplicate keys are paired off in the order they are read, just as in the
+ * merge. The build side is the smaller one, according to
+ * DKUnorderedSource.estimateRowCount(), or else the rhs.
+ * <p>
+ * When the build side does not fit within memoryBudget, both sides are hash
+ * partitioned into temp files (grace hash join), and then each pair of
+ * partitions is joined in memory, one pair at a time. A build partition that
+ * still does not fit is partitioned again, with a different hash seed, up to
+ * MAX_SPILL_DEPTH times; after that (e.g. a single key with more duplicates
+ * than fit in memoryBudget) the diff fails.
+ * <p>
+ * Sources that are DKUnorderedSource are read through createUnordered(), so
+ * that they need not sort. Diffs are recorded in hash order, not in key order.
+ *
+ * @author jpanico
+ */
+@NotThreadSafe
+public class DKHashDiffEngine extends DKDiffEngine {
+   public static final int DEFAULT_SPILL_PARTITION_COUNT = 32;
+   /**
+    * fraction of the max heap used for the hash table, when no explicit budget
+    * is given
+    */
+   private static final int DEFAULT_MEMORY_DIVISOR = 4;
+   /**
+    * approximate heap taken by a hash table entry and its Key, beyond the row
+    * and the key values themselves
+    */
+   private static final long ENTRY_OVERHEAD = 64;
+   /**
+    * used to guess the heap size of a row before any have been read
+    */
+   private static final long ESTIMATED_VALUE_SIZE = 48;
+   /**
+    * number of rows written between ObjectOutputStream.reset(), which keeps the
+    * stream's back-reference table from growing without bound
+    */
+   private static final int RESET_INTERVAL = 1000;
+   private static final String TEMP_FILE_PREFIX = "dkhash";
+   /**
+    * levels of repartitioning, below the first spill, before giving up
+    */
+   public static final int MAX_SPILL_DEPTH = 4;
+
+   private final long _memoryBudget;
+   private final File _tempDir;
+   private final int _spillPartitionCount;
+   private final Logger _log = LoggerFactory.getLogger(this.getClass());
+
+   /**
+    * uses a quarter of the max heap for the hash table
+    */
+   public DKHashDiffEngine() {
+      this(Runtime.getRuntime().maxMemory() / DEFAULT_MEMORY_DIVISOR);
+   }
+
+   public DKHashDiffEngine(long memoryBudget_) {
+      this(memoryBudget_, null, DEFAULT_SPILL_PARTITION_COUNT);
+   }
+
+   /**
+    * @param memoryBudget_
+    *           approximate heap, in bytes, for the hash table
+    * @param tempDirPath_
+    *           directory for spilled partitions; null means java.io.tmpdir
+    * @param spillPartitionCount_
+    *           number of partitions each side is split into when the build
+    *           side does not fit in memoryBudget_
+    */
+   public DKHashDiffEngine(long memoryBudget_, String tempDirPath_,
+                           int spillPartitionCount_) {
+      _memoryBudget = memoryBudget_;
+      _tempDir = (tempDirPath_ == null) ? new File(System.getProperty("java.io.tmpdir"))
+         : new File(tempDirPath_);
+      _spillPartitionCount = spillPartitionCount_;
+      if (_memoryBudget <= 0)
+         throw new IllegalArgumentException(String.format("invalid memoryBudget_->%s",
+            memoryBudget_));
+      if (_spillPartitionCount < 1)
+         throw new IllegalArgumentException(String.format(
+            "invalid spillPartitionCount_->%s", spillPartitionCount_));
+      if (!_tempDir.isDirectory())
+         throw new DKUserException(String.format("tempDirPath_->%s is not a directory",
+            tempDirPath_));
+   }
+
+   public long getMemoryBudget() {
+      return _memoryBudget;
+   }
+
+   public File getTempDir() {
+      return _tempDir;
+   }
+
+   public int getSpillPartitionCount() {
+      return _spillPartitionCount;
+   }
+
+   @Override
+   public DKContext diff(DKSource lhs_, DKSource rhs_, DKSink sink_,
+                         DKTableComparison tableComparison_,
+                         Map<UserKey, ?> userDictionary_) throws IOException {
+      DKValidate.notNull(lhs_, rhs_, sink_, tableComparison_);
+      return super.diff(createUnordered(lhs_), createUnordered(rhs_), sink_,
+         tableComparison_, userDictionary_);
+   }
+
+   @Override
+   protected void diff(DKContext context_) throws IOException {
+      long maxDiffs = context_._tableComparison.getMaxDiffs();
+      _log.info("maxDiffs->{}", maxDiffs);
+      int buildIdx = this.chooseBuildSide(context_);
+      int probeIdx = (buildIdx == DKSide.LEFT_INDEX) ? DKSide.RIGHT_INDEX
+         : DKSide.LEFT_INDEX;
+      _log.info("buildIdx->{}", buildIdx);
+      context_.open();
+      DKSource buildSource = getSource(buildIdx, context_);
+      DKSource probeSource = getSource(probeIdx, context_);
+      Map<Key, Object> table = new LinkedHashMap<Key, Object>();
+      if (this.build(table, buildSource, buildIdx, context_)) {
+         _log.info("build side fits in memory; tableSize->{}", table.size());
+         if (this.probe(table, probeSource, probeIdx, context_))
+            this.drain(table, buildIdx, context_);
+      }
+      else {
+         _log.info("build side exceeds memoryBudget->{}; spilling", _memoryBudget);
+         this.graceJoin(table, buildSource, buildIdx, probeSource, probeIdx, context_);
+      }
+      context_.close();
+   }
+
+   /**
+    * @return false if the build side did not fit in _memoryBudget; all rows
+    *         read up to that point are left in table_
+    */
+   private boolean build(Map<Key, Object> table_, DKSource source_, int sideIdx_,
+                         DKContext context_) throws IOException {
+      long size = 0;
+      for (Object[] row = source_.getNextRow(); row != null; row = source_.getNextRow()) {
+         Key key = this.createKey(row, sideIdx_, context_);
+         add(table_, key, row);
+         size += estimateEntrySize(key, row);
+         if (size > _memoryBudget)
+            return false;
+      }
+      return true;
+   }
+
+   /**
+    * @return false if maxDiffs was reached
+    */
+   private boolean probe(Map<Key, Object> table_, DKSource source_, int sideIdx_,
+                         DKContext context_) throws IOException {
+      for (Object[] row = source_.getNextRow(); row != null; row = source_.getNextRow()) {
+         if (!this.probe(table_, row, sideIdx_, context_))
+            return false;
+      }
+      return true;
+   }
+
+   /**
+    * @return false if maxDiffs was reached
+    */
+   private boolean probe(Map<Key, Object> table_, Object[] row_, int sideIdx_,
+                         DKContext context_) throws IOException {
+      if (!this.step(context_))
+         return false;
+      Object[] match = remove(table_, this.createKey(row_, sideIdx_, context_));
+      if (match == null)
+         this.recordRowDiff(row_, sideIdx_, context_, context_._sink);
+      else if (sideIdx_ == DKSide.LEFT_INDEX)
+         this.diffRow(row_, match, context_, context_._sink);
+      else
+         this.diffRow(match, row_, context_, context_._sink);
+      return true;
+   }
+
+   /**
+    * records everything left in table_ as row diffs
+    *
+    * @return false if maxDiffs was reached
+    */
+   @SuppressWarnings("unchecked")
+   private boolean drain(Map<Key, Object> table_, int sideIdx_, DKContext context_)
+      throws IOException {
+      for (Object value : table_.values()) {
+         if (value instanceof Object[]) {
+            if (!this.step(context_))
+               return false;
+            this.recordRowDiff((Object[]) value, sideIdx_, context_, context_._sink);
+            continue;
+         }
+         for (Object[] row : (LinkedList<Object[]>) value) {
+            if (!this.step(context_))
+               return false;
+            this.recordRowDiff(row, sideIdx_, context_, context_._sink);
+         }
+      }
+      table_.clear();
+      return true;
+   }
+
+   private void graceJoin(Map<Key, Object> table_, DKSource buildSource_,
+                          int buildIdx_, DKSource probeSource_, int probeIdx_,
+                          DKContext context_) throws IOException {
+      SpillFiles buildFiles = new SpillFiles(buildIdx_, 0);
+      SpillFiles probeFiles = new SpillFiles(probeIdx_, 0);
+      try {
+         for (Map.Entry<Key, Object> entry : table_.entrySet())
+            buildFiles.write(entry.getKey(), entry.getValue());
+         table_.clear();
+         this.spill(buildFiles, buildSource_, buildIdx_, context_);
+         this.spill(probeFiles, probeSource_, probeIdx_, context_);
+         this.join(table_, buildFiles, probeFiles, context_);
+      }
+      finally {
+         table_.clear();
+         buildFiles.delete();
+         probeFiles.delete();
+      }
+   }
+
+   /**
+    * joins each pair of partitions in memory, repartitioning any build
+    * partition that does not fit
+    *
+    * @return false if maxDiffs was reached
+    */
+   private boolean join(Map<Key, Object> table_, SpillFiles buildFiles_,
+                        SpillFiles probeFiles_, DKContext context_) throws IOException {
+      int buildIdx = buildFiles_._sideIdx;
+      int probeIdx = probeFiles_._sideIdx;
+      buildFiles_.closeStreams();
+      probeFiles_.closeStreams();
+      for (int i = 0; i < _spillPartitionCount; i++) {
+         boolean isRepartitioned = false;
+         ObjectInputStream buildStream = buildFiles_.openStream(i);
+         try {
+            long size = 0;
+            for (Object[] row = read(buildStream); row != null; row = read(buildStream)) {
+               Key key = this.createKey(row, buildIdx, context_);
+               add(table_, key, row);
+               size += estimateEntrySize(key, row);
+               if (size > _memoryBudget) {
+                  if (!this.repartition(table_, buildStream, buildFiles_, probeFiles_, i,
+                     context_))
+                     return false;
+                  isRepartitioned = true;
+                  break;
+               }
+            }
+         }
+         finally {
+            close(buildStream);
+         }
+         // already joined, at the next depth
+         if (isRepartitioned)
+            continue;
+         _log.debug("depth->{} partition->{} tableSize->{}", new Object[] {
+            buildFiles_._depth, i, table_.size() });
+         ObjectInputStream probeStream = probeFiles_.openStream(i);
+         try {
+            for (Object[] row = read(probeStream); row != null; row = read(probeStream)) {
+               if (!this.probe(table_, row, probeIdx, context_))
+                  return false;
+            }
+         }
+         finally {
+            close(probeStream);
+         }
+         if (!this.drain(table_, buildIdx, context_))
+            return false;
+      }
+      return true;
+   }
+
+   /**
+    * splits partition_ of both sides, whose build rows do not fit in memory,
+    * into the partitions of the next depth, with a different hash seed, and
+    * joins those; table_ holds the build rows read so far, and is left empty
+    *
+    * @return false if maxDiffs was reached
+    */
+   private boolean repartition(Map<Key, Object> table_, ObjectInputStream buildStream_,
+                               SpillFiles buildFiles_, SpillFiles probeFiles_,
+                               int partition_, DKContext context_) throws IOException {
+      int depth = buildFiles_._depth + 1;
+      if (depth > MAX_SPILL_DEPTH)
+         throw new RuntimeException(String.format(
+            "build partition->%s still exceeds memoryBudget->%s after %s repartitions; keys are too skewed (or duplicated) to hash join within the budget",
+            partition_, _memoryBudget, MAX_SPILL_DEPTH));
+      _log.info("partition->{} exceeds memoryBudget->{}; repartitioning to depth->{}",
+         new Object[] { partition_, _memoryBudget, depth });
+      int buildIdx = buildFiles_._sideIdx;
+      int probeIdx = probeFiles_._sideIdx;
+      SpillFiles buildFiles = new SpillFiles(buildIdx, depth);
+      SpillFiles probeFiles = new SpillFiles(probeIdx, depth);
+      try {
+         for (Map.Entry<Key, Object> entry : table_.entrySet())
+            buildFiles.write(entry.getKey(), entry.getValue());
+         table_.clear();
+         for (Object[] row = read(buildStream_); row != null; row = read(buildStream_))
+            buildFiles.write(this.createKey(row, buildIdx, context_), row);
+         ObjectInputStream probeStream = probeFiles_.openStream(partition_);
+         try {
+            for (Object[] row = read(probeStream); row != null; row = read(probeStream))
+               probeFiles.write(this.createKey(row, probeIdx, context_), row);
+         }
+         finally {
+            close(probeStream);
+         }
+         return this.join(table_, buildFiles, probeFiles, context_);
+      }
+      finally {
+         table_.clear();
+         buildFiles.delete();
+         probeFiles.delete();
+      }
+   }
+
+   private void spill(SpillFiles files_, DKSource source_, int sideIdx_,
+                      DKContext context_) throws IOException {
+      for (Object[] row = source_.getNextRow(); row != null; row = source_.getNextRow())
+         files_.write(this.createKey(row, sideIdx_, context_), row);
+   }
+
+   /**
+    * starts the next rowStep
+    *
+    * @return false if maxDiffs has been reached
+    */
+   private boolean step(DKContext context_) {
+      if (context_._sink.getDiffCount() >= context_._tableComparison.getMaxDiffs())
+         return false;
+      context_._rowStep++;
+      context_._columnStep = 0;
+      if (context_._rowStep % PROGRESS_BATCH_SIZE == 0) {
+         USER_LOG.info("->{}", context_._rowStep);
+         context_.publishProgress();
+      }
+      return true;
+   }
+
+   private int chooseBuildSide(DKContext context_) throws IOException {
+      long lhsRowCount = estimateRowCount(context_._lhs);
+      long rhsRowCount = estimateRowCount(context_._rhs);
+      _log.info("lhsRowCount->{} rhsRowCount->{}", lhsRowCount, rhsRowCount);
+      if ((lhsRowCount >= 0) && (rhsRowCount >= 0) && (lhsRowCount < rhsRowCount))
+         return DKSide.LEFT_INDEX;
+      return DKSide.RIGHT_INDEX;
+   }
+
+   private Key createKey(Object[] row_, int sideIdx_, DKContext context_) {
+      return new Key(context_._tableComparison.getRowKeyValues(row_, sideIdx_));
+   }
+
+   private static long estimateEntrySize(Key key_, Object[] row_) {
+      return DKArrayUtil.estimateHeapSize(row_) + DKArrayUtil.estimateHeapSize(key_._values)
+         + ENTRY_OVERHEAD;
+   }
+
+   /**
+    * @return -1 if source_ cannot estimate its row count
+    */
+   static long estimateRowCount(DKSource source_) throws IOException {
+      if (!(source_ instanceof DKUnorderedSource))
+         return -1;
+      return ((DKUnorderedSource) source_).estimateRowCount();
+   }
+
+   /**
+    * @return approximate heap needed to hold rowCount_ rows of model_ in the
+    *         hash table
+    */
+   static long estimateTableSize(long rowCount_, DKTableModel model_) {
+      int columnCount = model_.getColumns().length;
+      return rowCount_ * (ENTRY_OVERHEAD + 16 + (columnCount * (4 + ESTIMATED_VALUE_SIZE)));
+   }
+
+   private static DKSource createUnordered(DKSource source_) throws IOException {
+      if (!(source_ instanceof DKUnorderedSource))
+         return source_;
+      return ((DKUnorderedSource) source_).createUnordered();
+   }
+
+   private static DKSource getSource(int sideIdx_, DKContext context_) {
+      return (sideIdx_ == DKSide.LEFT_INDEX) ? context_._lhs : context_._rhs;
+   }
+
+   /**
+    * the table holds either a single row, or, for duplicate keys, a LinkedList
+    * of rows in the order they were read
+    */
+   @SuppressWarnings("unchecked")
+   private static void add(Map<Key, Object> table_, Key key_, Object[] row_) {
+      Object value = table_.get(key_);
+      if (value == null) {
+         table_.put(key_, row_);
+      }
+      else if (value instanceof Object[]) {
+         LinkedList<Object[]> rows = new LinkedList<Object[]>();
+         rows.add((Object[]) value);
+         rows.add(row_);
+         table_.put(key_, rows);
+      }
+      else {
+         ((LinkedList<Object[]>) value).add(row_);
+      }
+   }
+
+   @SuppressWarnings("unchecked")
+   private static Object[] remove(Map<Key, Object> table_, Key key_) {
+      Object value = table_.get(key_);
+      if (value == null)
+         return null;
+      if (value instanceof Object[]) {
+         table_.remove(key_);
+         return (Object[]) value;
+      }
+      LinkedList<Object[]> rows = (LinkedList<Object[]>) value;
+      Object[] row = rows.removeFirst();
+      if (rows.isEmpty())
+         table_.remove(key_);
+      return row;
+   }
+
+   /**
+    * @return null at end of stream_
+    */
+   private static Object[] read(ObjectInputStream stream_) throws IOException {
+      if (stream_ == null)
+         return null;
+      try {
+         return (Object[]) stream_.readObject();
+      }
+      catch (EOFException e_) {
+         return null;
+      }
+      catch (ClassNotFoundException e_) {
+         throw new RuntimeException(e_);
+      }
+   }
+
+   private static void close(ObjectInputStream stream_) {
+      if (stream_ == null)
+         return;
+      try {
+         stream_.close();
+      }
+      catch (IOException e_) {
+         // nothing to be done
+      }
+   }
+
+   public String toString() {
+      return String.format("%s[memoryBudget=%s, tempDir=%s, spillPartitionCount=%s]",
+         ClassUtils.getShortClassName(this.getClass()), _memoryBudget, _tempDir,
+         _spillPartitionCount);
+   }
+
+   /**
+    * key values of a row, with equals() consistent with the row comparator
+    */
+   private static final class Key {
+      private final Object[] _values;
+      private final int _hashCode;
+
+      private Key(Object[] values_) {
+         _values = values_;
+         for (int i = 0; i < _values.length; i++) {
+            if (_values[i] instanceof Number)
+               _values[i] = normalize((Number) _values[i]);
+         }
+         _hashCode = Arrays.hashCode(_values);
+      }
+
+      /**
+       * numbers that are numerically equal, but not equals(), such as
+       * Integer(1) and Long(1), or 1.0 and 1.00, come out equals(): a Long if
+       * the value is integral and fits, else a BigDecimal without trailing
+       * zeros
+       */
+      private static Object normalize(Number value_) {
+         if ((value_ instanceof Long) || (value_ instanceof Integer)
+            || (value_ instanceof Short) || (value_ instanceof Byte))
+            return Long.valueOf(value_.longValue());
+         BigDecimal decimal = null;
+         if (value_ instanceof BigDecimal)
+            decimal = (BigDecimal) value_;
+         else if (value_ instanceof BigInteger)
+            decimal = new BigDecimal((BigInteger) value_);
+         else if ((value_ instanceof Double) || (value_ instanceof Float)) {
+            double doubleValue = value_.doubleValue();
+            if (Double.isNaN(doubleValue) || Double.isInfinite(doubleValue))
+               return Double.valueOf(doubleValue);
+            decimal = new BigDecimal(doubleValue);
+         }
+         else
+            return value_;
+         if (decimal.signum() == 0)
+            return Long.valueOf(0);
+         decimal = decimal.stripTrailingZeros();
+         if (decimal.scale() <= 0) {
+            try {
+               return Long.valueOf(decimal.longValueExact());
+            }
+            catch (ArithmeticException e_) {
+               // too big for a Long
+            }
+         }
+         return decimal;
+      }
+
+      /**
+       * spreads the hash, so that the rows within a spill partition do not
+       * all collide in the same buckets of the in-memory table; each depth_
+       * of repartitioning mixes in a different seed, so that the rows of one
+       * partition are split again, rather than all landing together
+       */
+      private int getPartition(int partitionCount_, int depth_) {
+         int hash = _hashCode + (depth_ * 0x9E3779B9);
+         hash ^= (hash >>> 16);
+         hash *= 0x85EBCA6B;
+         hash ^= (hash >>> 13);
+         hash *= 0xC2B2AE35;
+         hash ^= (hash >>> 16);
+         return (hash >>> 1) % partitionCount_;
+      }
+
+      public int hashCode() {
+         return _hashCode;
+      }
+
+      public boolean equals(Object that_) {
+         if (this == that_)
+            return true;
+         if (!(that_ instanceof Key))
+            return false;
+         Key that = (Key) that_;
+         return (_hashCode == that._hashCode) && Arrays.equals(_values, that._values);
+      }
+   }
+
+   /**
+    * one temp file per spill partition, for one side, at one depth of
+    * repartitioning
+    */
+   private class SpillFiles {
+      private final int _sideIdx;
+      private final int _depth;
+      private final File[] _files = new File[_spillPartitionCount];
+      private final ObjectOutputStream[] _streams = new ObjectOutputStream[_spillPartitionCount];
+      private final long[] _rowCounts = new long[_spillPartitionCount];
+
+      private SpillFiles(int sideIdx_, int depth_) {
+         _sideIdx = sideIdx_;
+         _depth = depth_;
+      }
+
+      @SuppressWarnings("unchecked")
+      private void write(Key key_, Object value_) throws IOException {
+         int partition = key_.getPartition(_spillPartitionCount, _depth);
+         if (value_ instanceof Object[]) {
+            this.write(partition, (Object[]) value_);
+            return;
+         }
+         for (Object[] row : (LinkedList<Object[]>) value_)
+            this.write(partition, row);
+      }
+
+      private void write(int partition_, Object[] row_) throws IOException {
+         if (_streams[partition_] == null) {
+            _files[partition_] = File.createTempFile(String.format("%s%s-",
+               TEMP_FILE_PREFIX, _sideIdx), null, _tempDir);
+            _files[partition_].deleteOnExit();
+            _streams[partition_] = new ObjectOutputStream(new BufferedOutputStream(
+               new FileOutputStream(_files[partition_])));
+         }
+         _streams[partition_].writeObject(row_);
+         if (++_rowCounts[partition_] % RESET_INTERVAL == 0)
+            _streams[partition_].reset();
+      }
+
+      private void closeStreams() throws IOException {
+         for (int i = 0; i < _streams.length; i++) {
+            if (_streams[i] != null)
+               _streams[i].close();
+            _streams[i] = null;
+         }
+         _log.info("side->{} depth->{} spilled rowCounts->{}", new Object[] { _sideIdx,
+            _depth, Arrays.toString(_rowCounts) });
+      }
+
+      /**
+       * @return null if nothing was spilled to partition_
+       */
+      private ObjectInputStream openStream(int partition_) throws IOException {
+         if (_files[partition_] == null)
+            return null;
+         return new ObjectInputStream(new BufferedInputStream(new FileInputStream(
+            _files[partition_])));
+      }
+
+      private void delete() {
+         for (int i = 0; i < _files.length; i++) {
+            if (_streams[i] != null) {
+               try {
+                  _streams[i].close();
+               }
+               catch (IOException e_) {
+                  // nothing to be done
+               }
+            }
+            if (_files[i] != null)
+               _files[i].delete();
+         }
+      }
+   }
+}
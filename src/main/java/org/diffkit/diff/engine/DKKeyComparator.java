@@ -0,0 +1,240 @@
+/**
+ * Copyright 2010-2011 Joseph Panico
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.diffkit.diff.engine;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import org.apache.commons.lang.ClassUtils;
+
+import org.diffkit.common.DKValidate;
+import org.diffkit.common.annot.Immutable;
+
+/**
+ * Compares the key values of an lhs row with those of an rhs row. Orders the
+ * same as a DKComparatorChain of DKElementComparators over
+ * DKComparableComparator (null < notnull, otherwise Comparable.compareTo()),
+ * but without the chain: the key column types are resolved when the
+ * comparator is created, so that each compare is a direct call on the common
+ * key types (Long, Integer, String, BigDecimal) instead of several interface
+ * calls on Comparable. Keys of one and two columns, the common cases, are
+ * unrolled.
+ *
+ * A value whose runtime class is not the expected one (e.g. a BigDecimal from
+ * a NUMBER column modelled as INTEGER) still compares correctly, through
+ * compareTo().
+ *
+ * @author jpanico
+ */
+@Immutable
+@SuppressWarnings("unchecked")
+public abstract class DKKeyComparator implements Comparator<Object[]> {
+
+   /**
+    * the class that the values of a key column are expected to have
+    */
+   private static enum KeyType {
+      LONG, STRING, DECIMAL, OBJECT;
+   }
+
+   private final int[] _lhsIndexes;
+   private final int[] _rhsIndexes;
+   private final KeyType[] _types;
+
+   /**
+    * @return a comparator of lhs_ rows to rhs_ rows, on their keys
+    */
+   public static DKKeyComparator createComparator(DKTableModel lhs_, DKTableModel rhs_) {
+      DKValidate.notNull(lhs_, rhs_);
+      DKColumnModel[] lhsColumns = lhs_.getColumns();
+      int[] lhsKey = lhs_.getKey();
+      DKColumnModel[] rhsColumns = rhs_.getColumns();
+      int[] rhsKey = rhs_.getKey();
+      if ((lhsKey == null) || (rhsKey == null) || (lhsKey.length == 0)
+         || (lhsKey.length != rhsKey.length))
+         throw new IllegalArgumentException(String.format(
+            "invalid keys lhsKey->%s rhsKey->%s", Arrays.toString(lhsKey),
+            Arrays.toString(rhsKey)));
+      int[] lhsIndexes = new int[lhsKey.length];
+      int[] rhsIndexes = new int[rhsKey.length];
+      KeyType[] types = new KeyType[lhsKey.length];
+      for (int i = 0; i < lhsKey.length; i++) {
+         DKColumnModel lhsColumn = lhsColumns[lhsKey[i]];
+         DKColumnModel rhsColumn = rhsColumns[rhsKey[i]];
+         lhsIndexes[i] = lhsColumn._index;
+         rhsIndexes[i] = rhsColumn._index;
+         types[i] = (lhsColumn._type == rhsColumn._type) ? getKeyType(lhsColumn)
+            : KeyType.OBJECT;
+      }
+      switch (lhsIndexes.length) {
+      case 1:
+         return new Single(lhsIndexes, rhsIndexes, types);
+      case 2:
+         return new Pair(lhsIndexes, rhsIndexes, types);
+      default:
+         return new Compound(lhsIndexes, rhsIndexes, types);
+      }
+   }
+
+   /**
+    * @return a comparator of rows of tableModel_, on their key
+    */
+   public static DKKeyComparator createComparator(DKTableModel tableModel_) {
+      return createComparator(tableModel_, tableModel_);
+   }
+
+   private DKKeyComparator(int[] lhsIndexes_, int[] rhsIndexes_, KeyType[] types_) {
+      _lhsIndexes = lhsIndexes_;
+      _rhsIndexes = rhsIndexes_;
+      _types = types_;
+   }
+
+   /**
+    * @return number of key columns compared
+    */
+   public int getKeyLength() {
+      return _types.length;
+   }
+
+   private static KeyType getKeyType(DKColumnModel column_) {
+      if (column_.getType() == null)
+         return KeyType.OBJECT;
+      switch (column_.getType()) {
+      case INTEGER:
+         return KeyType.LONG;
+      case STRING:
+         return KeyType.STRING;
+      case TEXT:
+         return KeyType.STRING;
+      case DECIMAL:
+         return KeyType.DECIMAL;
+      default:
+         return KeyType.OBJECT;
+      }
+   }
+
+   /**
+    * null safe; null is < notnull
+    */
+   private static int compareValues(KeyType type_, Object lhs_, Object rhs_) {
+      if (lhs_ == rhs_)
+         return 0;
+      if (lhs_ == null)
+         return -1;
+      if (rhs_ == null)
+         return 1;
+      Class<?> lhsClass = lhs_.getClass();
+      if (lhsClass == rhs_.getClass()) {
+         switch (type_) {
+         case LONG:
+            if (lhsClass == Long.class) {
+               long lhs = ((Long) lhs_).longValue();
+               long rhs = ((Long) rhs_).longValue();
+               return (lhs < rhs) ? -1 : ((lhs == rhs) ? 0 : 1);
+            }
+            if (lhsClass == Integer.class) {
+               int lhs = ((Integer) lhs_).intValue();
+               int rhs = ((Integer) rhs_).intValue();
+               return (lhs < rhs) ? -1 : ((lhs == rhs) ? 0 : 1);
+            }
+            break;
+         case STRING:
+            if (lhsClass == String.class)
+               return ((String) lhs_).compareTo((String) rhs_);
+            break;
+         case DECIMAL:
+            if (lhsClass == BigDecimal.class)
+               return ((BigDecimal) lhs_).compareTo((BigDecimal) rhs_);
+            break;
+         default:
+            break;
+         }
+      }
+      return ((Comparable<Object>) lhs_).compareTo(rhs_);
+   }
+
+   public String toString() {
+      return String.format("%s(%s,%s,%s)", ClassUtils.getShortClassName(this.getClass()),
+         Arrays.toString(_lhsIndexes), Arrays.toString(_rhsIndexes),
+         Arrays.toString(_types));
+   }
+
+   private static final class Single extends DKKeyComparator {
+      private final int _lhsIdx;
+      private final int _rhsIdx;
+      private final KeyType _type;
+
+      private Single(int[] lhsIndexes_, int[] rhsIndexes_, KeyType[] types_) {
+         super(lhsIndexes_, rhsIndexes_, types_);
+         _lhsIdx = lhsIndexes_[0];
+         _rhsIdx = rhsIndexes_[0];
+         _type = types_[0];
+      }
+
+      public int compare(Object[] lhs_, Object[] rhs_) {
+         return compareValues(_type, lhs_[_lhsIdx], rhs_[_rhsIdx]);
+      }
+   }
+
+   private static final class Pair extends DKKeyComparator {
+      private final int _lhsIdx0;
+      private final int _rhsIdx0;
+      private final KeyType _type0;
+      private final int _lhsIdx1;
+      private final int _rhsIdx1;
+      private final KeyType _type1;
+
+      private Pair(int[] lhsIndexes_, int[] rhsIndexes_, KeyType[] types_) {
+         super(lhsIndexes_, rhsIndexes_, types_);
+         _lhsIdx0 = lhsIndexes_[0];
+         _rhsIdx0 = rhsIndexes_[0];
+         _type0 = types_[0];
+         _lhsIdx1 = lhsIndexes_[1];
+         _rhsIdx1 = rhsIndexes_[1];
+         _type1 = types_[1];
+      }
+
+      public int compare(Object[] lhs_, Object[] rhs_) {
+         int result = compareValues(_type0, lhs_[_lhsIdx0], rhs_[_rhsIdx0]);
+         if (result != 0)
+            return result;
+         return compareValues(_type1, lhs_[_lhsIdx1], rhs_[_rhsIdx1]);
+      }
+   }
+
+   private static final class Compound extends DKKeyComparator {
+      private final int[] _lhsIdxs;
+      private final int[] _rhsIdxs;
+      private final KeyType[] _keyTypes;
+
+      private Compound(int[] lhsIndexes_, int[] rhsIndexes_, KeyType[] types_) {
+         super(lhsIndexes_, rhsIndexes_, types_);
+         _lhsIdxs = lhsIndexes_;
+         _rhsIdxs = rhsIndexes_;
+         _keyTypes = types_;
+      }
+
+      public int compare(Object[] lhs_, Object[] rhs_) {
+         for (int i = 0; i < _keyTypes.length; i++) {
+            int result = compareValues(_keyTypes[i], lhs_[_lhsIdxs[i]], rhs_[_rhsIdxs[i]]);
+            if (result != 0)
+               return result;
+         }
+         return 0;
+      }
+   }
+}
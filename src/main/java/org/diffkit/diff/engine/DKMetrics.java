@@ -0,0 +1,408 @@
+/**
+ * Copyright 2010-2011 Joseph Panico
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.diffkit.diff.engine;
+
+import java.beans.ConstructorProperties;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.commons.lang.ClassUtils;
+
+/**
+ * Counters and latency histograms for each Stage of a diff. Every call into a
+ * Stage is counted, but only the rows that isSampled() picks are timed, so
+ * that the cost of System.nanoTime() is paid on one row in _sampleInterval.
+ * Latencies go into power-of-two buckets, so percentiles are accurate to
+ * within a factor of two.
+ * <p>
+ * Each instance is written by a single thread, without synchronization, and
+ * getSnapshot() is only for that thread. The writing thread calls publish()
+ * now and then to copy its totals into a volatile field; other threads (JMX,
+ * the periodic log line) read only those copies, through
+ * getPublishedSnapshot(), and so see values that are slightly stale but never
+ * torn. Threads that diff in parallel each write (and publish) their own
+ * child, from createChild(), and both snapshots merge the children into the
+ * parent.
+ *
+ * @author jpanico
+ */
+public class DKMetrics {
+
+   public static enum Stage {
+      LHS_FETCH("lhsFetch"), RHS_FETCH("rhsFetch"), KEY_COMPARE("keyCompare"), COLUMN_DIFF(
+         "columnDiff"), SINK_RECORD("sinkRecord"), SINK_FLUSH("sinkFlush");
+
+      private final String _key;
+
+      private Stage(String key_) {
+         _key = key_;
+      }
+
+      /**
+       * @return name used in the structured log line
+       */
+      public String getKey() {
+         return _key;
+      }
+
+      public static Stage forSide(int sideIdx_) {
+         return (sideIdx_ == DKSide.LEFT_INDEX) ? LHS_FETCH : RHS_FETCH;
+      }
+   }
+
+   /**
+    * start time of a timer that isn't running
+    */
+   public static final long UNTIMED = Long.MIN_VALUE;
+   public static final int DEFAULT_SAMPLE_INTERVAL = 16;
+   private static final int STAGE_COUNT = Stage.values().length;
+   private static final int BUCKET_COUNT = 64;
+
+   private final long _sampleMask;
+   // indexed by Stage ordinal; calls into other stages are ignored
+   private final boolean[] _isRecorded = new boolean[STAGE_COUNT];
+   private final Totals _totals = new Totals();
+   // copy of _totals as of the last publish()
+   private volatile Totals _published = new Totals();
+   private final List<DKMetrics> _children = new CopyOnWriteArrayList<DKMetrics>();
+
+   public DKMetrics() {
+      this(DEFAULT_SAMPLE_INTERVAL);
+   }
+
+   /**
+    * @param sampleInterval_
+    *           time one row in this many; must be a power of two
+    */
+   public DKMetrics(int sampleInterval_) {
+      this(sampleInterval_, EnumSet.allOf(Stage.class));
+   }
+
+   private DKMetrics(int sampleInterval_, Set<Stage> stages_) {
+      if ((sampleInterval_ < 1) || (Integer.bitCount(sampleInterval_) != 1))
+         throw new IllegalArgumentException(String.format("invalid sampleInterval_->%s",
+            sampleInterval_));
+      _sampleMask = sampleInterval_ - 1;
+      for (Stage stage : stages_)
+         _isRecorded[stage.ordinal()] = true;
+   }
+
+   /**
+    * @return a DKMetrics for another thread to write, with the same sample
+    *         interval, that is merged into the snapshots of this one
+    */
+   public DKMetrics createChild() {
+      return this.createChild(EnumSet.allOf(Stage.class));
+   }
+
+   /**
+    * @param stages_
+    *           the child ignores calls into any other Stage; e.g. because the
+    *           parent measures that Stage itself
+    */
+   public DKMetrics createChild(Set<Stage> stages_) {
+      DKMetrics child = new DKMetrics((int) _sampleMask + 1, stages_);
+      _children.add(child);
+      return child;
+   }
+
+   public int getSampleInterval() {
+      return (int) _sampleMask + 1;
+   }
+
+   /**
+    * @return true if the stages of rowStep_ should be timed
+    */
+   public boolean isSampled(long rowStep_) {
+      return (rowStep_ & _sampleMask) == 0;
+   }
+
+   /**
+    * @return the start time to pass to stopTimer(); UNTIMED if !sampled_
+    */
+   public long startTimer(boolean sampled_) {
+      return sampled_ ? System.nanoTime() : UNTIMED;
+   }
+
+   /**
+    * counts one call into stage_, and if start_ is not UNTIMED records the
+    * time since start_
+    *
+    * @return the nanos recorded, 0 if start_ is UNTIMED
+    */
+   public long stopTimer(Stage stage_, long start_) {
+      if (!_isRecorded[stage_.ordinal()])
+         return 0;
+      if (start_ == UNTIMED) {
+         _totals._counts[stage_.ordinal()]++;
+         return 0;
+      }
+      long elapsed = System.nanoTime() - start_;
+      this.record(stage_, elapsed);
+      return elapsed;
+   }
+
+   /**
+    * counts one call into stage_, that took nanos_
+    */
+   public void record(Stage stage_, long nanos_) {
+      int idx = stage_.ordinal();
+      if (!_isRecorded[idx])
+         return;
+      if (nanos_ < 0)
+         nanos_ = 0;
+      Totals totals = _totals;
+      totals._counts[idx]++;
+      totals._sampleCounts[idx]++;
+      totals._sampleNanos[idx] += nanos_;
+      if (nanos_ > totals._maxNanos[idx])
+         totals._maxNanos[idx] = nanos_;
+      totals._buckets[idx][BUCKET_COUNT - Long.numberOfLeadingZeros(nanos_)]++;
+   }
+
+   /**
+    * makes what this instance has recorded so far, not including its
+    * children, visible to getPublishedSnapshot() on other threads. Only the
+    * thread that writes this instance may call it.
+    */
+   public void publish() {
+      _published = new Totals(_totals);
+   }
+
+   /**
+    * @return the count of stage_, including that of all children
+    */
+   public long getCount(Stage stage_) {
+      long count = _totals._counts[stage_.ordinal()];
+      for (DKMetrics child : _children)
+         count += child.getCount(stage_);
+      return count;
+   }
+
+   /**
+    * only for the thread that writes this instance; see getPublishedSnapshot()
+    * 
+    * @return one StageSnapshot per Stage, in Stage order, merged across the
+    *         children
+    */
+   public List<StageSnapshot> getSnapshot() {
+      return this.createSnapshot(false);
+   }
+
+   /**
+    * safe from any thread
+    * 
+    * @return one StageSnapshot per Stage, in Stage order, merged across what
+    *         this instance and each child last published
+    */
+   public List<StageSnapshot> getPublishedSnapshot() {
+      return this.createSnapshot(true);
+   }
+
+   private List<StageSnapshot> createSnapshot(boolean published_) {
+      List<StageSnapshot> snapshot = new ArrayList<StageSnapshot>(STAGE_COUNT);
+      for (Stage stage : Stage.values()) {
+         long[] buckets = new long[BUCKET_COUNT];
+         long[] totals = new long[4];
+         this.accumulate(stage.ordinal(), published_, totals, buckets);
+         snapshot.add(new StageSnapshot(stage.name(), totals[0], totals[1], totals[2],
+            getPercentile(buckets, totals[1], totals[3], 0.5), getPercentile(buckets,
+               totals[1], totals[3], 0.99), totals[3]));
+      }
+      return snapshot;
+   }
+
+   /**
+    * totals_: count, sampleCount, sampleNanos, maxNanos
+    */
+   private void accumulate(int idx_, boolean published_, long[] totals_,
+                           long[] buckets_) {
+      Totals source = published_ ? _published : _totals;
+      totals_[0] += source._counts[idx_];
+      totals_[1] += source._sampleCounts[idx_];
+      totals_[2] += source._sampleNanos[idx_];
+      totals_[3] = Math.max(totals_[3], source._maxNanos[idx_]);
+      for (int i = 0; i < BUCKET_COUNT; i++)
+         buckets_[i] += source._buckets[idx_][i];
+      for (DKMetrics child : _children)
+         child.accumulate(idx_, published_, totals_, buckets_);
+   }
+
+   /**
+    * @return upper bound of the bucket that holds the fraction_ percentile,
+    *         capped at maxNanos_
+    */
+   private static long getPercentile(long[] buckets_, long sampleCount_, long maxNanos_,
+                                     double fraction_) {
+      if (sampleCount_ == 0)
+         return 0;
+      long rank = (long) Math.ceil(sampleCount_ * fraction_);
+      long seen = 0;
+      for (int i = 0; i < BUCKET_COUNT; i++) {
+         seen += buckets_[i];
+         if (seen >= rank)
+            return Math.min((i == BUCKET_COUNT - 1) ? Long.MAX_VALUE : (1L << i) - 1,
+               maxNanos_);
+      }
+      return maxNanos_;
+   }
+
+   /**
+    * @return one key=value pair per measure of each Stage, space separated
+    */
+   public String getLogFields() {
+      return getLogFields(this.getSnapshot());
+   }
+
+   /**
+    * @param snapshot_
+    *           from getSnapshot() or getPublishedSnapshot()
+    */
+   public static String getLogFields(List<StageSnapshot> snapshot_) {
+      StringBuilder builder = new StringBuilder();
+      for (StageSnapshot stage : snapshot_) {
+         String key = Stage.valueOf(stage.getStage()).getKey();
+         if (builder.length() > 0)
+            builder.append(' ');
+         builder.append(String.format(
+            "%1$s.count=%2$d %1$s.meanUs=%3$.1f %1$s.p50Us=%4$.1f %1$s.p99Us=%5$.1f %1$s.maxUs=%6$.1f %1$s.estMs=%7$d",
+            key, stage.getCount(), stage.getMeanNanos() / 1000d,
+            stage.getP50Nanos() / 1000d, stage.getP99Nanos() / 1000d,
+            stage.getMaxNanos() / 1000d, stage.getEstimatedMillis()));
+      }
+      return builder.toString();
+   }
+
+   public String toString() {
+      return String.format("%s[sampleInterval=%s, children=%s]",
+         ClassUtils.getShortClassName(this.getClass()), this.getSampleInterval(),
+         _children.size());
+   }
+
+   /**
+    * the raw measures of one DKMetrics, indexed by Stage ordinal. An instance
+    * that has been published is never written again.
+    */
+   private static class Totals {
+      private final long[] _counts;
+      private final long[] _sampleCounts;
+      private final long[] _sampleNanos;
+      private final long[] _maxNanos;
+      // bucket b holds latencies of b significant bits: [2^(b-1), 2^b)
+      private final long[][] _buckets;
+
+      private Totals() {
+         _counts = new long[STAGE_COUNT];
+         _sampleCounts = new long[STAGE_COUNT];
+         _sampleNanos = new long[STAGE_COUNT];
+         _maxNanos = new long[STAGE_COUNT];
+         _buckets = new long[STAGE_COUNT][BUCKET_COUNT];
+      }
+
+      private Totals(Totals source_) {
+         _counts = source_._counts.clone();
+         _sampleCounts = source_._sampleCounts.clone();
+         _sampleNanos = source_._sampleNanos.clone();
+         _maxNanos = source_._maxNanos.clone();
+         _buckets = new long[STAGE_COUNT][];
+         for (int i = 0; i < STAGE_COUNT; i++)
+            _buckets[i] = source_._buckets[i].clone();
+      }
+   }
+
+   /**
+    * point in time measures of one Stage; a plain bean, so that it maps to
+    * CompositeData over JMX
+    */
+   public static class StageSnapshot {
+      private final String _stage;
+      private final long _count;
+      private final long _sampleCount;
+      private final long _sampleNanos;
+      private final long _p50Nanos;
+      private final long _p99Nanos;
+      private final long _maxNanos;
+
+      @ConstructorProperties( { "stage", "count", "sampleCount", "sampleNanos",
+         "p50Nanos", "p99Nanos", "maxNanos" })
+      public StageSnapshot(String stage_, long count_, long sampleCount_,
+                           long sampleNanos_, long p50Nanos_, long p99Nanos_,
+                           long maxNanos_) {
+         _stage = stage_;
+         _count = count_;
+         _sampleCount = sampleCount_;
+         _sampleNanos = sampleNanos_;
+         _p50Nanos = p50Nanos_;
+         _p99Nanos = p99Nanos_;
+         _maxNanos = maxNanos_;
+      }
+
+      public String getStage() {
+         return _stage;
+      }
+
+      /**
+       * @return calls into the stage, timed or not
+       */
+      public long getCount() {
+         return _count;
+      }
+
+      /**
+       * @return calls into the stage that were timed
+       */
+      public long getSampleCount() {
+         return _sampleCount;
+      }
+
+      public long getSampleNanos() {
+         return _sampleNanos;
+      }
+
+      public long getMeanNanos() {
+         return (_sampleCount == 0) ? 0 : _sampleNanos / _sampleCount;
+      }
+
+      public long getP50Nanos() {
+         return _p50Nanos;
+      }
+
+      public long getP99Nanos() {
+         return _p99Nanos;
+      }
+
+      public long getMaxNanos() {
+         return _maxNanos;
+      }
+
+      /**
+       * @return the time spent in the stage, extrapolated from the samples to
+       *         all of the calls
+       */
+      public long getEstimatedMillis() {
+         return (this.getMeanNanos() * _count) / 1000000;
+      }
+
+      public String toString() {
+         return String.format("%s[%s, count=%s, meanNanos=%s, p99Nanos=%s]",
+            ClassUtils.getShortClassName(this.getClass()), _stage, _count,
+            this.getMeanNanos(), _p99Nanos);
+      }
+   }
+}
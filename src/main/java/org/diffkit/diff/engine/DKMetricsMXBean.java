@@ -0,0 +1,46 @@
+/**
+ * Copyright 2010-2011 Joseph Panico
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.diffkit.diff.engine;
+
+import java.util.List;
+
+/**
+ * The JMX view of a running diff, registered by DKMetricsReporter under
+ * org.diffkit:type=DiffMetrics,context=&lt;DKContext id&gt;
+ *
+ * @author jpanico
+ */
+public interface DKMetricsMXBean {
+
+   public long getContextId();
+
+   public long getRowStep();
+
+   public long getDiffCount();
+
+   public long getElapsedMillis();
+
+   public long getRowsPerSecond();
+
+   public int getSampleInterval();
+
+   public List<DKMetrics.StageSnapshot> getStages();
+
+   /**
+    * @return the structured line that is periodically logged
+    */
+   public String getLogLine();
+}
@@ -0,0 +1,226 @@
+/**
+ * Copyright 2010-2011 Joseph Panico
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.diffkit.diff.engine;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.commons.lang.ClassUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Publishes the DKMetrics of one DKContext, for as long as its diff runs: as
+ * an MXBean on the platform MBeanServer, and as a structured (key=value) line
+ * on the "metrics" logger every logInterval millis, plus a last one when the
+ * diff stops. Failing to register with JMX is logged, and otherwise ignored.
+ * Also records the DIFF_START, DIFF and (once a second at most) DIFF_RATE
+ * events of DKFlightRecorder.
+ * <p>
+ * The JMX getters and the periodic log line run on other threads than the
+ * diff, and so read only what the diff last published through
+ * DKContext.publishProgress(); never the sink, _rowStep or the live DKMetrics.
+ *
+ * @author jpanico
+ */
+class DKMetricsReporter implements DKMetricsMXBean {
+   static final Logger METRICS_LOG = LoggerFactory.getLogger("metrics");
+   static final long DIFF_RATE_INTERVAL = 1000;
+
+   private final DKContext _context;
+   private final long _logInterval;
+   private final long _startTime = System.currentTimeMillis();
+   private final Logger _log = LoggerFactory.getLogger(this.getClass());
+   private ObjectName _objectName;
+   private Timer _timer;
+   private DKFlightRecorder.Event _diffEvent;
+   // as of the last DIFF_RATE event
+   private long _rateTime = _startTime;
+   private long _rateRowStep;
+   private long _rateDiffCount;
+
+   /**
+    * @param logInterval_
+    *           millis between log lines; <= 0 means no log lines
+    */
+   static DKMetricsReporter start(DKContext context_, long logInterval_) {
+      DKMetricsReporter reporter = new DKMetricsReporter(context_, logInterval_);
+      reporter.register();
+      reporter.beginEvents();
+      reporter.schedule();
+      return reporter;
+   }
+
+   private DKMetricsReporter(DKContext context_, long logInterval_) {
+      _context = context_;
+      _logInterval = logInterval_;
+   }
+
+   private void register() {
+      try {
+         ObjectName objectName = new ObjectName(String.format(
+            "org.diffkit:type=DiffMetrics,context=%s", _context._id));
+         ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+         _objectName = objectName;
+      }
+      catch (JMException e_) {
+         _log.warn("could not register metrics MBean", e_);
+      }
+      catch (SecurityException e_) {
+         _log.warn("could not register metrics MBean", e_);
+      }
+   }
+
+   private void beginEvents() {
+      DKFlightRecorder.commit(DKFlightRecorder.EventKind.DIFF_START, _context._id,
+         this.getPlan(), getName(_context._tableComparison.getLhsModel()),
+         getName(_context._tableComparison.getRhsModel()), _context._lhs,
+         _context._rhs, _context._sink);
+      _diffEvent = DKFlightRecorder.begin(DKFlightRecorder.EventKind.DIFF);
+   }
+
+   private String getPlan() {
+      Object plan = _context._userDictionary.get(DKContext.UserKey.PLAN_FILES);
+      return (plan == null) ? null : plan.toString();
+   }
+
+   private static String getName(DKTableModel model_) {
+      return (model_ == null) ? null : model_.getName();
+   }
+
+   private boolean isLogged() {
+      return (_logInterval > 0) && METRICS_LOG.isInfoEnabled();
+   }
+
+   private void schedule() {
+      boolean isLogged = this.isLogged();
+      if (!isLogged && !DKFlightRecorder.isAvailable())
+         return;
+      _timer = new Timer("DKMetricsReporter-" + _context._id, true);
+      if (isLogged)
+         _timer.schedule(new TimerTask() {
+            public void run() {
+               METRICS_LOG.info(getLogLine());
+            }
+         }, _logInterval, _logInterval);
+      if (DKFlightRecorder.isAvailable())
+         _timer.schedule(new TimerTask() {
+            public void run() {
+               sampleDiffRate();
+            }
+         }, DIFF_RATE_INTERVAL, DIFF_RATE_INTERVAL);
+   }
+
+   /**
+    * rates are since the last sample; only runs on the _timer thread. While
+    * the event is disabled, this reads nothing, and the next enabled sample
+    * rates against the last one that was taken.
+    */
+   private void sampleDiffRate() {
+      if (!DKFlightRecorder.isEnabled(DKFlightRecorder.EventKind.DIFF_RATE))
+         return;
+      long now = System.currentTimeMillis();
+      long rowStep = this.getRowStep();
+      long diffCount = this.getDiffCount();
+      if (now > _rateTime) {
+         double seconds = (now - _rateTime) / 1000d;
+         DKFlightRecorder.commit(DKFlightRecorder.EventKind.DIFF_RATE, _context._id,
+            rowStep, diffCount, (rowStep - _rateRowStep) / seconds,
+            (diffCount - _rateDiffCount) / seconds);
+      }
+      _rateTime = now;
+      _rateRowStep = rowStep;
+      _rateDiffCount = diffCount;
+   }
+
+   /**
+    * unregisters the MXBean, stops the periodic log line, logs a last one,
+    * and records the DIFF event; on the thread that ran the diff
+    */
+   void stop() {
+      if (_timer != null)
+         _timer.cancel();
+      _context.publishProgress();
+      if (this.isLogged())
+         METRICS_LOG.info(this.getLogLine());
+      _diffEvent.commit(_context._id, this.getPlan(),
+         getName(_context._tableComparison.getLhsModel()),
+         getName(_context._tableComparison.getRhsModel()), this.getRowStep(),
+         this.getDiffCount());
+      if (_objectName == null)
+         return;
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      try {
+         server.unregisterMBean(_objectName);
+      }
+      catch (JMException e_) {
+         _log.warn("could not unregister metrics MBean", e_);
+      }
+      _objectName = null;
+   }
+
+   ObjectName getObjectName() {
+      return _objectName;
+   }
+
+   public long getContextId() {
+      return _context._id;
+   }
+
+   public long getRowStep() {
+      return _context.getPublishedRowStep();
+   }
+
+   public long getDiffCount() {
+      return _context.getPublishedDiffCount();
+   }
+
+   public long getElapsedMillis() {
+      return System.currentTimeMillis() - _startTime;
+   }
+
+   public long getRowsPerSecond() {
+      long elapsed = this.getElapsedMillis();
+      return (elapsed <= 0) ? 0 : (this.getRowStep() * 1000) / elapsed;
+   }
+
+   public int getSampleInterval() {
+      return _context._metrics.getSampleInterval();
+   }
+
+   public List<DKMetrics.StageSnapshot> getStages() {
+      return _context._metrics.getPublishedSnapshot();
+   }
+
+   public String getLogLine() {
+      return String.format(
+         "context=%s elapsedMs=%s rowStep=%s rowsPerSec=%s diffs=%s sampleInterval=%s %s",
+         _context._id, this.getElapsedMillis(), this.getRowStep(),
+         this.getRowsPerSecond(), this.getDiffCount(), this.getSampleInterval(),
+         DKMetrics.getLogFields(this.getStages()));
+   }
+
+   public String toString() {
+      return String.format("%s[%s]", ClassUtils.getShortClassName(this.getClass()),
+         _objectName);
+   }
+}
@@ -0,0 +1,472 @@
+/**
+ * Copyright 2010-2011 Joseph Panico
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.diffkit.diff.engine;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang.ArrayUtils;
+import org.apache.commons.lang.ClassUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.diffkit.common.DKValidate;
+import org.diffkit.diff.engine.DKContext.UserKey;
+
+/**
+ * Splits the key space into ranges, using the boundaries supplied by the lhs
+ * DKPartitionableSource, and runs an independent merge per range. The first
+ * range is merged on the calling thread, straight into the real DKSink; the
+ * others run on a pool of worker threads, and hand their diffs to the calling
+ * thread through a bounded queue apiece, from which they are replayed into the
+ * real DKSink strictly in key (range) order. So the sink sees exactly the same
+ * sequence of diffs, with exactly the same rowSteps, as it would from the
+ * sequential DKDiffEngine; and a worker that gets more than bufferSize diffs
+ * ahead of the sink waits for it, so that memory stays bounded however many
+ * diffs there are.
+ * <p>
+ * Falls back to the sequential merge when either side is not a
+ * DKPartitionableSource, or when the lhs cannot supply any boundaries.
+ *
+ * @author jpanico
+ */
+public class DKParallelDiffEngine extends DKDiffEngine {
+   /**
+    * each worker thread gets this many ranges, on average, so that skewed
+    * ranges don't leave the rest of the pool idle
+    */
+   private static final int PARTITIONS_PER_THREAD = 4;
+   public static final int DEFAULT_BUFFER_SIZE = 10000;
+   /**
+    * how long a blocked worker waits before checking whether it was cancelled
+    */
+   private static final long CANCEL_POLL_MILLIS = 100;
+   /**
+    * the worker partitions only queue their diffs; the sink stages are
+    * measured when those are replayed into the real DKSink
+    */
+   private static final Set<DKMetrics.Stage> PARTITION_STAGES = EnumSet.range(
+      DKMetrics.Stage.LHS_FETCH, DKMetrics.Stage.COLUMN_DIFF);
+   /**
+    * follows the last diff of a partition in its queue
+    */
+   private static final Object END_OF_PARTITION = new Object();
+
+   private final int _threadCount;
+   private final int _partitionCount;
+   private final int _bufferSize;
+   private final Logger _log = LoggerFactory.getLogger(this.getClass());
+
+   /**
+    * uses one thread per available processor
+    */
+   public DKParallelDiffEngine() {
+      this(Runtime.getRuntime().availableProcessors());
+   }
+
+   public DKParallelDiffEngine(int threadCount_) {
+      this(threadCount_, threadCount_ * PARTITIONS_PER_THREAD);
+   }
+
+   public DKParallelDiffEngine(int threadCount_, int partitionCount_) {
+      this(threadCount_, partitionCount_, DEFAULT_BUFFER_SIZE);
+   }
+
+   /**
+    * @param threadCount_
+    *           including the calling thread
+    * @param bufferSize_
+    *           the most diffs that any one partition queues ahead of the sink
+    */
+   public DKParallelDiffEngine(int threadCount_, int partitionCount_, int bufferSize_) {
+      _threadCount = threadCount_;
+      _partitionCount = partitionCount_;
+      _bufferSize = bufferSize_;
+      if (_threadCount < 1)
+         throw new IllegalArgumentException(String.format("invalid threadCount_->%s",
+            threadCount_));
+      if (_partitionCount < 1)
+         throw new IllegalArgumentException(String.format("invalid partitionCount_->%s",
+            partitionCount_));
+      if (_bufferSize < 1)
+         throw new IllegalArgumentException(String.format("invalid bufferSize_->%s",
+            bufferSize_));
+   }
+
+   public int getThreadCount() {
+      return _threadCount;
+   }
+
+   public int getPartitionCount() {
+      return _partitionCount;
+   }
+
+   public int getBufferSize() {
+      return _bufferSize;
+   }
+
+   @Override
+   public DKContext diff(DKSource lhs_, DKSource rhs_, DKSink sink_,
+                         DKTableComparison tableComparison_,
+                         Map<UserKey, ?> userDictionary_) throws IOException {
+      DKValidate.notNull(lhs_, rhs_, sink_, tableComparison_);
+      if ((_partitionCount < 2) || !(lhs_ instanceof DKPartitionableSource)
+         || !(rhs_ instanceof DKPartitionableSource)) {
+         _log.info("sources not partitionable; falling back to sequential diff");
+         return super.diff(lhs_, rhs_, sink_, tableComparison_, userDictionary_);
+      }
+      Object[] boundaries = ((DKPartitionableSource) lhs_).getPartitionBoundaries(_partitionCount);
+      _log.info("boundaries->{}", (boundaries == null ? null : Arrays.toString(boundaries)));
+      if (ArrayUtils.isEmpty(boundaries)) {
+         _log.info("no partition boundaries; falling back to sequential diff");
+         return super.diff(lhs_, rhs_, sink_, tableComparison_, userDictionary_);
+      }
+      _log.info("lhs_->{}", lhs_);
+      _log.info("rhs_->{}", rhs_);
+      _log.info("sink_->{}", sink_);
+      _log.info("tableComparison_->{}", tableComparison_.getDescription());
+      DKContext context = new DKContext(lhs_, rhs_, sink_, tableComparison_,
+         userDictionary_);
+      _log.info("context->{}", context);
+      DKMetricsReporter reporter = DKMetricsReporter.start(context,
+         this.getMetricsLogInterval());
+      try {
+         this.diffPartitions((DKPartitionableSource) lhs_, (DKPartitionableSource) rhs_,
+            boundaries, context);
+      }
+      finally {
+         reporter.stop();
+      }
+      return context;
+   }
+
+   private void diffPartitions(DKPartitionableSource lhs_, DKPartitionableSource rhs_,
+                               Object[] boundaries_, DKContext context_)
+      throws IOException {
+      long maxDiffs = context_._tableComparison.getMaxDiffs();
+      _log.info("maxDiffs->{}", maxDiffs);
+      List<Partition> partitions = new ArrayList<Partition>(boundaries_.length + 1);
+      for (int i = 0; i <= boundaries_.length; i++) {
+         Object lowerBound = (i == 0) ? null : boundaries_[i - 1];
+         Object upperBound = (i == boundaries_.length) ? null : boundaries_[i];
+         DKSource lhsPartition = lhs_.createPartition(lowerBound, upperBound);
+         DKSource rhsPartition = rhs_.createPartition(lowerBound, upperBound);
+         // the first partition runs on this thread, and so can share its
+         // DKMetrics
+         DKSink sink = (i == 0) ? new DirectSink(context_) : new PartitionSink(maxDiffs,
+            _bufferSize);
+         DKMetrics metrics = (i == 0) ? context_._metrics
+            : context_._metrics.createChild(PARTITION_STAGES);
+         partitions.add(new Partition(i, new DKContext(lhsPartition, rhsPartition, sink,
+            context_._tableComparison, context_._userDictionary, metrics)));
+      }
+      context_.openSink();
+      // this thread is one of the _threadCount
+      ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(
+         _threadCount - 1, partitions.size() - 1)));
+      try {
+         List<Future<Partition>> futures = new ArrayList<Future<Partition>>(
+            partitions.size());
+         for (Partition partition : partitions.subList(1, partitions.size()))
+            futures.add(executor.submit(partition));
+         Partition first = partitions.get(0);
+         this.diff(first._context);
+         _log.info("partition->{}", first);
+         long rowStepOffset = first._context._rowStep - 1;
+         context_.publishProgress();
+         for (int i = 1; i < partitions.size(); i++) {
+            if (context_._sink.getDiffCount() >= maxDiffs)
+               break;
+            Partition partition = partitions.get(i);
+            // maxDiffs reached part way through
+            if (!this.replay(partition, rowStepOffset, context_))
+               break;
+            this.get(futures.get(i - 1));
+            _log.info("partition->{}", partition);
+            // the last step in each partition is the one that found both sides
+            // exhausted; the sequential merge only takes that step once
+            rowStepOffset += (partition._context._rowStep - 1);
+            context_._rowStep = rowStepOffset + 1;
+            context_.publishProgress();
+         }
+      }
+      finally {
+         for (Partition partition : partitions)
+            partition.cancel();
+         executor.shutdownNow();
+         context_.closeSink();
+      }
+   }
+
+   /**
+    * re-record the queued diffs from partition_ into the real sink, as they
+    * arrive, with rowSteps rebased on rowStepOffset_
+    * 
+    * @return false if maxDiffs was reached before the end of partition_
+    */
+   private boolean replay(Partition partition_, long rowStepOffset_, DKContext context_)
+      throws IOException {
+      PartitionSink partitionSink = (PartitionSink) partition_._context._sink;
+      DKTableComparison tableComparison = context_._tableComparison;
+      int[] diffIndexes = tableComparison.getDiffIndexes();
+      DKColumnComparison[] columnComparisons = tableComparison.getMap();
+      long maxDiffs = tableComparison.getMaxDiffs();
+      DKMetrics metrics = context_._metrics;
+      DKColumnDiffRow partitionRow = null;
+      DKColumnDiffRow rebasedRow = null;
+      for (long replayCount = 1;; replayCount++) {
+         Object item = partitionSink.take();
+         if (item == END_OF_PARTITION)
+            return true;
+         if (context_._sink.getDiffCount() >= maxDiffs)
+            return false;
+         if (replayCount % PROGRESS_BATCH_SIZE == 0)
+            context_.publishProgress();
+         DKDiff diff = (DKDiff) item;
+         context_._rowStep = rowStepOffset_ + diff.getRowStep();
+         // the partitions only queued; this is where the real sink records
+         long start = metrics.startTimer(metrics.isSampled(context_._rowStep));
+         if (diff instanceof DKRowDiff) {
+            DKRowDiff rowDiff = (DKRowDiff) diff;
+            context_._columnStep = 0;
+            context_._sink.record(new DKRowDiff(context_._rowStep, rowDiff.getRow(),
+               rowDiff.getSide(), tableComparison), context_);
+            metrics.stopTimer(DKMetrics.Stage.SINK_RECORD, start);
+            continue;
+         }
+         DKColumnDiff columnDiff = (DKColumnDiff) diff;
+         if (columnDiff.getRow() != partitionRow) {
+            partitionRow = columnDiff.getRow();
+            rebasedRow = new DKColumnDiffRow(context_._rowStep,
+               partitionRow.getLhsRow(), partitionRow.getRhsRow(), tableComparison);
+         }
+         context_._columnStep = (int) columnDiff.getColumnStep();
+         DKColumnComparison columnComparison = columnComparisons[diffIndexes[context_._columnStep - 1]];
+         context_._lhsColumnIdx = columnComparison._lhsColumn.getIndex();
+         context_._rhsColumnIdx = columnComparison._rhsColumn.getIndex();
+         context_._sink.record(rebasedRow.createDiff(context_._columnStep,
+            columnDiff.getLhs(), columnDiff.getRhs()), context_);
+         metrics.stopTimer(DKMetrics.Stage.SINK_RECORD, start);
+      }
+   }
+
+   private Partition get(Future<Partition> future_) throws IOException {
+      try {
+         return future_.get();
+      }
+      catch (InterruptedException e_) {
+         Thread.currentThread().interrupt();
+         throw new RuntimeException(e_);
+      }
+      catch (ExecutionException e_) {
+         Throwable cause = e_.getCause();
+         if (cause instanceof IOException)
+            throw (IOException) cause;
+         if (cause instanceof RuntimeException)
+            throw (RuntimeException) cause;
+         throw new RuntimeException(cause);
+      }
+   }
+
+   public String toString() {
+      return String.format("%s[threadCount=%s, partitionCount=%s, bufferSize=%s]",
+         ClassUtils.getShortClassName(this.getClass()), _threadCount, _partitionCount,
+         _bufferSize);
+   }
+
+   private class Partition implements Callable<Partition> {
+      private final int _index;
+      private final DKContext _context;
+
+      private Partition(int index_, DKContext context_) {
+         _index = index_;
+         _context = context_;
+      }
+
+      /**
+       * only for the worker partitions; the queue always ends with
+       * END_OF_PARTITION, even if the merge fails, so that the replay can't
+       * wait forever
+       */
+      public Partition call() throws Exception {
+         PartitionSink sink = (PartitionSink) _context._sink;
+         try {
+            if (!sink._isCancelled)
+               DKParallelDiffEngine.this.diff(_context);
+         }
+         finally {
+            sink.put(END_OF_PARTITION);
+         }
+         return this;
+      }
+
+      private void cancel() {
+         if (_context._sink instanceof PartitionSink)
+            ((PartitionSink) _context._sink)._isCancelled = true;
+      }
+
+      public String toString() {
+         return String.format("%s[%s, rowStep=%s, diffCount=%s]",
+            ClassUtils.getShortClassName(this.getClass()), _index, _context._rowStep,
+            _context._sink.getDiffCount());
+      }
+   }
+
+   /**
+    * records the diffs of the first partition, whose rowSteps need no rebasing,
+    * straight into the real DKSink, through the enclosing context; which it
+    * leaves open
+    */
+   private static class DirectSink implements DKSink {
+      private final DKContext _parent;
+
+      private DirectSink(DKContext parent_) {
+         _parent = parent_;
+      }
+
+      public void open(DKContext context_) {
+      }
+
+      public void close(DKContext context_) {
+      }
+
+      public Kind getKind() {
+         return _parent._sink.getKind();
+      }
+
+      public void record(DKDiff diff_, DKContext context_) throws IOException {
+         _parent._rowStep = context_._rowStep;
+         _parent._columnStep = context_._columnStep;
+         _parent._lhsColumnIdx = context_._lhsColumnIdx;
+         _parent._rhsColumnIdx = context_._rhsColumnIdx;
+         // the merge times SINK_RECORD, into the DKMetrics it shares with _parent
+         _parent._sink.record(diff_, _parent);
+      }
+
+      public long getDiffCount() {
+         return _parent._sink.getDiffCount();
+      }
+
+      public long getRowDiffCount() {
+         return _parent._sink.getRowDiffCount();
+      }
+
+      public long getColumnDiffCount() {
+         return _parent._sink.getColumnDiffCount();
+      }
+
+      public String generateSummary(DKContext context_) {
+         return null;
+      }
+   }
+
+   /**
+    * queues the diffs from a single partition until they can be replayed, in
+    * order, into the real DKSink; record() waits while the queue is full
+    */
+   private static class PartitionSink implements DKSink {
+      private final long _maxDiffs;
+      private final BlockingQueue<Object> _queue;
+      private long _rowDiffCount;
+      private long _columnDiffCount;
+      private volatile boolean _isCancelled;
+
+      private PartitionSink(long maxDiffs_, int bufferSize_) {
+         _maxDiffs = maxDiffs_;
+         _queue = new ArrayBlockingQueue<Object>(bufferSize_);
+      }
+
+      public void open(DKContext context_) {
+      }
+
+      public void close(DKContext context_) {
+      }
+
+      public Kind getKind() {
+         return Kind.MEMORY;
+      }
+
+      public void record(DKDiff diff_, DKContext context_) throws IOException {
+         this.put(diff_);
+         if (diff_.getKind() == DKDiff.Kind.ROW_DIFF)
+            _rowDiffCount++;
+         else
+            _columnDiffCount++;
+      }
+
+      /**
+       * waits for room in the queue; gives up, without queueing item_, once
+       * cancelled
+       */
+      private void put(Object item_) throws IOException {
+         try {
+            while (!_isCancelled) {
+               if (_queue.offer(item_, CANCEL_POLL_MILLIS, TimeUnit.MILLISECONDS))
+                  return;
+            }
+         }
+         catch (InterruptedException e_) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+         }
+      }
+
+      private Object take() throws IOException {
+         try {
+            return _queue.take();
+         }
+         catch (InterruptedException e_) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+         }
+      }
+
+      /**
+       * reports maxDiffs once cancelled, which stops the merge loop
+       */
+      public long getDiffCount() {
+         if (_isCancelled)
+            return _maxDiffs;
+         return _rowDiffCount + _columnDiffCount;
+      }
+
+      public long getRowDiffCount() {
+         return _rowDiffCount;
+      }
+
+      public long getColumnDiffCount() {
+         return _columnDiffCount;
+      }
+
+      public String generateSummary(DKContext context_) {
+         return null;
+      }
+   }
+}
@@ -0,0 +1,49 @@
+/**
+ * Copyright 2010-2011 Joseph Panico
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.diffkit.diff.engine;
+
+import java.io.IOException;
+
+/**
+ * A DKSource that can split itself into independent key ranges, each of which
+ * can be read (in key order) by its own DKSource. Ranges are defined on the
+ * leading key column only, so that the concatenation of all ranges, in
+ * ascending order, vends exactly the same rows in exactly the same order as the
+ * unpartitioned source.
+ *
+ * @author jpanico
+ */
+public interface DKPartitionableSource extends DKSource {
+
+   /**
+    * @return ascending, distinct, values of the leading key column that split
+    *         this source into at most partitionCount_ ranges. null or empty if
+    *         this source cannot be partitioned
+    */
+   public Object[] getPartitionBoundaries(int partitionCount_) throws IOException;
+
+   /**
+    * @param lowerBound_
+    *           inclusive; null means unbounded, in which case rows with a null
+    *           leading key value also belong to the partition
+    * @param upperBound_
+    *           exclusive; null means unbounded
+    * @return a new, unopened, DKSource that vends only those rows whose leading
+    *         key value falls in the range
+    */
+   public DKSource createPartition(Object lowerBound_, Object upperBound_)
+      throws IOException;
+}
@@ -0,0 +1,47 @@
+/**
+ * Copyright 2010-2011 Joseph Panico
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.diffkit.diff.engine;
+
+import java.io.IOException;
+import java.io.Serializable;
+
+/**
+ * A DKSink that can capture what it has recorded so far (output position and
+ * counters), and that can later (in another process) be reopened at that
+ * point, so that DKDiffEngine can resume a diff from a DKCheckpoint.
+ *
+ * @author jpanico
+ */
+public interface DKResumableSink extends DKSink {
+
+   /**
+    * flushes everything recorded so far to the underlying storage, then
+    * describes it
+    * 
+    * @return null if this sink can't describe its current position
+    */
+   public Serializable getResumePoint() throws IOException;
+
+   /**
+    * must be called before open()
+    * 
+    * @param point_
+    *           from getResumePoint(), on an identically configured sink;
+    *           output recorded after point_ is discarded, and recording
+    *           continues from there
+    */
+   public void setResumePoint(Serializable point_) throws IOException;
+}
@@ -0,0 +1,43 @@
+/**
+ * Copyright 2010-2011 Joseph Panico
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.diffkit.diff.engine;
+
+import java.io.IOException;
+
+/**
+ * A DKSource that can read each row into an array supplied by the caller,
+ * instead of allocating a new array per row. The caller (normally
+ * DKDiffEngine, when it is constructed with reuseRowBuffers) owns the buffer
+ * both before and after the call: the source fills it, and then forgets it.
+ * Because the caller will overwrite the buffer with the next row, it must copy
+ * any row that it needs to keep, e.g. in a DKDiff.
+ *
+ * @author jpanico
+ */
+public interface DKReusableRowSource extends DKSource {
+
+   /**
+    * same as getNextRow(), except for where the row lives
+    * 
+    * @param buffer_
+    *           filled with the next row, if it is non-null and has the width of
+    *           a row
+    * @return buffer_, or a new array when buffer_ is unsuitable or this source
+    *         can't fill it; either way the returned array belongs to the
+    *         caller. null when it's out of rows
+    */
+   public Object[] getNextRow(Object[] buffer_) throws IOException;
+}
@@ -0,0 +1,42 @@
+/**
+ * Copyright 2010-2011 Joseph Panico
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.diffkit.diff.engine;
+
+/**
+ * A DKSource that can hash (with a DKRowHasher) the diff columns of each row as
+ * it produces the row, so that DKDiffEngine can skip the column by column
+ * comparison of matched rows whose hashes are equal.
+ *
+ * @author jpanico
+ */
+public interface DKRowHashSource extends DKSource {
+
+   /**
+    * must be called before the first getNextRow()
+    * 
+    * @param hasher_
+    *           hashes each row that getNextRow() returns; null turns hashing
+    *           off
+    * @return true if this source will hash its rows
+    */
+   public boolean setRowHasher(DKRowHasher hasher_);
+
+   /**
+    * @return the hash of the row most recently returned by getNextRow();
+    *         undefined if hashing is off
+    */
+   public long getRowHash();
+}
@@ -0,0 +1,138 @@
+/**
+ * Copyright 2010-2011 Joseph Panico
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.diffkit.diff.engine;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Date;
+
+import org.apache.commons.lang.ClassUtils;
+
+import org.diffkit.common.DKValidate;
+import org.diffkit.common.annot.Immutable;
+
+/**
+ * 64 bit FNV-1a hash of selected values of a row. Each value contributes its
+ * class as well as its content, so that rows with equal hashes have, barring a
+ * 64 bit collision, values that are equals() to each other. Values of the
+ * common classes are hashed from their primitive content, without allocating;
+ * other values are hashed from their toString().
+ *
+ * @author jpanico
+ */
+@Immutable
+public class DKRowHasher {
+
+   private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+   private static final long FNV_PRIME = 0x100000001b3L;
+   // class tags
+   private static final int NULL = 0;
+   private static final int STRING = 1;
+   private static final int LONG = 2;
+   private static final int INTEGER = 3;
+   private static final int DOUBLE = 4;
+   private static final int BIG_DECIMAL = 5;
+   private static final int BOOLEAN = 6;
+   private static final int DATE = 7;
+   private static final int TIMESTAMP = 8;
+   private static final int OTHER = 9;
+
+   private final int[] _indexes;
+
+   /**
+    * @param indexes_
+    *           the row indexes of the values to hash, in this order
+    */
+   public DKRowHasher(int[] indexes_) {
+      DKValidate.notNull(indexes_);
+      _indexes = indexes_.clone();
+   }
+
+   public int[] getIndexes() {
+      return _indexes.clone();
+   }
+
+   public long hash(Object[] row_) {
+      long hash = FNV_OFFSET_BASIS;
+      for (int i = 0; i < _indexes.length; i++)
+         hash = hashValue(hash, row_[_indexes[i]]);
+      return hash;
+   }
+
+   private static long hashValue(long hash_, Object value_) {
+      if (value_ == null)
+         return mix(hash_, NULL);
+      Class<?> valueClass = value_.getClass();
+      if (valueClass == String.class)
+         return hashChars(mix(hash_, STRING), (String) value_);
+      if (valueClass == Long.class)
+         return mixLong(mix(hash_, LONG), ((Long) value_).longValue());
+      if (valueClass == Integer.class)
+         return mixLong(mix(hash_, INTEGER), ((Integer) value_).intValue());
+      if (valueClass == Double.class)
+         return mixLong(mix(hash_, DOUBLE),
+            Double.doubleToLongBits(((Double) value_).doubleValue()));
+      if (valueClass == BigDecimal.class) {
+         BigDecimal value = (BigDecimal) value_;
+         long hash = mixLong(mix(hash_, BIG_DECIMAL), value.scale());
+         if (value.unscaledValue().bitLength() < 64)
+            return mixLong(hash, value.unscaledValue().longValue());
+         return hashChars(hash, value.unscaledValue().toString());
+      }
+      if (valueClass == Boolean.class)
+         return mix(mix(hash_, BOOLEAN), ((Boolean) value_).booleanValue() ? 1 : 0);
+      if (valueClass == Timestamp.class) {
+         Timestamp value = (Timestamp) value_;
+         return mixLong(mixLong(mix(hash_, TIMESTAMP), value.getTime()), value.getNanos());
+      }
+      if (value_ instanceof Date)
+         return mixLong(hashChars(mix(hash_, DATE), valueClass.getName()),
+            ((Date) value_).getTime());
+      return hashChars(hashChars(mix(hash_, OTHER), valueClass.getName()),
+         value_.toString());
+   }
+
+   private static long hashChars(long hash_, String value_) {
+      long hash = hash_;
+      int length = value_.length();
+      for (int i = 0; i < length; i++) {
+         char c = value_.charAt(i);
+         hash = mix(hash, c & 0xff);
+         hash = mix(hash, c >>> 8);
+      }
+      // terminate, so that adjacent Strings can't run together
+      return mixLong(hash, length);
+   }
+
+   private static long mixLong(long hash_, long value_) {
+      long hash = hash_;
+      for (int i = 0; i < 8; i++) {
+         hash = mix(hash, (int) (value_ & 0xff));
+         value_ >>>= 8;
+      }
+      return hash;
+   }
+
+   private static long mix(long hash_, int byte_) {
+      return (hash_ ^ byte_) * FNV_PRIME;
+   }
+
+   public String toString() {
+      return String.format("%s%s", ClassUtils.getShortClassName(this.getClass()),
+         Arrays.toString(_indexes));
+   }
+}
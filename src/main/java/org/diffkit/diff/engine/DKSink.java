@@ -26,6 +26,11 @@ import java.io.IOException;
  */
 public interface DKSink extends DKSourceSink {
 
+   /**
+    * the sink may keep diff_, and any row that it references, after record()
+    * returns; the engine guarantees that no row referenced from a recorded
+    * diff is modified afterwards, even when it reuses row buffers
+    */
    public void record(DKDiff diff_, DKContext context_) throws IOException;
 
    /**
@@ -28,6 +28,9 @@ public interface DKSource extends DKSourceSink {
    public URI getURI() throws IOException;
 
    /**
+    * the returned row belongs to the caller, which may keep it as long as it
+    * likes; the source must not modify it afterwards
+    * 
     * @return null when it's out of rows; at end
     */
    public Object[] getNextRow() throws IOException;
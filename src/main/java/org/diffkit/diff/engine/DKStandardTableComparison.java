@@ -28,9 +28,6 @@ import org.apache.commons.lang.builder.ToStringStyle;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import org.diffkit.common.DKComparableComparator;
-import org.diffkit.common.DKComparatorChain;
-import org.diffkit.common.DKElementComparator;
 import org.diffkit.common.DKValidate;
 import org.diffkit.diff.engine.DKContext.UserKey;
 
@@ -118,21 +115,9 @@ public class DKStandardTableComparison implements DKTableComparison {
       return _rowComparator;
    }
 
-   @SuppressWarnings("unchecked")
    private Comparator<Object[]> buildRowComparator(DKTableModel lhs_, DKTableModel rhs_) {
       this.validateTableModels(lhs_, rhs_);
-      DKColumnModel[] lhsColumns = lhs_.getColumns();
-      int[] lhsKey = lhs_.getKey();
-      DKColumnModel[] rhsColumns = rhs_.getColumns();
-      int[] rhsKey = rhs_.getKey();
-      DKComparatorChain chain = new DKComparatorChain();
-      for (int i = 0; i < lhsKey.length; i++) {
-         Comparator<Comparable[]> comparator = new DKElementComparator<Comparable>(
-            lhsColumns[lhsKey[i]]._index, rhsColumns[rhsKey[i]]._index,
-            DKComparableComparator.getInstance());
-         chain.addComparator(comparator);
-      }
-      return chain;
+      return DKKeyComparator.createComparator(lhs_, rhs_);
    }
 
    /**
@@ -66,6 +66,31 @@ public class DKTableModel {
       return new DKTableModel(_name, this.copyColumns(), newKey);
    }
 
+   /**
+    * @return a deep copy of the receiver, except that it has only the columns
+    *         at columnIdxs_, in that order, re-indexed from 0. All of the key
+    *         columns must be among columnIdxs_.
+    */
+   public DKTableModel copyWithColumns(int[] columnIdxs_) {
+      DKValidate.notEmpty(columnIdxs_);
+      this.validateColumnIndices(columnIdxs_);
+      DKColumnModel[] newColumns = new DKColumnModel[columnIdxs_.length];
+      for (int i = 0; i < columnIdxs_.length; i++) {
+         DKColumnModel column = this.getColumn(columnIdxs_[i]);
+         newColumns[i] = new DKColumnModel(i, column._name, column._type,
+            column._formatString);
+      }
+      int[] newKey = new int[_key.length];
+      for (int i = 0; i < _key.length; i++) {
+         newKey[i] = ArrayUtils.indexOf(columnIdxs_, _key[i]);
+         if (newKey[i] < 0)
+            throw new RuntimeException(String.format(
+               "key column->%s is not in columnIdxs_->%s", _columns[_key[i]]._name,
+               Arrays.toString(columnIdxs_)));
+      }
+      return new DKTableModel(_name, newColumns, newKey);
+   }
+
    private DKColumnModel[] copyColumns() {
       DKColumnModel[] newColumns = new DKColumnModel[_columns.length];
       for (int i = 0; i < _columns.length; i++)
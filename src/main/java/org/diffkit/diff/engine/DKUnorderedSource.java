@@ -0,0 +1,41 @@
+/**
+ * Copyright 2010-2011 Joseph Panico
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.diffkit.diff.engine;
+
+import java.io.IOException;
+
+/**
+ * A DKSource that normally vends its rows in key order, but which can also
+ * vend them in whatever order is cheapest for it (e.g. without an ORDER BY, or
+ * without sorting a file), for engines such as DKHashDiffEngine that do not
+ * depend on key order.
+ *
+ * @author jpanico
+ */
+public interface DKUnorderedSource extends DKSource {
+
+   /**
+    * @return approximate number of rows that this source will vend, or -1 if
+    *         that cannot be determined cheaply
+    */
+   public long estimateRowCount() throws IOException;
+
+   /**
+    * @return a new, unopened, DKSource that vends exactly the same rows as this
+    *         one, but in no particular order
+    */
+   public DKSource createUnordered() throws IOException;
+}
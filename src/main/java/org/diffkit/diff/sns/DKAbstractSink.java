@@ -16,6 +16,7 @@
 package org.diffkit.diff.sns;
 
 import java.io.IOException;
+import java.io.Serializable;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
@@ -111,6 +112,42 @@ public abstract class DKAbstractSink implements DKSink {
       this.closeRecordAndAppendDiffCluster(diff_, context_);
    }
 
+   /**
+    * closes the running cluster, even though more diffs for the same row
+    * could still follow, so that the counts describe every diff recorded so
+    * far; only for when the current row has been fully diffed
+    * 
+    * @return the counters, for a resume point
+    */
+   protected Serializable getCounts() {
+      if (_runningColumnClusterKey != null) {
+         DKColumnDiffRow clusterRow = _runningRow;
+         String clusterKey = _runningColumnClusterKey.toString();
+         _runningRowStep = -1;
+         _runningRow = null;
+         _runningColumnClusterKey = null;
+         this.recordDiffCluster(clusterKey);
+         this.recordDiffClusterGroup(clusterKey, clusterRow);
+      }
+      return new Counts(_rowDiffCount, _columnDiffCount, _columnDiffClusterCount,
+         _rowGroupDiffCount, _columnGroupDiffCount, _columnDiffClusterGroupCount);
+   }
+
+   /**
+    * @param counts_
+    *           from getCounts()
+    */
+   protected void setCounts(Serializable counts_) {
+      this.ensureNotStarted();
+      Counts counts = (Counts) counts_;
+      _rowDiffCount = counts._rowDiffCount.clone();
+      _columnDiffCount = counts._columnDiffCount;
+      _columnDiffClusterCount = counts._columnDiffClusterCount;
+      _rowGroupDiffCount = counts._rowGroupDiffCount.clone();
+      _columnGroupDiffCount = counts._columnGroupDiffCount;
+      _columnDiffClusterGroupCount = counts._columnDiffClusterGroupCount;
+   }
+
    private void closeRecordAndAppendDiffCluster(DKDiff diff_, DKContext context_) {
       this.closeAndRecordDiffCluster(context_);
       if (diff_.getKind() != DKDiff.Kind.COLUMN_DIFF)
@@ -403,4 +440,32 @@ public abstract class DKAbstractSink implements DKSink {
          return null;
       return keyBuilder.toString();
    }
+
+   /**
+    * the counters, by reference, so only good until the next record(); a
+    * DKCheckpoint serializes it straight away
+    */
+   private static class Counts implements Serializable {
+      private static final long serialVersionUID = 1L;
+
+      private final long[] _rowDiffCount;
+      private final DKCountingBag _columnDiffCount;
+      private final DKCountingBag _columnDiffClusterCount;
+      private final DKCountingBag[] _rowGroupDiffCount;
+      private final DKCountingBag _columnGroupDiffCount;
+      private final DKCountingBag _columnDiffClusterGroupCount;
+
+      private Counts(long[] rowDiffCount_, DKCountingBag columnDiffCount_,
+                     DKCountingBag columnDiffClusterCount_,
+                     DKCountingBag[] rowGroupDiffCount_,
+                     DKCountingBag columnGroupDiffCount_,
+                     DKCountingBag columnDiffClusterGroupCount_) {
+         _rowDiffCount = rowDiffCount_;
+         _columnDiffCount = columnDiffCount_;
+         _columnDiffClusterCount = columnDiffClusterCount_;
+         _rowGroupDiffCount = rowGroupDiffCount_;
+         _columnGroupDiffCount = columnGroupDiffCount_;
+         _columnDiffClusterGroupCount = columnDiffClusterGroupCount_;
+      }
+   }
 }
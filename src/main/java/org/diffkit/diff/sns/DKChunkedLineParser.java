@@ -0,0 +1,236 @@
+/**
+ * Copyright 2010-2011 Joseph Panico
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.diffkit.diff.sns;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.lang.ClassUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.diffkit.common.DKValidate;
+import org.diffkit.common.annot.NotThreadSafe;
+import org.diffkit.diff.engine.DKColumnModel;
+import org.diffkit.diff.engine.DKTableModel;
+
+/**
+ * Parses a delimited text file on a pool of worker threads, while still
+ * vending the rows in exactly file order. The file is cut into chunks of about
+ * chunkSize bytes, each aligned on a line boundary; each chunk is parsed, by its
+ * own DKMappedLineReader, into a batch of rows, and the batches are handed out
+ * strictly in chunk order. At most two chunks per thread are in flight at once,
+ * which bounds the memory held by parsed, but not yet consumed, rows.
+ *
+ * @author jpanico
+ */
+@NotThreadSafe
+public class DKChunkedLineParser {
+   public static final int DEFAULT_CHUNK_SIZE = 8 * 1024 * 1024;
+
+   private static final int CHUNKS_PER_THREAD = 2;
+   private static final int ALIGN_BUFFER_SIZE = 64 * 1024;
+
+   private final File _file;
+   private final String _delimiter;
+   private final Charset _charset;
+   private final DKTableModel _model;
+   private final DKColumnModel[] _columns;
+   private final int[] _fieldIdxs;
+   private final int _fieldCount;
+   private final int _threadCount;
+   private final int _chunkSize;
+   private final RandomAccessFile _alignFile;
+   private final long _fileSize;
+   private final ExecutorService _executor;
+   private final LinkedList<Future<Object[][]>> _chunks = new LinkedList<Future<Object[][]>>();
+   private long _nextChunkStart;
+   private Object[][] _batch;
+   private int _batchIndex;
+   private long _chunkCount;
+   private final Logger _log = LoggerFactory.getLogger(this.getClass());
+
+   /**
+    * @param startOffset_
+    *           first byte of the first data line (i.e. just past the header)
+    * @param model_
+    *           only used for error messages
+    * @param columns_
+    *           the columns that are parsed from each line; each chunk parses
+    *           with its own copies, since Formats are not thread safe
+    * @param fieldIdxs_
+    *           the field that each of columns_ is parsed from; null means
+    *           columns_ map one to one onto the leading fields
+    * @param fieldCount_
+    *           number of fields that each line must have
+    */
+   public DKChunkedLineParser(File file_, String delimiter_, Charset charset_,
+                              long startOffset_, DKTableModel model_,
+                              DKColumnModel[] columns_, int[] fieldIdxs_,
+                              int fieldCount_, int threadCount_, int chunkSize_)
+      throws IOException {
+      _file = file_;
+      _delimiter = delimiter_;
+      _charset = charset_;
+      _model = model_;
+      _columns = columns_;
+      _fieldIdxs = fieldIdxs_;
+      _fieldCount = fieldCount_;
+      _threadCount = threadCount_;
+      _chunkSize = chunkSize_;
+      DKValidate.notNull(_file, _delimiter, _charset, _columns);
+      if ((_threadCount < 1) || (_chunkSize < 1))
+         throw new IllegalArgumentException(String.format(
+            "invalid threadCount_->%s or chunkSize_->%s", threadCount_, chunkSize_));
+      _alignFile = new RandomAccessFile(_file, "r");
+      _fileSize = _alignFile.length();
+      _nextChunkStart = startOffset_;
+      _executor = Executors.newFixedThreadPool(_threadCount);
+      this.submitChunks();
+   }
+
+   /**
+    * @return null at EOF
+    */
+   public Object[] next() throws IOException {
+      while ((_batch == null) || (_batchIndex >= _batch.length)) {
+         if (_chunks.isEmpty())
+            return null;
+         _batch = this.get(_chunks.removeFirst());
+         _batchIndex = 0;
+         this.submitChunks();
+      }
+      Object[] row = _batch[_batchIndex];
+      _batch[_batchIndex++] = null;
+      return row;
+   }
+
+   public void close() throws IOException {
+      // e.g. maxDiffs ended the diff early; chunks already being parsed are
+      // interrupted, and stop at their next line
+      for (Future<Object[][]> chunk : _chunks)
+         chunk.cancel(true);
+      _chunks.clear();
+      _executor.shutdownNow();
+      _alignFile.close();
+      _batch = null;
+      _log.info("chunkCount->{}", _chunkCount);
+   }
+
+   private void submitChunks() throws IOException {
+      while ((_chunks.size() < _threadCount * CHUNKS_PER_THREAD)
+         && (_nextChunkStart < _fileSize)) {
+         long start = _nextChunkStart;
+         long end = this.align(start + _chunkSize);
+         _nextChunkStart = end;
+         _chunks.add(_executor.submit(new Chunk(start, end)));
+         _chunkCount++;
+      }
+   }
+
+   /**
+    * @return the offset of the first line that starts at, or after, offset_
+    */
+   private long align(long offset_) throws IOException {
+      if (offset_ >= _fileSize)
+         return _fileSize;
+      byte[] buffer = new byte[ALIGN_BUFFER_SIZE];
+      long position = offset_ - 1;
+      _alignFile.seek(position);
+      for (int read = _alignFile.read(buffer); read > 0; read = _alignFile.read(buffer)) {
+         for (int i = 0; i < read; i++) {
+            if ((buffer[i] == '\n') || (buffer[i] == '\r'))
+               return position + i + 1;
+         }
+         position += read;
+      }
+      return _fileSize;
+   }
+
+   private Object[][] get(Future<Object[][]> chunk_) throws IOException {
+      try {
+         return chunk_.get();
+      }
+      catch (InterruptedException e_) {
+         Thread.currentThread().interrupt();
+         throw new RuntimeException(e_);
+      }
+      catch (ExecutionException e_) {
+         Throwable cause = e_.getCause();
+         if (cause instanceof IOException)
+            throw (IOException) cause;
+         if (cause instanceof RuntimeException)
+            throw (RuntimeException) cause;
+         throw new RuntimeException(cause);
+      }
+   }
+
+   public String toString() {
+      return String.format("%s[%s, threadCount=%s, chunkSize=%s]",
+         ClassUtils.getShortClassName(this.getClass()), _file, _threadCount, _chunkSize);
+   }
+
+   private class Chunk implements Callable<Object[][]> {
+      private final long _start;
+      private final long _end;
+
+      private Chunk(long start_, long end_) {
+         _start = start_;
+         _end = end_;
+      }
+
+      public Object[][] call() throws Exception {
+         DKColumnModel[] columns = new DKColumnModel[_columns.length];
+         for (int i = 0; i < columns.length; i++)
+            columns[i] = _columns[i].copy();
+         DKMappedLineReader.ParseKind[] kinds = DKMappedLineReader.getParseKinds(columns);
+         List<Object[]> rows = new ArrayList<Object[]>();
+         DKMappedLineReader reader = new DKMappedLineReader(_file, _delimiter, _charset,
+            (int) Math.min(Integer.MAX_VALUE, _end - _start), _start, _end);
+         try {
+            while (reader.nextLine()) {
+               if (Thread.currentThread().isInterrupted())
+                  throw new InterruptedException();
+               int fieldCount = reader.scanFields();
+               if (fieldCount != _fieldCount)
+                  throw new RuntimeException(String.format(
+                     "columnCount->%s in row->%s does not match modelled table->%s",
+                     fieldCount, Arrays.toString(reader.getFields()), _model));
+               rows.add(reader.parseRow(_fieldIdxs, columns, kinds));
+            }
+         }
+         catch (ParseException e_) {
+            throw new RuntimeException(e_);
+         }
+         finally {
+            reader.close();
+         }
+         return rows.toArray(new Object[rows.size()][]);
+      }
+   }
+}
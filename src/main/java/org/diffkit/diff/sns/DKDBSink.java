@@ -17,8 +17,10 @@ package org.diffkit.diff.sns;
 
 import java.io.IOException;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.Timestamp;
+import java.sql.Types;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -34,30 +36,77 @@ import org.diffkit.db.DKDatabase;
 import org.diffkit.diff.engine.DKColumnDiff;
 import org.diffkit.diff.engine.DKContext;
 import org.diffkit.diff.engine.DKDiff;
+import org.diffkit.diff.engine.DKFlightRecorder;
+import org.diffkit.diff.engine.DKMetrics;
 import org.diffkit.diff.engine.DKRowDiff;
 import org.diffkit.diff.engine.DKSide;
 import org.diffkit.util.DKObjectUtil;
 import org.diffkit.util.DKSqlUtil;
 
 /**
+ * Writes diffs to the DIFF table through one PreparedStatement on one
+ * Connection, held for the life of the sink. Diffs are sent in JDBC batches of
+ * batchSize, and committed every commitInterval diffs (rounded up to a whole
+ * batch); the remainder is flushed and committed on close().
+ * 
  * @author jpanico
  */
 public class DKDBSink extends DKAbstractSink {
+   public static final int DEFAULT_BATCH_SIZE = 1000;
+   public static final int DEFAULT_COMMIT_INTERVAL = 10000;
 
+   private static final String[] DIFF_INSERT_COLUMN_NAMES = { "CONTEXT_ID", "ROW_STEP",
+      "COLUMN_STEP", "KIND", "LHS", "RHS" };
    private final DKDatabase _database;
    private final DKDBTableDataAccess _tableDataAccess;
    private final DKDBTable _diffContextTable;
    private final DKDBTable _diffTable;
+   private final int _batchSize;
+   private final int _commitInterval;
    private transient Connection _connection;
+   private transient PreparedStatement _insertStatement;
+   private transient int _batchCount;
+   private transient long _uncommittedCount;
    private final Logger _log = LoggerFactory.getLogger(this.getClass());
 
    public DKDBSink(DKDatabase database_) throws SQLException {
+      this(database_, DEFAULT_BATCH_SIZE, DEFAULT_COMMIT_INTERVAL);
+   }
+
+   /**
+    * @param batchSize_
+    *           number of diffs sent to the database per executeBatch()
+    * @param commitInterval_
+    *           number of diffs between commits
+    */
+   public DKDBSink(DKDatabase database_, int batchSize_, int commitInterval_)
+      throws SQLException {
       super(null);
       _database = database_;
+      _batchSize = batchSize_;
+      _commitInterval = commitInterval_;
       _tableDataAccess = new DKDBTableDataAccess(_database);
       _diffContextTable = this.generateDiffContextTable();
       _diffTable = this.generateDiffTable();
       DKValidate.notNull(_database, _diffContextTable, _diffTable);
+      if (_batchSize < 1)
+         throw new IllegalArgumentException(String.format("invalid batchSize_->%s",
+            batchSize_));
+      if (_commitInterval < 1)
+         throw new IllegalArgumentException(String.format("invalid commitInterval_->%s",
+            commitInterval_));
+   }
+
+   public int getBatchSize() {
+      return _batchSize;
+   }
+
+   public int getCommitInterval() {
+      return _commitInterval;
+   }
+
+   public DKDatabase getDatabase() {
+      return _database;
    }
 
    // @Override
@@ -71,6 +120,12 @@ public class DKDBSink extends DKAbstractSink {
          _connection = _database.getConnection();
          this.ensureTables();
          this.saveContext(context_);
+         _connection.setAutoCommit(false);
+         String insertDML = _database.getSqlGenerator().generateParameterizedInsertDML(
+            DIFF_INSERT_COLUMN_NAMES, _diffTable.getSchema(), _diffTable.getTableName());
+         _insertStatement = _connection.prepareStatement(insertDML);
+         _batchCount = 0;
+         _uncommittedCount = 0;
       }
       catch (SQLException e_) {
          _log.error(null, e_);
@@ -80,8 +135,19 @@ public class DKDBSink extends DKAbstractSink {
    }
 
    public void close(DKContext context_) throws IOException {
-      DKSqlUtil.close(_connection);
-      _connection = null;
+      try {
+         this.flush(true, context_);
+      }
+      catch (SQLException e_) {
+         DKSqlUtil.rollback(_connection);
+         throw new RuntimeException(e_);
+      }
+      finally {
+         DKSqlUtil.close(_insertStatement);
+         _insertStatement = null;
+         DKSqlUtil.close(_connection);
+         _connection = null;
+      }
       super.close(context_);
    }
 
@@ -108,9 +174,52 @@ public class DKDBSink extends DKAbstractSink {
       _database.insertRow(row, _diffContextTable);
    }
 
+   /**
+    * binds in the order of DIFF_INSERT_COLUMN_NAMES
+    */
    private void saveDiff(DKDiff diff_, DKContext context_) throws SQLException {
-      Map<String, ?> row = this.createRow(diff_, context_);
-      _database.insertRow(row, _diffTable);
+      _insertStatement.setLong(1, context_._id);
+      _insertStatement.setLong(2, diff_.getRowStep());
+      _insertStatement.setLong(3, diff_.getColumnStep());
+      _insertStatement.setInt(4, diff_.getKind().ordinal());
+      this.setString(5, this.format(diff_, DKSide.LEFT));
+      this.setString(6, this.format(diff_, DKSide.RIGHT));
+      _insertStatement.addBatch();
+      if (++_batchCount >= _batchSize)
+         this.flush(false, context_);
+   }
+
+   private void setString(int parameterIndex_, String value_) throws SQLException {
+      if (value_ == null)
+         _insertStatement.setNull(parameterIndex_, Types.VARCHAR);
+      else
+         _insertStatement.setString(parameterIndex_, value_);
+   }
+
+   /**
+    * sends the pending batch, and commits if commitInterval has been reached
+    * or force_. Flushes along the way are timed into the SINK_FLUSH stage of
+    * context_; the forced one, from close(), already is by DKContext.
+    */
+   private void flush(boolean force_, DKContext context_) throws SQLException {
+      DKMetrics metrics = force_ ? null : context_._metrics;
+      long start = (metrics == null) ? DKMetrics.UNTIMED : metrics.startTimer(true);
+      if (_batchCount > 0) {
+         DKFlightRecorder.Event event = DKFlightRecorder
+            .begin(DKFlightRecorder.EventKind.SINK_FLUSH);
+         _insertStatement.executeBatch();
+         event.commit(DKFlightRecorder.getContextId(context_), this, this.getDiffCount(),
+            false);
+         _uncommittedCount += _batchCount;
+         _batchCount = 0;
+      }
+      if ((_uncommittedCount > 0) && (force_ || (_uncommittedCount >= _commitInterval))) {
+         _connection.commit();
+         _log.debug("committed->{}", _uncommittedCount);
+         _uncommittedCount = 0;
+      }
+      if (metrics != null)
+         metrics.stopTimer(DKMetrics.Stage.SINK_FLUSH, start);
    }
 
    // check that diff_context and diff tables exist; if not, create them
@@ -177,17 +286,6 @@ public class DKDBSink extends DKAbstractSink {
       return row;
    }
 
-   private Map<String, ?> createRow(DKDiff diff_, DKContext context_) {
-      Map<String, Object> row = new HashMap<String, Object>();
-      row.put("CONTEXT_ID", new Long(context_._id));
-      row.put("ROW_STEP", diff_.getRowStep());
-      row.put("COLUMN_STEP", diff_.getColumnStep());
-      row.put("KIND", new Integer(diff_.getKind().ordinal()));
-      row.put("LHS", this.format(diff_, DKSide.LEFT));
-      row.put("RHS", this.format(diff_, DKSide.RIGHT));
-      return row;
-   }
-
    private String format(DKDiff diff_, DKSide side_) {
       if (diff_.getKind() == DKDiff.Kind.COLUMN_DIFF) {
          DKColumnDiff columnDiff = (DKColumnDiff) diff_;
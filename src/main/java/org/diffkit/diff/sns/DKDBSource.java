@@ -16,12 +16,22 @@
 package org.diffkit.diff.sns;
 
 import java.io.IOException;
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.sql.Connection;
+import java.sql.DatabaseMetaData;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
 
 import org.apache.commons.lang.ArrayUtils;
 import org.apache.commons.lang.ClassUtils;
@@ -31,16 +41,29 @@ import org.slf4j.LoggerFactory;
 
 import org.diffkit.common.DKValidate;
 import org.diffkit.common.annot.NotThreadSafe;
+import org.diffkit.db.DKDBColumn;
 import org.diffkit.db.DKDBFlavor;
 import org.diffkit.db.DKDBPrimaryKey;
 import org.diffkit.db.DKDBTable;
+import org.diffkit.db.DKDBTypeInfo;
 import org.diffkit.db.DKDatabase;
+import org.diffkit.db.DKSqlGenerator;
+import org.diffkit.diff.engine.DKChecksumSource;
 import org.diffkit.diff.engine.DKColumnModel;
 import org.diffkit.diff.engine.DKContext;
+import org.diffkit.diff.engine.DKFlightRecorder;
+import org.diffkit.diff.engine.DKPartitionableSource;
+import org.diffkit.diff.engine.DKResumableSource;
+import org.diffkit.diff.engine.DKReusableRowSource;
+import org.diffkit.diff.engine.DKRowHashSource;
+import org.diffkit.diff.engine.DKRowHasher;
 import org.diffkit.diff.engine.DKSource;
 import org.diffkit.diff.engine.DKTableModel;
+import org.diffkit.diff.engine.DKUnorderedSource;
+import org.diffkit.util.DKSqlRowReader;
 import org.diffkit.util.DKSqlUtil;
 import org.diffkit.util.DKSqlUtil.ReadType;
+import org.diffkit.util.DKSqlUtil.WriteType;
 import org.diffkit.util.DKStringUtil;
 import org.diffkit.util.DKStringUtil.Quote;
 
@@ -48,28 +71,78 @@ import org.diffkit.util.DKStringUtil.Quote;
  * @author jpanico
  */
 @NotThreadSafe
-public class DKDBSource implements DKSource {
+public class DKDBSource implements DKPartitionableSource, DKUnorderedSource,
+   DKChecksumSource, DKRowHashSource, DKReusableRowSource, DKResumableSource {
    /**
     * Gives the JDBC driver a hint as to the number of rows that should be
     * fetched from the database when more rows are needed for ResultSet objects
     * generated by this Statement. If the value specified is zero, then the hint
-    * is ignored. The default value is zero.
+    * is ignored. The default value is zero. Unless the plan specifies a
+    * fetchSize, it is sized so that one fetch of estimated row widths fits in
+    * FETCH_MEMORY_BUDGET, within [MIN_FETCH_SIZE, MAX_FETCH_SIZE].
     */
-   private static final int DEFAULT_FETCH_SIZE = 1000;
+   private static final long FETCH_MEMORY_BUDGET = 16 * 1024 * 1024;
+   private static final int MIN_FETCH_SIZE = 100;
+   private static final int MAX_FETCH_SIZE = 10000;
+   /**
+    * MySQL Connector/J reads the entire result into memory, whatever the
+    * fetch size, unless the fetch size is exactly this, in which case it
+    * streams rows from a forward only, read only Statement
+    */
+   private static final int MYSQL_STREAMING_FETCH_SIZE = Integer.MIN_VALUE;
+   /**
+    * estimated heap size of values whose type gives no better estimate
+    */
+   private static final int DEFAULT_VALUE_WIDTH = 64;
+   private static final int MAX_STRING_VALUE_WIDTH = 4096;
+   /**
+    * number of keys in each query issued by a keyed source
+    */
+   private static final int KEY_BATCH_SIZE = 500;
+   private static final String CHECKSUM_COLUMN_NAME = "DK_ROW_HASH";
 
    private final String _tableName;
    private final String _whereClause;
    private final DKTableModel _model;
    private final String[] _keyColumnNames;
    private final DKDatabase _database;
+   // null means choose according to flavor and row width
+   private final Integer _fetchSize;
    private String[] _readColumnNames;
    private ReadType[] _readTypes;
    private final DKDBTable _table;
+   // only set on partitions; inclusive
+   private final Object _lowerBound;
+   // only set on partitions; exclusive
+   private final Object _upperBound;
+   // false skips the ORDER BY
+   private final boolean _isOrdered;
+   // only set on checksum sources; the digested columns
+   private final String[] _checksumColumnNames;
+   // only set on keyed sources; sorted in key order
+   private final List<Object[]> _keys;
+   private DKRowHasher _rowHasher;
+   private transient long _rowHash;
+   private transient int _keyBatchStart;
    private transient Connection _connection;
    private transient ResultSet _resultSet;
+   private transient DKSqlRowReader _rowReader;
    private transient long _lastIndex;
    private transient boolean _isOpen;
    private transient boolean _isValidated;
+   // whether the database orders NULL keys before all others; null until asked
+   private transient Boolean _nullsSortFirst;
+   private transient long _contextId;
+   // null unless a recording wants FETCH_BATCH events
+   private transient DKFlightRecorder.FetchTimer _fetchTimer;
+   /**
+    * the select starts after this key; null means from the start
+    */
+   private transient Object[] _resumeKey;
+   /**
+    * the row most recently returned, for getResumePoint()
+    */
+   private transient Object[] _lastRow;
    // DB2 does not allow repeated call to ResultSet.next() after the end of the
    // RS is reached, so we have to track that state ourselves
    private transient boolean _rsIsConsumed;
@@ -79,21 +152,40 @@ public class DKDBSource implements DKSource {
    public DKDBSource(String tableName_, String whereClause_, DKDatabase database_,
                      DKTableModel model_, String[] keyColumnNames_, int[] readColumnIdxs_)
       throws SQLException {
+      this(tableName_, whereClause_, database_, model_, keyColumnNames_,
+         readColumnIdxs_, null);
+   }
+
+   /**
+    * @param fetchSize_
+    *           passed verbatim to Statement.setFetchSize() for the row queries;
+    *           null means choose a fetch size for the database flavor and the
+    *           estimated row width
+    */
+   public DKDBSource(String tableName_, String whereClause_, DKDatabase database_,
+                     DKTableModel model_, String[] keyColumnNames_,
+                     int[] readColumnIdxs_, Integer fetchSize_) throws SQLException {
       _log.info("tableName_->{}", tableName_);
       _log.info("whereClause_->{}", whereClause_);
       _log.info("database_->{}", database_);
       _log.info("model_->{}", model_);
       _log.info("keyColumnNames_->{}", keyColumnNames_);
       _log.info("readColumnIdxs_->{}", readColumnIdxs_);
+      _log.info("fetchSize_->{}", fetchSize_);
 
       if (readColumnIdxs_ != null)
          throw new NotImplementedException("readColumnIdxs_ not yet implemented");
       if ((model_ != null) && (keyColumnNames_ != null))
          throw new RuntimeException(String.format("does not allow both %s and %s params",
             "model_", "keyColumnNames_"));
+      if ((fetchSize_ != null) && (fetchSize_.intValue() < 0)
+         && (database_ != null) && (database_.getFlavor() != DKDBFlavor.MYSQL))
+         throw new IllegalArgumentException(String.format("invalid fetchSize_->%s",
+            fetchSize_));
       _tableName = tableName_;
       _whereClause = whereClause_;
       _database = database_;
+      _fetchSize = fetchSize_;
       DKValidate.notNull(_database);
       _table = _database.getTable(tableName_);
       _log.info("table->{}", _table);
@@ -107,6 +199,63 @@ public class DKDBSource implements DKSource {
       _log.info("_model->{}", _model);
       DKValidate.notNull(_model);
       this.validateModel(_model, _table);
+      _lowerBound = null;
+      _upperBound = null;
+      _isOrdered = true;
+      _checksumColumnNames = null;
+      _keys = null;
+   }
+
+   /**
+    * partition (and unordered) constructor
+    */
+   private DKDBSource(DKDBSource parent_, Object lowerBound_, Object upperBound_,
+                      boolean isOrdered_) {
+      this(parent_, lowerBound_, upperBound_, isOrdered_, parent_._checksumColumnNames,
+         parent_._keys);
+   }
+
+   /**
+    * checksum (and keyed) constructor
+    */
+   private DKDBSource(DKDBSource parent_, Object lowerBound_, Object upperBound_,
+                      boolean isOrdered_, String[] checksumColumnNames_,
+                      List<Object[]> keys_) {
+      _tableName = parent_._tableName;
+      _whereClause = parent_._whereClause;
+      _database = parent_._database;
+      _fetchSize = parent_._fetchSize;
+      _table = parent_._table;
+      _keyColumnNames = parent_._keyColumnNames;
+      _isValidated = parent_._isValidated;
+      _nullsSortFirst = parent_._nullsSortFirst;
+      _lowerBound = lowerBound_;
+      _upperBound = upperBound_;
+      _isOrdered = isOrdered_;
+      _checksumColumnNames = checksumColumnNames_;
+      _keys = keys_;
+      if ((_checksumColumnNames == null) || (parent_._checksumColumnNames != null))
+         _model = parent_._model;
+      else
+         _model = createChecksumModel(parent_._model);
+   }
+
+   /**
+    * @return the key columns of model_, in key order, followed by the digest
+    */
+   private static DKTableModel createChecksumModel(DKTableModel model_) {
+      int[] key = model_.getKey();
+      DKColumnModel[] columns = new DKColumnModel[key.length + 1];
+      int[] checksumKey = new int[key.length];
+      for (int i = 0; i < key.length; i++) {
+         DKColumnModel keyColumn = model_.getColumn(key[i]);
+         columns[i] = new DKColumnModel(i, keyColumn.getName(), keyColumn.getType(),
+            keyColumn.getFormatString());
+         checksumKey[i] = i;
+      }
+      columns[key.length] = new DKColumnModel(key.length, CHECKSUM_COLUMN_NAME,
+         DKColumnModel.Type.STRING);
+      return new DKTableModel(model_.getName(), columns, checksumKey);
    }
 
    public String getTableName() {
@@ -124,9 +273,13 @@ public class DKDBSource implements DKSource {
    // @Override
    public void close(DKContext context_) throws IOException {
       this.ensureOpen();
+      if (_fetchTimer != null)
+         _fetchTimer.flush();
+      _fetchTimer = null;
       DKSqlUtil.close(_resultSet);
       DKSqlUtil.close(_connection);
       _resultSet = null;
+      _rowReader = null;
       _connection = null;
       _isOpen = false;
       _rsIsConsumed = true;
@@ -135,23 +288,33 @@ public class DKDBSource implements DKSource {
    // @Override
    public void open(DKContext context_) throws IOException {
       this.ensureNotOpen();
+      DKFlightRecorder.Event event = DKFlightRecorder
+         .begin(DKFlightRecorder.EventKind.SOURCE_OPEN);
+      _contextId = DKFlightRecorder.getContextId(context_);
+      _fetchTimer = null;
       try {
-         _readColumnNames = _model.getColumnNames();
+         _readColumnNames = (_checksumColumnNames == null) ? _model.getColumnNames()
+            : _model.getKeyColumnNames();
          _readTypes = _table.getReadTypes(_readColumnNames, _database);
          _connection = _database.getConnection();
          if (_database.getFlavor() != DKDBFlavor.DB2)
             _connection.setAutoCommit(false);
-         _resultSet = this.createResultSet();
+         _keyBatchStart = 0;
+         _rsIsConsumed = ((_keys != null) && _keys.isEmpty());
+         if (!_rsIsConsumed)
+            this.executeSelect();
          if (_isDebug)
             _log.debug("_resultSet->{}", _resultSet);
          _lastIndex = -1;
-         _rsIsConsumed = false;
+         _lastRow = null;
          _isOpen = true;
+         event.commit(_contextId, this, this.getKind());
       }
       catch (Exception e_) {
          _log.error(null, e_);
          _connection = null;
          _resultSet = null;
+         _rowReader = null;
          _isOpen = false;
          throw new RuntimeException(e_);
       }
@@ -169,11 +332,260 @@ public class DKDBSource implements DKSource {
    }
 
    public String getDescription() {
-      return String.format(
+      String description = String.format(
          "%s[tableName=%s, whereClause=%s, keyColumnNames=%s, database=%s]",
          ClassUtils.getShortClassName(this.getClass()), this.getTableName(),
          this.getWhereClause(), Arrays.toString(this.getKeyColumnNames()),
          this.getDatabase().toString());
+      if ((_lowerBound == null) && (_upperBound == null))
+         return description;
+      return String.format("%s[lowerBound=%s, upperBound=%s]", description, _lowerBound,
+         _upperBound);
+   }
+
+   /**
+    * numeric and date/time leading keys are split by interpolating between
+    * MIN and MAX; any other type is split on quantiles, found by scanning the
+    * (ordered) leading key column
+    */
+   public Object[] getPartitionBoundaries(int partitionCount_) throws IOException {
+      _log.info("partitionCount_->{}", partitionCount_);
+      if (partitionCount_ < 2)
+         return null;
+      Connection connection = null;
+      ResultSet resultSet = null;
+      try {
+         String[] orderByColumnNames = this.getOrderByColumnNames();
+         if (ArrayUtils.isEmpty(orderByColumnNames))
+            return null;
+         String keyIdentifier = _database.getSqlGenerator().generateIdentifierString(
+            orderByColumnNames[0]);
+         // once here, rather than once in every partition
+         this.isNullsSortFirst();
+         connection = _database.getConnection();
+         // as in open(); e.g. PostgreSQL ignores the fetch size of the
+         // quantile scan in autocommit mode, and reads every key into memory
+         if (_database.getFlavor() != DKDBFlavor.DB2)
+            connection.setAutoCommit(false);
+         resultSet = DKSqlUtil.executeQuery(this.generateSelectString(String.format(
+            "MIN(%s), MAX(%s), COUNT(*)", keyIdentifier, keyIdentifier), false),
+            connection);
+         if ((resultSet == null) || !resultSet.next())
+            return null;
+         Object min = resultSet.getObject(1);
+         Object max = resultSet.getObject(2);
+         long count = resultSet.getLong(3);
+         DKSqlUtil.close(resultSet.getStatement());
+         _log.info("min->{} max->{} count->{}", new Object[] { min, max, count });
+         if ((min == null) || (max == null) || (count < partitionCount_))
+            return null;
+         Object[] boundaries = interpolateBoundaries(min, max, partitionCount_);
+         if (boundaries != null)
+            return boundaries;
+         resultSet = DKSqlUtil.executeQuery(this.generateSelectString(keyIdentifier,
+            true), connection, this.getFetchSize(new String[] { orderByColumnNames[0] }));
+         return this.scanBoundaries(resultSet, count, partitionCount_);
+      }
+      catch (SQLException e_) {
+         throw new RuntimeException(e_);
+      }
+      finally {
+         DKSqlUtil.close(resultSet);
+         DKSqlUtil.close(connection);
+      }
+   }
+
+   public DKSource createPartition(Object lowerBound_, Object upperBound_) {
+      return new DKDBSource(this, lowerBound_, upperBound_, _isOrdered);
+   }
+
+   public long estimateRowCount() throws IOException {
+      Connection connection = null;
+      ResultSet resultSet = null;
+      try {
+         connection = _database.getConnection();
+         resultSet = DKSqlUtil.executeQuery(this.generateSelectString("COUNT(*)", false),
+            connection);
+         if ((resultSet == null) || !resultSet.next())
+            return -1;
+         long count = resultSet.getLong(1);
+         _log.info("count->{}", count);
+         return count;
+      }
+      catch (SQLException e_) {
+         throw new RuntimeException(e_);
+      }
+      finally {
+         DKSqlUtil.close(resultSet);
+         DKSqlUtil.close(connection);
+      }
+   }
+
+   public DKSource createUnordered() {
+      return new DKDBSource(this, _lowerBound, _upperBound, false);
+   }
+
+   /**
+    * the flavor of the database, if it has a digest function
+    */
+   public String getChecksumKind() {
+      if (!_database.getSqlGenerator().supportsRowHash())
+         return null;
+      return _database.getFlavor().toString();
+   }
+
+   /**
+    * null if any of columnNames_ can't be digested without loss (e.g. LOBs),
+    * so that the caller falls back to comparing whole rows
+    */
+   public DKSource createChecksumSource(String[] columnNames_) throws IOException {
+      DKValidate.notNull((Object) columnNames_);
+      if ((columnNames_.length > 0)
+         && !_database.getSqlGenerator().supportsRowHash(this.getColumns(columnNames_)))
+         return null;
+      return new DKDBSource(this, _lowerBound, _upperBound, true, columnNames_, null);
+   }
+
+   /**
+    * @throws RuntimeException
+    *            if _table is missing any of columnNames_
+    */
+   private DKDBColumn[] getColumns(String[] columnNames_) {
+      DKDBColumn[] columns = new DKDBColumn[columnNames_.length];
+      for (int i = 0; i < columnNames_.length; i++) {
+         columns[i] = _table.getColumn(columnNames_[i]);
+         if (columns[i] == null)
+            throw new RuntimeException(String.format(
+               "table->%s does not contain columnName->%s", _table, columnNames_[i]));
+      }
+      return columns;
+   }
+
+   /**
+    * SUMs each 32 bit chunk of the leading 128 bits of each row digest,
+    * separately, over the partition range (if any) and the user supplied where
+    * clause
+    */
+   public Object[] getAggregateChecksum(String[] columnNames_) throws IOException {
+      if ((columnNames_ == null) || (columnNames_.length == 0))
+         throw new IllegalArgumentException("null or empty value not allowed here");
+      DKDBColumn[] columns = this.getColumns(columnNames_);
+      DKSqlGenerator sqlGenerator = _database.getSqlGenerator();
+      if (!sqlGenerator.supportsRowHash(columns))
+         return null;
+      Connection connection = null;
+      ResultSet resultSet = null;
+      try {
+         String rowHashes = this.generateSelectString(String.format("%s AS %s",
+            sqlGenerator.generateRowHashExpression(columns), CHECKSUM_COLUMN_NAME),
+            false);
+         StringBuilder selectList = new StringBuilder("COUNT(*)");
+         for (int i = 0; i < DKSqlGenerator.ROW_HASH_CHUNK_COUNT; i++)
+            selectList.append(String.format(", SUM(%s)",
+               sqlGenerator.generateRowHashNumberExpression(CHECKSUM_COLUMN_NAME, i)));
+         String selectString = String.format("SELECT %s FROM (%s) DK_ROW_HASHES",
+            selectList, rowHashes);
+         connection = _database.getConnection();
+         resultSet = DKSqlUtil.executeQuery(selectString, connection);
+         if ((resultSet == null) || !resultSet.next())
+            return null;
+         Object[] checksum = new Object[DKSqlGenerator.ROW_HASH_CHUNK_COUNT + 1];
+         checksum[0] = Long.valueOf(resultSet.getLong(1));
+         for (int i = 1; i < checksum.length; i++)
+            checksum[i] = resultSet.getObject(i + 1);
+         if (_isDebug)
+            _log.debug("checksum->{}", Arrays.toString(checksum));
+         return checksum;
+      }
+      catch (SQLException e_) {
+         throw new RuntimeException(e_);
+      }
+      finally {
+         DKSqlUtil.close(resultSet);
+         DKSqlUtil.close(connection);
+      }
+   }
+
+   public DKSource createKeyedSource(List<Object[]> keys_) {
+      DKValidate.notNull(keys_);
+      return new DKDBSource(this, _lowerBound, _upperBound, true, null,
+         new ArrayList<Object[]>(keys_));
+   }
+
+   /**
+    * @return null if min_ and max_ are not numbers or dates
+    */
+   private static Object[] interpolateBoundaries(Object min_, Object max_,
+                                                 int partitionCount_) {
+      BigDecimal min = null;
+      BigDecimal max = null;
+      boolean isIntegral = false;
+      if ((min_ instanceof Date) && (max_ instanceof Date)) {
+         min = BigDecimal.valueOf(((Date) min_).getTime());
+         max = BigDecimal.valueOf(((Date) max_).getTime());
+         isIntegral = true;
+      }
+      else if ((min_ instanceof Number) && (max_ instanceof Number)) {
+         min = new BigDecimal(min_.toString());
+         max = new BigDecimal(max_.toString());
+         isIntegral = (min_ instanceof Long) || (min_ instanceof Integer)
+            || (min_ instanceof Short) || (min_ instanceof Byte)
+            || (min_ instanceof BigInteger);
+      }
+      else
+         return null;
+      BigDecimal step = max.subtract(min).divide(BigDecimal.valueOf(partitionCount_),
+         10, RoundingMode.DOWN);
+      List<Object> boundaries = new ArrayList<Object>(partitionCount_ - 1);
+      BigDecimal previous = min;
+      for (int i = 1; i < partitionCount_; i++) {
+         BigDecimal boundary = min.add(step.multiply(BigDecimal.valueOf(i)));
+         if (isIntegral)
+            boundary = boundary.setScale(0, RoundingMode.DOWN);
+         if (boundary.compareTo(previous) <= 0)
+            continue;
+         previous = boundary;
+         if (min_ instanceof Timestamp)
+            boundaries.add(new Timestamp(boundary.longValue()));
+         else if (min_ instanceof java.sql.Time)
+            boundaries.add(new java.sql.Time(boundary.longValue()));
+         else if (min_ instanceof Date)
+            boundaries.add(new java.sql.Date(boundary.longValue()));
+         else if (isIntegral)
+            boundaries.add(toIntegral(boundary));
+         else
+            boundaries.add(boundary);
+      }
+      return boundaries.toArray();
+   }
+
+   /**
+    * @return a Long if boundary_ fits in one, else a BigInteger
+    */
+   private static Object toIntegral(BigDecimal boundary_) {
+      BigInteger integral = boundary_.toBigInteger();
+      if (integral.bitLength() < Long.SIZE)
+         return Long.valueOf(integral.longValue());
+      return integral;
+   }
+
+   private Object[] scanBoundaries(ResultSet resultSet_, long count_, int partitionCount_)
+      throws SQLException {
+      long partitionSize = count_ / partitionCount_;
+      List<Object> boundaries = new ArrayList<Object>(partitionCount_ - 1);
+      Object previous = null;
+      for (long i = 0; resultSet_.next(); i++) {
+         if ((i == 0) || (i % partitionSize != 0))
+            continue;
+         Object boundary = resultSet_.getObject(1);
+         if ((boundary == null) || boundary.equals(previous))
+            continue;
+         boundaries.add(boundary);
+         previous = boundary;
+         if (boundaries.size() == partitionCount_ - 1)
+            break;
+      }
+      return boundaries.toArray();
    }
 
    private DKDBTable getTable() throws SQLException {
@@ -189,22 +601,83 @@ public class DKDBSource implements DKSource {
    }
 
    public Object[] getNextRow() throws IOException {
+      return this.getNextRow(null);
+   }
+
+   public Object[] getNextRow(Object[] buffer_) throws IOException {
+      if (_fetchTimer == null)
+         return this.readNextRow(buffer_);
+      long start = System.nanoTime();
+      Object[] row = this.readNextRow(buffer_);
+      _fetchTimer.stop(start, (row != null));
+      return row;
+   }
+
+   private Object[] readNextRow(Object[] buffer_) throws IOException {
       try {
          this.ensureOpen();
          if (_rsIsConsumed)
             return null;
-         if (!_resultSet.next()) {
-            _rsIsConsumed = true;
-            return null;
+         while (!_resultSet.next()) {
+            if (!this.nextKeyBatch()) {
+               _rsIsConsumed = true;
+               return null;
+            }
          }
          _lastIndex++;
-         return DKSqlUtil.readRow(_resultSet, _readColumnNames, _readTypes);
+         boolean fillBuffer = (buffer_ != null)
+            && (buffer_.length == _rowReader.getColumnCount());
+         Object[] row = fillBuffer ? _rowReader.readRow(buffer_) : _rowReader.readRow();
+         // a checksum source with no digested columns still vends a (null)
+         // digest
+         if ((_checksumColumnNames != null) && (_checksumColumnNames.length == 0))
+            return Arrays.copyOf(row, row.length + 1);
+         if (_rowHasher != null)
+            _rowHash = _rowHasher.hash(row);
+         _lastRow = row;
+         return row;
       }
       catch (Exception e_) {
          throw new RuntimeException(e_);
       }
    }
 
+   public boolean setRowHasher(DKRowHasher hasher_) {
+      this.ensureNotOpen();
+      _rowHasher = hasher_;
+      return true;
+   }
+
+   public long getRowHash() {
+      return _rowHash;
+   }
+
+   /**
+    * the key of the last row returned, which assumes that the caller has not
+    * modified that row
+    * 
+    * @return null if this is not a plain ordered source (e.g. it is a checksum
+    *         or keyed source), or if the key has a null value, which a
+    *         predicate can't seek past
+    */
+   public Serializable getResumePoint() {
+      this.ensureOpen();
+      if (!_isOrdered || (_keys != null) || (_checksumColumnNames != null))
+         return null;
+      Object[] resumeKey = (_lastRow == null) ? _resumeKey : _model.getKeyValues(_lastRow);
+      if ((resumeKey != null) && ArrayUtils.contains(resumeKey, null))
+         return null;
+      return new ResumePoint(resumeKey);
+   }
+
+   public void setResumePoint(Serializable point_) {
+      this.ensureNotOpen();
+      DKValidate.notNull(point_);
+      _resumeKey = ((ResumePoint) point_)._key;
+      _log.info("_resumeKey->{}", (_resumeKey == null) ? null
+         : Arrays.toString(_resumeKey));
+   }
+
    // @Override
    public Kind getKind() {
       return Kind.DB;
@@ -225,31 +698,310 @@ public class DKDBSource implements DKSource {
       }
    }
 
-   private ResultSet createResultSet() throws SQLException {
-      return DKSqlUtil.executeQuery(this.generateSelectString(), _connection,
-         DEFAULT_FETCH_SIZE);
+   /**
+    * moves a keyed source on to the query for its next batch of keys
+    * 
+    * @return false if there are no more batches
+    */
+   private boolean nextKeyBatch() throws SQLException {
+      if (_keys == null)
+         return false;
+      _keyBatchStart += KEY_BATCH_SIZE;
+      if (_keyBatchStart >= _keys.size())
+         return false;
+      Statement statement = _resultSet.getStatement();
+      DKSqlUtil.close(_resultSet);
+      DKSqlUtil.close(statement);
+      this.executeSelect();
+      return true;
+   }
+
+   /**
+    * runs the select for this source, and prepares a row reader for it; the
+    * digest, if there is one, is read as the last element of each row
+    */
+   private void executeSelect() throws SQLException {
+      String[] columnNames = _readColumnNames;
+      ReadType[] readTypes = _readTypes;
+      if ((_checksumColumnNames != null) && (_checksumColumnNames.length > 0)) {
+         columnNames = (String[]) ArrayUtils.add(columnNames, CHECKSUM_COLUMN_NAME);
+         readTypes = (ReadType[]) ArrayUtils.add(readTypes, ReadType.OBJECT);
+      }
+      String selectString = this.generateSelectString();
+      int fetchSize = this.getFetchSize(columnNames);
+      DKFlightRecorder.Event event = DKFlightRecorder
+         .begin(DKFlightRecorder.EventKind.SOURCE_QUERY);
+      _resultSet = DKSqlUtil.executeQuery(selectString, _connection, fetchSize);
+      event.commit(_contextId, this, selectString, fetchSize);
+      if (_fetchTimer == null)
+         _fetchTimer = DKFlightRecorder.createFetchTimer(_contextId, this.toString(),
+            fetchSize);
+      _rowReader = new DKSqlRowReader(_resultSet, columnNames, readTypes);
+   }
+
+   /**
+    * the plan's fetchSize, if there is one. Otherwise, MySQL streams. All
+    * other flavors only honor the fetch size, rather than buffering the whole
+    * result, on a forward only Statement; and PostgreSQL only when autocommit
+    * is off, which open() ensures.
+    * 
+    * @param columnNames_
+    *           the columns in each fetched row
+    */
+   private int getFetchSize(String[] columnNames_) {
+      if (_fetchSize != null)
+         return _fetchSize.intValue();
+      if (_database.getFlavor() == DKDBFlavor.MYSQL)
+         return MYSQL_STREAMING_FETCH_SIZE;
+      long rowWidth = this.estimateRowWidth(columnNames_);
+      int fetchSize = (int) Math.max(MIN_FETCH_SIZE, Math.min(MAX_FETCH_SIZE,
+         FETCH_MEMORY_BUDGET / rowWidth));
+      if (_isDebug)
+         _log.debug("rowWidth->{} fetchSize->{}", rowWidth, fetchSize);
+      return fetchSize;
+   }
+
+   /**
+    * @return rough estimate of the heap occupied by one row of columnNames_,
+    *         from the model type of each column and, for character columns,
+    *         the size declared in the database
+    */
+   private long estimateRowWidth(String[] columnNames_) {
+      // the row array itself
+      long rowWidth = 16 + (4 * columnNames_.length);
+      for (String columnName : columnNames_) {
+         DKColumnModel column = _model.getColumn(columnName);
+         DKColumnModel.Type type = (column == null) ? null : column.getType();
+         if (type == null) {
+            rowWidth += DEFAULT_VALUE_WIDTH;
+            continue;
+         }
+         switch (type) {
+         case STRING:
+            DKDBColumn dbColumn = _table.getColumn(columnName);
+            int size = (dbColumn == null) ? 0 : dbColumn.getSize();
+            // String header plus 2 bytes per char
+            rowWidth += (size > 0) ? Math.min(40 + (2 * size), MAX_STRING_VALUE_WIDTH)
+               : DEFAULT_VALUE_WIDTH;
+            break;
+         case TEXT:
+            rowWidth += MAX_STRING_VALUE_WIDTH;
+            break;
+         case BOOLEAN:
+            rowWidth += 16;
+            break;
+         case INTEGER:
+            rowWidth += 24;
+            break;
+         case REAL:
+            rowWidth += 24;
+            break;
+         case DECIMAL:
+            rowWidth += 48;
+            break;
+         default:
+            rowWidth += DEFAULT_VALUE_WIDTH;
+         }
+      }
+      return rowWidth;
    }
 
    private String generateSelectString() throws SQLException {
+      if (_checksumColumnNames == null)
+         return this.generateSelectString("*", _isOrdered);
+      DKSqlGenerator sqlGenerator = _database.getSqlGenerator();
+      String[] keyColumnNames = _model.getKeyColumnNames();
+      StringBuilder selectList = new StringBuilder();
+      for (int i = 0; i < keyColumnNames.length; i++) {
+         if (i > 0)
+            selectList.append(", ");
+         selectList.append(sqlGenerator.generateIdentifierString(keyColumnNames[i]));
+      }
+      if (_checksumColumnNames.length > 0)
+         selectList.append(String.format(", %s AS %s",
+            sqlGenerator.generateRowHashExpression(this.getColumns(_checksumColumnNames)),
+            CHECKSUM_COLUMN_NAME));
+      return this.generateSelectString(selectList.toString(), _isOrdered);
+   }
+
+   private String generateSelectString(String selectList_, boolean orderBy_)
+      throws SQLException {
       StringBuilder builder = new StringBuilder();
       DKDBTable table = this.getTable();
-      builder.append(String.format("SELECT * FROM %s",
+      builder.append(String.format("SELECT %s FROM %s", selectList_,
          _database.getSqlGenerator().generateQualifiedTableIdentifierString(table)));
-      if (_whereClause != null) {
-         String whereClause = _whereClause;
-         if (_database.getCaseSensitive()) {
-            String[] columnNames = _table.getColumnNames();
-            whereClause = DKStringUtil.quoteAllOccurrencesOfEach(whereClause,
-               columnNames, Quote.DOUBLE);
-         }
+      String whereClause = this.generateWhereClause();
+      if (whereClause != null)
          builder.append("\n" + whereClause);
-      }
+      if (!orderBy_)
+         return builder.toString();
       String orderBy = this.generateOrderByClause();
       if (orderBy != null)
          builder.append("\n" + orderBy);
       return builder.toString();
    }
 
+   /**
+    * combines the user supplied _whereClause with the partition range, and the
+    * current batch of keys, if any
+    */
+   private String generateWhereClause() throws SQLException {
+      String whereClause = _whereClause;
+      if ((whereClause != null) && _database.getCaseSensitive()) {
+         String[] columnNames = _table.getColumnNames();
+         whereClause = DKStringUtil.quoteAllOccurrencesOfEach(whereClause, columnNames,
+            Quote.DOUBLE);
+      }
+      String predicate = this.generateRangePredicate();
+      String keysPredicate = this.generateKeysPredicate();
+      if (predicate == null)
+         predicate = keysPredicate;
+      else if (keysPredicate != null)
+         predicate = String.format("%s AND %s", predicate, keysPredicate);
+      String resumePredicate = this.generateResumePredicate();
+      if (predicate == null)
+         predicate = resumePredicate;
+      else if (resumePredicate != null)
+         predicate = String.format("%s AND %s", predicate, resumePredicate);
+      if (predicate == null)
+         return whereClause;
+      if (whereClause == null)
+         return "WHERE " + predicate;
+      return String.format("WHERE (%s) AND %s",
+         whereClause.trim().replaceFirst("(?i)^WHERE\\s+", ""), predicate);
+   }
+
+   /**
+    * @return null if not a keyed source
+    */
+   private String generateKeysPredicate() throws SQLException {
+      if (_keys == null)
+         return null;
+      String[] keyColumnNames = _model.getKeyColumnNames();
+      String[] keyIdentifiers = new String[keyColumnNames.length];
+      WriteType[] writeTypes = new WriteType[keyColumnNames.length];
+      for (int i = 0; i < keyColumnNames.length; i++) {
+         keyIdentifiers[i] = _database.getSqlGenerator().generateIdentifierString(
+            keyColumnNames[i]);
+         DKDBTypeInfo typeInfo = _database.getConcreteTypeInfo(_table.getColumn(
+            keyColumnNames[i]).getDBTypeName());
+         if (typeInfo == null)
+            throw new RuntimeException(String.format(
+               "no typeInfo for keyColumnName->%s in table->%s", keyColumnNames[i],
+               _table));
+         writeTypes[i] = typeInfo.getWriteType();
+      }
+      StringBuilder builder = new StringBuilder("(");
+      int batchEnd = Math.min(_keyBatchStart + KEY_BATCH_SIZE, _keys.size());
+      for (int i = _keyBatchStart; i < batchEnd; i++) {
+         if (i > _keyBatchStart)
+            builder.append(" OR ");
+         Object[] key = _keys.get(i);
+         builder.append("(");
+         for (int j = 0; j < key.length; j++) {
+            if (j > 0)
+               builder.append(" AND ");
+            if (key[j] == null)
+               builder.append(String.format("%s IS NULL", keyIdentifiers[j]));
+            else
+               builder.append(String.format("%s = %s", keyIdentifiers[j],
+                  DKSqlUtil.formatForSql(key[j], writeTypes[j])));
+         }
+         builder.append(")");
+      }
+      return builder.append(")").toString();
+   }
+
+   /**
+    * rows whose keys sort after _resumeKey: (k1 > v1) OR (k1 = v1 AND k2 >
+    * v2) ...
+    * 
+    * @return null if there is no _resumeKey
+    */
+   private String generateResumePredicate() throws SQLException {
+      if (_resumeKey == null)
+         return null;
+      String[] keyColumnNames = _model.getKeyColumnNames();
+      String[] keyValues = new String[keyColumnNames.length];
+      String[] keyIdentifiers = new String[keyColumnNames.length];
+      for (int i = 0; i < keyColumnNames.length; i++) {
+         keyIdentifiers[i] = _database.getSqlGenerator().generateIdentifierString(
+            keyColumnNames[i]);
+         DKDBTypeInfo typeInfo = _database.getConcreteTypeInfo(_table.getColumn(
+            keyColumnNames[i]).getDBTypeName());
+         if (typeInfo == null)
+            throw new RuntimeException(String.format(
+               "no typeInfo for keyColumnName->%s in table->%s", keyColumnNames[i],
+               _table));
+         keyValues[i] = DKSqlUtil.formatForSql(_resumeKey[i], typeInfo.getWriteType());
+      }
+      StringBuilder builder = new StringBuilder("(");
+      for (int i = 0; i < keyColumnNames.length; i++) {
+         if (i > 0)
+            builder.append(" OR ");
+         builder.append("(");
+         for (int j = 0; j < i; j++)
+            builder.append(String.format("%s = %s AND ", keyIdentifiers[j], keyValues[j]));
+         builder.append(String.format("%s > %s)", keyIdentifiers[i], keyValues[i]));
+      }
+      return builder.append(")").toString();
+   }
+
+   private String generateRangePredicate() throws SQLException {
+      if ((_lowerBound == null) && (_upperBound == null))
+         return null;
+      String keyColumnName = this.getOrderByColumnNames()[0];
+      String keyIdentifier = _database.getSqlGenerator().generateIdentifierString(
+         keyColumnName);
+      DKDBTypeInfo typeInfo = _database.getConcreteTypeInfo(_table.getColumn(
+         keyColumnName).getDBTypeName());
+      if (typeInfo == null)
+         throw new RuntimeException(String.format(
+            "no typeInfo for keyColumnName->%s in table->%s", keyColumnName, _table));
+      WriteType writeType = typeInfo.getWriteType();
+      // NULL keys go in whichever end partition the ORDER BY puts them in
+      boolean nullsSortFirst = this.isNullsSortFirst();
+      if (_lowerBound == null)
+         return String.format(nullsSortFirst ? "(%s < %s OR %s IS NULL)" : "(%s < %s)",
+            keyIdentifier, DKSqlUtil.formatForSql(_upperBound, writeType),
+            keyIdentifier);
+      if (_upperBound == null)
+         return String.format(nullsSortFirst ? "(%s >= %s)" : "(%s >= %s OR %s IS NULL)",
+            keyIdentifier, DKSqlUtil.formatForSql(_lowerBound, writeType),
+            keyIdentifier);
+      return String.format("(%s >= %s AND %s < %s)", keyIdentifier,
+         DKSqlUtil.formatForSql(_lowerBound, writeType), keyIdentifier,
+         DKSqlUtil.formatForSql(_upperBound, writeType));
+   }
+
+   /**
+    * asks the driver where an ascending ORDER BY puts NULLs: first for e.g.
+    * H2, MySQL and SQL Server, last for e.g. Oracle and PostgreSQL
+    */
+   private boolean isNullsSortFirst() throws SQLException {
+      if (_nullsSortFirst != null)
+         return _nullsSortFirst.booleanValue();
+      Connection connection = (_connection != null) ? _connection
+         : _database.getConnection();
+      try {
+         DatabaseMetaData metaData = connection.getMetaData();
+         boolean nullsSortFirst;
+         if (metaData.nullsAreSortedAtStart())
+            nullsSortFirst = true;
+         else if (metaData.nullsAreSortedAtEnd())
+            nullsSortFirst = false;
+         else
+            nullsSortFirst = !metaData.nullsAreSortedHigh();
+         _log.info("nullsSortFirst->{}", nullsSortFirst);
+         _nullsSortFirst = Boolean.valueOf(nullsSortFirst);
+         return nullsSortFirst;
+      }
+      finally {
+         if (connection != _connection)
+            DKSqlUtil.close(connection);
+      }
+   }
+
    private String generateOrderByClause() throws SQLException {
       String[] orderByColumnNames = this.getOrderByColumnNames();
       if (orderByColumnNames == null)
@@ -326,4 +1078,22 @@ public class DKDBSource implements DKSource {
       if (_isOpen)
          throw new RuntimeException("already open!");
    }
+
+   private static class ResumePoint implements Serializable {
+      private static final long serialVersionUID = 1L;
+
+      /**
+       * null means that no rows had been read
+       */
+      private final Object[] _key;
+
+      private ResumePoint(Object[] key_) {
+         _key = key_;
+      }
+
+      public String toString() {
+         return String.format("%s%s", ClassUtils.getShortClassName(this.getClass()),
+            Arrays.toString(_key));
+      }
+   }
 }
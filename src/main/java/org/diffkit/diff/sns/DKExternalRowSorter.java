@@ -0,0 +1,453 @@
+/**
+ * Copyright 2010-2011 Joseph Panico
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.diffkit.diff.sns;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang.ClassUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.diffkit.common.DKValidate;
+import org.diffkit.common.annot.NotThreadSafe;
+import org.diffkit.util.DKArrayUtil;
+
+/**
+ * Sorts an arbitrarily large stream of rows within a bounded heap. Rows are
+ * accumulated into runs; each full run is sorted, on a pool of worker threads,
+ * and spilled to a temp file, while the caller keeps adding rows to the next
+ * run. sort() then does a k-way merge over all of the spilled runs (plus the
+ * last, in-memory, run). If everything fits in memory, nothing is spilled.
+ * No merge reads more than mergeFanIn runs at once; while there are more runs
+ * than that, groups of them are first merged into longer runs, so that the
+ * number of open files (and their read buffers) stays bounded.
+ * <p>
+ * The sort is stable: rows that compare equal are vended in the order they
+ * were added. Row values must be Serializable.
+ *
+ * @author jpanico
+ */
+@NotThreadSafe
+public class DKExternalRowSorter {
+   /**
+    * number of rows written between ObjectOutputStream.reset(), which keeps the
+    * stream's back-reference table from growing without bound
+    */
+   private static final int RESET_INTERVAL = 1000;
+   private static final String TEMP_FILE_PREFIX = "dksort";
+   public static final int DEFAULT_MERGE_FAN_IN = 64;
+
+   private final Comparator<Object[]> _comparator;
+   private final long _memoryBudget;
+   private final File _tempDir;
+   private final int _threadCount;
+   private final int _mergeFanIn;
+   private final long _runBudget;
+   private final List<Future<File>> _spilledRuns = new ArrayList<Future<File>>();
+   private final List<File> _runFiles = new ArrayList<File>();
+   // every temp file created by a spill, finished or not; guarded by itself
+   private final Set<File> _tempFiles = new LinkedHashSet<File>();
+   private List<Object[]> _run = new ArrayList<Object[]>();
+   private long _runSize;
+   private long _rowCount;
+   private ExecutorService _executor;
+   private Semaphore _runPermits;
+   private List<RunReader> _readers;
+   private final Logger _log = LoggerFactory.getLogger(this.getClass());
+
+   /**
+    * @param memoryBudget_
+    *           approximate upper bound, in bytes, on the heap used by rows
+    *           held in memory, across all runs
+    * @param tempDir_
+    *           null means java.io.tmpdir
+    * @param threadCount_
+    *           number of runs that can be sorted and spilled concurrently
+    */
+   public DKExternalRowSorter(Comparator<Object[]> comparator_, long memoryBudget_,
+                              File tempDir_, int threadCount_) {
+      this(comparator_, memoryBudget_, tempDir_, threadCount_, DEFAULT_MERGE_FAN_IN);
+   }
+
+   /**
+    * @param mergeFanIn_
+    *           most runs that are read at once by any one merge; at least 2
+    */
+   public DKExternalRowSorter(Comparator<Object[]> comparator_, long memoryBudget_,
+                              File tempDir_, int threadCount_, int mergeFanIn_) {
+      _comparator = comparator_;
+      _memoryBudget = memoryBudget_;
+      _tempDir = (tempDir_ == null) ? new File(System.getProperty("java.io.tmpdir"))
+         : tempDir_;
+      _threadCount = Math.max(1, threadCount_);
+      _mergeFanIn = mergeFanIn_;
+      // the run being filled, plus one run per worker being sorted/spilled
+      _runBudget = _memoryBudget / (_threadCount + 1);
+      DKValidate.notNull(_comparator);
+      if (_memoryBudget <= 0)
+         throw new IllegalArgumentException(String.format("invalid memoryBudget_->%s",
+            memoryBudget_));
+      if (_mergeFanIn < 2)
+         throw new IllegalArgumentException(String.format("invalid mergeFanIn_->%s",
+            mergeFanIn_));
+   }
+
+   public long getMemoryBudget() {
+      return _memoryBudget;
+   }
+
+   public File getTempDir() {
+      return _tempDir;
+   }
+
+   public int getMergeFanIn() {
+      return _mergeFanIn;
+   }
+
+   public long getRowCount() {
+      return _rowCount;
+   }
+
+   public void add(Object[] row_) throws IOException {
+      if (_run == null)
+         throw new RuntimeException("already sorted!");
+      _run.add(row_);
+      _rowCount++;
+      _runSize += DKArrayUtil.estimateHeapSize(row_);
+      if (_runSize >= _runBudget)
+         this.spill();
+   }
+
+   /**
+    * @return all of the added rows, in order; the Iterator reads from the temp
+    *         files as it goes, so close() must not be called until the Iterator
+    *         is exhausted
+    */
+   public Iterator<Object[]> sort() throws IOException {
+      if (_run == null)
+         throw new RuntimeException("already sorted!");
+      List<Object[]> lastRun = _run;
+      _run = null;
+      Collections.sort(lastRun, _comparator);
+      if (_spilledRuns.isEmpty()) {
+         _log.info("sorted rowCount->{} in memory", _rowCount);
+         return lastRun.iterator();
+      }
+      for (Future<File> spilledRun : _spilledRuns)
+         _runFiles.add(this.get(spilledRun));
+      _executor.shutdown();
+      // the last run is merged from memory, but counts against the fan-in
+      while (_runFiles.size() + 1 > _mergeFanIn)
+         this.mergePass();
+      _log.info("merging rowCount->{} from runs->{}", _rowCount, _runFiles.size() + 1);
+      _readers = new ArrayList<RunReader>(_runFiles.size());
+      PriorityQueue<Cursor> cursors = new PriorityQueue<Cursor>(_runFiles.size() + 1);
+      for (int i = 0; i < _runFiles.size(); i++) {
+         RunReader reader = new RunReader(_runFiles.get(i));
+         _readers.add(reader);
+         this.offer(cursors, new Cursor(reader, i));
+      }
+      this.offer(cursors, new Cursor(lastRun.iterator(), _runFiles.size()));
+      return new MergeIterator(cursors);
+   }
+
+   /**
+    * releases all resources and deletes all temp files
+    */
+   public void close() {
+      if (_executor != null) {
+         // spills that haven't started never will; those in flight are waited
+         // for, so that none creates a file after the ones below are deleted
+         for (Future<File> spilledRun : _spilledRuns)
+            spilledRun.cancel(true);
+         _executor.shutdownNow();
+         this.awaitSpills();
+      }
+      if (_readers != null) {
+         for (RunReader reader : _readers)
+            reader.close();
+      }
+      synchronized (_tempFiles) {
+         for (File tempFile : _tempFiles) {
+            if (tempFile.exists() && !tempFile.delete())
+               _log.warn("could not delete tempFile->{}", tempFile);
+         }
+         _tempFiles.clear();
+      }
+      _run = null;
+      _readers = null;
+   }
+
+   /**
+    * replaces each group of (up to) _mergeFanIn consecutive run files with one
+    * run file that merges them. Groups are consecutive, and each merge breaks
+    * ties in run order, so the sort stays stable.
+    */
+   private void mergePass() throws IOException {
+      _log.info("merging runs->{} in groups of mergeFanIn->{}", _runFiles.size(),
+         _mergeFanIn);
+      List<File> merged = new ArrayList<File>((_runFiles.size() / _mergeFanIn) + 1);
+      for (int i = 0; i < _runFiles.size(); i += _mergeFanIn) {
+         List<File> group = _runFiles.subList(i, Math.min(i + _mergeFanIn,
+            _runFiles.size()));
+         merged.add((group.size() == 1) ? group.get(0) : this.merge(group));
+      }
+      _runFiles.clear();
+      _runFiles.addAll(merged);
+   }
+
+   /**
+    * @return a new run file with all of the rows of runFiles_, which are
+    *         deleted
+    */
+   private File merge(List<File> runFiles_) throws IOException {
+      List<RunReader> readers = new ArrayList<RunReader>(runFiles_.size());
+      try {
+         PriorityQueue<Cursor> cursors = new PriorityQueue<Cursor>(runFiles_.size());
+         for (int i = 0; i < runFiles_.size(); i++) {
+            RunReader reader = new RunReader(runFiles_.get(i));
+            readers.add(reader);
+            this.offer(cursors, new Cursor(reader, i));
+         }
+         return this.write(new MergeIterator(cursors));
+      }
+      finally {
+         for (RunReader reader : readers)
+            reader.close();
+      }
+   }
+
+   private void awaitSpills() {
+      try {
+         while (!_executor.awaitTermination(1, TimeUnit.SECONDS))
+            _log.info("waiting for spills to finish");
+      }
+      catch (InterruptedException e_) {
+         // whatever is still being written is deleteOnExit
+         _log.warn("interrupted waiting for spills to finish");
+         Thread.currentThread().interrupt();
+      }
+   }
+
+   private void spill() {
+      if (_executor == null) {
+         _executor = Executors.newFixedThreadPool(_threadCount);
+         _runPermits = new Semaphore(_threadCount);
+      }
+      _runPermits.acquireUninterruptibly();
+      final List<Object[]> run = _run;
+      _run = new ArrayList<Object[]>(run.size());
+      _runSize = 0;
+      _spilledRuns.add(_executor.submit(new Callable<File>() {
+         public File call() throws Exception {
+            try {
+               Collections.sort(run, _comparator);
+               return DKExternalRowSorter.this.write(run.iterator());
+            }
+            finally {
+               _runPermits.release();
+            }
+         }
+      }));
+   }
+
+   private File write(Iterator<Object[]> rows_) throws IOException {
+      File runFile = File.createTempFile(TEMP_FILE_PREFIX, null, _tempDir);
+      runFile.deleteOnExit();
+      synchronized (_tempFiles) {
+         _tempFiles.add(runFile);
+      }
+      boolean written = false;
+      int i = 0;
+      try {
+         ObjectOutputStream outputStream = new ObjectOutputStream(
+            new BufferedOutputStream(new FileOutputStream(runFile)));
+         try {
+            while (rows_.hasNext()) {
+               outputStream.writeObject(rows_.next());
+               if (++i % RESET_INTERVAL == 0)
+                  outputStream.reset();
+            }
+         }
+         finally {
+            outputStream.close();
+         }
+         written = true;
+      }
+      finally {
+         if (!written)
+            runFile.delete();
+      }
+      _log.debug("wrote rows->{} to runFile->{}", i, runFile);
+      return runFile;
+   }
+
+   private File get(Future<File> future_) throws IOException {
+      try {
+         return future_.get();
+      }
+      catch (InterruptedException e_) {
+         Thread.currentThread().interrupt();
+         throw new RuntimeException(e_);
+      }
+      catch (ExecutionException e_) {
+         if (e_.getCause() instanceof IOException)
+            throw (IOException) e_.getCause();
+         throw new RuntimeException(e_.getCause());
+      }
+   }
+
+   private void offer(PriorityQueue<Cursor> cursors_, Cursor cursor_) {
+      if (cursor_.advance())
+         cursors_.offer(cursor_);
+   }
+
+   public String toString() {
+      return String.format("%s[memoryBudget=%s, tempDir=%s, threadCount=%s, mergeFanIn=%s]",
+         ClassUtils.getShortClassName(this.getClass()), _memoryBudget, _tempDir,
+         _threadCount, _mergeFanIn);
+   }
+
+   private static class RunReader {
+      private final File _file;
+      private ObjectInputStream _inputStream;
+
+      private RunReader(File file_) throws IOException {
+         _file = file_;
+         _inputStream = new ObjectInputStream(new BufferedInputStream(
+            new FileInputStream(_file)));
+      }
+
+      /**
+       * @return null at end of run
+       */
+      private Object[] read() {
+         if (_inputStream == null)
+            return null;
+         try {
+            return (Object[]) _inputStream.readObject();
+         }
+         catch (EOFException e_) {
+            this.close();
+            return null;
+         }
+         catch (Exception e_) {
+            throw new RuntimeException(e_);
+         }
+      }
+
+      private void close() {
+         if (_inputStream == null)
+            return;
+         try {
+            _inputStream.close();
+         }
+         catch (IOException e_) {
+            // nothing to be done
+         }
+         _inputStream = null;
+         _file.delete();
+      }
+   }
+
+   private class Cursor implements Comparable<Cursor> {
+      private final RunReader _reader;
+      private final Iterator<Object[]> _iterator;
+      // runs are numbered in the order they were added; breaks ties
+      private final int _runIndex;
+      private Object[] _head;
+
+      private Cursor(RunReader reader_, int runIndex_) {
+         _reader = reader_;
+         _iterator = null;
+         _runIndex = runIndex_;
+      }
+
+      private Cursor(Iterator<Object[]> iterator_, int runIndex_) {
+         _reader = null;
+         _iterator = iterator_;
+         _runIndex = runIndex_;
+      }
+
+      /**
+       * @return false if there are no more rows in the run
+       */
+      private boolean advance() {
+         if (_reader != null)
+            _head = _reader.read();
+         else
+            _head = _iterator.hasNext() ? _iterator.next() : null;
+         return (_head != null);
+      }
+
+      public int compareTo(Cursor that_) {
+         int comparison = _comparator.compare(_head, that_._head);
+         if (comparison != 0)
+            return comparison;
+         return (_runIndex < that_._runIndex) ? -1
+            : ((_runIndex == that_._runIndex) ? 0 : 1);
+      }
+   }
+
+   private class MergeIterator implements Iterator<Object[]> {
+      private final PriorityQueue<Cursor> _cursors;
+
+      private MergeIterator(PriorityQueue<Cursor> cursors_) {
+         _cursors = cursors_;
+      }
+
+      public boolean hasNext() {
+         return !_cursors.isEmpty();
+      }
+
+      public Object[] next() {
+         Cursor cursor = _cursors.poll();
+         if (cursor == null)
+            throw new NoSuchElementException();
+         Object[] row = cursor._head;
+         DKExternalRowSorter.this.offer(_cursors, cursor);
+         return row;
+      }
+
+      public void remove() {
+         throw new UnsupportedOperationException();
+      }
+   }
+}
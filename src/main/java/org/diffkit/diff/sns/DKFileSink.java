@@ -19,6 +19,8 @@ import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
 import java.text.SimpleDateFormat;
 import java.util.Map;
 
@@ -31,15 +33,17 @@ import org.diffkit.common.DKUserException;
 import org.diffkit.common.DKValidate;
 import org.diffkit.diff.engine.DKContext;
 import org.diffkit.diff.engine.DKContext.UserKey;
+import org.diffkit.diff.engine.DKResumableSink;
 import org.diffkit.util.DKFileUtil;
 
 /**
  * @author jpanico
  */
-public class DKFileSink extends DKWriterSink {
+public class DKFileSink extends DKWriterSink implements DKResumableSink {
 
    private final File _file;
    private final boolean _withSummary;
+   private ResumePoint _resumePoint;
    private final Logger _log = LoggerFactory.getLogger(this.getClass());
 
    public DKFileSink(String filePath_) throws IOException {
@@ -58,9 +62,6 @@ public class DKFileSink extends DKWriterSink {
    private DKFileSink(File file_, boolean withSummary_, String[] groupByColumnNames_) {
       super(groupByColumnNames_);
       DKValidate.notNull(file_);
-      if (file_.exists())
-         throw new DKUserException(String.format(
-            "sink file [%s] already exists! please remove it and try again.", file_));
       _file = file_;
       _withSummary = withSummary_;
       _log.debug("_file->{}", _file);
@@ -80,12 +81,57 @@ public class DKFileSink extends DKWriterSink {
       return _withSummary;
    }
 
+   /**
+    * the file must not exist, unless this sink is resuming; checked at open(),
+    * rather than construction, because a resumed sink is constructed over the
+    * partial file left by the interrupted run
+    */
    @Override
    public void open(DKContext context_) throws IOException {
-      this.init(new BufferedWriter(new FileWriter(_file)), this.getFormatter());
+      if (_resumePoint == null) {
+         if (_file.exists())
+            throw new DKUserException(String.format(
+               "sink file [%s] already exists! please remove it and try again.", _file));
+         this.init(new BufferedWriter(new FileWriter(_file)), this.getFormatter());
+      }
+      else {
+         this.truncate(_resumePoint._offset);
+         this.init(new BufferedWriter(new FileWriter(_file, true)), this.getFormatter());
+      }
       super.open(context_);
    }
 
+   /**
+    * discards whatever was written after offset_
+    */
+   private void truncate(long offset_) throws IOException {
+      if (!_file.exists() || (_file.length() < offset_))
+         throw new DKUserException(String.format(
+            "sink file [%s] is missing, or shorter than its checkpoint->%s", _file,
+            offset_));
+      RandomAccessFile randomAccessFile = new RandomAccessFile(_file, "rw");
+      try {
+         randomAccessFile.setLength(offset_);
+      }
+      finally {
+         randomAccessFile.close();
+      }
+   }
+
+   public Serializable getResumePoint() throws IOException {
+      this.ensureStarted();
+      this.getWriter().flush();
+      return new ResumePoint(_file.length(), this.getCounts());
+   }
+
+   public void setResumePoint(Serializable point_) throws IOException {
+      DKValidate.notNull(point_);
+      ResumePoint resumePoint = (ResumePoint) point_;
+      this.setCounts(resumePoint._counts);
+      _resumePoint = resumePoint;
+      _log.info("_resumePoint->{}", _resumePoint);
+   }
+
    public String toString() {
       if (DKRuntime.getInstance().getIsTest())
          return _file.getName();
@@ -128,4 +174,24 @@ public class DKFileSink extends DKWriterSink {
       }
       return builder.toString();
    }
+
+   /**
+    * length of the file, and the DKAbstractSink counters
+    */
+   private static class ResumePoint implements Serializable {
+      private static final long serialVersionUID = 1L;
+
+      private final long _offset;
+      private final Serializable _counts;
+
+      private ResumePoint(long offset_, Serializable counts_) {
+         _offset = offset_;
+         _counts = counts_;
+      }
+
+      public String toString() {
+         return String.format("%s[%s]", ClassUtils.getShortClassName(this.getClass()),
+            _offset);
+      }
+   }
 }
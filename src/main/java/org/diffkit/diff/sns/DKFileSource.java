@@ -20,13 +20,17 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.LineNumberReader;
+import java.io.Serializable;
 import java.net.URI;
+import java.nio.charset.Charset;
 import java.text.ParseException;
 import java.util.Arrays;
+import java.util.Iterator;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.apache.commons.lang.ArrayUtils;
 import org.apache.commons.lang.ClassUtils;
-import org.apache.commons.lang.NotImplementedException;
 import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -37,8 +41,14 @@ import org.diffkit.common.DKValidate;
 import org.diffkit.common.annot.NotThreadSafe;
 import org.diffkit.diff.engine.DKColumnModel;
 import org.diffkit.diff.engine.DKContext;
+import org.diffkit.diff.engine.DKFlightRecorder;
+import org.diffkit.diff.engine.DKResumableSource;
+import org.diffkit.diff.engine.DKReusableRowSource;
+import org.diffkit.diff.engine.DKRowHashSource;
+import org.diffkit.diff.engine.DKRowHasher;
 import org.diffkit.diff.engine.DKSource;
 import org.diffkit.diff.engine.DKTableModel;
+import org.diffkit.diff.engine.DKUnorderedSource;
 import org.diffkit.util.DKArrayUtil;
 import org.diffkit.util.DKFileUtil;
 
@@ -46,27 +56,82 @@ import org.diffkit.util.DKFileUtil;
  * @author jpanico
  */
 @NotThreadSafe
-public class DKFileSource implements DKSource {
+public class DKFileSource implements DKUnorderedSource, DKRowHashSource,
+   DKReusableRowSource, DKResumableSource {
+   /**
+    * fraction of the max heap that an unsorted file may use for sorting, when
+    * no explicit budget is given
+    */
+   private static final int DEFAULT_SORT_MEMORY_DIVISOR = 4;
+   /**
+    * number of lines sampled by estimateRowCount()
+    */
+   private static final int ESTIMATE_SAMPLE_SIZE = 100;
 
    private final File _file;
    private final String _delimiter;
+   /**
+    * _delimiter as a plain String, or null if it really is a regex
+    */
+   private final String _literalDelimiter;
    /**
     * read from the first line of actual file
     */
    private String[] _headerColumnNames;
    private int _headerBlankColumnCount; //number of blank headers on then end of the row
+   /**
+    * models every field in the file
+    */
+   private DKTableModel _fileModel;
+   /**
+    * _fileModel narrowed to just the read columns
+    */
    private DKTableModel _model;
    private final String[] _keyColumnNames;
    /**
     * DKColumnModel indices
     */
    private final int[] _readColumnIdxs;
+   private final String[] _readColumnNames;
+   private final String[] _ignoreColumnNames;
+   /**
+    * the field that each of _readColumns is parsed from, ascending; null when
+    * every field is read
+    */
+   private int[] _readFieldIdxs;
    private DKColumnModel[] _readColumns;
    private final boolean _isSorted;
    private final boolean _validateLazily;
+   /**
+    * approximate heap, in bytes, for sorting an unsorted file
+    */
+   private final long _sortMemoryBudget;
+   private final File _sortTempDir;
+   /**
+    * read through a DKMappedLineReader, instead of a LineNumberReader
+    */
+   private final boolean _memoryMapped;
+   /**
+    * > 1 parses the file in chunks, on this many threads
+    */
+   private final int _parseThreadCount;
+   private DKRowHasher _rowHasher;
+   private transient long _rowHash;
+   private transient DKMappedLineReader _mappedReader;
+   private transient DKChunkedLineParser _chunkedParser;
+   private transient DKMappedLineReader.ParseKind[] _parseKinds;
+   private transient Matcher _delimiterMatcher;
+   private transient DKExternalRowSorter _sorter;
+   private transient Iterator<Object[]> _sortedRows;
    private transient boolean _isOpen;
    private transient long _lastIndex = -1;
+   /**
+    * rows are skipped up to here before the first one is read
+    */
+   private transient ResumePoint _resumePoint;
    private transient LineNumberReader _lineReader;
+   // null unless a recording wants FETCH_BATCH events
+   private transient DKFlightRecorder.FetchTimer _fetchTimer;
    private final Logger _log = LoggerFactory.getLogger(this.getClass());
 
    /**
@@ -87,14 +152,62 @@ public class DKFileSource implements DKSource {
    public DKFileSource(String filePath_, DKTableModel model_, String[] keyColumnNames_,
                        int[] readColumnIdxs_, String delimiter_, boolean isSorted_,
                        boolean validateLazily_) throws IOException {
+      this(filePath_, model_, keyColumnNames_, readColumnIdxs_, null, null, delimiter_,
+         isSorted_, validateLazily_, null, null, null, null);
+   }
+
+   /**
+    * Only the read columns are parsed, and getModel() is narrowed to just
+    * those columns (re-indexed in file order); the key columns are always
+    * read. The other fields are skipped over without being copied out of the
+    * line. At most one of readColumnIdxs_, readColumnNames_, and
+    * ignoreColumnNames_ is used, in that order of precedence; if all are null,
+    * every column is read.
+    * 
+    * @param readColumnNames_
+    *           names of the columns to read; names that are not in the model
+    *           are ignored
+    * @param ignoreColumnNames_
+    *           names of the columns to skip; names that are not in the model
+    *           are ignored
+    * @param isSorted_
+    *           if false, the rows are sorted by the model key, using an
+    *           external (spill to disk) sort, before they are vended
+    * @param sortMemoryBudget_
+    *           approximate heap, in bytes, available for sorting when isSorted_
+    *           is false. null means a quarter of the max heap
+    * @param sortTempDirPath_
+    *           directory for the sort's spill files. null means java.io.tmpdir
+    * @param memoryMapped_
+    *           if true, the file is read through a memory mapped window, and
+    *           fields are parsed straight from bytes; this needs a literal
+    *           delimiter and an ASCII compatible default charset, otherwise the
+    *           file is read line by line as usual. null means false
+    * @param parseThreadCount_
+    *           if > 1, the file is cut into line aligned chunks that are parsed
+    *           on this many threads, and then handed out in file order; implies
+    *           memoryMapped_. null means 1
+    */
+   public DKFileSource(String filePath_, DKTableModel model_, String[] keyColumnNames_,
+                       int[] readColumnIdxs_, String[] readColumnNames_,
+                       String[] ignoreColumnNames_, String delimiter_, boolean isSorted_,
+                       boolean validateLazily_, Long sortMemoryBudget_,
+                       String sortTempDirPath_, Boolean memoryMapped_,
+                       Integer parseThreadCount_) throws IOException {
 
       _log.debug("filePath_->{}", filePath_);
       _log.debug("model_->{}", model_);
       _log.debug("keyColumnNames_->{}", keyColumnNames_);
       _log.debug("readColumnIdxs_->{}", readColumnIdxs_);
+      _log.debug("readColumnNames_->{}", readColumnNames_);
+      _log.debug("ignoreColumnNames_->{}", ignoreColumnNames_);
       _log.debug("delimiter_->{}", delimiter_);
       _log.debug("isSorted_->{}", isSorted_);
       _log.debug("validateLazily_->{}", validateLazily_);
+      _log.debug("sortMemoryBudget_->{}", sortMemoryBudget_);
+      _log.debug("sortTempDirPath_->{}", sortTempDirPath_);
+      _log.debug("memoryMapped_->{}", memoryMapped_);
+      _log.debug("parseThreadCount_->{}", parseThreadCount_);
 
       if ((model_ != null) && (keyColumnNames_ != null))
          throw new RuntimeException(String.format("does not allow both %s and %s params",
@@ -102,19 +215,25 @@ public class DKFileSource implements DKSource {
 
       _file = DKFileUtil.findFile(filePath_);
       _delimiter = delimiter_;
-      _model = model_;
+      _literalDelimiter = (_delimiter == null) ? null : DKMappedLineReader.toLiteral(_delimiter);
+      _fileModel = model_;
       _keyColumnNames = keyColumnNames_;
       _readColumnIdxs = readColumnIdxs_;
-      if (_readColumnIdxs != null)
-         throw new NotImplementedException(String.format(
-            "_readColumnIdxs->%s is not currently supported", _readColumnIdxs));
+      _readColumnNames = readColumnNames_;
+      _ignoreColumnNames = ignoreColumnNames_;
 
       _isSorted = isSorted_;
       _validateLazily = validateLazily_;
+      _sortMemoryBudget = (sortMemoryBudget_ == null) ? Runtime.getRuntime().maxMemory()
+         / DEFAULT_SORT_MEMORY_DIVISOR : sortMemoryBudget_.longValue();
+      _sortTempDir = (sortTempDirPath_ == null) ? null : new File(sortTempDirPath_);
+      _parseThreadCount = (parseThreadCount_ == null) ? 1 : parseThreadCount_.intValue();
+      _memoryMapped = ((memoryMapped_ != null) && memoryMapped_.booleanValue())
+         || (_parseThreadCount > 1);
       DKValidate.notNull(_delimiter);
-      if (!_isSorted)
-         throw new NotImplementedException(String.format(
-            "isSorted_->%s is not currently supported", _isSorted));
+      if ((_sortTempDir != null) && !_sortTempDir.isDirectory())
+         throw new DKUserException(String.format(
+            "sortTempDirPath_->%s is not a directory", sortTempDirPath_));
       if (!_validateLazily) {
          if (_file == null)
             throw new RuntimeException(String.format(
@@ -131,9 +250,30 @@ public class DKFileSource implements DKSource {
       return _delimiter;
    }
 
+   /**
+    * @return the model narrowed to the read columns; the same as
+    *         getFileModel() if every column is read
+    */
    public DKTableModel getModel() {
       if (_model != null)
          return _model;
+      DKTableModel fileModel = this.getFileModel();
+      if (fileModel == null)
+         return null;
+      _readFieldIdxs = this.getReadFieldIdxs(fileModel);
+      _log.info("readFieldIdxs->{}", (_readFieldIdxs == null) ? null
+         : Arrays.toString(_readFieldIdxs));
+      _model = (_readFieldIdxs == null) ? fileModel
+         : fileModel.copyWithColumns(_readFieldIdxs);
+      return _model;
+   }
+
+   /**
+    * @return the model of every field in the file, whether read or not
+    */
+   public DKTableModel getFileModel() {
+      if (_fileModel != null)
+         return _fileModel;
       try {
          this.open();
       }
@@ -146,8 +286,50 @@ public class DKFileSource implements DKSource {
       else
          keyColumnIndices = this.getHeaderColumnNameIndices(_keyColumnNames);
 
-      _model = DKTableModel.createGenericStringModel(_headerColumnNames, keyColumnIndices);
-      return _model;
+      _fileModel = DKTableModel.createGenericStringModel(_headerColumnNames,
+         keyColumnIndices);
+      return _fileModel;
+   }
+
+   /**
+    * @return null if every field is read
+    */
+   private int[] getReadFieldIdxs(DKTableModel fileModel_) {
+      int columnCount = fileModel_.getColumns().length;
+      boolean[] isRead = new boolean[columnCount];
+      if (_readColumnIdxs != null) {
+         for (int idx : _readColumnIdxs) {
+            if ((idx < 0) || (idx >= columnCount))
+               throw new RuntimeException(String.format(
+                  "readColumnIdx->%s not in range for columnCount->%s", idx, columnCount));
+            isRead[idx] = true;
+         }
+      }
+      else if (!ArrayUtils.isEmpty(_readColumnNames))
+         this.mark(isRead, fileModel_.getColumnIndexes(_readColumnNames), true);
+      else if (!ArrayUtils.isEmpty(_ignoreColumnNames)) {
+         Arrays.fill(isRead, true);
+         this.mark(isRead, fileModel_.getColumnIndexes(_ignoreColumnNames), false);
+      }
+      else
+         return null;
+      this.mark(isRead, fileModel_.getKey(), true);
+      int[] readFieldIdxs = new int[columnCount];
+      int readCount = 0;
+      for (int i = 0; i < columnCount; i++) {
+         if (isRead[i])
+            readFieldIdxs[readCount++] = i;
+      }
+      if (readCount == columnCount)
+         return null;
+      return Arrays.copyOf(readFieldIdxs, readCount);
+   }
+
+   private void mark(boolean[] target_, int[] idxs_, boolean value_) {
+      if (idxs_ == null)
+         return;
+      for (int idx : idxs_)
+         target_[idx] = value_;
    }
 
    private int[] getHeaderColumnNameIndices(String[] names_) {
@@ -173,6 +355,14 @@ public class DKFileSource implements DKSource {
       return _readColumnIdxs;
    }
 
+   public String[] getReadColumnNames() {
+      return _readColumnNames;
+   }
+
+   public String[] getIgnoreColumnNames() {
+      return _ignoreColumnNames;
+   }
+
    public boolean getIsSorted() {
       return _isSorted;
    }
@@ -181,6 +371,22 @@ public class DKFileSource implements DKSource {
       return _validateLazily;
    }
 
+   public long getSortMemoryBudget() {
+      return _sortMemoryBudget;
+   }
+
+   public File getSortTempDir() {
+      return _sortTempDir;
+   }
+
+   public boolean getMemoryMapped() {
+      return _memoryMapped;
+   }
+
+   public int getParseThreadCount() {
+      return _parseThreadCount;
+   }
+
    public Kind getKind() {
       return Kind.FILE;
    }
@@ -189,6 +395,41 @@ public class DKFileSource implements DKSource {
       return _file.toURI();
    }
 
+   /**
+    * extrapolates from the length of the first few lines
+    */
+   public long estimateRowCount() throws IOException {
+      if ((_file == null) || !_file.canRead())
+         return -1;
+      BufferedReader reader = new BufferedReader(new FileReader(_file));
+      try {
+         // header
+         reader.readLine();
+         long sampleLength = 0;
+         int sampleCount = 0;
+         for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+            sampleLength += line.length() + 1;
+            if (++sampleCount == ESTIMATE_SAMPLE_SIZE)
+               return _file.length() / (sampleLength / sampleCount);
+         }
+         return sampleCount;
+      }
+      finally {
+         reader.close();
+      }
+   }
+
+   /**
+    * a copy that vends the rows in file order, even if this source sorts them
+    */
+   public DKSource createUnordered() throws IOException {
+      return new DKFileSource(_file.getAbsolutePath(), this.getFileModel(), null,
+         _readColumnIdxs, _readColumnNames, _ignoreColumnNames, _delimiter, true, true,
+         Long.valueOf(_sortMemoryBudget),
+         (_sortTempDir == null) ? null : _sortTempDir.getAbsolutePath(),
+         Boolean.valueOf(_memoryMapped), Integer.valueOf(_parseThreadCount));
+   }
+
    public String toString() {
       if (DKRuntime.getInstance().getIsTest())
          return _file.getName();
@@ -197,12 +438,185 @@ public class DKFileSource implements DKSource {
    }
 
    public Object[] getNextRow() throws IOException {
+      return this.getNextRow(null);
+   }
+
+   /**
+    * buffer_ is filled when the file is sorted and is not parsed in chunks
+    */
+   public Object[] getNextRow(Object[] buffer_) throws IOException {
+      if (_fetchTimer == null)
+         return this.readNextRow(buffer_);
+      long start = System.nanoTime();
+      Object[] row = this.readNextRow(buffer_);
+      _fetchTimer.stop(start, (row != null));
+      return row;
+   }
+
+   private Object[] readNextRow(Object[] buffer_) throws IOException {
       this.ensureOpen();
+      if (_resumePoint != null)
+         this.resume();
+      if (!_isSorted)
+         return this.hashRow(this.getNextSortedRow());
+      Object[] row = this.readRow(buffer_);
+      if (row == null)
+         return null;
+      _lastIndex++;
+      return this.hashRow(row);
+   }
+
+   private Object[] hashRow(Object[] row_) {
+      if ((row_ != null) && (_rowHasher != null))
+         _rowHash = _rowHasher.hash(row_);
+      return row_;
+   }
+
+   /**
+    * the file may already be open (e.g. to read the header for a default
+    * model), so long as no rows have been read from it
+    */
+   public boolean setRowHasher(DKRowHasher hasher_) {
+      if (_lastIndex >= 0)
+         throw new RuntimeException("rows already read!");
+      _rowHasher = hasher_;
+      return true;
+   }
+
+   public long getRowHash() {
+      return _rowHash;
+   }
+
+   /**
+    * the number of rows read; plus, when the rows come straight from a
+    * DKMappedLineReader, the file offset past the last one
+    */
+   public Serializable getResumePoint() {
+      this.ensureOpen();
+      long offset = (_isSorted && (_mappedReader != null)) ? _mappedReader.getOffset()
+         : -1;
+      return new ResumePoint(_lastIndex + 1, offset, _file.length());
+   }
+
+   /**
+    * like setRowHasher(), the file may already be open, so long as no rows
+    * have been read from it
+    */
+   public void setResumePoint(Serializable point_) {
+      DKValidate.notNull(point_);
+      if (_lastIndex >= 0)
+         throw new RuntimeException("rows already read!");
+      _resumePoint = (ResumePoint) point_;
+      _log.info("_resumePoint->{}", _resumePoint);
+   }
+
+   /**
+    * moves past the rows that were read before _resumePoint: by remapping at
+    * its offset, if it has one, and otherwise by reading and discarding them
+    */
+   private void resume() throws IOException {
+      ResumePoint resumePoint = _resumePoint;
+      _resumePoint = null;
+      if (_file.length() != resumePoint._fileLength)
+         throw new DKUserException(String.format(
+            "file [%s] has changed since it was checkpointed", _file));
+      if (_isSorted && (_mappedReader != null) && (resumePoint._offset >= 0)) {
+         _mappedReader.close();
+         _mappedReader = new DKMappedLineReader(_file, _literalDelimiter,
+            Charset.defaultCharset(), DKMappedLineReader.DEFAULT_WINDOW_SIZE,
+            resumePoint._offset, -1);
+      }
+      else {
+         for (long i = 0; i < resumePoint._rowCount; i++) {
+            boolean skipped = _isSorted ? this.skipRow() : (this.getNextSortedRow() != null);
+            if (!skipped)
+               throw new DKUserException(String.format(
+                  "file [%s] has fewer rows than its checkpoint->%s", _file, resumePoint));
+         }
+      }
+      _lastIndex = resumePoint._rowCount - 1;
+   }
+
+   /**
+    * reads past the next row, parsing it only if it comes from the chunked
+    * parser
+    * 
+    * @return false at EOF
+    */
+   private boolean skipRow() throws IOException {
+      if (_chunkedParser != null)
+         return (_chunkedParser.next() != null);
+      return (this.readLine() != null);
+   }
+
+   /**
+    * @return null only when EOF is reached
+    */
+   private Object[] readRow() throws IOException {
+      return this.readRow(null);
+   }
+
+   /**
+    * @param buffer_
+    *           filled, if it is non-null and of the read width, and rows are
+    *           not coming from the chunked parser
+    */
+   private Object[] readRow(Object[] buffer_) throws IOException {
+      if (_chunkedParser != null)
+         return _chunkedParser.next();
+      if ((buffer_ != null) && (buffer_.length != this.getReadColumns().length))
+         buffer_ = null;
+      if (_mappedReader != null)
+         return this.readMappedRow(buffer_);
       String line = this.readLine();
       if (line == null)
          return null;
+      return this.createRow(line, buffer_);
+   }
+
+   private Object[] readMappedRow(Object[] buffer_) throws IOException {
+      if (!_mappedReader.nextLine())
+         return null;
+      DKColumnModel[] readColumns = this.getReadColumns();
+      int fieldCount = _mappedReader.scanFields();
+      // let createRow() report the mismatch
+      if (fieldCount != this.getFieldCount())
+         return this.createRow(_mappedReader.getLine(), null);
+      if (_parseKinds == null) {
+         _parseKinds = DKMappedLineReader.getParseKinds(readColumns);
+         _log.info("parseKinds->{}", Arrays.toString(_parseKinds));
+      }
+      try {
+         if (buffer_ == null)
+            return _mappedReader.parseRow(_readFieldIdxs, readColumns, _parseKinds);
+         return _mappedReader.parseRow(_readFieldIdxs, readColumns, _parseKinds, buffer_);
+      }
+      catch (ParseException e_) {
+         _log.error(null, e_);
+         throw new RuntimeException(e_);
+      }
+   }
+
+   private Object[] getNextSortedRow() throws IOException {
+      if (_sortedRows == null)
+         _sortedRows = this.sortRows();
+      if (!_sortedRows.hasNext())
+         return null;
       _lastIndex++;
-      return createRow(line);
+      return _sortedRows.next();
+   }
+
+   /**
+    * reads the remainder of the file into an external sort, ordered by the
+    * model key
+    */
+   private Iterator<Object[]> sortRows() throws IOException {
+      _sorter = new DKExternalRowSorter(DKTableModelUtil.createKeyComparator(this.getModel()),
+         _sortMemoryBudget, _sortTempDir, Runtime.getRuntime().availableProcessors());
+      _log.info("sorter->{}", _sorter);
+      for (Object[] row = this.readRow(); row != null; row = this.readRow())
+         _sorter.add(row);
+      return _sorter.sort();
    }
 
    /**
@@ -211,6 +625,8 @@ public class DKFileSource implements DKSource {
     * @return null only when EOF is reached
     */
    private String readLine() throws IOException {
+      if (_mappedReader != null)
+         return _mappedReader.readLine();
       while (true) {
          String line = _lineReader.readLine();
          if (line == null)
@@ -221,17 +637,23 @@ public class DKFileSource implements DKSource {
       }
    }
 
-   private Object[] createRow(String line_) throws IOException {
+   /**
+    * @param buffer_
+    *           null, or an array of the read width to fill
+    */
+   private Object[] createRow(String line_, Object[] buffer_) throws IOException {
       if (line_ == null)
          return null;
-      String[] strings = line_.split(_delimiter, -1);
       DKColumnModel[] readColumns = this.getReadColumns();
-      if (strings.length != readColumns.length + _headerBlankColumnCount)
+      String[] strings = this.splitReadFields(line_);
+      if (strings == null) {
+         String[] fields = line_.split(_delimiter, -1);
          throw new RuntimeException(String.format(
             "columnCount->%s in row->%s does not match modelled table->%s",
-            strings.length, Arrays.toString(strings), _model));
+            fields.length, Arrays.toString(fields), _model));
+      }
       try {
-         Object[] row = new Object[readColumns.length];
+         Object[] row = (buffer_ != null) ? buffer_ : new Object[readColumns.length];
          for (int i = 0; i < readColumns.length; i++) {
             row[i] = readColumns[i].parseObject(strings[i]);
          }
@@ -243,6 +665,54 @@ public class DKFileSource implements DKSource {
       }
    }
 
+   /**
+    * @return the text of just the read fields, in read column order; null if
+    *         line_ does not have the modelled number of fields
+    */
+   private String[] splitReadFields(String line_) {
+      if (_readFieldIdxs == null) {
+         String[] fields = line_.split(_delimiter, -1);
+         return (fields.length == this.getFieldCount()) ? fields : null;
+      }
+      if ((_literalDelimiter == null) && (_delimiterMatcher == null))
+         _delimiterMatcher = Pattern.compile(_delimiter).matcher(line_);
+      else if (_literalDelimiter == null)
+         _delimiterMatcher.reset(line_);
+      String[] fields = new String[_readFieldIdxs.length];
+      int fieldCount = 0;
+      int readCount = 0;
+      int fieldStart = 0;
+      while (true) {
+         int fieldEnd = -1;
+         int nextFieldStart = -1;
+         if (_literalDelimiter != null) {
+            fieldEnd = line_.indexOf(_literalDelimiter, fieldStart);
+            nextFieldStart = fieldEnd + _literalDelimiter.length();
+         }
+         else if (_delimiterMatcher.find()) {
+            fieldEnd = _delimiterMatcher.start();
+            nextFieldStart = _delimiterMatcher.end();
+         }
+         boolean isLast = (fieldEnd < 0);
+         if ((readCount < fields.length) && (_readFieldIdxs[readCount] == fieldCount))
+            fields[readCount++] = isLast ? line_.substring(fieldStart) : line_.substring(
+               fieldStart, fieldEnd);
+         fieldCount++;
+         if (isLast)
+            break;
+         fieldStart = nextFieldStart;
+      }
+      return (fieldCount == this.getFieldCount()) ? fields : null;
+   }
+
+   /**
+    * @return the number of fields in every line of the file, whether read or
+    *         not
+    */
+   private int getFieldCount() {
+      return this.getFileModel().getColumns().length + _headerBlankColumnCount;
+   }
+
    private DKColumnModel[] getReadColumns() {
       if (_readColumns != null)
          return _readColumns;
@@ -260,8 +730,23 @@ public class DKFileSource implements DKSource {
    // @Override
    public void close(DKContext context_) throws IOException {
       this.ensureOpen();
-      _lineReader.close();
+      if (_fetchTimer != null)
+         _fetchTimer.flush();
+      _fetchTimer = null;
+      if (_lineReader != null)
+         _lineReader.close();
       _lineReader = null;
+      if (_mappedReader != null)
+         _mappedReader.close();
+      _mappedReader = null;
+      if (_chunkedParser != null)
+         _chunkedParser.close();
+      _chunkedParser = null;
+      _parseKinds = null;
+      if (_sorter != null)
+         _sorter.close();
+      _sorter = null;
+      _sortedRows = null;
       _isOpen = false;
    }
 
@@ -272,7 +757,13 @@ public class DKFileSource implements DKSource {
 
    // @Override
    public void open(DKContext context_) throws IOException {
+      DKFlightRecorder.Event event = DKFlightRecorder
+         .begin(DKFlightRecorder.EventKind.SOURCE_OPEN);
       this.open();
+      long contextId = DKFlightRecorder.getContextId(context_);
+      _fetchTimer = DKFlightRecorder.createFetchTimer(contextId, this.toString(),
+         DKFlightRecorder.DEFAULT_FETCH_BATCH_SIZE);
+      event.commit(contextId, this, this.getKind());
    }
 
    private void open() throws IOException {
@@ -280,8 +771,38 @@ public class DKFileSource implements DKSource {
          return;
       _isOpen = true;
       this.validateFile();
-      _lineReader = new LineNumberReader(new BufferedReader(new FileReader(_file)));
+      _mappedReader = this.createMappedReader();
+      if (_mappedReader == null)
+         _lineReader = new LineNumberReader(new BufferedReader(new FileReader(_file)));
       this.readHeader();
+      if ((_mappedReader == null) || (_parseThreadCount < 2))
+         return;
+      DKColumnModel[] readColumns = this.getReadColumns();
+      _chunkedParser = new DKChunkedLineParser(_file, _literalDelimiter,
+         Charset.defaultCharset(), _mappedReader.getOffset(), this.getModel(),
+         readColumns, _readFieldIdxs, this.getFieldCount(), _parseThreadCount,
+         DKChunkedLineParser.DEFAULT_CHUNK_SIZE);
+      _log.info("chunkedParser->{}", _chunkedParser);
+      // the header was all that it was needed for
+      _mappedReader.close();
+      _mappedReader = null;
+   }
+
+   /**
+    * @return null if not _memoryMapped, or if the file can't be mapped
+    */
+   private DKMappedLineReader createMappedReader() throws IOException {
+      if (!_memoryMapped)
+         return null;
+      Charset charset = Charset.defaultCharset();
+      if ((_literalDelimiter == null) || !DKMappedLineReader.isSupported(charset)) {
+         _log.warn(
+            "can't memory map with delimiter->{} and charset->{}; reading lines instead",
+            _delimiter, charset);
+         return null;
+      }
+      return new DKMappedLineReader(_file, _literalDelimiter, charset,
+         DKMappedLineReader.DEFAULT_WINDOW_SIZE);
    }
 
    private void readHeader() throws IOException {
@@ -295,4 +816,29 @@ public class DKFileSource implements DKSource {
       if (!_isOpen)
          throw new RuntimeException("not open!");
    }
+
+   private static class ResumePoint implements Serializable {
+      private static final long serialVersionUID = 1L;
+
+      private final long _rowCount;
+      /**
+       * -1 means unknown
+       */
+      private final long _offset;
+      /**
+       * to detect a file that was changed between runs
+       */
+      private final long _fileLength;
+
+      private ResumePoint(long rowCount_, long offset_, long fileLength_) {
+         _rowCount = rowCount_;
+         _offset = offset_;
+         _fileLength = fileLength_;
+      }
+
+      public String toString() {
+         return String.format("%s[rowCount=%s, offset=%s]",
+            ClassUtils.getShortClassName(this.getClass()), _rowCount, _offset);
+      }
+   }
 }
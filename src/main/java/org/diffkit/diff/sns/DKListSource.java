@@ -25,13 +25,14 @@ import org.diffkit.common.DKValidate;
 import org.diffkit.diff.engine.DKContext;
 import org.diffkit.diff.engine.DKSource;
 import org.diffkit.diff.engine.DKTableModel;
+import org.diffkit.diff.engine.DKUnorderedSource;
 import org.diffkit.util.DKObjectUtil;
 import org.diffkit.util.DKStringUtil;
 
 /**
  * @author jpanico
  */
-public class DKListSource implements DKSource {
+public class DKListSource implements DKUnorderedSource {
 
    private final DKTableModel _model;
    private final List<Object[]> _rows;
@@ -63,6 +64,14 @@ public class DKListSource implements DKSource {
       return _iterator.next();
    }
 
+   public long estimateRowCount() {
+      return (_rows == null) ? 0 : _rows.size();
+   }
+
+   public DKSource createUnordered() {
+      return new DKListSource(_model, _rows);
+   }
+
    public URI getURI() {
       return DKStringUtil.createURI(String.format("heap://%s",
          DKObjectUtil.getAddressHexString(this)));
@@ -0,0 +1,470 @@
+/**
+ * Copyright 2010-2011 Joseph Panico
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.diffkit.diff.sns;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.text.ParseException;
+
+import org.apache.commons.lang.ClassUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.diffkit.common.DKValidate;
+import org.diffkit.common.annot.NotThreadSafe;
+import org.diffkit.diff.engine.DKColumnModel;
+
+/**
+ * Reads a delimited text file through a sliding memory mapped window, and
+ * parses fields directly from the mapped bytes. Lines are found, trimmed, and
+ * split by scanning bytes; a field only becomes a String if its column is a
+ * string column, or if its value is not one that the byte parsers can handle
+ * exactly (in which case the field falls back to DKColumnModel.parseObject()).
+ * Numeric columns whose Format is a plain DecimalFormat are parsed straight to
+ * the same Long or Double that DecimalFormat would produce.
+ * <p>
+ * Can be confined to a byte range of the file, which must begin and end on
+ * line boundaries; see DKChunkedLineParser. Requires an ASCII compatible
+ * charset (e.g. US-ASCII, ISO-8859-1, UTF-8) and a literal (not regex)
+ * delimiter; see isSupported().
+ *
+ * @author jpanico
+ */
+@NotThreadSafe
+public class DKMappedLineReader {
+   public static final int DEFAULT_WINDOW_SIZE = 64 * 1024 * 1024;
+
+   /**
+    * how a column's fields are parsed; determined once per column by
+    * getParseKind()
+    */
+   public enum ParseKind {
+      STRING, NUMBER, FORMAT
+   }
+
+   private static final char[] REGEX_META_CHARS = "\\^$.|?*+()[]{}".toCharArray();
+   private static final double[] POWERS_OF_TEN = new double[23];
+   /**
+    * largest mantissa that converts to a double exactly
+    */
+   private static final long MAX_EXACT_MANTISSA = 1L << 53;
+   private static final int MAX_MANTISSA_DIGITS = 18;
+
+   static {
+      POWERS_OF_TEN[0] = 1;
+      for (int i = 1; i < POWERS_OF_TEN.length; i++)
+         POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+   }
+
+   private final File _file;
+   private final byte[] _delimiter;
+   private final Charset _charset;
+   private final int _windowSize;
+   private final RandomAccessFile _randomAccessFile;
+   private final FileChannel _channel;
+   // exclusive
+   private final long _endOffset;
+   private MappedByteBuffer _buffer;
+   private long _windowStart;
+   private int _position;
+   private int _lineStart;
+   private int _lineEnd;
+   private int[] _fieldStarts = new int[64];
+   private int[] _fieldEnds = new int[64];
+   private int _fieldCount;
+   private byte[] _scratch = new byte[256];
+   private final Logger _log = LoggerFactory.getLogger(this.getClass());
+
+   /**
+    * @param delimiter_
+    *           literal delimiter; use toLiteral() to convert from a regex
+    */
+   public DKMappedLineReader(File file_, String delimiter_, Charset charset_,
+                             int windowSize_) throws IOException {
+      this(file_, delimiter_, charset_, windowSize_, 0, -1);
+   }
+
+   /**
+    * @param startOffset_
+    *           inclusive
+    * @param endOffset_
+    *           exclusive; -1 means the end of the file
+    */
+   public DKMappedLineReader(File file_, String delimiter_, Charset charset_,
+                             int windowSize_, long startOffset_, long endOffset_)
+      throws IOException {
+      _file = file_;
+      _charset = charset_;
+      _windowSize = windowSize_;
+      DKValidate.notNull(_file, delimiter_, _charset);
+      if (!isSupported(_charset))
+         throw new IllegalArgumentException(String.format(
+            "charset_->%s is not ASCII compatible", charset_));
+      if ((delimiter_.length() == 0) || (_windowSize < 1))
+         throw new IllegalArgumentException(String.format(
+            "invalid delimiter_->%s or windowSize_->%s", delimiter_, windowSize_));
+      _delimiter = delimiter_.getBytes(_charset.name());
+      _randomAccessFile = new RandomAccessFile(_file, "r");
+      _channel = _randomAccessFile.getChannel();
+      _endOffset = (endOffset_ < 0) ? _channel.size() : Math.min(endOffset_,
+         _channel.size());
+      this.map(Math.min(startOffset_, _endOffset));
+   }
+
+   /**
+    * @return true if a file in charset_ can be scanned bytewise for the ASCII
+    *         line terminators, whitespace, and delimiters
+    */
+   public static boolean isSupported(Charset charset_) {
+      if (charset_ == null)
+         return false;
+      String probe = "\r\n\t ,;|:~0123456789.-";
+      try {
+         byte[] bytes = probe.getBytes(charset_.name());
+         if (bytes.length != probe.length())
+            return false;
+         for (int i = 0; i < bytes.length; i++) {
+            if (bytes[i] != probe.charAt(i))
+               return false;
+         }
+         return true;
+      }
+      catch (IOException e_) {
+         return false;
+      }
+   }
+
+   /**
+    * @return the literal string matched by regex_, or null if regex_ is not a
+    *         plain (possibly escaped) literal
+    */
+   public static String toLiteral(String regex_) {
+      if ((regex_ == null) || (regex_.length() == 0))
+         return null;
+      if (regex_.startsWith("\\Q") && regex_.endsWith("\\E")
+         && (regex_.indexOf("\\E") == regex_.length() - 2))
+         return (regex_.length() == 4) ? null : regex_.substring(2, regex_.length() - 2);
+      StringBuilder builder = new StringBuilder(regex_.length());
+      for (int i = 0; i < regex_.length(); i++) {
+         char c = regex_.charAt(i);
+         if (c != '\\') {
+            if (isRegexMetaChar(c))
+               return null;
+            builder.append(c);
+            continue;
+         }
+         if (++i == regex_.length())
+            return null;
+         char escaped = regex_.charAt(i);
+         if (escaped == 't')
+            builder.append('\t');
+         else if (isRegexMetaChar(escaped) || (",;:~-_/#@!%&='\"<> ".indexOf(escaped) >= 0))
+            builder.append(escaped);
+         else
+            return null;
+      }
+      return builder.toString();
+   }
+
+   private static boolean isRegexMetaChar(char c_) {
+      for (char meta : REGEX_META_CHARS) {
+         if (c_ == meta)
+            return true;
+      }
+      return false;
+   }
+
+   /**
+    * NUMBER only for a DecimalFormat that parses plain, unadorned, decimal
+    * numbers in the '.' notation; anything else keeps the Format
+    */
+   public static ParseKind getParseKind(DKColumnModel column_) {
+      if (column_._format == null)
+         return ParseKind.STRING;
+      if (!(column_._format instanceof DecimalFormat))
+         return ParseKind.FORMAT;
+      DecimalFormat format = (DecimalFormat) column_._format;
+      DecimalFormatSymbols symbols = format.getDecimalFormatSymbols();
+      boolean isPlain = "".equals(format.getPositivePrefix())
+         && "".equals(format.getPositiveSuffix()) && "".equals(format.getNegativeSuffix())
+         && "-".equals(format.getNegativePrefix()) && (format.getMultiplier() == 1)
+         && !format.isParseBigDecimal() && !format.isParseIntegerOnly()
+         && (symbols.getDecimalSeparator() == '.') && (symbols.getMinusSign() == '-')
+         && (symbols.getGroupingSeparator() != '.');
+      return isPlain ? ParseKind.NUMBER : ParseKind.FORMAT;
+   }
+
+   public File getFile() {
+      return _file;
+   }
+
+   /**
+    * @return file offset of the first byte that has not yet been read
+    */
+   public long getOffset() {
+      return _windowStart + _position;
+   }
+
+   /**
+    * advances to the next non-blank line, and trims it
+    *
+    * @return false at EOF
+    */
+   public boolean nextLine() throws IOException {
+      while (true) {
+         int limit = _buffer.limit();
+         int end = _position;
+         while ((end < limit) && (_buffer.get(end) != '\n') && (_buffer.get(end) != '\r'))
+            end++;
+         if ((end == limit) && (_windowStart + limit < _endOffset)) {
+            // the line crosses the end of the window
+            if (_position == 0)
+               throw new RuntimeException(String.format(
+                  "line at offset->%s is longer than windowSize->%s", _windowStart,
+                  _windowSize));
+            this.map(_windowStart + _position);
+            continue;
+         }
+         if ((end == limit) && (_position == limit))
+            return false;
+         int start = _position;
+         _position = Math.min(end + 1, limit);
+         if ((end < limit) && (_buffer.get(end) == '\r') && (_position < limit)
+            && (_buffer.get(_position) == '\n'))
+            _position++;
+         while ((start < end) && ((_buffer.get(start) & 0xff) <= ' '))
+            start++;
+         while ((end > start) && ((_buffer.get(end - 1) & 0xff) <= ' '))
+            end--;
+         if (start == end)
+            continue;
+         _lineStart = start;
+         _lineEnd = end;
+         _fieldCount = -1;
+         return true;
+      }
+   }
+
+   /**
+    * @return the current line, as a String; null at EOF
+    */
+   public String readLine() throws IOException {
+      if (!this.nextLine())
+         return null;
+      return this.getLine();
+   }
+
+   /**
+    * the current line, as a String
+    */
+   public String getLine() {
+      return this.decode(_lineStart, _lineEnd);
+   }
+
+   /**
+    * splits the current line on the delimiter, without materializing anything
+    *
+    * @return number of fields in the current line
+    */
+   public int scanFields() {
+      int count = 0;
+      int fieldStart = _lineStart;
+      int last = _lineEnd - _delimiter.length;
+      byte first = _delimiter[0];
+      for (int i = _lineStart; i <= last; i++) {
+         if ((_buffer.get(i) != first) || !this.isDelimiterAt(i))
+            continue;
+         this.addField(count++, fieldStart, i);
+         i += _delimiter.length - 1;
+         fieldStart = i + 1;
+      }
+      this.addField(count++, fieldStart, _lineEnd);
+      _fieldCount = count;
+      return count;
+   }
+
+   /**
+    * @return the value of field_ in the current line, exactly as
+    *         column_.parseObject() would have returned it for the field's text
+    */
+   public Object parseField(int field_, DKColumnModel column_, ParseKind kind_)
+      throws ParseException {
+      if ((field_ < 0) || (field_ >= _fieldCount))
+         throw new IndexOutOfBoundsException(String.format(
+            "field_->%s fieldCount->%s", field_, _fieldCount));
+      int start = _fieldStarts[field_];
+      int end = _fieldEnds[field_];
+      if (start == end)
+         return null;
+      if (kind_ == ParseKind.STRING)
+         return this.decode(start, end);
+      if (kind_ == ParseKind.NUMBER) {
+         Object number = this.parseNumber(start, end);
+         if (number != null)
+            return number;
+      }
+      return column_.parseObject(this.decode(start, end));
+   }
+
+   /**
+    * parses the fields of the current line, after scanFields(); the other
+    * fields are never decoded
+    * 
+    * @param fieldIdxs_
+    *           the field that each of columns_ is parsed from; null means
+    *           columns_ map one to one onto the leading fields
+    */
+   public Object[] parseRow(int[] fieldIdxs_, DKColumnModel[] columns_, ParseKind[] kinds_)
+      throws ParseException {
+      return this.parseRow(fieldIdxs_, columns_, kinds_, new Object[columns_.length]);
+   }
+
+   /**
+    * fills row_, which must have columns_.length elements
+    * 
+    * @return row_
+    */
+   public Object[] parseRow(int[] fieldIdxs_, DKColumnModel[] columns_,
+                            ParseKind[] kinds_, Object[] row_) throws ParseException {
+      for (int i = 0; i < columns_.length; i++)
+         row_[i] = this.parseField((fieldIdxs_ == null) ? i : fieldIdxs_[i], columns_[i],
+            kinds_[i]);
+      return row_;
+   }
+
+   /**
+    * @return all of the fields of the current line, as Strings, after
+    *         scanFields(); for diagnostics
+    */
+   public String[] getFields() {
+      String[] fields = new String[_fieldCount];
+      for (int i = 0; i < _fieldCount; i++)
+         fields[i] = this.decode(_fieldStarts[i], _fieldEnds[i]);
+      return fields;
+   }
+
+   public static ParseKind[] getParseKinds(DKColumnModel[] columns_) {
+      ParseKind[] kinds = new ParseKind[columns_.length];
+      for (int i = 0; i < columns_.length; i++)
+         kinds[i] = getParseKind(columns_[i]);
+      return kinds;
+   }
+
+   public void close() throws IOException {
+      _buffer = null;
+      _channel.close();
+      _randomAccessFile.close();
+   }
+
+   /**
+    * handles [-]digits[.digits], with at most MAX_MANTISSA_DIGITS significant
+    * digits; the result matches DecimalFormat: Long if integral, else Double
+    *
+    * @return null if the field needs the general parse
+    */
+   private Object parseNumber(int start_, int end_) {
+      int i = start_;
+      boolean isNegative = (_buffer.get(i) == '-');
+      if (isNegative)
+         i++;
+      long mantissa = 0;
+      int digitCount = 0;
+      int scale = 0;
+      boolean sawPoint = false;
+      boolean sawDigit = false;
+      for (; i < end_; i++) {
+         byte b = _buffer.get(i);
+         if ((b >= '0') && (b <= '9')) {
+            sawDigit = true;
+            if (sawPoint)
+               scale++;
+            if ((mantissa == 0) && (b == '0'))
+               continue;
+            if (++digitCount > MAX_MANTISSA_DIGITS)
+               return null;
+            mantissa = (mantissa * 10) + (b - '0');
+         }
+         else if ((b == '.') && !sawPoint)
+            sawPoint = true;
+         else
+            return null;
+      }
+      if (!sawDigit)
+         return null;
+      while ((scale > 0) && (mantissa % 10 == 0)) {
+         mantissa /= 10;
+         scale--;
+      }
+      if (mantissa == 0)
+         return isNegative ? (Object) Double.valueOf(-0.0d) : (Object) Long.valueOf(0);
+      if (scale == 0)
+         return Long.valueOf(isNegative ? -mantissa : mantissa);
+      if ((scale >= POWERS_OF_TEN.length) || (mantissa > MAX_EXACT_MANTISSA))
+         return null;
+      // both operands are exact, so the quotient is correctly rounded
+      double value = mantissa / POWERS_OF_TEN[scale];
+      return Double.valueOf(isNegative ? -value : value);
+   }
+
+   private boolean isDelimiterAt(int index_) {
+      for (int i = 1; i < _delimiter.length; i++) {
+         if (_buffer.get(index_ + i) != _delimiter[i])
+            return false;
+      }
+      return true;
+   }
+
+   private void addField(int field_, int start_, int end_) {
+      if (field_ == _fieldStarts.length) {
+         int[] fieldStarts = new int[field_ * 2];
+         int[] fieldEnds = new int[field_ * 2];
+         System.arraycopy(_fieldStarts, 0, fieldStarts, 0, field_);
+         System.arraycopy(_fieldEnds, 0, fieldEnds, 0, field_);
+         _fieldStarts = fieldStarts;
+         _fieldEnds = fieldEnds;
+      }
+      _fieldStarts[field_] = start_;
+      _fieldEnds[field_] = end_;
+   }
+
+   private String decode(int start_, int end_) {
+      int length = end_ - start_;
+      if (_scratch.length < length)
+         _scratch = new byte[Math.max(length, _scratch.length * 2)];
+      _buffer.position(start_);
+      _buffer.get(_scratch, 0, length);
+      return new String(_scratch, 0, length, _charset);
+   }
+
+   private void map(long windowStart_) throws IOException {
+      _windowStart = windowStart_;
+      long size = Math.min(_windowSize, _endOffset - _windowStart);
+      _buffer = _channel.map(FileChannel.MapMode.READ_ONLY, _windowStart, size);
+      _position = 0;
+      _log.debug("windowStart->{} size->{}", _windowStart, size);
+   }
+
+   public String toString() {
+      return String.format("%s[%s, windowSize=%s]",
+         ClassUtils.getShortClassName(this.getClass()), _file, _windowSize);
+   }
+}
@@ -0,0 +1,317 @@
+/**
+ * Copyright 2010-2011 Joseph Panico
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.diffkit.diff.sns;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang.ClassUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.diffkit.common.DKValidate;
+import org.diffkit.common.annot.NotThreadSafe;
+import org.diffkit.diff.engine.DKContext;
+import org.diffkit.diff.engine.DKPartitionableSource;
+import org.diffkit.diff.engine.DKRowHashSource;
+import org.diffkit.diff.engine.DKRowHasher;
+import org.diffkit.diff.engine.DKSource;
+import org.diffkit.diff.engine.DKTableModel;
+import org.diffkit.diff.engine.DKUnorderedSource;
+
+/**
+ * Wraps another DKSource and reads (and parses) its rows on a dedicated
+ * background thread, so that fetching/parsing on each side overlaps with the
+ * comparison in the merge loop. Rows are handed over in batches of batchSize
+ * through a bounded buffer that holds at most depth batches; the reader blocks
+ * when the buffer is full.
+ * <p>
+ * The underlying source is opened, read, and closed entirely through this
+ * wrapper; it must not be used directly while the wrapper is open. If the
+ * underlying source is a DKPartitionableSource, each partition is pipelined as
+ * well; likewise for the unordered copy of a DKUnorderedSource. Row hashes are
+ * taken from the underlying source when it is a DKRowHashSource, otherwise
+ * they are computed on the background thread.
+ *
+ * @author jpanico
+ */
+@NotThreadSafe
+public class DKPipelinedSource implements DKPartitionableSource, DKUnorderedSource,
+   DKRowHashSource {
+   public static final int DEFAULT_DEPTH = 4;
+   public static final int DEFAULT_BATCH_SIZE = 500;
+
+   private static final Batch END = new Batch(null, null, 0, null);
+   // how long the reader waits on a full buffer before checking for halt
+   private static final long OFFER_TIMEOUT_MILLIS = 100;
+
+   private final DKSource _source;
+   private final int _depth;
+   private final int _batchSize;
+   private DKRowHasher _rowHasher;
+   /**
+    * true if _source computes the row hashes itself
+    */
+   private boolean _sourceHashes;
+   private transient long _rowHash;
+   private transient BlockingQueue<Batch> _buffer;
+   private transient Reader _reader;
+   private transient Batch _batch;
+   private transient int _batchIndex;
+   private transient long _lastIndex;
+   private transient boolean _isOpen;
+   private final Logger _log = LoggerFactory.getLogger(this.getClass());
+
+   public DKPipelinedSource(DKSource source_) {
+      this(source_, DEFAULT_DEPTH, DEFAULT_BATCH_SIZE);
+   }
+
+   public DKPipelinedSource(DKSource source_, int depth_, int batchSize_) {
+      _source = source_;
+      _depth = depth_;
+      _batchSize = batchSize_;
+      DKValidate.notNull(_source);
+      if (_depth < 1)
+         throw new IllegalArgumentException(String.format("invalid depth_->%s", depth_));
+      if (_batchSize < 1)
+         throw new IllegalArgumentException(String.format("invalid batchSize_->%s",
+            batchSize_));
+   }
+
+   public DKSource getSource() {
+      return _source;
+   }
+
+   public int getDepth() {
+      return _depth;
+   }
+
+   public int getBatchSize() {
+      return _batchSize;
+   }
+
+   public DKTableModel getModel() {
+      return _source.getModel();
+   }
+
+   public URI getURI() throws IOException {
+      return _source.getURI();
+   }
+
+   public Kind getKind() {
+      return _source.getKind();
+   }
+
+   public long getLastIndex() {
+      return _lastIndex;
+   }
+
+   public void open(DKContext context_) throws IOException {
+      this.ensureNotOpen();
+      _source.open(context_);
+      _buffer = new ArrayBlockingQueue<Batch>(_depth);
+      _batch = null;
+      _batchIndex = 0;
+      _lastIndex = -1;
+      _reader = new Reader(String.format("%s-%s",
+         ClassUtils.getShortClassName(this.getClass()), _source.getURI()));
+      _reader.start();
+      _isOpen = true;
+   }
+
+   public void close(DKContext context_) throws IOException {
+      this.ensureOpen();
+      _reader.halt();
+      try {
+         _reader.join();
+      }
+      catch (InterruptedException e_) {
+         Thread.currentThread().interrupt();
+      }
+      _reader = null;
+      _buffer = null;
+      _batch = null;
+      _isOpen = false;
+      _source.close(context_);
+   }
+
+   public Object[] getNextRow() throws IOException {
+      this.ensureOpen();
+      if ((_batch == null) || (_batchIndex >= _batch._size)) {
+         if (_batch == END)
+            return null;
+         _batch = this.takeBatch();
+         _batchIndex = 0;
+         if (_batch == END)
+            return null;
+      }
+      _lastIndex++;
+      if (_batch._hashes != null)
+         _rowHash = _batch._hashes[_batchIndex];
+      Object[] row = _batch._rows[_batchIndex];
+      _batch._rows[_batchIndex++] = null;
+      return row;
+   }
+
+   public boolean setRowHasher(DKRowHasher hasher_) {
+      this.ensureNotOpen();
+      _rowHasher = hasher_;
+      _sourceHashes = (_source instanceof DKRowHashSource)
+         && ((DKRowHashSource) _source).setRowHasher(hasher_) && (hasher_ != null);
+      return true;
+   }
+
+   public long getRowHash() {
+      return _rowHash;
+   }
+
+   private Batch takeBatch() throws IOException {
+      Batch batch = null;
+      try {
+         batch = _buffer.take();
+      }
+      catch (InterruptedException e_) {
+         Thread.currentThread().interrupt();
+         throw new RuntimeException(e_);
+      }
+      if (batch._error == null)
+         return batch;
+      _buffer.offer(batch);
+      if (batch._error instanceof IOException)
+         throw (IOException) batch._error;
+      if (batch._error instanceof RuntimeException)
+         throw (RuntimeException) batch._error;
+      throw new RuntimeException(batch._error);
+   }
+
+   public Object[] getPartitionBoundaries(int partitionCount_) throws IOException {
+      if (!(_source instanceof DKPartitionableSource))
+         return null;
+      return ((DKPartitionableSource) _source).getPartitionBoundaries(partitionCount_);
+   }
+
+   public DKSource createPartition(Object lowerBound_, Object upperBound_)
+      throws IOException {
+      if (!(_source instanceof DKPartitionableSource))
+         throw new UnsupportedOperationException(String.format(
+            "source->%s is not partitionable", _source));
+      return new DKPipelinedSource(((DKPartitionableSource) _source).createPartition(
+         lowerBound_, upperBound_), _depth, _batchSize);
+   }
+
+   public long estimateRowCount() throws IOException {
+      if (!(_source instanceof DKUnorderedSource))
+         return -1;
+      return ((DKUnorderedSource) _source).estimateRowCount();
+   }
+
+   public DKSource createUnordered() throws IOException {
+      if (!(_source instanceof DKUnorderedSource))
+         return new DKPipelinedSource(_source, _depth, _batchSize);
+      return new DKPipelinedSource(((DKUnorderedSource) _source).createUnordered(),
+         _depth, _batchSize);
+   }
+
+   public String toString() {
+      return String.format("%s[%s, depth=%s, batchSize=%s]",
+         ClassUtils.getShortClassName(this.getClass()), _source, _depth, _batchSize);
+   }
+
+   private void ensureOpen() {
+      if (!_isOpen)
+         throw new RuntimeException("not open!");
+   }
+
+   private void ensureNotOpen() {
+      if (_isOpen)
+         throw new RuntimeException("already open!");
+   }
+
+   private static class Batch {
+      private final Object[][] _rows;
+      // null if rows are not hashed
+      private final long[] _hashes;
+      private final int _size;
+      private final Throwable _error;
+
+      private Batch(Object[][] rows_, long[] hashes_, int size_, Throwable error_) {
+         _rows = rows_;
+         _hashes = hashes_;
+         _size = size_;
+         _error = error_;
+      }
+   }
+
+   private class Reader extends Thread {
+      private volatile boolean _isHalted;
+
+      private Reader(String name_) {
+         super(name_);
+         this.setDaemon(true);
+      }
+
+      public void run() {
+         try {
+            while (!_isHalted) {
+               Object[][] rows = new Object[_batchSize][];
+               long[] hashes = (_rowHasher == null) ? null : new long[_batchSize];
+               int size = 0;
+               while (size < _batchSize) {
+                  Object[] row = _source.getNextRow();
+                  if (row == null)
+                     break;
+                  if (hashes != null)
+                     hashes[size] = _sourceHashes ? ((DKRowHashSource) _source).getRowHash()
+                        : _rowHasher.hash(row);
+                  rows[size++] = row;
+               }
+               if ((size > 0) && !this.put(new Batch(rows, hashes, size, null)))
+                  return;
+               if (size < _batchSize) {
+                  this.put(END);
+                  return;
+               }
+            }
+         }
+         catch (Throwable e_) {
+            _log.error(null, e_);
+            _buffer.clear();
+            _buffer.offer(new Batch(null, null, 0, e_));
+         }
+      }
+
+      /**
+       * @return false if halted before batch_ could be buffered
+       */
+      private boolean put(Batch batch_) throws InterruptedException {
+         while (!_buffer.offer(batch_, OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+            if (_isHalted)
+               return false;
+         }
+         return true;
+      }
+
+      /**
+       * does not interrupt; some drivers do not tolerate interrupts during I/O
+       */
+      private void halt() {
+         _isHalted = true;
+      }
+   }
+}
@@ -25,11 +25,11 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.collections.FactoryUtils;
@@ -60,7 +60,12 @@ import org.diffkit.util.DKStreamUtil;
 public class DKPoiSheet extends DKAbstractSheet {
 
    public static final String[] HANDLED_FILE_EXTENSIONS = { "xls", "xlsx" };
-   private static final Map<Integer, Type> _numericCellTypes = new HashMap<Integer, Type>();
+   /**
+    * format indexes below this are builtin, the same in every workbook;
+    * indexes at or above it are defined per workbook, so cannot be cached
+    */
+   private static final int FIRST_USER_DEFINED_FORMAT = 164;
+   private static final Map<Integer, Type> _numericCellTypes = new ConcurrentHashMap<Integer, Type>();
    private static final Logger LOG = LoggerFactory.getLogger(DKPoiSheet.class);
    private static final boolean IS_DEBUG_ENABLED = LOG.isDebugEnabled();
 
@@ -277,12 +282,24 @@ public class DKPoiSheet extends DKAbstractSheet {
          LOG.debug("cell_->{}", cell_);
       if (cell_ == null)
          return null;
-      int formatNumber = cell_.getCellStyle().getDataFormat();
+      return getTypeForNumericFormat(cell_.getCellStyle().getDataFormat(),
+         cell_.getCellStyle().getDataFormatString());
+   }
+
+   /**
+    * guaranteed to not return null-- defaults to DECIMAL as last resort
+    * 
+    * @param formatNumber_
+    *           the index of the cell's data format; results are cached by it
+    * @param dataFormatString_
+    *           the cell's data format string
+    */
+   static Type getTypeForNumericFormat(int formatNumber_, String dataFormatString_) {
       // try to get it from the cache
-      Type type = _numericCellTypes.get(formatNumber);
+      Type type = _numericCellTypes.get(formatNumber_);
       if (type != null)
          return type;
-      String dataFormatString = cell_.getCellStyle().getDataFormatString();
+      String dataFormatString = dataFormatString_;
       if (IS_DEBUG_ENABLED)
          LOG.debug("dataFormatString->{}", dataFormatString);
       type = mapTypeForFormatString(dataFormatString);
@@ -291,7 +308,8 @@ public class DKPoiSheet extends DKAbstractSheet {
       if (type == null)
          type = Type.DECIMAL;
       // cache calculated value
-      _numericCellTypes.put(formatNumber, type);
+      if (formatNumber_ < FIRST_USER_DEFINED_FORMAT)
+         _numericCellTypes.put(formatNumber_, type);
       return type;
    }
 
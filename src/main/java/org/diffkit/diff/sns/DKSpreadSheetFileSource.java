@@ -42,7 +42,7 @@ import org.diffkit.util.DKFileUtil;
 public class DKSpreadSheetFileSource implements DKSource {
 
    @SuppressWarnings("rawtypes")
-   public static final Class[] HANDLER_CLASSES = { DKPoiSheet.class };
+   public static final Class[] HANDLER_CLASSES = { DKXlsxSheet.class, DKPoiSheet.class };
    private static final Logger LOG = LoggerFactory.getLogger(DKSpreadSheetFileSource.class);
 
    private final DKSheet _sheet;
@@ -16,6 +16,7 @@
 package org.diffkit.diff.sns;
 
 import java.sql.SQLException;
+import java.util.Comparator;
 
 import org.diffkit.common.DKUserException;
 import org.diffkit.common.DKValidate;
@@ -26,6 +27,7 @@ import org.diffkit.db.DKDBTable;
 import org.diffkit.db.DKDBType;
 import org.diffkit.db.DKDBTypeInfoDataAccess;
 import org.diffkit.diff.engine.DKColumnModel;
+import org.diffkit.diff.engine.DKKeyComparator;
 import org.diffkit.diff.engine.DKTableModel;
 
 /**
@@ -36,6 +38,16 @@ public class DKTableModelUtil {
    private DKTableModelUtil() {
    }
 
+   /**
+    * @return Comparator that orders rows of tableModel_ by its key columns, in
+    *         the same way that DKStandardTableComparison orders rows for the
+    *         merge
+    */
+   public static Comparator<Object[]> createKeyComparator(DKTableModel tableModel_) {
+      DKValidate.notNull(tableModel_);
+      return DKKeyComparator.createComparator(tableModel_);
+   }
+
    public static DKDBTable createDefaultDBTable(DKDBTypeInfoDataAccess typeInfoDataAccess_,
                                                 String tableName_,
                                                 DKTableModel tableModel_)
@@ -0,0 +1,715 @@
+/**
+ * Copyright 2010-2011 Joseph Panico
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.diffkit.diff.sns;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.ss.usermodel.DateUtil;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.model.StylesTable;
+import org.apache.poi.xssf.usermodel.XSSFCellStyle;
+import org.apache.poi.xssf.usermodel.XSSFRichTextString;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.SAXException;
+
+import org.diffkit.common.DKValidate;
+import org.diffkit.diff.engine.DKColumnModel;
+import org.diffkit.diff.engine.DKColumnModel.Type;
+import org.diffkit.diff.engine.DKTableModel;
+
+/**
+ * Reads .xlsx sheets by streaming the sheet XML, rather than loading the
+ * workbook into POI's usermodel, so that heap use does not grow with the size
+ * of the sheet (only the shared strings table and styles are held in memory).
+ * Produces the same model and rows as DKPoiSheet does for the same file. The
+ * model is discovered in one pass over the sheet, and each
+ * getRowIterator(DKTableModel) makes another. Unsorted sheets are sorted by
+ * model key through a DKExternalRowSorter, which spills to disk if the rows
+ * do not fit in its memory budget.
+ *
+ * @author jpanico
+ */
+public class DKXlsxSheet extends DKAbstractSheet {
+
+   public static final String[] HANDLED_FILE_EXTENSIONS = { "xlsx" };
+   /**
+    * the external sort may use up to maxMemory / this
+    */
+   private static final int DEFAULT_SORT_MEMORY_DIVISOR = 4;
+   private static final String SPREADSHEETML_NS = "http://schemas.openxmlformats.org/spreadsheetml/2006/main";
+   private static final Logger LOG = LoggerFactory.getLogger(DKXlsxSheet.class);
+
+   private static enum CellKind {
+      NUMERIC, STRING, FORMULA, BLANK, BOOLEAN, ERROR;
+   }
+
+   private OPCPackage _package;
+   private XSSFReader _reader;
+   private ReadOnlySharedStringsTable _strings;
+   private StylesTable _styles;
+   private Boolean _isDate1904;
+   private String _sheetName;
+   private final Map<Integer, NumberFormat> _numberFormats = new HashMap<Integer, NumberFormat>();
+   private final List<SheetReader> _openReaders = new ArrayList<SheetReader>();
+   private final List<DKExternalRowSorter> _sorters = new ArrayList<DKExternalRowSorter>();
+   private final Logger _log = LoggerFactory.getLogger(this.getClass());
+   private final boolean _isDebugEnabled = _log.isDebugEnabled();
+
+   public DKXlsxSheet(File file_, String name_, boolean isSorted_, boolean hasHeader_,
+                      boolean validateLazily_) {
+      super(file_, name_, isSorted_, hasHeader_, validateLazily_);
+   }
+
+   public Iterator<Object[]> getRowIterator(DKTableModel model_) throws IOException {
+      DKValidate.notNull(model_);
+      SheetReader reader = this.openSheetReader();
+      if (this.hasHeader())
+         reader.nextRow();
+      Iterator<Object[]> rows = new RowIterator(this, reader, model_.getColumnTypes(),
+         model_.hasRowNum());
+      // if the key is ROW_NUM, there is no need for further sorting, because
+      // rows come from the sheet in row order.
+      if (this.isSorted() || model_.keyIsRowNum())
+         return rows;
+      DKExternalRowSorter sorter = new DKExternalRowSorter(
+         DKTableModelUtil.createKeyComparator(model_), Runtime.getRuntime().maxMemory()
+            / DEFAULT_SORT_MEMORY_DIVISOR, null, Runtime.getRuntime().availableProcessors());
+      _sorters.add(sorter);
+      _log.info("sorter->{}", sorter);
+      while (rows.hasNext())
+         sorter.add(rows.next());
+      this.closeReader(reader);
+      return sorter.sort();
+   }
+
+   /**
+    * the Model created directly from the sheet always contains the <ROW_NUM>
+    * pseudo-column
+    */
+   protected DKTableModel createModelFromSheet() throws IOException {
+      SheetReader reader = this.openSheetReader();
+      List<Type> columnTypes = new ArrayList<Type>();
+      XlsxRow header = null;
+      long rowCount = 0;
+      try {
+         if (this.hasHeader())
+            header = reader.nextRow();
+         for (XlsxRow row = reader.nextRow(); row != null; row = reader.nextRow()) {
+            rowCount++;
+            int width = row.getLastCellNum();
+            for (int j = 0; j < width; j++) {
+               XlsxCell cell = row.getCell(j);
+               if (cell == null)
+                  continue;
+               Type cellType = this.mapColumnType(cell);
+               while (columnTypes.size() <= j)
+                  columnTypes.add(null);
+               Type columnType = columnTypes.get(j);
+               if (columnType == null)
+                  columnTypes.set(j, cellType);
+               else if (columnType != cellType)
+                  columnTypes.set(j, Type.MIXED);
+            }
+         }
+      }
+      finally {
+         this.closeReader(reader);
+      }
+      _log.info("row count->{}", rowCount + (header == null ? 0 : 1));
+      if (_isDebugEnabled)
+         _log.debug("columnTypes->{}", columnTypes);
+      String[] columNames = this.getColumnNames(header, columnTypes.size());
+      if (_isDebugEnabled)
+         _log.debug("columNames->{}", Arrays.toString(columNames));
+      DKColumnModel[] columnModels = new DKColumnModel[columnTypes.size() + 1];
+      columnModels[0] = DKColumnModel.createRowNumColumnModel();
+      for (int i = 1; i < columnModels.length; i++)
+         columnModels[i] = new DKColumnModel(i, columNames[i - 1], columnTypes.get(i - 1));
+      int[] key = { 0 };
+      return new DKTableModel(this.getNameFromSheet(), columnModels, key);
+   }
+
+   public void close() throws IOException {
+      for (SheetReader reader : new ArrayList<SheetReader>(_openReaders))
+         this.closeReader(reader);
+      for (DKExternalRowSorter sorter : _sorters)
+         sorter.close();
+      _sorters.clear();
+      if (_package != null)
+         _package.revert();
+      _package = null;
+      _reader = null;
+      _strings = null;
+      _styles = null;
+      _numberFormats.clear();
+   }
+
+   protected String getNameFromSheet() throws IOException {
+      if (_sheetName == null)
+         IOUtils.closeQuietly(this.openSheetData());
+      return _sheetName;
+   }
+
+   private String[] getColumnNames(XlsxRow header_, int columnCount_) {
+      if (header_ == null) {
+         String[] defaultColumnNames = new String[columnCount_];
+         for (int i = 0; i < columnCount_; i++)
+            defaultColumnNames[i] = getDefaultColumnName(i);
+         return defaultColumnNames;
+      }
+      int headerWidth = header_.getLastCellNum();
+      if (columnCount_ != headerWidth)
+         throw new RuntimeException(String.format(
+            "headerWidth->%s does not match columnCount_->%s", headerWidth, columnCount_));
+      String[] columnNames = new String[columnCount_];
+      for (int i = 0; i < columnCount_; i++) {
+         XlsxCell cell = header_.getCell(i);
+         if (cell == null)
+            continue;
+         columnNames[i] = this.toString(cell);
+      }
+      return columnNames;
+   }
+
+   private XSSFReader getReader() throws IOException {
+      if (_reader != null)
+         return _reader;
+      try {
+         _package = OPCPackage.open(this.getFile().getAbsolutePath(), PackageAccess.READ);
+         _reader = new XSSFReader(_package);
+         _strings = new ReadOnlySharedStringsTable(_package);
+         _styles = _reader.getStylesTable();
+         _isDate1904 = Boolean.valueOf(this.readDate1904(_reader));
+         return _reader;
+      }
+      catch (OpenXML4JException e_) {
+         _log.error(null, e_);
+         throw new IOException(e_);
+      }
+      catch (SAXException e_) {
+         _log.error(null, e_);
+         throw new IOException(e_);
+      }
+   }
+
+   /**
+    * @return the XML of the requested sheet, or of the first sheet if none was
+    *         requested; the caller must close it
+    */
+   private InputStream openSheetData() throws IOException {
+      String requestedName = this.getRequestedName();
+      _log.debug("requestedName->{}", requestedName);
+      try {
+         XSSFReader.SheetIterator sheets = (XSSFReader.SheetIterator) this.getReader().getSheetsData();
+         while (sheets.hasNext()) {
+            InputStream sheetData = sheets.next();
+            String sheetName = sheets.getSheetName();
+            if ((requestedName == null) || requestedName.equals(sheetName)) {
+               if (requestedName == null)
+                  _log.debug("no sheet specified, using first sheet");
+               _sheetName = sheetName;
+               return sheetData;
+            }
+            sheetData.close();
+         }
+      }
+      catch (OpenXML4JException e_) {
+         _log.error(null, e_);
+         throw new IOException(e_);
+      }
+      if (requestedName != null)
+         throw new IOException(String.format(
+            "couldn't find sheet->'%s' in workbook->'%s'", requestedName, this.getFile()));
+      throw new IOException(String.format("no sheet!"));
+   }
+
+   private SheetReader openSheetReader() throws IOException {
+      SheetReader reader = new SheetReader(this, this.openSheetData());
+      _openReaders.add(reader);
+      return reader;
+   }
+
+   private void closeReader(SheetReader reader_) {
+      reader_.close();
+      _openReaders.remove(reader_);
+   }
+
+   private boolean readDate1904(XSSFReader reader_) throws IOException,
+      OpenXML4JException {
+      InputStream workbookData = reader_.getWorkbookData();
+      try {
+         XMLStreamReader xml = XMLInputFactory.newInstance().createXMLStreamReader(
+            workbookData);
+         while (xml.hasNext()) {
+            if ((xml.next() == XMLStreamConstants.START_ELEMENT)
+               && xml.getLocalName().equals("workbookPr")) {
+               String date1904 = xml.getAttributeValue(null, "date1904");
+               return "1".equals(date1904) || "true".equalsIgnoreCase(date1904);
+            }
+         }
+         return false;
+      }
+      catch (XMLStreamException e_) {
+         throw new IOException(e_);
+      }
+      finally {
+         workbookData.close();
+      }
+   }
+
+   private NumberFormat getNumberFormat(int styleIdx_) {
+      NumberFormat numberFormat = _numberFormats.get(styleIdx_);
+      if (numberFormat != null)
+         return numberFormat;
+      XSSFCellStyle style = ((_styles == null) || (_styles.getNumCellStyles() == 0)) ? null
+         : _styles.getStyleAt(styleIdx_);
+      if (style == null)
+         numberFormat = new NumberFormat((short) 0, "General");
+      else
+         numberFormat = new NumberFormat(style.getDataFormat(),
+            style.getDataFormatString());
+      _numberFormats.put(styleIdx_, numberFormat);
+      return numberFormat;
+   }
+
+   private Type mapColumnType(XlsxCell cell_) {
+      switch (cell_._kind) {
+      case STRING:
+         return Type.STRING;
+      case NUMERIC:
+         NumberFormat numberFormat = this.getNumberFormat(cell_._styleIdx);
+         return DKPoiSheet.getTypeForNumericFormat(numberFormat._index,
+            numberFormat._formatString);
+      case BOOLEAN:
+         return Type.BOOLEAN;
+      default:
+         return Type.STRING;
+      }
+   }
+
+   /**
+    * if hasRowNum_, types_[0] will represent the ROW_NUM column
+    */
+   private Object[] readRow(XlsxRow row_, Type[] types_, boolean hasRowNum_) {
+      Object[] result = new Object[types_.length];
+      if (hasRowNum_)
+         result[0] = (Integer) row_._rowNum + 1;
+      for (int colIdx = (hasRowNum_ ? 1 : 0), cellIdx = 0; colIdx < types_.length; colIdx++, cellIdx++)
+         result[colIdx] = this.readCell(row_.getCell(cellIdx), types_[colIdx]);
+      return result;
+   }
+
+   /**
+    * same conversions as DKPoiSheet.readCell()
+    */
+   private Object readCell(XlsxCell cell_, Type type_) {
+      if ((cell_ == null) || (type_ == null))
+         return null;
+      try {
+         if (cell_._kind == CellKind.BLANK)
+            return null;
+         switch (type_) {
+         case STRING:
+            return this.toString(cell_);
+         case DATE:
+            return this.getDateValue(cell_);
+         case DECIMAL:
+            return new BigDecimal(this.toString(cell_));
+         case INTEGER:
+            return Long.valueOf((long) this.getNumericValue(cell_));
+         case REAL:
+            return Double.valueOf(this.getNumericValue(cell_));
+         case BOOLEAN:
+            return Boolean.valueOf(this.getBooleanValue(cell_));
+         case TIME:
+            return new Time(this.getDateValue(cell_).getTime());
+         case TIMESTAMP:
+            return new Timestamp(this.getDateValue(cell_).getTime());
+         default:
+            return this.toString(cell_);
+         }
+      }
+      catch (Exception e_) {
+         String message = String.format("unable to read cell_->%s type_->%s", cell_,
+            type_);
+         throw new RuntimeException(message, e_);
+      }
+   }
+
+   /**
+    * same text as the usermodel Cell.toString()
+    */
+   private String toString(XlsxCell cell_) {
+      switch (cell_._kind) {
+      case BLANK:
+         return "";
+      case BOOLEAN:
+         return this.getBooleanValue(cell_) ? "TRUE" : "FALSE";
+      case ERROR:
+         return cell_._value;
+      case FORMULA:
+         return cell_._formula;
+      case NUMERIC:
+         if (this.isDateFormatted(cell_))
+            return new SimpleDateFormat("dd-MMM-yyyy").format(this.getDateValue(cell_));
+         return this.getNumericValue(cell_) + "";
+      default:
+         return this.getStringValue(cell_);
+      }
+   }
+
+   private String getStringValue(XlsxCell cell_) {
+      if ("s".equals(cell_._type))
+         return new XSSFRichTextString(
+            _strings.getEntryAt(Integer.parseInt(cell_._value))).getString();
+      return (cell_._value == null) ? "" : cell_._value;
+   }
+
+   private boolean isDateFormatted(XlsxCell cell_) {
+      double value = this.getNumericValue(cell_);
+      if (!DateUtil.isValidExcelDate(value))
+         return false;
+      NumberFormat numberFormat = this.getNumberFormat(cell_._styleIdx);
+      return DateUtil.isADateFormat(numberFormat._index, numberFormat._formatString);
+   }
+
+   private double getNumericValue(XlsxCell cell_) {
+      switch (cell_._kind) {
+      case BLANK:
+         return 0.0;
+      case NUMERIC:
+         return Double.parseDouble(cell_._value);
+      case FORMULA:
+         // the cached result
+         if (((cell_._type == null) || "n".equals(cell_._type)) && (cell_._value != null))
+            return Double.parseDouble(cell_._value);
+         throw new IllegalStateException(String.format(
+            "Cannot get a numeric value from a %s cell with a %s result", cell_._kind,
+            cell_._type));
+      default:
+         throw new IllegalStateException(String.format(
+            "Cannot get a numeric value from a %s cell", cell_._kind));
+      }
+   }
+
+   private Date getDateValue(XlsxCell cell_) {
+      if (cell_._kind == CellKind.BLANK)
+         return null;
+      return DateUtil.getJavaDate(this.getNumericValue(cell_), _isDate1904.booleanValue());
+   }
+
+   private boolean getBooleanValue(XlsxCell cell_) {
+      switch (cell_._kind) {
+      case BLANK:
+         return false;
+      case BOOLEAN:
+         return "1".equals(cell_._value) || "true".equalsIgnoreCase(cell_._value);
+      case FORMULA:
+         if ("b".equals(cell_._type))
+            return "1".equals(cell_._value) || "true".equalsIgnoreCase(cell_._value);
+         throw new IllegalStateException(String.format(
+            "Cannot get a boolean value from a %s cell with a %s result", cell_._kind,
+            cell_._type));
+      default:
+         throw new IllegalStateException(String.format(
+            "Cannot get a boolean value from a %s cell", cell_._kind));
+      }
+   }
+
+   private static class NumberFormat {
+      private final short _index;
+      private final String _formatString;
+
+      private NumberFormat(short index_, String formatString_) {
+         _index = index_;
+         _formatString = formatString_;
+      }
+   }
+
+   /**
+    * one <c> element, as written in the sheet XML
+    */
+   private static class XlsxCell {
+      private final CellKind _kind;
+      // the t attribute
+      private final String _type;
+      // <v>, or the text of <is>
+      private final String _value;
+      private final String _formula;
+      private final int _styleIdx;
+
+      private XlsxCell(CellKind kind_, String type_, String value_, String formula_,
+                       int styleIdx_) {
+         _kind = kind_;
+         _type = type_;
+         _value = value_;
+         _formula = formula_;
+         _styleIdx = styleIdx_;
+      }
+
+      public String toString() {
+         return String.format("%s[%s]", _kind, (_formula != null) ? _formula : _value);
+      }
+   }
+
+   /**
+    * one <row> element; sparse, cells are at their column indexes
+    */
+   private static class XlsxRow {
+      private final int _rowNum;
+      private XlsxCell[] _cells = new XlsxCell[16];
+      private int _lastCellNum;
+
+      private XlsxRow(int rowNum_) {
+         _rowNum = rowNum_;
+      }
+
+      private void setCell(int columnIdx_, XlsxCell cell_) {
+         if (columnIdx_ >= _cells.length)
+            _cells = Arrays.copyOf(_cells, Math.max(columnIdx_ + 1, _cells.length * 2));
+         _cells[columnIdx_] = cell_;
+         _lastCellNum = Math.max(_lastCellNum, columnIdx_ + 1);
+      }
+
+      private XlsxCell getCell(int columnIdx_) {
+         return (columnIdx_ < _cells.length) ? _cells[columnIdx_] : null;
+      }
+
+      /**
+       * same as usermodel Row.getLastCellNum(): one past the last physical cell
+       */
+      private int getLastCellNum() {
+         return _lastCellNum;
+      }
+   }
+
+   /**
+    * pulls <row> elements, one at a time, from the sheet XML
+    */
+   private static class SheetReader {
+      private final InputStream _sheetData;
+      private final XMLStreamReader _xml;
+      private int _lastRowNum = -1;
+
+      private SheetReader(DKXlsxSheet sheet_, InputStream sheetData_) throws IOException {
+         _sheetData = sheetData_;
+         try {
+            XMLInputFactory factory = XMLInputFactory.newInstance();
+            factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+            _xml = factory.createXMLStreamReader(_sheetData);
+         }
+         catch (XMLStreamException e_) {
+            IOUtils.closeQuietly(_sheetData);
+            throw new IOException(e_);
+         }
+      }
+
+      /**
+       * @return null at the end of the sheet data
+       */
+      private XlsxRow nextRow() throws IOException {
+         try {
+            while (_xml.hasNext()) {
+               int event = _xml.next();
+               if ((event == XMLStreamConstants.START_ELEMENT)
+                  && _xml.getLocalName().equals("row"))
+                  return this.readRow();
+               if ((event == XMLStreamConstants.END_ELEMENT)
+                  && _xml.getLocalName().equals("sheetData"))
+                  return null;
+            }
+            return null;
+         }
+         catch (XMLStreamException e_) {
+            throw new IOException(e_);
+         }
+      }
+
+      private XlsxRow readRow() throws XMLStreamException {
+         String r = _xml.getAttributeValue(null, "r");
+         int rowNum = (r == null) ? _lastRowNum + 1 : Integer.parseInt(r) - 1;
+         _lastRowNum = rowNum;
+         XlsxRow row = new XlsxRow(rowNum);
+         int lastColumnIdx = -1;
+         while (_xml.hasNext()) {
+            int event = _xml.next();
+            if ((event == XMLStreamConstants.START_ELEMENT)
+               && _xml.getLocalName().equals("c")) {
+               String cellRef = _xml.getAttributeValue(null, "r");
+               int columnIdx = (cellRef == null) ? lastColumnIdx + 1
+                  : getColumnIndex(cellRef);
+               lastColumnIdx = columnIdx;
+               row.setCell(columnIdx, this.readCell());
+            }
+            else if ((event == XMLStreamConstants.END_ELEMENT)
+               && _xml.getLocalName().equals("row"))
+               break;
+         }
+         return row;
+      }
+
+      private XlsxCell readCell() throws XMLStreamException {
+         String type = _xml.getAttributeValue(null, "t");
+         String style = _xml.getAttributeValue(null, "s");
+         int styleIdx = (style == null) ? 0 : Integer.parseInt(style);
+         String value = null;
+         String formula = null;
+         StringBuilder inlineText = null;
+         while (_xml.hasNext()) {
+            int event = _xml.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+               String name = _xml.getLocalName();
+               if (name.equals("v"))
+                  value = _xml.getElementText();
+               else if (name.equals("f"))
+                  formula = _xml.getElementText();
+               else if (name.equals("t")) {
+                  // inline string text, possibly in rich text runs
+                  if (inlineText == null)
+                     inlineText = new StringBuilder();
+                  inlineText.append(_xml.getElementText());
+               }
+            }
+            else if ((event == XMLStreamConstants.END_ELEMENT)
+               && _xml.getLocalName().equals("c"))
+               break;
+         }
+         if ("inlineStr".equals(type))
+            value = (inlineText == null) ? "" : inlineText.toString();
+         return new XlsxCell(getCellKind(type, value, formula), type, value, formula,
+            styleIdx);
+      }
+
+      /**
+       * same as usermodel Cell.getCellType()
+       */
+      private static CellKind getCellKind(String type_, String value_, String formula_) {
+         if (formula_ != null)
+            return CellKind.FORMULA;
+         if ((type_ == null) || type_.equals("n"))
+            return (value_ == null) ? CellKind.BLANK : CellKind.NUMERIC;
+         if (type_.equals("s") || type_.equals("inlineStr") || type_.equals("str"))
+            return CellKind.STRING;
+         if (type_.equals("b"))
+            return CellKind.BOOLEAN;
+         if (type_.equals("e"))
+            return CellKind.ERROR;
+         throw new RuntimeException(String.format("unrecognized cell type->%s", type_));
+      }
+
+      /**
+       * @param cellRef_
+       *           e.g. "AB12"
+       */
+      private static int getColumnIndex(String cellRef_) {
+         int columnIdx = 0;
+         for (int i = 0; i < cellRef_.length(); i++) {
+            char c = cellRef_.charAt(i);
+            if ((c < 'A') || (c > 'Z'))
+               break;
+            columnIdx = (columnIdx * 26) + (c - 'A' + 1);
+         }
+         return columnIdx - 1;
+      }
+
+      private void close() {
+         try {
+            _xml.close();
+         }
+         catch (XMLStreamException e_) {
+            LOG.warn(null, e_);
+         }
+         IOUtils.closeQuietly(_sheetData);
+      }
+   }
+
+   /**
+    * translates XlsxRows into DiffKit rows as it iterates; closes the
+    * SheetReader when exhausted
+    */
+   private static class RowIterator implements Iterator<Object[]> {
+      private final DKXlsxSheet _sheet;
+      private final SheetReader _reader;
+      private final Type[] _types;
+      private final boolean _hasRowNum;
+      private XlsxRow _next;
+      private boolean _isDone;
+
+      private RowIterator(DKXlsxSheet sheet_, SheetReader reader_, Type[] types_,
+                          boolean hasRowNum_) {
+         _sheet = sheet_;
+         _reader = reader_;
+         _types = types_;
+         _hasRowNum = hasRowNum_;
+         DKValidate.notNull(_sheet, _reader, _types);
+      }
+
+      public boolean hasNext() {
+         if (_next != null)
+            return true;
+         if (_isDone)
+            return false;
+         try {
+            _next = _reader.nextRow();
+         }
+         catch (IOException e_) {
+            throw new RuntimeException(e_);
+         }
+         if (_next == null) {
+            _isDone = true;
+            _sheet.closeReader(_reader);
+         }
+         return (_next != null);
+      }
+
+      public Object[] next() {
+         if (!this.hasNext())
+            throw new NoSuchElementException();
+         XlsxRow row = _next;
+         _next = null;
+         return _sheet.readRow(row, _types, _hasRowNum);
+      }
+
+      public void remove() {
+         throw new UnsupportedOperationException();
+      }
+   }
+}
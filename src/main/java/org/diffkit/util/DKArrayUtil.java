@@ -5,7 +5,9 @@
 package org.diffkit.util;
 
 import java.lang.reflect.Array;
+import java.math.BigDecimal;
 import java.util.Arrays;
+import java.util.Date;
 
 import org.apache.commons.lang.ArrayUtils;
 
@@ -150,4 +152,27 @@ public class DKArrayUtil {
 
       return sum;
    }
+
+   /**
+    * rough, but cheap, estimate of the heap occupied by target_ and its
+    * elements; good enough for enforcing memory budgets on buffered rows
+    */
+   public static long estimateHeapSize(Object[] target_) {
+      if (target_ == null)
+         return 0;
+      long size = 16 + (4 * target_.length);
+      for (Object value : target_) {
+         if (value == null)
+            continue;
+         else if (value instanceof String)
+            size += 40 + (2 * ((String) value).length());
+         else if (value instanceof BigDecimal)
+            size += 64;
+         else if (value instanceof Date)
+            size += 32;
+         else
+            size += 24;
+      }
+      return size;
+   }
 }
@@ -0,0 +1,183 @@
+/**
+ * Copyright 2010-2011 Joseph Panico
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.diffkit.util;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.lang.ClassUtils;
+
+import org.diffkit.common.DKValidate;
+import org.diffkit.common.annot.NotThreadSafe;
+
+/**
+ * Streaming tokenizer for delimited (CSV) text. Fields may be enclosed in
+ * double quotes, in which case they can contain the delimiter, line breaks,
+ * and doubled ("") quotes. Records end at LF, CR, or CRLF; blank records are
+ * skipped. Reads through its own buffer, so the Reader need not be buffered.
+ *
+ * @author jpanico
+ */
+@NotThreadSafe
+public class DKCsvTokenizer {
+
+   public static final char DEFAULT_DELIMITER = ',';
+   private static final char QUOTE = '"';
+   private static final int BUFFER_SIZE = 64 * 1024;
+
+   private final Reader _reader;
+   private final char _delimiter;
+   private final char[] _buffer = new char[BUFFER_SIZE];
+   private int _bufferLength;
+   private int _bufferIndex;
+   private final StringBuilder _field = new StringBuilder();
+   private final List<String> _fields = new ArrayList<String>();
+   private long _recordNumber;
+   private long _lineNumber = 1;
+
+   public DKCsvTokenizer(Reader reader_) {
+      this(reader_, DEFAULT_DELIMITER);
+   }
+
+   public DKCsvTokenizer(Reader reader_, char delimiter_) {
+      _reader = reader_;
+      _delimiter = delimiter_;
+      DKValidate.notNull(_reader);
+      if ((_delimiter == QUOTE) || (_delimiter == '\n') || (_delimiter == '\r'))
+         throw new IllegalArgumentException(String.format("invalid delimiter_->%s",
+            delimiter_));
+   }
+
+   /**
+    * @return the fields of the next record, or null at EOF
+    * @throws IOException
+    *            if the input ends inside a quoted field
+    */
+   public String[] next() throws IOException {
+      _fields.clear();
+      _field.setLength(0);
+      boolean inQuotes = false;
+      // true once the current field has been quoted, or the record has content
+      boolean fieldStarted = false;
+      long startLine = _lineNumber;
+      while (true) {
+         int c = this.read();
+         if (c < 0) {
+            if (inQuotes)
+               throw new IOException(String.format(
+                  "unterminated quoted field in record starting at line->%s", startLine));
+            if (!fieldStarted && _fields.isEmpty())
+               return null;
+            return this.endRecord();
+         }
+         if (inQuotes) {
+            if (c == QUOTE) {
+               if (this.peek() == QUOTE) {
+                  this.read();
+                  _field.append(QUOTE);
+               }
+               else
+                  inQuotes = false;
+            }
+            else {
+               if (c == '\n')
+                  _lineNumber++;
+               _field.append((char) c);
+            }
+         }
+         else if (c == _delimiter) {
+            _fields.add(_field.toString());
+            _field.setLength(0);
+            fieldStarted = true;
+         }
+         else if ((c == '\n') || (c == '\r')) {
+            if ((c == '\r') && (this.peek() == '\n'))
+               this.read();
+            _lineNumber++;
+            if (!fieldStarted && _fields.isEmpty()) {
+               startLine = _lineNumber;
+               continue;
+            }
+            return this.endRecord();
+         }
+         else if ((c == QUOTE) && (_field.length() == 0)) {
+            inQuotes = true;
+            fieldStarted = true;
+         }
+         else {
+            _field.append((char) c);
+            fieldStarted = true;
+         }
+      }
+   }
+
+   /**
+    * @return number of records returned by next() so far
+    */
+   public long getRecordNumber() {
+      return _recordNumber;
+   }
+
+   /**
+    * @return 1 based line number of the input position
+    */
+   public long getLineNumber() {
+      return _lineNumber;
+   }
+
+   public void close() throws IOException {
+      _reader.close();
+   }
+
+   private String[] endRecord() {
+      _fields.add(_field.toString());
+      _field.setLength(0);
+      _recordNumber++;
+      return _fields.toArray(new String[_fields.size()]);
+   }
+
+   private int read() throws IOException {
+      if ((_bufferIndex >= _bufferLength) && !this.fill())
+         return -1;
+      return _buffer[_bufferIndex++];
+   }
+
+   private int peek() throws IOException {
+      if ((_bufferIndex >= _bufferLength) && !this.fill())
+         return -1;
+      return _buffer[_bufferIndex];
+   }
+
+   private boolean fill() throws IOException {
+      int read;
+      do {
+         read = _reader.read(_buffer, 0, _buffer.length);
+      }
+      while (read == 0);
+      if (read < 0)
+         return false;
+      _bufferLength = read;
+      _bufferIndex = 0;
+      return true;
+   }
+
+   public String toString() {
+      return String.format("%s[%s]", ClassUtils.getShortClassName(this.getClass()),
+         _recordNumber);
+   }
+}
@@ -0,0 +1,736 @@
+/**
+ * Copyright 2010-2011 Joseph Panico
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.diffkit.util;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.SQLException;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Random;
+import java.util.TimeZone;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.OptionBuilder;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.apache.commons.cli.PosixParser;
+import org.apache.commons.lang.ArrayUtils;
+import org.apache.commons.lang.ClassUtils;
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.diffkit.common.DKRuntime;
+import org.diffkit.common.DKUserException;
+import org.diffkit.common.DKValidate;
+import org.diffkit.common.annot.Immutable;
+import org.diffkit.db.DKDBBatchTableLoader;
+import org.diffkit.db.DKDBColumn;
+import org.diffkit.db.DKDBConnectionInfo;
+import org.diffkit.db.DKDBFlavor;
+import org.diffkit.db.DKDBPrimaryKey;
+import org.diffkit.db.DKDBTable;
+import org.diffkit.db.DKDatabase;
+
+/**
+ * Generates a pair of lhs/rhs tables of synthetic rows, as CSV files and
+ * optionally as database tables, in which a known fraction of the rows
+ * differ. Everything is drawn from one seeded Random, so the same arguments
+ * always produce the same data, and rows are streamed, so rowCount is bounded
+ * only by disk.
+ * <p>
+ * Column 0 is the key, ID; the other columns are COLUMN1..COLUMNn, of the
+ * given types. In the files, keys are zero padded to a fixed width, so that
+ * their String order is their numeric order. A diffRate fraction of the lhs
+ * rows are mutated in the rhs: half get a different value in one column (one
+ * column diff), a quarter are left out of the rhs (one row diff), and a
+ * quarter are followed in the rhs by an extra row that is not in the lhs (one
+ * row diff). getExpectedDiffCount() of the returned Counts is what a diff of
+ * all the columns reports.
+ * 
+ * @author jpanico
+ */
+@Immutable
+public class DKDataGenerator {
+
+   public static final String KEY_COLUMN_NAME = "ID";
+   public static final String DEFAULT_COLUMNS = "STRING:10,INTEGER:10,DECIMAL:12:2,DATE";
+   public static final char DELIMITER = ',';
+   /**
+    * SPARSE keys step by an even number of up to twice this
+    */
+   private static final int MAX_KEY_GAP = 8;
+   /**
+    * DATE values are drawn from this many days starting 2000-01-01
+    */
+   private static final int DATE_RANGE_DAYS = 3650;
+   private static final int WRITE_BUFFER_SIZE = 1024 * 1024;
+
+   private static final String ROWS_OPTION_KEY = "rows";
+   private static final String COLUMNS_OPTION_KEY = "columns";
+   private static final String KEYS_OPTION_KEY = "keys";
+   private static final String DIFF_RATE_OPTION_KEY = "diffRate";
+   private static final String SEED_OPTION_KEY = "seed";
+   private static final String TARGET_OPTION_KEY = "target";
+   private static final String DIR_OPTION_KEY = "dir";
+   private static final String NAME_OPTION_KEY = "name";
+
+   public static enum ColumnType {
+      STRING, INTEGER, DECIMAL, DATE;
+   }
+
+   public static enum KeyDistribution {
+      /**
+       * ascending, evenly spaced
+       */
+      SEQUENTIAL,
+      /**
+       * ascending, with random gaps
+       */
+      SPARSE,
+      /**
+       * the SEQUENTIAL keys, in a seeded pseudo random order; so the files are
+       * not sorted
+       */
+      SHUFFLED;
+   }
+
+   /**
+    * where generate() puts the tables. FILE writes just the CSV files; the
+    * database targets also load them into tables of an embedded database
+    * file
+    */
+   public static enum Target {
+      FILE, H2, HYPERSQL;
+   }
+
+   private final long _rowCount;
+   private final Column[] _columns;
+   private final KeyDistribution _keyDistribution;
+   private final double _diffRate;
+   private final long _seed;
+   private final int _keyWidth;
+   private final Logger _log = LoggerFactory.getLogger(this.getClass());
+
+   public DKDataGenerator(long rowCount_, Column[] columns_,
+                          KeyDistribution keyDistribution_, double diffRate_, long seed_) {
+      _rowCount = rowCount_;
+      _columns = columns_;
+      _keyDistribution = keyDistribution_;
+      _diffRate = diffRate_;
+      _seed = seed_;
+      DKValidate.notNull(_columns, _keyDistribution);
+      if ((_rowCount < 1) || (_rowCount > Integer.MAX_VALUE))
+         throw new IllegalArgumentException(String.format("invalid rowCount_->%s",
+            rowCount_));
+      if (_columns.length == 0)
+         throw new IllegalArgumentException("no columns_");
+      if ((_diffRate < 0) || (_diffRate > 1))
+         throw new IllegalArgumentException(String.format("invalid diffRate_->%s",
+            diffRate_));
+      // largest key, +1 for an extra rhs row
+      long maxKey = 2 * _rowCount * MAX_KEY_GAP + 1;
+      _keyWidth = Long.toString(maxKey).length();
+   }
+
+   public static void main(String[] args_) {
+      Logger userLog = DKRuntime.getInstance().getUserLog();
+      Options options = createOptions();
+      try {
+         CommandLine line = new PosixParser().parse(options, args_);
+         DKDataGenerator generator = create(line);
+         long start = System.currentTimeMillis();
+         Counts counts = generator.generate(getTarget(line), getDir(line), getName(line));
+         userLog.info("generated->{} in {}ms", counts, System.currentTimeMillis() - start);
+      }
+      catch (ParseException e_) {
+         System.err.println(e_.getMessage());
+         new HelpFormatter().printHelp(
+            "java -cp diffkit-app.jar " + DKDataGenerator.class.getName(), options);
+      }
+      catch (Exception e_) {
+         userLog.info("error->{}", e_.getMessage());
+         LoggerFactory.getLogger(DKDataGenerator.class).error(null, e_);
+      }
+   }
+
+   /**
+    * @return the command line options that main() takes; create() reads the
+    *         ones that configure the generator
+    */
+   public static Options createOptions() {
+      Options options = new Options();
+      OptionBuilder.withArgName("count");
+      OptionBuilder.hasArg();
+      OptionBuilder.isRequired();
+      OptionBuilder.withDescription("number of lhs rows");
+      options.addOption(OptionBuilder.create(ROWS_OPTION_KEY));
+
+      OptionBuilder.withArgName("type[:width[:scale]][,...]");
+      OptionBuilder.hasArg();
+      OptionBuilder.withDescription(String.format(
+         "the non key columns; types are %s. default is %s",
+         Arrays.toString(ColumnType.values()), DEFAULT_COLUMNS));
+      options.addOption(OptionBuilder.create(COLUMNS_OPTION_KEY));
+
+      OptionBuilder.withArgName("distribution");
+      OptionBuilder.hasArg();
+      OptionBuilder.withDescription(String.format("one of %s. default is %s",
+         Arrays.toString(KeyDistribution.values()), KeyDistribution.SEQUENTIAL));
+      options.addOption(OptionBuilder.create(KEYS_OPTION_KEY));
+
+      OptionBuilder.withArgName("fraction");
+      OptionBuilder.hasArg();
+      OptionBuilder.withDescription("fraction of the lhs rows that differ in the rhs. default is 0.01");
+      options.addOption(OptionBuilder.create(DIFF_RATE_OPTION_KEY));
+
+      OptionBuilder.withArgName("long");
+      OptionBuilder.hasArg();
+      OptionBuilder.withDescription("Random seed. default is 0");
+      options.addOption(OptionBuilder.create(SEED_OPTION_KEY));
+
+      OptionBuilder.withArgName("target");
+      OptionBuilder.hasArg();
+      OptionBuilder.withDescription(String.format("one of %s. default is %s",
+         Arrays.toString(Target.values()), Target.FILE));
+      options.addOption(OptionBuilder.create(TARGET_OPTION_KEY));
+
+      OptionBuilder.withArgName("directory");
+      OptionBuilder.hasArg();
+      OptionBuilder.withDescription("where the files, and any database, go. default is .");
+      options.addOption(OptionBuilder.create(DIR_OPTION_KEY));
+
+      OptionBuilder.withArgName("name");
+      OptionBuilder.hasArg();
+      OptionBuilder.withDescription("base name of the files, tables and database. default is generated");
+      options.addOption(OptionBuilder.create(NAME_OPTION_KEY));
+      return options;
+   }
+
+   /**
+    * @return a generator configured from the -rows, -columns, -keys, -diffRate
+    *         and -seed options of line_
+    */
+   public static DKDataGenerator create(CommandLine line_) {
+      try {
+         long rowCount = Long.parseLong(line_.getOptionValue(ROWS_OPTION_KEY));
+         Column[] columns = Column.parseColumns(line_.getOptionValue(COLUMNS_OPTION_KEY,
+            DEFAULT_COLUMNS));
+         KeyDistribution keyDistribution = KeyDistribution.valueOf(line_.getOptionValue(
+            KEYS_OPTION_KEY, KeyDistribution.SEQUENTIAL.toString()).toUpperCase());
+         double diffRate = Double.parseDouble(line_.getOptionValue(DIFF_RATE_OPTION_KEY,
+            "0.01"));
+         long seed = Long.parseLong(line_.getOptionValue(SEED_OPTION_KEY, "0"));
+         return new DKDataGenerator(rowCount, columns, keyDistribution, diffRate, seed);
+      }
+      catch (IllegalArgumentException e_) {
+         throw new DKUserException(e_.getMessage(), e_);
+      }
+   }
+
+   /**
+    * @return the -target option of line_
+    */
+   public static Target getTarget(CommandLine line_) {
+      try {
+         return Target.valueOf(line_.getOptionValue(TARGET_OPTION_KEY,
+            Target.FILE.toString()).toUpperCase());
+      }
+      catch (IllegalArgumentException e_) {
+         throw new DKUserException(e_.getMessage(), e_);
+      }
+   }
+
+   /**
+    * @return the -dir option of line_
+    */
+   public static File getDir(CommandLine line_) {
+      return new File(line_.getOptionValue(DIR_OPTION_KEY, "."));
+   }
+
+   /**
+    * @return the -name option of line_
+    */
+   public static String getName(CommandLine line_) {
+      return line_.getOptionValue(NAME_OPTION_KEY, "generated");
+   }
+
+   public static File getLhsFile(File dir_, String name_) {
+      return new File(dir_, name_ + ".lhs.csv");
+   }
+
+   public static File getRhsFile(File dir_, String name_) {
+      return new File(dir_, name_ + ".rhs.csv");
+   }
+
+   public static String getLhsTableName(String name_) {
+      return name_.toUpperCase() + "_LHS";
+   }
+
+   public static String getRhsTableName(String name_) {
+      return name_.toUpperCase() + "_RHS";
+   }
+
+   /**
+    * @return the embedded database that generate() loads target_ tables into;
+    *         null for Target.FILE
+    */
+   public static DKDBConnectionInfo getConnectionInfo(Target target_, File dir_,
+                                                      String name_) {
+      String database = "file:" + new File(dir_, name_).getAbsolutePath();
+      switch (target_) {
+      case FILE:
+         return null;
+      case H2:
+         return new DKDBConnectionInfo(name_, DKDBFlavor.H2, database, null, null, "sa",
+            "");
+      case HYPERSQL:
+         return new DKDBConnectionInfo(name_, DKDBFlavor.HYPERSQL, database, null, null,
+            "SA", "");
+      default:
+         throw new IllegalArgumentException(String.format("invalid target_->%s", target_));
+      }
+   }
+
+   public long getRowCount() {
+      return _rowCount;
+   }
+
+   public KeyDistribution getKeyDistribution() {
+      return _keyDistribution;
+   }
+
+   /**
+    * writes the files getLhsFile() and getRhsFile(), and loads them into
+    * tables getLhsTableName() and getRhsTableName() of the getConnectionInfo()
+    * database for target_, replacing anything already there
+    */
+   public Counts generate(Target target_, File dir_, String name_) throws IOException,
+      SQLException {
+      DKValidate.notNull(target_, dir_, name_);
+      if (!dir_.isDirectory() && !dir_.mkdirs())
+         throw new DKUserException(String.format("can't create dir_->%s", dir_));
+      File lhsFile = getLhsFile(dir_, name_);
+      File rhsFile = getRhsFile(dir_, name_);
+      Counts counts = this.writeFiles(lhsFile, rhsFile);
+      DKDBConnectionInfo connectionInfo = getConnectionInfo(target_, dir_, name_);
+      if (connectionInfo != null) {
+         DKDatabase database = new DKDatabase(connectionInfo);
+         this.loadTable(database, getLhsTableName(name_), lhsFile);
+         this.loadTable(database, getRhsTableName(name_), rhsFile);
+      }
+      return counts;
+   }
+
+   /**
+    * @return the table, with ID as its primary key, that the generated rows fit
+    */
+   public DKDBTable getTable(String tableName_) {
+      DKDBColumn[] columns = new DKDBColumn[_columns.length + 1];
+      columns[0] = new DKDBColumn(KEY_COLUMN_NAME, 1, "BIGINT", -1, false);
+      for (int i = 0; i < _columns.length; i++)
+         columns[i + 1] = _columns[i].toDBColumn(getColumnName(i + 1), i + 2);
+      DKDBPrimaryKey primaryKey = new DKDBPrimaryKey("PK_" + tableName_,
+         new String[] { KEY_COLUMN_NAME });
+      return new DKDBTable(null, null, tableName_, columns, primaryKey);
+   }
+
+   private void loadTable(DKDatabase database_, String tableName_, File csvFile_)
+      throws IOException, SQLException {
+      DKDBTable table = this.getTable(tableName_);
+      if (database_.tableExists(table))
+         database_.dropTable(table);
+      database_.createTable(table);
+      _log.info("loading table->{} from csvFile_->{}", tableName_, csvFile_);
+      if (!new DKDBBatchTableLoader(database_).load(table, csvFile_))
+         throw new RuntimeException(String.format("failed to load table->%s", table));
+   }
+
+   private static String getColumnName(int idx_) {
+      return (idx_ == 0) ? KEY_COLUMN_NAME : "COLUMN" + idx_;
+   }
+
+   /**
+    * writes the lhs and rhs tables as DELIMITER separated files, each with a
+    * header line of the column names
+    */
+   public Counts writeFiles(File lhsFile_, File rhsFile_) throws IOException {
+      DKValidate.notNull(lhsFile_, rhsFile_);
+      _log.info("lhsFile_->{} rhsFile_->{}", lhsFile_, rhsFile_);
+      Writer lhsWriter = new BufferedWriter(new FileWriter(lhsFile_), WRITE_BUFFER_SIZE);
+      Writer rhsWriter = null;
+      try {
+         rhsWriter = new BufferedWriter(new FileWriter(rhsFile_), WRITE_BUFFER_SIZE);
+         return this.write(lhsWriter, rhsWriter);
+      }
+      finally {
+         lhsWriter.close();
+         if (rhsWriter != null)
+            rhsWriter.close();
+      }
+   }
+
+   private Counts write(Writer lhsWriter_, Writer rhsWriter_) throws IOException {
+      Random random = new Random(_seed);
+      String[] dates = createDates();
+      long permutationFactor = this.getPermutationFactor(random);
+      StringBuilder builder = new StringBuilder();
+      String[] row = new String[_columns.length + 1];
+      for (int i = 0; i < row.length; i++)
+         row[i] = getColumnName(i);
+      this.writeRow(row, lhsWriter_, builder);
+      this.writeRow(row, rhsWriter_, builder);
+
+      long rhsRowCount = 0;
+      long columnDiffCount = 0;
+      long lhsOnlyCount = 0;
+      long rhsOnlyCount = 0;
+      long key = 0;
+      for (long i = 0; i < _rowCount; i++) {
+         key = this.nextKey(i, key, permutationFactor, random);
+         row[0] = this.formatKey(key);
+         for (int j = 0; j < _columns.length; j++)
+            row[j + 1] = _columns[j].generateValue(random, dates);
+         this.writeRow(row, lhsWriter_, builder);
+
+         int mutation = (random.nextDouble() < _diffRate) ? random.nextInt(4) : -1;
+         if (mutation == 2) {
+            lhsOnlyCount++;
+            continue;
+         }
+         if ((mutation == 0) || (mutation == 1)) {
+            int column = 1 + random.nextInt(_columns.length);
+            row[column] = _columns[column - 1].mutateValue(row[column], random, dates);
+            columnDiffCount++;
+         }
+         this.writeRow(row, rhsWriter_, builder);
+         rhsRowCount++;
+         if (mutation == 3) {
+            // keys are even, so key + 1 is not used by any other row
+            row[0] = this.formatKey(key + 1);
+            for (int j = 0; j < _columns.length; j++)
+               row[j + 1] = _columns[j].generateValue(random, dates);
+            this.writeRow(row, rhsWriter_, builder);
+            rhsRowCount++;
+            rhsOnlyCount++;
+         }
+      }
+      Counts counts = new Counts(_rowCount, rhsRowCount, columnDiffCount, lhsOnlyCount,
+         rhsOnlyCount);
+      _log.info("counts->{}", counts);
+      return counts;
+   }
+
+   private void writeRow(String[] row_, Writer writer_, StringBuilder builder_)
+      throws IOException {
+      builder_.setLength(0);
+      for (int i = 0; i < row_.length; i++) {
+         if (i > 0)
+            builder_.append(DELIMITER);
+         builder_.append(row_[i]);
+      }
+      builder_.append('\n');
+      writer_.append(builder_);
+   }
+
+   /**
+    * @return an even key
+    */
+   private long nextKey(long idx_, long previousKey_, long permutationFactor_,
+                        Random random_) {
+      switch (_keyDistribution) {
+      case SEQUENTIAL:
+         return 2 * idx_;
+      case SPARSE:
+         if (idx_ == 0)
+            return 0;
+         return previousKey_ + 2 * (1 + random_.nextInt(MAX_KEY_GAP));
+      case SHUFFLED:
+         // idx_ -> idx_ * factor mod rowCount is a permutation of 0..rowCount-1
+         // when factor and rowCount are coprime. Both are < 2^31, so the
+         // product fits a long
+         return 2 * ((idx_ * permutationFactor_) % _rowCount);
+      default:
+         throw new RuntimeException(String.format("unrecognized keyDistribution->%s",
+            _keyDistribution));
+      }
+   }
+
+   /**
+    * @return a factor, coprime with _rowCount, for SHUFFLED keys; 1 otherwise
+    */
+   private long getPermutationFactor(Random random_) {
+      if ((_keyDistribution != KeyDistribution.SHUFFLED) || (_rowCount < 3))
+         return 1;
+      BigInteger rowCount = BigInteger.valueOf(_rowCount);
+      long factor = _rowCount / 2 + random_.nextInt((int) (_rowCount / 2));
+      while (!rowCount.gcd(BigInteger.valueOf(factor)).equals(BigInteger.ONE))
+         factor++;
+      return factor % _rowCount;
+   }
+
+   private String formatKey(long key_) {
+      return StringUtils.leftPad(Long.toString(key_), _keyWidth, '0');
+   }
+
+   private static String[] createDates() {
+      SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd");
+      format.setTimeZone(TimeZone.getTimeZone("UTC"));
+      Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+      calendar.clear();
+      calendar.set(2000, Calendar.JANUARY, 1);
+      String[] dates = new String[DATE_RANGE_DAYS];
+      for (int i = 0; i < dates.length; i++) {
+         dates[i] = format.format(calendar.getTime());
+         calendar.add(Calendar.DAY_OF_MONTH, 1);
+      }
+      return dates;
+   }
+
+   public String toString() {
+      return String.format("%s[%s,%s,%s,%s,%s]",
+         ClassUtils.getShortClassName(this.getClass()), _rowCount,
+         Arrays.toString(_columns), _keyDistribution, _diffRate, _seed);
+   }
+
+   /**
+    * a non key column: its type, and its width (max chars for STRING, digits
+    * for INTEGER and DECIMAL) and scale (DECIMAL digits after the point)
+    */
+   @Immutable
+   public static class Column {
+      private static final char[] ALPHANUMERIC = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789".toCharArray();
+      private static final int MAX_DIGITS = 18;
+
+      private final ColumnType _type;
+      private final int _width;
+      private final int _scale;
+
+      public Column(ColumnType type_, int width_, int scale_) {
+         _type = type_;
+         _width = width_;
+         _scale = scale_;
+         DKValidate.notNull(_type);
+         if ((_type != ColumnType.DATE) && (_width < 1))
+            throw new IllegalArgumentException(String.format("invalid width_->%s",
+               width_));
+         if ((_type == ColumnType.INTEGER || _type == ColumnType.DECIMAL)
+            && (_width > MAX_DIGITS))
+            throw new IllegalArgumentException(String.format(
+               "width_->%s is more than %s digits", width_, MAX_DIGITS));
+         if ((_scale < 0) || (_scale >= Math.max(_width, 1)))
+            throw new IllegalArgumentException(String.format("invalid scale_->%s",
+               scale_));
+      }
+
+      /**
+       * @param spec_
+       *           type[:width[:scale]], e.g. STRING:10 or DECIMAL:12:2
+       */
+      public static Column parse(String spec_) {
+         String[] parts = StringUtils.split(StringUtils.trim(spec_), ':');
+         if ((parts == null) || (parts.length == 0) || (parts.length > 3))
+            throw new DKUserException(String.format("invalid column spec_->%s", spec_));
+         try {
+            ColumnType type = ColumnType.valueOf(parts[0].toUpperCase());
+            int width = (parts.length > 1) ? Integer.parseInt(parts[1])
+               : ((type == ColumnType.DATE) ? 0 : 10);
+            int scale = (parts.length > 2) ? Integer.parseInt(parts[2]) : 0;
+            return new Column(type, width, scale);
+         }
+         catch (IllegalArgumentException e_) {
+            throw new DKUserException(String.format("invalid column spec_->%s", spec_),
+               e_);
+         }
+      }
+
+      /**
+       * @param specs_
+       *           ',' separated parse() specs
+       */
+      public static Column[] parseColumns(String specs_) {
+         String[] specs = StringUtils.split(specs_, ',');
+         if ((specs == null) || (specs.length == 0))
+            throw new DKUserException(String.format("invalid specs_->%s", specs_));
+         Column[] columns = new Column[specs.length];
+         for (int i = 0; i < specs.length; i++)
+            columns[i] = parse(specs[i]);
+         return columns;
+      }
+
+      public ColumnType getType() {
+         return _type;
+      }
+
+      private String generateValue(Random random_, String[] dates_) {
+         switch (_type) {
+         case STRING:
+            char[] chars = new char[1 + random_.nextInt(_width)];
+            for (int i = 0; i < chars.length; i++)
+               chars[i] = ALPHANUMERIC[random_.nextInt(ALPHANUMERIC.length)];
+            return new String(chars);
+         case INTEGER:
+            return Long.toString(nextLong(random_, _width));
+         case DECIMAL:
+            return BigDecimal.valueOf(nextLong(random_, _width), _scale).toPlainString();
+         case DATE:
+            return dates_[random_.nextInt(dates_.length)];
+         default:
+            throw new RuntimeException(String.format("unrecognized type->%s", _type));
+         }
+      }
+
+      /**
+       * @param value_
+       *           a generateValue() of this column
+       * @return a value of this column that is not equal to value_, in one draw:
+       *         one character of a STRING is changed, an INTEGER or the
+       *         unscaled DECIMAL is moved by [1, 10^width) modulo 10^width, and
+       *         a DATE by [1, dates_.length) days modulo dates_.length
+       */
+      private String mutateValue(String value_, Random random_, String[] dates_) {
+         switch (_type) {
+         case STRING:
+            char[] chars = value_.toCharArray();
+            int position = random_.nextInt(chars.length);
+            int charIndex = ArrayUtils.indexOf(ALPHANUMERIC, chars[position]);
+            chars[position] = ALPHANUMERIC[(int) shift(charIndex, ALPHANUMERIC.length,
+               random_)];
+            return new String(chars);
+         case INTEGER:
+            return Long.toString(shift(Long.parseLong(value_), getBound(_width), random_));
+         case DECIMAL:
+            long unscaled = new BigDecimal(value_).unscaledValue().longValue();
+            return BigDecimal.valueOf(shift(unscaled, getBound(_width), random_),
+               _scale).toPlainString();
+         case DATE:
+            // dates_ are in order
+            int dateIndex = Arrays.binarySearch(dates_, value_);
+            return dates_[(int) shift(dateIndex, dates_.length, random_)];
+         default:
+            throw new RuntimeException(String.format("unrecognized type->%s", _type));
+         }
+      }
+
+      /**
+       * @return a long in [0, bound_) that is not value_
+       */
+      private static long shift(long value_, long bound_, Random random_) {
+         long offset = 1 + ((random_.nextLong() >>> 1) % (bound_ - 1));
+         return (value_ + offset) % bound_;
+      }
+
+      /**
+       * @return a non negative long of at most digits_ digits
+       */
+      private static long nextLong(Random random_, int digits_) {
+         return (random_.nextLong() >>> 1) % getBound(digits_);
+      }
+
+      private static long getBound(int digits_) {
+         long bound = 1;
+         for (int i = 0; i < digits_; i++)
+            bound *= 10;
+         return bound;
+      }
+
+      private DKDBColumn toDBColumn(String name_, int ordinalPosition_) {
+         switch (_type) {
+         case STRING:
+            return new DKDBColumn(name_, ordinalPosition_, "VARCHAR", _width, true);
+         case INTEGER:
+            return new DKDBColumn(name_, ordinalPosition_, "BIGINT", -1, true);
+         case DECIMAL:
+            return new DKDBColumn(name_, ordinalPosition_, "DECIMAL", _width, _scale, true);
+         case DATE:
+            return new DKDBColumn(name_, ordinalPosition_, "DATE", -1, true);
+         default:
+            throw new RuntimeException(String.format("unrecognized type->%s", _type));
+         }
+      }
+
+      public String toString() {
+         if (_type == ColumnType.DATE)
+            return _type.toString();
+         if (_scale == 0)
+            return String.format("%s:%s", _type, _width);
+         return String.format("%s:%s:%s", _type, _width, _scale);
+      }
+   }
+
+   /**
+    * what was generated
+    */
+   @Immutable
+   public static class Counts {
+      private final long _lhsRowCount;
+      private final long _rhsRowCount;
+      private final long _columnDiffCount;
+      private final long _lhsOnlyCount;
+      private final long _rhsOnlyCount;
+
+      private Counts(long lhsRowCount_, long rhsRowCount_, long columnDiffCount_,
+                     long lhsOnlyCount_, long rhsOnlyCount_) {
+         _lhsRowCount = lhsRowCount_;
+         _rhsRowCount = rhsRowCount_;
+         _columnDiffCount = columnDiffCount_;
+         _lhsOnlyCount = lhsOnlyCount_;
+         _rhsOnlyCount = rhsOnlyCount_;
+      }
+
+      public long getLhsRowCount() {
+         return _lhsRowCount;
+      }
+
+      public long getRhsRowCount() {
+         return _rhsRowCount;
+      }
+
+      /**
+       * rows that are on both sides, with one column different
+       */
+      public long getColumnDiffCount() {
+         return _columnDiffCount;
+      }
+
+      public long getLhsOnlyCount() {
+         return _lhsOnlyCount;
+      }
+
+      public long getRhsOnlyCount() {
+         return _rhsOnlyCount;
+      }
+
+      public long getExpectedDiffCount() {
+         return _columnDiffCount + _lhsOnlyCount + _rhsOnlyCount;
+      }
+
+      public String toString() {
+         return String.format(
+            "%s[lhsRows=%s, rhsRows=%s, columnDiffs=%s, lhsOnly=%s, rhsOnly=%s]",
+            ClassUtils.getShortClassName(this.getClass()), _lhsRowCount, _rhsRowCount,
+            _columnDiffCount, _lhsOnlyCount, _rhsOnlyCount);
+      }
+   }
+}
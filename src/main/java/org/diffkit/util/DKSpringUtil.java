@@ -5,6 +5,8 @@
 package org.diffkit.util;
 
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 
 import org.apache.commons.lang.ArrayUtils;
 import org.slf4j.Logger;
@@ -34,6 +36,47 @@ public class DKSpringUtil {
          return null;
       if (ArrayUtils.isEmpty(xmlConfigFilePaths_))
          return null;
+      AbstractXmlApplicationContext context = createContext(xmlConfigFilePaths_,
+         classLoader_);
+      Object bean = context.getBean(beanName_);
+      LOG.debug("bean->{}", bean);
+      if (bean == null)
+         throw new RuntimeException(String.format(
+            "no bean named->%s in xmlConfigFilePaths_->%s", beanName_,
+            Arrays.toString(xmlConfigFilePaths_)));
+      return bean;
+   }
+
+   /**
+    * @return map of beanName->bean for each of beanNames_ that is defined in
+    *         xmlConfigFilePaths_; all of the beans come from the same
+    *         ApplicationContext. Names that are not defined are simply absent
+    *         from the returned map
+    */
+   public static Map<String, ?> getBeans(String[] beanNames_,
+                                         String[] xmlConfigFilePaths_,
+                                         ClassLoader classLoader_) {
+      LOG.debug("beanNames_->{}", Arrays.toString(beanNames_));
+      LOG.debug("xmlConfigFilePaths_->{}", Arrays.toString(xmlConfigFilePaths_));
+      if (ArrayUtils.isEmpty(beanNames_))
+         return null;
+      if (ArrayUtils.isEmpty(xmlConfigFilePaths_))
+         return null;
+      AbstractXmlApplicationContext context = createContext(xmlConfigFilePaths_,
+         classLoader_);
+      Map<String, Object> beans = new HashMap<String, Object>();
+      for (String beanName : beanNames_) {
+         if (!context.containsBean(beanName))
+            continue;
+         Object bean = context.getBean(beanName);
+         LOG.debug("beanName->{} bean->{}", beanName, bean);
+         beans.put(beanName, bean);
+      }
+      return beans;
+   }
+
+   private static AbstractXmlApplicationContext createContext(String[] xmlConfigFilePaths_,
+                                                              ClassLoader classLoader_) {
       AbstractXmlApplicationContext context = null;
       if (DKFileUtil.canReadFilePaths(xmlConfigFilePaths_))
          context = new FileSystemXmlApplicationContext(xmlConfigFilePaths_, false);
@@ -44,13 +87,6 @@ public class DKSpringUtil {
          classLoader_ = DKSpringUtil.class.getClassLoader();
       context.setClassLoader(classLoader_);
       context.refresh();
-
-      Object bean = context.getBean(beanName_);
-      LOG.debug("bean->{}", bean);
-      if (bean == null)
-         throw new RuntimeException(String.format(
-            "no bean named->%s in xmlConfigFilePaths_->%s", beanName_,
-            Arrays.toString(xmlConfigFilePaths_)));
-      return bean;
+      return context;
    }
 }
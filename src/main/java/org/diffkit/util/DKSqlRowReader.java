@@ -0,0 +1,191 @@
+/**
+ * Copyright 2010-2011 Joseph Panico
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.diffkit.util;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+import org.apache.commons.lang.ClassUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.diffkit.common.DKValidate;
+import org.diffkit.common.annot.NotThreadSafe;
+import org.diffkit.util.DKSqlUtil.ReadType;
+
+/**
+ * Reads rows from one ResultSet. Resolves the ordinal, and the getter, of each
+ * column once, up front, so that reading a row does no name lookups and no
+ * per cell switching. Produces the same values as
+ * DKSqlUtil.readRow(ResultSet, String[], ReadType[]): OBJECT columns are only
+ * read with a type specific getter when ResultSetMetaData says that getObject
+ * would return that same class.
+ *
+ * @author jpanico
+ */
+@NotThreadSafe
+public class DKSqlRowReader {
+
+   private static enum Getter {
+      OBJECT {
+         Object get(ResultSet resultSet_, int ordinal_) throws SQLException {
+            return resultSet_.getObject(ordinal_);
+         }
+      },
+      STRING {
+         Object get(ResultSet resultSet_, int ordinal_) throws SQLException {
+            return resultSet_.getString(ordinal_);
+         }
+      },
+      TIMESTAMP {
+         Object get(ResultSet resultSet_, int ordinal_) throws SQLException {
+            return resultSet_.getTimestamp(ordinal_);
+         }
+      },
+      BIG_DECIMAL {
+         Object get(ResultSet resultSet_, int ordinal_) throws SQLException {
+            return resultSet_.getBigDecimal(ordinal_);
+         }
+      },
+      INTEGER {
+         Object get(ResultSet resultSet_, int ordinal_) throws SQLException {
+            int value = resultSet_.getInt(ordinal_);
+            return resultSet_.wasNull() ? null : Integer.valueOf(value);
+         }
+      },
+      LONG {
+         Object get(ResultSet resultSet_, int ordinal_) throws SQLException {
+            long value = resultSet_.getLong(ordinal_);
+            return resultSet_.wasNull() ? null : Long.valueOf(value);
+         }
+      },
+      DOUBLE {
+         Object get(ResultSet resultSet_, int ordinal_) throws SQLException {
+            double value = resultSet_.getDouble(ordinal_);
+            return resultSet_.wasNull() ? null : Double.valueOf(value);
+         }
+      };
+
+      abstract Object get(ResultSet resultSet_, int ordinal_) throws SQLException;
+   }
+
+   private final ResultSet _resultSet;
+   private final int[] _ordinals;
+   private final Getter[] _getters;
+   private final Logger _log = LoggerFactory.getLogger(this.getClass());
+
+   /**
+    * @param columnNames_
+    *           the columns that are read into each row, in this order
+    * @param readTypes_
+    *           one for each of columnNames_
+    */
+   public DKSqlRowReader(ResultSet resultSet_, String[] columnNames_,
+                         ReadType[] readTypes_) throws SQLException {
+      _resultSet = resultSet_;
+      DKValidate.notNull(_resultSet, columnNames_, readTypes_);
+      if (columnNames_.length != readTypes_.length)
+         throw new IllegalArgumentException(String.format(
+            "columnNames_->%s and readTypes_->%s must be the same length",
+            Arrays.toString(columnNames_), Arrays.toString(readTypes_)));
+      ResultSetMetaData metaData = _resultSet.getMetaData();
+      _ordinals = new int[columnNames_.length];
+      _getters = new Getter[columnNames_.length];
+      for (int i = 0; i < columnNames_.length; i++) {
+         _ordinals[i] = _resultSet.findColumn(columnNames_[i]);
+         _getters[i] = getGetter(readTypes_[i], metaData, _ordinals[i]);
+      }
+      if (_log.isDebugEnabled()) {
+         _log.debug("_ordinals->{}", Arrays.toString(_ordinals));
+         _log.debug("_getters->{}", Arrays.toString(_getters));
+      }
+   }
+
+   public ResultSet getResultSet() {
+      return _resultSet;
+   }
+
+   /**
+    * @return number of columns in each row
+    */
+   public int getColumnCount() {
+      return _ordinals.length;
+   }
+
+   /**
+    * @return a new row, from the current row of the ResultSet
+    */
+   public Object[] readRow() throws SQLException {
+      return this.readRow(new Object[_ordinals.length]);
+   }
+
+   /**
+    * fills row_, which must have at least as many elements as there are
+    * columns, from the current row of the ResultSet; so that callers that do
+    * not retain rows can reuse one buffer
+    *
+    * @return row_
+    */
+   public Object[] readRow(Object[] row_) throws SQLException {
+      for (int i = 0; i < _ordinals.length; i++)
+         row_[i] = _getters[i].get(_resultSet, _ordinals[i]);
+      return row_;
+   }
+
+   private static Getter getGetter(ReadType readType_, ResultSetMetaData metaData_,
+                                   int ordinal_) throws SQLException {
+      switch (readType_) {
+      case TEXT:
+         return Getter.STRING;
+      case STRING:
+         return Getter.STRING;
+      case TIMESTAMP:
+         return Getter.TIMESTAMP;
+      case OBJECT:
+         return getObjectGetter(metaData_.getColumnClassName(ordinal_));
+      default:
+         throw new RuntimeException(String.format("unrecognized ReadType->%s",
+            readType_));
+      }
+   }
+
+   /**
+    * @param className_
+    *           the class that the driver says getObject returns
+    */
+   private static Getter getObjectGetter(String className_) {
+      if (className_ == null)
+         return Getter.OBJECT;
+      if (className_.equals(String.class.getName()))
+         return Getter.STRING;
+      if (className_.equals(java.math.BigDecimal.class.getName()))
+         return Getter.BIG_DECIMAL;
+      if (className_.equals(Integer.class.getName()))
+         return Getter.INTEGER;
+      if (className_.equals(Long.class.getName()))
+         return Getter.LONG;
+      if (className_.equals(Double.class.getName()))
+         return Getter.DOUBLE;
+      return Getter.OBJECT;
+   }
+
+   public String toString() {
+      return String.format("%s[%s]", ClassUtils.getShortClassName(this.getClass()),
+         Arrays.toString(_getters));
+   }
+}
@@ -23,7 +23,7 @@ import java.sql.Connection
 import org.diffkit.db.DKDatabase;
 import org.diffkit.db.DKDBFlavor;
 import org.diffkit.db.DKDBH2Loader 
-import org.diffkit.db.DKDBInsertTableLoader;
+import org.diffkit.db.DKDBBatchTableLoader;
 import org.diffkit.db.DKDBTable;
 import org.diffkit.db.DKDBTableLoader 
 import org.diffkit.util.DKResourceUtil;
@@ -140,6 +140,6 @@ public class DBTestSetup {
    private static DKDBTableLoader getLoader(DKDatabase database_){
       if(database_.getFlavor()==DKDBFlavor.H2)
          return new DKDBH2Loader(database_)
-      return new DKDBInsertTableLoader(database_)
+      return new DKDBBatchTableLoader(database_)
    }
 }
@@ -0,0 +1,133 @@
+/**
+ * Copyright 2010-2011 Joseph Panico
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.diffkit.db.tst
+
+
+import java.io.File;
+
+import org.diffkit.db.DKDBBatchTableLoader;
+import org.diffkit.db.DKDBColumn 
+import org.diffkit.db.DKDBConnectionInfo 
+import org.diffkit.db.DKDatabase 
+import org.diffkit.db.DKDBFlavor 
+import org.diffkit.db.DKDBPrimaryKey 
+import org.diffkit.db.DKDBTable;
+import org.diffkit.util.DKResourceUtil 
+
+import groovy.util.GroovyTestCase;
+
+
+/**
+ * @author jpanico
+ */
+public class TestBatchTableLoader extends GroovyTestCase {
+   
+   public void testLoader(){
+      DKDBConnectionInfo connectionInfo = ['test', DKDBFlavor.H2,"mem:test.batchloader", null, null, 'test', 'test']
+      DKDatabase database = [connectionInfo]
+      def metaTable = this.createCustomerMetaTable()
+      if(database.tableExists(metaTable))
+         database.dropTable(metaTable)
+      database.createTable(metaTable)
+      
+      def csvFile = DKResourceUtil.findResourceAsFile('org/diffkit/db/tst/customers.csv')
+      assert csvFile
+      def loader = new DKDBBatchTableLoader(database)
+      assert loader.load( metaTable, csvFile)
+      
+      def rows = database.readAllRows(metaTable)
+      assert rows
+      assert rows.size() ==2
+      def rob = rows.find { it['FIRST_NAME'] == 'rob'}
+      assert rob
+      assert rob['LAST_NAME'] == 'smith'
+      assert rob['AGE'] == 50
+      assert rob['BIRTH'].class == java.sql.Date.class
+      assert rob['BIRTH'].toString() == '1956-12-12'
+      assert rob['NOW'].toString() == '2004-05-23 14:25:10.487'
+      def steve = rows.find { it['FIRST_NAME'] == 'steve'}
+      assert steve['ADDRESS'] == 'infinite, loop'
+      
+      database.dropTable(metaTable)
+   }
+   
+   public void testParallelLoad(){
+      DKDBConnectionInfo connectionInfo = ['test', DKDBFlavor.H2,"mem:test.batchloader.parallel", null, null, 'test', 'test']
+      DKDatabase database = [connectionInfo]
+      def metaTable = this.createCustomerMetaTable()
+      if(database.tableExists(metaTable))
+         database.dropTable(metaTable)
+      database.createTable(metaTable)
+      
+      // columns out of table order, and one extra column that is not loaded
+      File csvFile = File.createTempFile('TestBatchTableLoader', '.csv')
+      csvFile.deleteOnExit()
+      csvFile.withWriter { writer ->
+         writer.write('LAST_NAME,EXTRA,FIRST_NAME,ADDRESS,AGE,BIRTH\n')
+         for (i in 0..<1003)
+            writer.write("last$i,x,first$i,\"$i \"\"main\"\" st,\napt $i\",${i % 90},\n")
+      }
+      def loader = new DKDBBatchTableLoader(database, 3, 50)
+      assert loader.load( metaTable, csvFile)
+      
+      def rows = database.readAllRows(metaTable)
+      assert rows.size() == 1003
+      def row = rows.find { it['FIRST_NAME'] == 'first517'}
+      assert row
+      assert row['LAST_NAME'] == 'last517'
+      assert row['ADDRESS'] == '517 "main" st,\napt 517'
+      assert row['AGE'] == 67
+      assert row['BIRTH'] == null
+      assert row['CITY'] == null
+      
+      database.dropTable(metaTable)
+   }
+   
+   public void testBadValue(){
+      DKDBConnectionInfo connectionInfo = ['test', DKDBFlavor.H2,"mem:test.batchloader.bad", null, null, 'test', 'test']
+      DKDatabase database = [connectionInfo]
+      def metaTable = this.createCustomerMetaTable()
+      if(database.tableExists(metaTable))
+         database.dropTable(metaTable)
+      database.createTable(metaTable)
+      
+      File csvFile = File.createTempFile('TestBatchTableLoader', '.csv')
+      csvFile.deleteOnExit()
+      csvFile.text = 'FIRST_NAME,LAST_NAME,AGE\nrob,smith,fifty\n'
+      def loader = new DKDBBatchTableLoader(database, 2, 10)
+      shouldFail(RuntimeException) { loader.load( metaTable, csvFile) }
+      
+      csvFile.text = 'FIRST_NAME,LAST_NAME,AGE\nrob,smith\n'
+      shouldFail(IOException) { loader.load( metaTable, csvFile) }
+      database.dropTable(metaTable)
+   }
+   
+   private DKDBTable createCustomerMetaTable(){
+      DKDBColumn column1 = ['FIRST_NAME', 1, 'VARCHAR', 50, true]
+      DKDBColumn column2 = ['LAST_NAME', 2, 'VARCHAR', 50, true]
+      DKDBColumn column3 = ['ADDRESS', 3, 'VARCHAR', 50, true]
+      DKDBColumn column4 = ['CITY', 4, 'VARCHAR', 50, true]
+      DKDBColumn column5 = ['COUNTRY', 5, 'VARCHAR', 25, true]
+      DKDBColumn column6 = ['AGE', 6, 'INTEGER', -1, true]
+      DKDBColumn column7 = ['BIRTH', 7, 'DATE', -1, true]
+      DKDBColumn column8 = ['NOW', 8, 'TIMESTAMP', -1, true]
+      DKDBColumn[] columns = [column1, column2, column3, column4, column5, column6, column7, column8]
+      String[] pkColNames = ['FIRST_NAME', 'LAST_NAME']
+      DKDBPrimaryKey pk = ['pk_customer', pkColNames]
+      DKDBTable table = [ null, null, 'CUSTOMER', columns, pk]
+      return table
+   }
+}
@@ -0,0 +1,144 @@
+/**
+ * Copyright 2010-2011 Joseph Panico
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.diffkit.db.tst
+
+
+import java.sql.SQLException
+
+import org.diffkit.db.DKDBConnectionInfo;
+import org.diffkit.db.DKDBConnectionPool;
+import org.diffkit.db.DKDatabase 
+import org.diffkit.db.DKDBFlavor;
+
+import groovy.util.GroovyTestCase;
+
+
+/**
+ * @author jpanico
+ */
+public class TestDBConnectionPool extends GroovyTestCase {
+   
+   public void testSharedByConnectionInfo() {
+      DKDBConnectionInfo connectionInfo1 = ['test', DKDBFlavor.H2,"mem:test.pool", null, null, 'test', 'test']
+      DKDBConnectionInfo connectionInfo2 = ['test', DKDBFlavor.H2,"mem:test.pool", null, null, 'test', 'test']
+      DKDBConnectionInfo connectionInfo3 = ['test', DKDBFlavor.H2,"mem:test.pool3", null, null, 'test', 'test']
+      assert connectionInfo1 == connectionInfo2
+      assert connectionInfo1.hashCode() == connectionInfo2.hashCode()
+      assert connectionInfo1 != connectionInfo3
+      assert DKDBConnectionPool.getInstance(connectionInfo1).is(DKDBConnectionPool.getInstance(connectionInfo2))
+      assert !DKDBConnectionPool.getInstance(connectionInfo1).is(DKDBConnectionPool.getInstance(connectionInfo3))
+      DKDatabase database = [connectionInfo2]
+      assert database.canConnect()
+      assert DKDBConnectionPool.getInstance(connectionInfo1).borrowedCount == 0
+   }
+   
+   public void testReuse() {
+      def pool = this.createPool(2, 100, 60000, 60000)
+      try {
+         def connection1 = pool.connection
+         def statement = connection1.createStatement()
+         assert !connection1.isClosed()
+         assert pool.borrowedCount == 1
+         connection1.close()
+         assert connection1.isClosed()
+         // returned statements are closed
+         assert statement.isClosed()
+         shouldFail(SQLException) { connection1.createStatement() }
+         assert pool.borrowedCount == 0
+         assert pool.idleCount == 1
+         // closing twice is harmless
+         connection1.close()
+         assert pool.idleCount == 1
+         def connection2 = pool.connection
+         assert pool.size == 1
+         assert !connection2.is(connection1)
+         connection2.close()
+      }
+      finally {
+         pool.close()
+      }
+   }
+   
+   public void testRollbackOnReturn() {
+      def pool = this.createPool(1, 100, 60000, 60000)
+      def keepAlive = pool.connection
+      def pool2 = this.createPool(1, 100, 60000, 60000)
+      try {
+         keepAlive.createStatement().execute('CREATE TABLE POOL_TEST (ID INT)')
+         def connection = pool2.connection
+         connection.autoCommit = false
+         connection.createStatement().execute('INSERT INTO POOL_TEST VALUES (1)')
+         connection.close()
+         connection = pool2.connection
+         assert connection.autoCommit
+         def resultSet = connection.createStatement().executeQuery('SELECT COUNT(*) FROM POOL_TEST')
+         assert resultSet.next()
+         assert resultSet.getInt(1) == 0
+         connection.close()
+      }
+      finally {
+         keepAlive.createStatement().execute('DROP TABLE POOL_TEST')
+         keepAlive.close()
+         pool.close()
+         pool2.close()
+      }
+   }
+   
+   public void testBounded() {
+      def pool = this.createPool(1, 100, 60000, 60000)
+      try {
+         def connection = pool.connection
+         long start = System.currentTimeMillis()
+         shouldFail(SQLException) { pool.connection }
+         assert System.currentTimeMillis() - start >= 100
+         def waiter = Thread.start {
+            pool.connection.close()
+         }
+         Thread.sleep(20)
+         connection.close()
+         waiter.join()
+         assert pool.size == 1
+         assert pool.idleCount == 1
+      }
+      finally {
+         pool.close()
+      }
+   }
+   
+   public void testEvict() {
+      def pool = this.createPool(2, 100, 0, 0)
+      try {
+         def borrowed = pool.connection
+         pool.connection.close()
+         assert pool.size == 2
+         pool.evict()
+         // the idle one is closed, the borrowed one is reported but kept
+         assert pool.size == 1
+         assert pool.idleCount == 0
+         assert pool.borrowedCount == 1
+         borrowed.close()
+      }
+      finally {
+         pool.close()
+      }
+      shouldFail(RuntimeException) { pool.connection }
+   }
+   
+   private DKDBConnectionPool createPool(int maxSize_, long maxWaitMillis_, long idleTimeoutMillis_, long leakThresholdMillis_) {
+      DKDBConnectionInfo connectionInfo = ['test', DKDBFlavor.H2,"mem:test.pool", null, null, 'test', 'test']
+      return new DKDBConnectionPool(connectionInfo, maxSize_, maxWaitMillis_, idleTimeoutMillis_, leakThresholdMillis_)
+   }
+}
@@ -0,0 +1,104 @@
+/**
+ * Copyright 2010-2011 Joseph Panico
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.diffkit.diff.conf.tst
+
+
+import groovy.util.GroovyTestCase;
+
+import org.diffkit.diff.conf.DKBatchRunner
+import org.diffkit.util.DKResourceUtil;
+
+
+/**
+ * @author jpanico
+ */
+public class TestBatchRunner extends GroovyTestCase {
+   
+   public void testRun() {
+      def lhsFile = DKResourceUtil.findResourceAsFile('org/diffkit/diff/conf/tst/test.lhs.csv')
+      def rhsFile = DKResourceUtil.findResourceAsFile('org/diffkit/diff/conf/tst/test.rhs.csv')
+      File dir = File.createTempFile('TestBatchRunner', '')
+      dir.delete()
+      dir.mkdirs()
+      dir.deleteOnExit()
+      def diffsPlan = this.writePlan(dir, 'diffs', lhsFile, rhsFile)
+      def sameDataPlan = this.writePlan(dir, 'same', lhsFile, lhsFile)
+      def missingFilePlan = this.writePlan(dir, 'missing', lhsFile, new File(dir, 'nosuch.csv'))
+      File manifest = new File(dir, 'manifest.txt')
+      manifest.deleteOnExit()
+      manifest.text = "# nightly\n${diffsPlan}\n\n   ${sameDataPlan}  \n${missingFilePlan}\n"
+      
+      def plans = DKBatchRunner.readManifest(manifest)
+      assert plans == [diffsPlan, sameDataPlan, missingFilePlan]
+      
+      DKBatchRunner runner = new DKBatchRunner(plans, 2, 1)
+      def results = runner.run()
+      assert results.collect { it.plan } == plans
+      assert results[0].diffCount > 0
+      assert !results[0].failure
+      assert results[1].diffCount == 0
+      assert !results[1].failure
+      assert results[2].failure
+      assert DKBatchRunner.generateSummary(results).contains('3 plans, 1 with diffs, 1 failed')
+      assert DKBatchRunner.getExitCode(results, false) == DKBatchRunner.FAILURE_EXIT_CODE
+      assert DKBatchRunner.getExitCode(results[0..1], false) == 0
+      assert DKBatchRunner.getExitCode(results[0..1], true) == DKBatchRunner.DIFF_EXIT_CODE
+      assert DKBatchRunner.getExitCode(results[1..1], true) == 0
+   }
+   
+   public void testEmptyManifest() {
+      File manifest = File.createTempFile('TestBatchRunner', '.txt')
+      manifest.deleteOnExit()
+      manifest.text = "# nothing\n\n"
+      shouldFail(RuntimeException) {
+         DKBatchRunner.readManifest(manifest)
+      }
+      shouldFail(IllegalArgumentException) {
+         new DKBatchRunner(['x'], 0, 1)
+      }
+   }
+   
+   /**
+    * @return the URL of the plan file
+    */
+   private String writePlan(File dir_, String name_, File lhsFile_, File rhsFile_) {
+      File sinkFile = new File(dir_, "${name_}.diff")
+      sinkFile.deleteOnExit()
+      File planFile = new File(dir_, "${name_}.plan.xml")
+      planFile.deleteOnExit()
+      planFile.text = """<?xml version="1.0" encoding="UTF-8"?>
+<beans xmlns="http://www.springframework.org/schema/beans"
+   xmlns:xsi="http://www.w3.org/2001/XMLSchema-instance"
+   xsi:schemaLocation="http://www.springframework.org/schema/beans
+http://www.springframework.org/schema/beans/spring-beans-3.0.xsd">
+   <bean id="plan" class="org.diffkit.diff.conf.DKMagicPlan">
+      <property name="lhsFilePath" value="${lhsFile_.absolutePath}" />
+      <property name="rhsFilePath" value="${rhsFile_.absolutePath}" />
+      <property name="keyColumnNames">
+         <list>
+            <value>column1</value>
+            <value>column3</value>
+         </list>
+      </property>
+      <property name="sinkFilePath" value="${sinkFile.absolutePath}" />
+   </bean>
+</beans>
+"""
+      // FileSystemXmlApplicationContext resolves a bare absolute path against the
+      // working dir, so hand it a URL
+      return "file:${planFile.absolutePath}".toString()
+   }
+}
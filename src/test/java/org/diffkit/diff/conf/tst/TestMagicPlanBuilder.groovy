@@ -25,6 +25,7 @@ import org.diffkit.diff.diffor.DKEqualsDiffor
 import org.diffkit.diff.engine.DKSourceSink;
 import org.diffkit.diff.sns.DKDBSource 
 import org.diffkit.diff.sns.DKFileSource 
+import org.diffkit.diff.sns.DKSqlPatchSink
 import org.diffkit.util.DKResourceUtil;
 import org.diffkit.db.DKDBFlavor;
 
@@ -101,6 +102,40 @@ public class TestMagicPlanBuilder extends GroovyTestCase {
       assert tableComparison.displayIndexes == [[0],[0]]
    }
    
+   /**
+    * a SqlPatchSink inserts whole rows, so the FileSource must read every
+    * column, even when only some are diffed
+    */
+   public void testSqlPatchSinkReadsAllColumns(){
+      DBTestSetup.setupDB(new File('org/diffkit/diff/conf/tst/test.dbsetup.xml'), (File[])[new File('org/diffkit/diff/conf/tst/dbConnectionInfo.xml')], 'org/diffkit/diff/conf/tst/test.lhs.csv', 'org/diffkit/diff/conf/tst/test.rhs.csv')
+      DKDBConnectionInfo dbConnectionInfo = ['test', DKDBFlavor.H2, 'mem:conf.test;DB_CLOSE_DELAY=-1', null, null, 'test', 'test']
+      def lhsFile = DKResourceUtil.findResourceAsFile('org/diffkit/diff/conf/tst/test.lhs.csv')
+      def patchFile = File.createTempFile('testSqlPatchSinkReadsAllColumns', '.sql')
+      // the sink won't overwrite
+      patchFile.delete()
+      patchFile.deleteOnExit()
+
+      DKMagicPlan magicPlan = []
+      magicPlan.lhsFilePath = lhsFile.absolutePath
+      magicPlan.rhsDBTableName = 'RHS_TABLE'
+      magicPlan.dbConnectionInfo = dbConnectionInfo
+      magicPlan.diffColumnNames = (String[])['column2']
+      magicPlan.sqlPatchFilePath = patchFile.absolutePath
+      def builtPlan = new DKMagicPlanBuilder(magicPlan).build()
+      assert builtPlan.sink instanceof DKSqlPatchSink
+      assert builtPlan.lhsSource instanceof DKFileSource
+      assert builtPlan.lhsSource.model.columns.length == 3
+
+      // without the SqlPatchSink, the same plan projects
+      magicPlan = []
+      magicPlan.lhsFilePath = lhsFile.absolutePath
+      magicPlan.rhsDBTableName = 'RHS_TABLE'
+      magicPlan.dbConnectionInfo = dbConnectionInfo
+      magicPlan.diffColumnNames = (String[])['column2']
+      builtPlan = new DKMagicPlanBuilder(magicPlan).build()
+      assert builtPlan.lhsSource.model.columns.length < 3
+   }
+
    public void testFullyMagicDBBuild(){
       DBTestSetup.setupDB(new File('org/diffkit/diff/conf/tst/test.dbsetup.xml'), (File[])[new File('org/diffkit/diff/conf/tst/dbConnectionInfo.xml')], 'org/diffkit/diff/conf/tst/test.lhs.csv', 'org/diffkit/diff/conf/tst/test.rhs.csv')
       DKDBConnectionInfo dbConnectionInfo = ['test', DKDBFlavor.H2, 'mem:conf.test;DB_CLOSE_DELAY=-1', null, null, 'test', 'test']
@@ -34,9 +34,10 @@ public class TestTextDiffor extends GroovyTestCase {
    
    public void testNormalize() {
 	   def diffor = new DKTextDiffor(null)
-	   assert diffor.normalize('in this world of affordable') == 'in this world of affordable'
-	   assert diffor.normalize('in   this    world    of  affordable') == 'in this world of affordable'
-	   assert diffor.normalize('in  \n this\n    world\n\t\r  \r\t\n  of  affordable') == 'in this world of affordable'
+	   assert !diffor.isDiff('in this world of affordable', 'in this world of affordable', null)
+	   assert !diffor.isDiff('in   this    world    of  affordable', 'in this world of affordable', null)
+	   assert !diffor.isDiff('in  \n this\n    world\n\t\r  \r\t\n  of  affordable', 'in this world of affordable', null)
+	   assert diffor.isDiff('in  \n this\n    world\n\t\r  \r\t\n  of  affordable', 'in this world of  afordable', null)
    }
    
    public void testDiff(){
@@ -51,4 +52,44 @@ public class TestTextDiffor extends GroovyTestCase {
       assert !diffor.isDiff( 'hel\nlo\r', 'hel lo', null)
       
    }
+
+   public void testIgnoreChars(){
+      def diffor = new DKTextDiffor("-#")
+      assert !diffor.isDiff( 'ab c', '-a-b- #c# ', null)
+      assert !diffor.isDiff( 'a  c', 'a -# c', null)
+      assert !diffor.isDiff( '--', '  ', null)
+      assert diffor.isDiff( '--', 'a', null)
+      assert diffor.isDiff( 'ab c', 'abc', null)
+   }
+
+   public void testTrailingNoise(){
+      def diffor = new DKTextDiffor(null)
+      assert !diffor.isDiff( 'hello world   ', '  hello \t world', null)
+      assert !diffor.isDiff( '   ', '\n', null)
+      assert diffor.isDiff( '   ', 'x', null)
+      assert diffor.isDiff( 'hello world', 'hello  world!', null)
+      assert diffor.isDiff( 'hello world', 'hello', null)
+      assert diffor.isDiff( 'hello', 'hello world', null)
+      assert diffor.isDiff( 'a\fb', 'a b', null)
+   }
+
+   public void testIgnoreCase(){
+      def diffor = new DKTextDiffor(null)
+      assert diffor.isDiff( 'Hello  World', 'hello world', null)
+      diffor = new DKTextDiffor(null, true, null)
+      assert !diffor.isDiff( 'Hello  World', 'hello world', null)
+      assert diffor.isDiff( 'Hello  World', 'hello word', null)
+   }
+
+   public void testNormalForm(){
+      def composed = 'caf\u00e9'
+      def decomposed = 'cafe\u0301'
+      def diffor = new DKTextDiffor(null)
+      assert diffor.isDiff( composed, decomposed, null)
+      diffor = new DKTextDiffor(null, false, java.text.Normalizer.Form.NFC)
+      assert !diffor.isDiff( composed, decomposed, null)
+      assert diffor.isDiff( 'CAF\u00c9', decomposed, null)
+      diffor = new DKTextDiffor(null, true, java.text.Normalizer.Form.NFC)
+      assert !diffor.isDiff( 'CAF\u00c9 ', decomposed, null)
+   }
 }
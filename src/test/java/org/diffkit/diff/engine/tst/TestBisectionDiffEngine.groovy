@@ -0,0 +1,194 @@
+/**
+ * Copyright 2010-2011 Joseph Panico
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.diffkit.diff.engine.tst
+
+
+import groovy.util.GroovyTestCase
+
+import org.diffkit.db.DKDBColumn
+import org.diffkit.db.DKDBConnectionInfo
+import org.diffkit.db.DKDatabase
+import org.diffkit.db.DKDBFlavor
+import org.diffkit.db.DKDBPrimaryKey
+import org.diffkit.db.DKDBTable;
+import org.diffkit.diff.diffor.DKEqualsDiffor;
+import org.diffkit.diff.engine.DKColumnComparison
+import org.diffkit.diff.engine.DKDiff;
+import org.diffkit.diff.engine.DKDiffEngine
+import org.diffkit.diff.engine.DKBisectionDiffEngine
+import org.diffkit.diff.engine.DKStandardTableComparison
+import org.diffkit.diff.engine.DKTableModel
+import org.diffkit.diff.sns.DKDBSource
+import org.diffkit.diff.sns.DKListSink
+import org.diffkit.diff.sns.DKTableModelUtil;
+
+
+/**
+ * @author jpanico
+ */
+public class TestBisectionDiffEngine extends GroovyTestCase {
+
+   public void testIntegerKey(){
+      this.runComparison('INTEGER')
+   }
+
+   public void testStringKey(){
+      this.runComparison('VARCHAR')
+   }
+
+   public void testIdentical(){
+      def database = this.getDatabase()
+      def connection = database.connection
+      def lhsDBTable = this.createDBTable('BISECTION_LHS', 'INTEGER')
+      def rhsDBTable = this.createDBTable('BISECTION_RHS', 'INTEGER')
+      assert database.createTable( lhsDBTable)
+      assert database.createTable( rhsDBTable)
+      try {
+         for (i in 0..999) {
+            database.executeUpdate("INSERT INTO BISECTION_LHS VALUES ($i, 'value$i')")
+            database.executeUpdate("INSERT INTO BISECTION_RHS VALUES ($i, 'value$i')")
+         }
+         assert !this.diff(new DKBisectionDiffEngine(4, 50), lhsDBTable, rhsDBTable, database)
+         String[] columnNames = ['column1', 'column2']
+         def lhsChecksum = this.createDBSource(lhsDBTable, database).getAggregateChecksum(columnNames)
+         // the row count, and a SUM for each 32 bits of the leading 128 of the digest
+         assert lhsChecksum.length == 5
+         assert lhsChecksum == this.createDBSource(rhsDBTable, database).getAggregateChecksum(columnNames)
+         shouldFail(IllegalArgumentException) {
+            this.createDBSource(lhsDBTable, database).getAggregateChecksum(new String[0])
+         }
+      }
+      finally {
+         assert database.dropTable( lhsDBTable)
+         assert database.dropTable( rhsDBTable)
+         connection.close()
+      }
+   }
+
+   /**
+    * LOBs can't be digested, so it falls back to the full diff
+    */
+   public void testLob(){
+      def database = this.getDatabase()
+      def connection = database.connection
+      def lhsDBTable = this.createDBTable('BISECTION_LHS', 'INTEGER', 'CLOB')
+      def rhsDBTable = this.createDBTable('BISECTION_RHS', 'INTEGER', 'CLOB')
+      assert database.createTable( lhsDBTable)
+      assert database.createTable( rhsDBTable)
+      try {
+         for (i in 0..99) {
+            database.executeUpdate("INSERT INTO BISECTION_LHS VALUES ($i, 'value$i')")
+            database.executeUpdate("INSERT INTO BISECTION_RHS VALUES ($i, ${(i == 42) ? "'xxxx'" : "'value$i'"})")
+         }
+         assert this.createDBSource(lhsDBTable, database).getAggregateChecksum((String[])['column1', 'column2']) == null
+         def plainDiffs = this.diff(new DKDiffEngine(), lhsDBTable, rhsDBTable, database)
+         assert plainDiffs.size() == 1
+         assert this.diff(new DKBisectionDiffEngine(4, 50), lhsDBTable, rhsDBTable, database) == plainDiffs
+      }
+      finally {
+         assert database.dropTable( lhsDBTable)
+         assert database.dropTable( rhsDBTable)
+         connection.close()
+      }
+   }
+
+   /**
+    * the bisection engine must produce the same diffs as the plain engine; only
+    * the rowSteps differ, since it only merges the leaf ranges that disagree
+    */
+   private void runComparison(String keyType_){
+      def database = this.getDatabase()
+      def connection = database.connection
+      def lhsDBTable = this.createDBTable('BISECTION_LHS', keyType_)
+      def rhsDBTable = this.createDBTable('BISECTION_RHS', keyType_)
+      assert database.createTable( lhsDBTable)
+      assert database.createTable( rhsDBTable)
+      try {
+         this.runComparison(lhsDBTable, rhsDBTable, keyType_, database)
+      }
+      finally {
+         assert database.dropTable( lhsDBTable)
+         assert database.dropTable( rhsDBTable)
+         connection.close()
+      }
+   }
+
+   private void runComparison(DKDBTable lhsDBTable_, DKDBTable rhsDBTable_, String keyType_, DKDatabase database_){
+      for (i in 0..1999) {
+         def key = (keyType_ == 'INTEGER') ? "$i" : "'${String.format('%04d', i)}'"
+         if (i != 1234)
+            database_.executeUpdate("INSERT INTO BISECTION_LHS VALUES ($key, 'value$i')")
+         if (i != 321)
+            database_.executeUpdate("INSERT INTO BISECTION_RHS VALUES ($key, ${(i == 777) ? "'xxxx'" : ((i == 1500) ? 'NULL' : "'value$i'")})")
+      }
+
+      def plainDiffs = this.diff(new DKDiffEngine(), lhsDBTable_, rhsDBTable_, database_)
+      def bisectionDiffs = this.diff(new DKBisectionDiffEngine(4, 50), lhsDBTable_, rhsDBTable_, database_)
+      assert plainDiffs.size() == 4
+      assert bisectionDiffs.collect { it.subList(1,4) } == plainDiffs.collect { it.subList(1,4) }
+      // only the leaf ranges were merged
+      assert bisectionDiffs.last()[0] < 4 * 50
+
+      def lhsSource = this.createDBSource(lhsDBTable_, database_)
+      def rhsSource = this.createDBSource(rhsDBTable_, database_)
+      String[] columnNames = ['column1', 'column2']
+      assert lhsSource.getAggregateChecksum(columnNames)[0] == 1999
+      def boundary = lhsSource.getPartitionBoundaries(2)[0]
+      def lhsChecksum = lhsSource.createPartition(boundary, null).getAggregateChecksum(columnNames)
+      def rhsChecksum = rhsSource.createPartition(boundary, null).getAggregateChecksum(columnNames)
+      assert lhsChecksum[0] == 1000
+      assert rhsChecksum[0] == 1001
+      assert lhsChecksum[1] != rhsChecksum[1]
+   }
+
+   private List diff(DKDiffEngine engine_, DKDBTable lhsDBTable_, DKDBTable rhsDBTable_, DKDatabase database_){
+      def lhsSource = this.createDBSource(lhsDBTable_, database_)
+      def rhsSource = this.createDBSource(rhsDBTable_, database_)
+      DKListSink sink = new DKListSink()
+      engine_.diff(lhsSource, rhsSource, sink, this.createComparison(lhsSource.model, rhsSource.model), null)
+      return sink.diffs.collect { [it.rowStep, it.kind, it.columnStep, it.rowKeyValues as List] }
+   }
+
+   private DKStandardTableComparison createComparison(DKTableModel lhsTableModel_, DKTableModel rhsTableModel_) {
+      DKColumnComparison[] map = DKColumnComparison.createColumnPlans( lhsTableModel_, rhsTableModel_, (int[]) [1], DKEqualsDiffor.instance)
+      return new DKStandardTableComparison(lhsTableModel_, rhsTableModel_, DKDiff.Kind.BOTH, map, (int[])[0], (int[][])[[0],[0]], (long)1000)
+   }
+
+   private DKDBSource createDBSource(DKDBTable table_, DKDatabase database_) {
+      def tableModel = DKTableModelUtil.createDefaultTableModel(database_.flavor,table_, null)
+      assert tableModel
+      return new DKDBSource(table_.tableName, null, database_, tableModel, null, null)
+   }
+
+   private DKDatabase getDatabase(){
+      DKDBConnectionInfo connectionInfo = ['test', DKDBFlavor.H2,"mem:test.bisection", null, null, 'test', 'test']
+      return  new DKDatabase(connectionInfo)
+   }
+
+   private DKDBTable createDBTable(String tablename_, String keyType_){
+      return this.createDBTable(tablename_, keyType_, 'VARCHAR')
+   }
+
+   private DKDBTable createDBTable(String tablename_, String keyType_, String valueType_){
+      DKDBColumn column1 = ['column1', 1, keyType_, 20, true]
+      DKDBColumn column2 = ['column2', 2, valueType_, 20, true]
+      DKDBColumn[] columns = [column1, column2]
+      String[] pkColNames = ['column1']
+      DKDBPrimaryKey pk = ['pk_' + tablename_, pkColNames]
+      DKDBTable table = [null, null, tablename_, columns, pk]
+      return table
+   }
+}
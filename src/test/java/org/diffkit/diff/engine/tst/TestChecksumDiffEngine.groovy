@@ -0,0 +1,194 @@
+/**
+ * Copyright 2010-2011 Joseph Panico
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.diffkit.diff.engine.tst
+
+
+import groovy.util.GroovyTestCase
+
+import org.diffkit.db.DKDBColumn
+import org.diffkit.db.DKDBConnectionInfo
+import org.diffkit.db.DKDatabase
+import org.diffkit.db.DKDBFlavor
+import org.diffkit.db.DKDBPrimaryKey
+import org.diffkit.db.DKDBTable;
+import org.diffkit.diff.diffor.DKEqualsDiffor;
+import org.diffkit.diff.engine.DKColumnComparison
+import org.diffkit.diff.engine.DKDiff;
+import org.diffkit.diff.engine.DKDiffEngine
+import org.diffkit.diff.engine.DKChecksumDiffEngine
+import org.diffkit.diff.engine.DKStandardTableComparison
+import org.diffkit.diff.engine.DKTableModel
+import org.diffkit.diff.sns.DKDBSource
+import org.diffkit.diff.sns.DKListSink
+import org.diffkit.diff.sns.DKTableModelUtil;
+
+
+/**
+ * @author jpanico
+ */
+public class TestChecksumDiffEngine extends GroovyTestCase {
+
+   public void testIntegerKey(){
+      this.runComparison('INTEGER')
+   }
+
+   public void testStringKey(){
+      this.runComparison('VARCHAR')
+   }
+
+   /**
+    * values that only differ beyond what a VARCHAR(4000) cast would keep
+    */
+   public void testLongText(){
+      def prefix = 'x' * 5000
+      def diffs = this.runTypedComparison('VARCHAR', 10000, ["'${prefix}a'", "'${prefix}b'", "'short'"], ["'${prefix}a'", "'${prefix}c'", "'short'"], true)
+      assert diffs.collect { it.subList(1,4) } == [[DKDiff.Kind.COLUMN_DIFF, 1, [1]]]
+   }
+
+   /**
+    * values that only differ in the seconds, or the millis, of the time of day
+    */
+   public void testTimeOfDay(){
+      def diffs = this.runTypedComparison('TIMESTAMP', 0,
+         ["TIMESTAMP '2010-01-01 10:00:00.000'", "TIMESTAMP '2010-01-01 10:00:00.000'", "TIMESTAMP '2010-01-01 10:00:00.000'"],
+         ["TIMESTAMP '2010-01-01 10:00:00.000'", "TIMESTAMP '2010-01-01 10:00:01.000'", "TIMESTAMP '2010-01-01 10:00:00.001'"], true)
+      assert diffs.collect { it.subList(1,4) } == [[DKDiff.Kind.COLUMN_DIFF, 1, [1]], [DKDiff.Kind.COLUMN_DIFF, 1, [2]]]
+   }
+
+   /**
+    * LOBs are not digested; the engine falls back to the full diff
+    */
+   public void testLob(){
+      def diffs = this.runTypedComparison('CLOB', 0, ["'a'", "'b'"], ["'a'", "'c'"], false)
+      assert diffs.collect { it.subList(1,4) } == [[DKDiff.Kind.COLUMN_DIFF, 1, [1]]]
+   }
+
+   /**
+    * @return the diffs from the checksum engine, after checking that they are
+    *         the same as from the plain engine
+    */
+   private List runTypedComparison(String valueType_, int valueSize_, List lhsValues_, List rhsValues_, boolean digested_){
+      def database = this.getDatabase()
+      def connection = database.connection
+      def lhsDBTable = this.createDBTable('CHECKSUM_LHS', 'INTEGER', valueType_, valueSize_)
+      def rhsDBTable = this.createDBTable('CHECKSUM_RHS', 'INTEGER', valueType_, valueSize_)
+      assert database.createTable( lhsDBTable)
+      assert database.createTable( rhsDBTable)
+      try {
+         lhsValues_.eachWithIndex { value, i -> database.executeUpdate("INSERT INTO CHECKSUM_LHS VALUES ($i, $value)") }
+         rhsValues_.eachWithIndex { value, i -> database.executeUpdate("INSERT INTO CHECKSUM_RHS VALUES ($i, $value)") }
+         def lhsSource = this.createDBSource(lhsDBTable, database)
+         assert (lhsSource.createChecksumSource((String[])['column2']) != null) == digested_
+         def plainDiffs = this.diff(new DKDiffEngine(), lhsDBTable, rhsDBTable, database)
+         def checksumDiffs = this.diff(new DKChecksumDiffEngine(), lhsDBTable, rhsDBTable, database)
+         assert checksumDiffs.collect { it.subList(1,4) } == plainDiffs.collect { it.subList(1,4) }
+         return checksumDiffs
+      }
+      finally {
+         assert database.dropTable( lhsDBTable)
+         assert database.dropTable( rhsDBTable)
+         connection.close()
+      }
+   }
+
+   /**
+    * the checksum engine must produce the same diffs as the plain engine; only
+    * the rowSteps differ, since it only merges the rows whose checksums differ
+    */
+   private void runComparison(String keyType_){
+      def database = this.getDatabase()
+      def connection = database.connection
+      def lhsDBTable = this.createDBTable('CHECKSUM_LHS', keyType_)
+      def rhsDBTable = this.createDBTable('CHECKSUM_RHS', keyType_)
+      assert database.createTable( lhsDBTable)
+      assert database.createTable( rhsDBTable)
+      try {
+         this.runComparison(lhsDBTable, rhsDBTable, keyType_, database)
+      }
+      finally {
+         assert database.dropTable( lhsDBTable)
+         assert database.dropTable( rhsDBTable)
+         connection.close()
+      }
+   }
+
+   private void runComparison(DKDBTable lhsDBTable_, DKDBTable rhsDBTable_, String keyType_, DKDatabase database_){
+      for (i in 0..199) {
+         def key = (keyType_ == 'INTEGER') ? "$i" : "'${String.format('%04d', i)}'"
+         if (i % 17 != 0)
+            database_.executeUpdate("INSERT INTO CHECKSUM_LHS VALUES ($key, 'value$i')")
+         if (i % 23 != 0)
+            database_.executeUpdate("INSERT INTO CHECKSUM_RHS VALUES ($key, ${(i % 11 == 0) ? "'xxxx'" : ((i % 29 == 0) ? 'NULL' : "'value$i'")})")
+      }
+
+      def plainDiffs = this.diff(new DKDiffEngine(), lhsDBTable_, rhsDBTable_, database_)
+      def checksumDiffs = this.diff(new DKChecksumDiffEngine(), lhsDBTable_, rhsDBTable_, database_)
+      assert plainDiffs.size() == 42
+      assert checksumDiffs.collect { it.subList(1,4) } == plainDiffs.collect { it.subList(1,4) }
+      // only the mismatched rows were merged
+      assert checksumDiffs.last()[0] == 42
+      // too many keys to fetch, so it falls back to the full diff
+      def fallbackDiffs = this.diff(new DKChecksumDiffEngine(5), lhsDBTable_, rhsDBTable_, database_)
+      assert fallbackDiffs == plainDiffs
+
+      def lhsSource = this.createDBSource(lhsDBTable_, database_)
+      assert lhsSource.checksumKind == 'H2'
+      def checksumSource = lhsSource.createChecksumSource((String[])['column2'])
+      checksumSource.open(null)
+      def firstRow = checksumSource.nextRow
+      checksumSource.close(null)
+      assert firstRow.length == 2
+      assert firstRow[1] instanceof byte[]
+   }
+
+   private List diff(DKDiffEngine engine_, DKDBTable lhsDBTable_, DKDBTable rhsDBTable_, DKDatabase database_){
+      def lhsSource = this.createDBSource(lhsDBTable_, database_)
+      def rhsSource = this.createDBSource(rhsDBTable_, database_)
+      DKListSink sink = new DKListSink()
+      engine_.diff(lhsSource, rhsSource, sink, this.createComparison(lhsSource.model, rhsSource.model), null)
+      return sink.diffs.collect { [it.rowStep, it.kind, it.columnStep, it.rowKeyValues as List] }
+   }
+
+   private DKStandardTableComparison createComparison(DKTableModel lhsTableModel_, DKTableModel rhsTableModel_) {
+      DKColumnComparison[] map = DKColumnComparison.createColumnPlans( lhsTableModel_, rhsTableModel_, (int[]) [1], DKEqualsDiffor.instance)
+      return new DKStandardTableComparison(lhsTableModel_, rhsTableModel_, DKDiff.Kind.BOTH, map, (int[])[0], (int[][])[[0],[0]], (long)1000)
+   }
+
+   private DKDBSource createDBSource(DKDBTable table_, DKDatabase database_) {
+      def tableModel = DKTableModelUtil.createDefaultTableModel(database_.flavor,table_, null)
+      assert tableModel
+      return new DKDBSource(table_.tableName, null, database_, tableModel, null, null)
+   }
+
+   private DKDatabase getDatabase(){
+      DKDBConnectionInfo connectionInfo = ['test', DKDBFlavor.H2,"mem:test.checksum", null, null, 'test', 'test']
+      return  new DKDatabase(connectionInfo)
+   }
+
+   private DKDBTable createDBTable(String tablename_, String keyType_){
+      return this.createDBTable(tablename_, keyType_, 'VARCHAR', 20)
+   }
+
+   private DKDBTable createDBTable(String tablename_, String keyType_, String valueType_, int valueSize_){
+      DKDBColumn column1 = ['column1', 1, keyType_, 20, true]
+      DKDBColumn column2 = ['column2', 2, valueType_, valueSize_, true]
+      DKDBColumn[] columns = [column1, column2]
+      String[] pkColNames = ['column1']
+      DKDBPrimaryKey pk = ['pk_' + tablename_, pkColNames]
+      DKDBTable table = [null, null, tablename_, columns, pk]
+      return table
+   }
+}
@@ -33,6 +33,7 @@ import org.diffkit.db.DKDBTable;
 import org.diffkit.db.DKDBTableDataAccess 
 import org.diffkit.db.DKDBTableLoader 
 import org.diffkit.diff.diffor.DKEqualsDiffor;
+import org.diffkit.diff.engine.DKCheckpoint
 import org.diffkit.diff.engine.DKColumnComparison 
 import org.diffkit.diff.engine.DKColumnDiff 
 import org.diffkit.diff.engine.DKColumnModel 
@@ -282,6 +283,76 @@ public class TestEngine extends GroovyTestCase {
       assert expected == actual
    }
    
+   /**
+    * the first run dies partway through; the second picks up from the last
+    * checkpoint and must produce exactly the output of an uninterrupted run
+    */
+   public void testResumeFromCheckpoint(){
+      def lhsFile = this.getTestFile('lhs1.csv')
+      def rhsFile = this.getTestFile('rhs1.csv')
+      DKTableModel tableModel = this.createSimpleTableModel()
+      DKStandardTableComparison tableComparison = this.createSimpleComparison()
+      File sinkFile = ['./testResumeFromCheckpoint.diff']
+      if(sinkFile.exists())
+         sinkFile.delete()
+      File checkpointFile = ['./testResumeFromCheckpoint.checkpoint']
+      DKCheckpoint.delete(checkpointFile)
+      DKDiffEngine engine = new DKDiffEngine(false, checkpointFile.path, 1)
+      
+      DKFileSink failingSink = new DKFileSink(sinkFile.path) {
+         public void record(DKDiff diff_, DKContext context_) throws IOException {
+            if (this.diffCount == 3)
+               throw new IOException('simulated crash')
+            super.record(diff_, context_)
+         }
+      }
+      shouldFail(IOException) {
+         engine.diff(new DKFileSource(lhsFile.absolutePath,  tableModel, null, null,'\\,', true, true),
+            new DKFileSource(rhsFile.absolutePath, tableModel, null, null,'\\,',  true, true),
+            failingSink, tableComparison, null)
+      }
+      DKCheckpoint checkpoint = DKCheckpoint.read(checkpointFile)
+      assert checkpoint
+      assert checkpoint.rowStep > 0
+      
+      DKFileSink sink = new DKFileSink(sinkFile.path)
+      engine.diff(new DKFileSource(lhsFile.absolutePath,  tableModel, null, null,'\\,', true, true),
+         new DKFileSource(rhsFile.absolutePath, tableModel, null, null,'\\,',  true, true),
+         sink, tableComparison, null)
+      assert sink.diffCount == 6
+      assert !checkpointFile.exists()
+      
+      String expected = DKFileUtil.readFullyAsString( this.getTestFile('testSameModelFromFile.diff'))
+      String actual = DKFileUtil.readFullyAsString( sinkFile)
+      assert expected == actual
+   }
+   
+   /**
+    * the recorded diffs must not see later rows through the reused buffers
+    */
+   public void testReuseRowBuffers(){
+      def lhsFile = this.getTestFile('lhs1.csv')
+      def rhsFile = this.getTestFile('rhs1.csv')
+      DKTableModel tableModel = this.createSimpleTableModel()
+      DKStandardTableComparison tableComparison = this.createSimpleComparison()
+      def sinks = [false, true].collect { reuse ->
+         DKFileSource lhsSource = new DKFileSource(lhsFile.absolutePath,  tableModel, null, null,'\\,', true, true)
+         DKFileSource rhsSource = new DKFileSource(rhsFile.absolutePath, tableModel, null, null,'\\,',  true, true)
+         DKListSink sink = new DKListSink()
+         DKDiffEngine engine = new DKDiffEngine(reuse)
+         assert engine.reuseRowBuffers == reuse
+         engine.diff(lhsSource, rhsSource, sink, tableComparison, null)
+         return sink
+      }
+      assert sinks[1].diffCount == 6
+      def rows = sinks.collect { sink ->
+         sink.diffs.collect { diff ->
+            (diff.kind == DKDiff.Kind.ROW_DIFF) ? [diff.row as List] : [diff.row.lhsRow as List, diff.row.rhsRow as List]
+         }
+      }
+      assert rows[1] == rows[0]
+   }
+   
    private File getTestFile(String filename_){
       String sourceFilePath = ClassUtils.getPackageName(this.getClass()) 
       sourceFilePath = DKStringUtil.packageNameToResourcePath(sourceFilePath) + filename_
@@ -0,0 +1,139 @@
+/**
+ * Copyright 2010-2011 Joseph Panico
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.diffkit.diff.engine.tst
+
+
+import groovy.util.GroovyTestCase
+
+import org.diffkit.db.DKDBColumn
+import org.diffkit.db.DKDBConnectionInfo
+import org.diffkit.db.DKDatabase
+import org.diffkit.db.DKDBFlavor
+import org.diffkit.db.DKDBPrimaryKey
+import org.diffkit.db.DKDBTable
+import org.diffkit.diff.diffor.DKEqualsDiffor
+import org.diffkit.diff.engine.DKColumnComparison
+import org.diffkit.diff.engine.DKContext
+import org.diffkit.diff.engine.DKDiff
+import org.diffkit.diff.engine.DKDiffEngine
+import org.diffkit.diff.engine.DKFlightRecorder
+import org.diffkit.diff.engine.DKStandardTableComparison
+import org.diffkit.diff.engine.DKTableModel
+import org.diffkit.diff.engine.DKFlightRecorder.EventKind
+import org.diffkit.diff.sns.DKDBSource
+import org.diffkit.diff.sns.DKListSink
+import org.diffkit.diff.sns.DKTableModelUtil
+
+
+/**
+ * jdk.jfr is only there on newer JVMs, so it is only reached reflectively
+ * here too, and the recording tests pass trivially without it
+ * 
+ * @author jpanico
+ */
+public class TestFlightRecorder extends GroovyTestCase {
+
+   public void testNotRecording() {
+      if (!DKFlightRecorder.available)
+         assert !DKFlightRecorder.isEnabled(EventKind.DIFF)
+      // no recording; a no-op that must not complain about its values
+      DKFlightRecorder.begin(EventKind.SINK_FLUSH).commit(1L, 'sink', 2L, false)
+      assert DKFlightRecorder.createFetchTimer(1L, 'source', 10) == null
+      assert DKFlightRecorder.getContextId(null) == 0
+   }
+
+   public void testDBDiff() {
+      if (!DKFlightRecorder.available)
+         return
+      def recording = Class.forName('jdk.jfr.Recording').newInstance()
+      EventKind.values().each { recording.enable(it.name) }
+      def database = this.getDatabase()
+      def lhsDBTable = this.createDBTable('JFR_LHS')
+      def rhsDBTable = this.createDBTable('JFR_RHS')
+      assert database.createTable( lhsDBTable)
+      assert database.createTable( rhsDBTable)
+      def events
+      DKContext context
+      try {
+         for (i in 0..49) {
+            database.executeUpdate("INSERT INTO JFR_LHS VALUES ($i, 'value$i')")
+            if (i % 10 != 0)
+               database.executeUpdate("INSERT INTO JFR_RHS VALUES ($i, 'value$i')")
+         }
+         def lhsSource = this.createDBSource(lhsDBTable, database)
+         def rhsSource = this.createDBSource(rhsDBTable, database)
+         DKListSink sink = new DKListSink()
+         recording.start()
+         context = new DKDiffEngine().diff(lhsSource, rhsSource, sink, this.createComparison(lhsSource.model, rhsSource.model), null)
+         recording.stop()
+         assert sink.diffCount == 5
+         def file = File.createTempFile('TestFlightRecorder', '.jfr')
+         file.deleteOnExit()
+         recording.dump(file.toPath())
+         events = Class.forName('jdk.jfr.consumer.RecordingFile').readAllEvents(file.toPath())
+      }
+      finally {
+         recording.close()
+         assert database.dropTable( lhsDBTable)
+         assert database.dropTable( rhsDBTable)
+         database.connection.close()
+      }
+      events = events.findAll { it.eventType.name.startsWith('org.diffkit.') && it.getLong('contextId') in [0L, context._id] }
+      def byName = events.groupBy { it.eventType.name }
+
+      def diffStart = byName[EventKind.DIFF_START.name]
+      assert diffStart.size() == 1
+      assert diffStart[0].getString('lhsTable') == 'JFR_LHS'
+      def diff = byName[EventKind.DIFF.name]
+      assert diff.size() == 1
+      assert diff[0].getLong('diffCount') == 5
+      assert diff[0].getLong('rowStep') == context.rowStep
+      assert byName[EventKind.SOURCE_OPEN.name].size() == 2
+      def queries = byName[EventKind.SOURCE_QUERY.name]
+      assert queries.size() == 2
+      assert queries.find { it.getString('sql').contains('JFR_RHS') }
+      def batches = byName[EventKind.FETCH_BATCH.name]
+      assert batches.findAll { it.getString('source').contains('JFR_LHS') }.sum { it.getInt('rowCount') } == 50
+      assert batches.findAll { it.getString('source').contains('JFR_RHS') }.sum { it.getInt('rowCount') } == 45
+      def flushes = byName[EventKind.SINK_FLUSH.name]
+      assert flushes.size() == 1
+      assert flushes[0].getBoolean('isClose')
+   }
+
+   private DKStandardTableComparison createComparison(DKTableModel lhsTableModel_, DKTableModel rhsTableModel_) {
+      DKColumnComparison[] map = DKColumnComparison.createColumnPlans( lhsTableModel_, rhsTableModel_, (int[]) [1], DKEqualsDiffor.instance)
+      return new DKStandardTableComparison(lhsTableModel_, rhsTableModel_, DKDiff.Kind.BOTH, map, (int[])[0], (int[][])[[0],[0]], (long)1000)
+   }
+
+   private DKDBSource createDBSource(DKDBTable table_, DKDatabase database_) {
+      def tableModel = DKTableModelUtil.createDefaultTableModel(database_.flavor,table_, null)
+      return new DKDBSource(table_.tableName, null, database_, tableModel, null, null)
+   }
+
+   private DKDatabase getDatabase(){
+      DKDBConnectionInfo connectionInfo = ['test', DKDBFlavor.H2,"mem:test.jfr", null, null, 'test', 'test']
+      return  new DKDatabase(connectionInfo)
+   }
+
+   private DKDBTable createDBTable(String tablename_){
+      DKDBColumn column1 = ['column1', 1, 'INTEGER', 20, true]
+      DKDBColumn column2 = ['column2', 2, 'VARCHAR', 20, true]
+      DKDBColumn[] columns = [column1, column2]
+      String[] pkColNames = ['column1']
+      DKDBPrimaryKey pk = ['pk_' + tablename_, pkColNames]
+      return new DKDBTable(null, null, tablename_, columns, pk)
+   }
+}
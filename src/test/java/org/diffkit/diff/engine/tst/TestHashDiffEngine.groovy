@@ -0,0 +1,143 @@
+/**
+ * Copyright 2010-2011 Joseph Panico
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.diffkit.diff.engine.tst
+
+
+import groovy.util.GroovyTestCase
+
+import org.diffkit.diff.diffor.DKEqualsDiffor;
+import org.diffkit.diff.engine.DKAdaptiveDiffEngine
+import org.diffkit.diff.engine.DKColumnComparison
+import org.diffkit.diff.engine.DKDiff;
+import org.diffkit.diff.engine.DKDiffEngine
+import org.diffkit.diff.engine.DKHashDiffEngine
+import org.diffkit.diff.engine.DKStandardTableComparison
+import org.diffkit.diff.engine.DKTableModel
+import org.diffkit.diff.sns.DKListSink
+import org.diffkit.diff.sns.DKListSource
+
+
+/**
+ * @author jpanico
+ */
+public class TestHashDiffEngine extends GroovyTestCase {
+
+   public void testInMemory(){
+      this.runComparison(new DKHashDiffEngine())
+   }
+
+   public void testSpill(){
+      def tempDir = File.createTempFile('dkhashtest', null)
+      tempDir.delete()
+      tempDir.mkdirs()
+      // small enough that the build side must spill
+      this.runComparison(new DKHashDiffEngine(2000, tempDir.absolutePath, 5))
+      assert tempDir.listFiles().length == 0
+      tempDir.delete()
+   }
+
+   /**
+    * two spill partitions are nowhere near enough, so they must be
+    * repartitioned, more than once
+    */
+   public void testRepartition(){
+      def tempDir = File.createTempFile('dkhashtest', null)
+      tempDir.delete()
+      tempDir.mkdirs()
+      this.runComparison(new DKHashDiffEngine(8000, tempDir.absolutePath, 2))
+      assert tempDir.listFiles().length == 0
+      tempDir.delete()
+   }
+
+   /**
+    * rows that share a key can't be split by any hash
+    */
+   public void testRepartitionGivesUp(){
+      def tempDir = File.createTempFile('dkhashtest', null)
+      tempDir.delete()
+      tempDir.mkdirs()
+      DKTableModel model = DKTableModel.createGenericStringModel(2, (int[])[0])
+      def rows = (0..<200).collect { (['0001', "value$it"] as Object[]) }
+      def message = shouldFail(RuntimeException) {
+         this.diff(new DKHashDiffEngine(2000, tempDir.absolutePath, 2), model, rows, rows)
+      }
+      assert message.contains('exceeds memoryBudget')
+      assert tempDir.listFiles().length == 0
+      tempDir.delete()
+   }
+
+   /**
+    * Integer(1) and Long(1), or 2.0 and 2.00, are the same key
+    */
+   public void testNumericKeys(){
+      DKTableModel model = DKTableModel.createGenericStringModel(2, (int[])[0])
+      def lhsRows = [[1, 'a'], [new BigDecimal('2.0'), 'b'], [3, 'c']].collect { it as Object[] }
+      def rhsRows = [[1L, 'a'], [new BigDecimal('2.00'), 'b'], [new BigInteger('3'), 'x']].collect { it as Object[] }
+      def diffs = this.diff(new DKHashDiffEngine(), model, lhsRows, rhsRows)
+      assert diffs.size() == 1
+      assert diffs[0][0] == DKDiff.Kind.COLUMN_DIFF
+      assert diffs[0][3] == 'c'
+      assert diffs[0][4] == 'x'
+   }
+
+   public void testAdaptive(){
+      this.runComparison(new DKAdaptiveDiffEngine())
+   }
+
+   /**
+    * the hash engine, fed unsorted rows, must find exactly the same diffs as
+    * the merge, fed sorted rows; only the order of the diffs may differ
+    */
+   private void runComparison(DKDiffEngine engine_){
+      DKTableModel model = DKTableModel.createGenericStringModel(2, (int[])[0])
+      def lhsRows = []
+      def rhsRows = []
+      for (i in 0..<300) {
+         def key = String.format('%04d', i)
+         if (i % 17 != 0)
+            lhsRows << ([key, "value$i"] as Object[])
+         if (i % 23 != 0)
+            rhsRows << ([key, (i % 11 == 0) ? 'xxxx' : "value$i"] as Object[])
+      }
+      // duplicate keys, unbalanced
+      lhsRows << (['0005', 'dup1'] as Object[])
+      lhsRows << (['0005', 'dup2'] as Object[])
+      rhsRows << (['0005', 'dup1'] as Object[])
+
+      def sortedDiffs = this.diff(new DKDiffEngine(), model, this.sort(lhsRows), this.sort(rhsRows))
+      Collections.shuffle(lhsRows, new Random(17))
+      Collections.shuffle(rhsRows, new Random(23))
+      def hashDiffs = this.diff(engine_, model, lhsRows, rhsRows)
+      assert hashDiffs.size() == sortedDiffs.size()
+      assert hashDiffs as Set == sortedDiffs as Set
+   }
+
+   private List sort(List rows_) {
+      // stable, so duplicates keep their order
+      return rows_.sort(false) { it[0] }
+   }
+
+   private List diff(DKDiffEngine engine_, DKTableModel model_, List lhsRows_, List rhsRows_){
+      DKListSink sink = new DKListSink()
+      DKColumnComparison[] map = DKColumnComparison.createColumnPlans( model_, model_, (int[]) [1], DKEqualsDiffor.instance)
+      DKStandardTableComparison comparison = [model_, model_, DKDiff.Kind.BOTH, map, (int[])[0], (int[][])[[0],[0]], (long)1000]
+      def context = engine_.diff(new DKListSource(model_, lhsRows_), new DKListSource(model_, rhsRows_), sink, comparison, null)
+      assert context.rowStep > 0
+      return sink.diffs.collect {
+         (it.kind == DKDiff.Kind.ROW_DIFF) ? [it.kind, it.side, it.row as List] : [it.kind, it.rowKeyValues as List, it.columnStep, it.lhs, it.rhs]
+      }
+   }
+}
@@ -0,0 +1,100 @@
+/**
+ * Copyright 2010-2011 Joseph Panico
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.diffkit.diff.engine.tst
+
+
+import org.diffkit.common.DKComparableComparator;
+import org.diffkit.common.DKComparatorChain;
+import org.diffkit.common.DKElementComparator;
+import org.diffkit.diff.engine.DKColumnModel
+import org.diffkit.diff.engine.DKKeyComparator
+import org.diffkit.diff.engine.DKTableModel
+
+import groovy.util.GroovyTestCase
+
+
+/**
+ * @author jpanico
+ */
+public class TestKeyComparator extends GroovyTestCase {
+
+   public void testNulls() {
+      def comparator = DKKeyComparator.createComparator(this.createModel((int[])[0]))
+      assert comparator.compare((Object[])[null, 'a', null, null], (Object[])[null, 'b', null, null]) == 0
+      assert comparator.compare((Object[])[null, 'a', null, null], (Object[])[1L, 'a', null, null]) < 0
+      assert comparator.compare((Object[])[1L, 'a', null, null], (Object[])[null, 'a', null, null]) > 0
+   }
+
+   public void testUnexpectedClass() {
+      def comparator = DKKeyComparator.createComparator(this.createModel((int[])[0]))
+      // INTEGER column holding BigDecimal, e.g. from a DB NUMBER
+      assert comparator.compare((Object[])[10.5G, 'a'], (Object[])[2.0G, 'a']) > 0
+      assert comparator.compare((Object[])[Integer.MIN_VALUE, 'a'], (Object[])[Integer.MAX_VALUE, 'a']) < 0
+      assert comparator.compare((Object[])[Long.MIN_VALUE, 'a'], (Object[])[Long.MAX_VALUE, 'a']) < 0
+   }
+
+   public void testSameOrderAsChain() {
+      def random = new Random(17)
+      def rows = []
+      1000.times {
+         rows << (Object[])[
+            random.nextInt(5) == 0 ? null : new Long(random.nextInt(50) - 25),
+            random.nextInt(5) == 0 ? null : 'k' + random.nextInt(20),
+            random.nextInt(5) == 0 ? null : new BigDecimal(random.nextInt(30)).movePointLeft(1),
+            random.nextInt(5) == 0 ? null : new Date(random.nextInt(10) * 1000L)]
+      }
+      [[0], [1], [0, 1], [1, 2], [2, 0, 1], [3, 1, 0, 2]].each { key ->
+         def model = this.createModel((int[])key)
+         def expected = new ArrayList(rows)
+         Collections.sort(expected, this.createChain(model))
+         def actual = new ArrayList(rows)
+         Collections.sort(actual, DKKeyComparator.createComparator(model))
+         assert actual == expected
+      }
+   }
+
+   public void testDifferentTables() {
+      DKColumnModel lhsColumn1 = [0, 'id', DKColumnModel.Type.INTEGER]
+      DKColumnModel lhsColumn2 = [1, 'name', DKColumnModel.Type.STRING]
+      DKTableModel lhs = ['lhs', (DKColumnModel[])[lhsColumn1, lhsColumn2], (int[])[1, 0]]
+      DKColumnModel rhsColumn1 = [0, 'name', DKColumnModel.Type.STRING]
+      DKColumnModel rhsColumn2 = [1, 'other', DKColumnModel.Type.STRING]
+      DKColumnModel rhsColumn3 = [2, 'id', DKColumnModel.Type.INTEGER]
+      DKTableModel rhs = ['rhs', (DKColumnModel[])[rhsColumn1, rhsColumn2, rhsColumn3], (int[])[0, 2]]
+      def comparator = DKKeyComparator.createComparator(lhs, rhs)
+      assert comparator.keyLength == 2
+      assert comparator.compare((Object[])[1L, 'a'], (Object[])['a', 'x', 1L]) == 0
+      assert comparator.compare((Object[])[2L, 'a'], (Object[])['a', 'x', 1L]) > 0
+      assert comparator.compare((Object[])[2L, 'a'], (Object[])['b', 'x', 1L]) < 0
+   }
+
+   private DKTableModel createModel(int[] key_) {
+      DKColumnModel column1 = [0, 'column1', DKColumnModel.Type.INTEGER]
+      DKColumnModel column2 = [1, 'column2', DKColumnModel.Type.STRING]
+      DKColumnModel column3 = [2, 'column3', DKColumnModel.Type.DECIMAL]
+      DKColumnModel column4 = [3, 'column4', DKColumnModel.Type.DATE]
+      DKColumnModel[] columns = [column1, column2, column3, column4]
+      return new DKTableModel('table', columns, key_)
+   }
+
+   private Comparator createChain(DKTableModel model_) {
+      def chain = new DKComparatorChain()
+      model_.key.each {
+         chain.addComparator(new DKElementComparator(it, it, DKComparableComparator.instance))
+      }
+      return chain
+   }
+}
@@ -0,0 +1,217 @@
+/**
+ * Copyright 2010-2011 Joseph Panico
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.diffkit.diff.engine.tst
+
+import java.lang.management.ManagementFactory
+
+import javax.management.ObjectName
+
+import groovy.util.GroovyTestCase
+
+import org.diffkit.diff.diffor.DKEqualsDiffor
+import org.diffkit.diff.engine.DKColumnComparison
+import org.diffkit.diff.engine.DKColumnModel
+import org.diffkit.diff.engine.DKContext
+import org.diffkit.diff.engine.DKDiff
+import org.diffkit.diff.engine.DKDiffEngine
+import org.diffkit.diff.engine.DKMetrics
+import org.diffkit.diff.engine.DKStandardTableComparison
+import org.diffkit.diff.engine.DKTableModel
+import org.diffkit.diff.engine.DKMetrics.Stage
+import org.diffkit.diff.sns.DKListSink
+import org.diffkit.diff.sns.DKListSource
+
+
+/**
+ * @author jpanico
+ */
+public class TestMetrics extends GroovyTestCase {
+
+   public void testSampling() {
+      DKMetrics metrics = new DKMetrics(4)
+      assert metrics.sampleInterval == 4
+      assert metrics.isSampled(0)
+      assert !metrics.isSampled(1)
+      assert metrics.isSampled(8)
+      assert metrics.startTimer(false) == DKMetrics.UNTIMED
+      assert metrics.stopTimer(Stage.KEY_COMPARE, DKMetrics.UNTIMED) == 0
+      assert metrics.stopTimer(Stage.KEY_COMPARE, metrics.startTimer(true)) >= 0
+      def snapshot = metrics.snapshot[Stage.KEY_COMPARE.ordinal()]
+      assert snapshot.stage == 'KEY_COMPARE'
+      assert snapshot.count == 2
+      assert snapshot.sampleCount == 1
+
+      shouldFail(IllegalArgumentException) {
+         new DKMetrics(6)
+      }
+   }
+
+   public void testHistogram() {
+      DKMetrics metrics = new DKMetrics(1)
+      (1..99).each { metrics.record(Stage.LHS_FETCH, 100) }
+      metrics.record(Stage.LHS_FETCH, 100000)
+      def snapshot = metrics.snapshot[Stage.LHS_FETCH.ordinal()]
+      assert snapshot.count == 100
+      assert snapshot.sampleCount == 100
+      assert snapshot.maxNanos == 100000
+      assert snapshot.meanNanos == (99 * 100 + 100000) / 100
+      // 100 has 7 significant bits
+      assert snapshot.p50Nanos == 127
+      assert snapshot.p99Nanos == 127
+      metrics.record(Stage.LHS_FETCH, 100000)
+      assert metrics.snapshot[Stage.LHS_FETCH.ordinal()].p99Nanos == 100000
+      assert metrics.snapshot[Stage.RHS_FETCH.ordinal()].p50Nanos == 0
+      assert metrics.logFields.contains('lhsFetch.count=101')
+   }
+
+   public void testChildren() {
+      DKMetrics parent = new DKMetrics(1)
+      DKMetrics child1 = parent.createChild()
+      DKMetrics child2 = parent.createChild(EnumSet.of(Stage.LHS_FETCH))
+      parent.record(Stage.LHS_FETCH, 10)
+      child1.record(Stage.LHS_FETCH, 1000)
+      child2.record(Stage.LHS_FETCH, 20)
+      child2.record(Stage.SINK_RECORD, 20)
+      assert parent.getCount(Stage.LHS_FETCH) == 3
+      assert parent.getCount(Stage.SINK_RECORD) == 0
+      def snapshot = parent.snapshot[Stage.LHS_FETCH.ordinal()]
+      assert snapshot.sampleNanos == 1030
+      assert snapshot.maxNanos == 1000
+   }
+
+   /**
+    * other threads only see what each instance last published
+    */
+   public void testPublish() {
+      DKMetrics parent = new DKMetrics(1)
+      DKMetrics child = parent.createChild()
+      parent.record(Stage.LHS_FETCH, 10)
+      child.record(Stage.LHS_FETCH, 1000)
+      assert parent.publishedSnapshot[Stage.LHS_FETCH.ordinal()].count == 0
+      parent.publish()
+      def snapshot = parent.publishedSnapshot[Stage.LHS_FETCH.ordinal()]
+      assert snapshot.count == 1
+      assert snapshot.maxNanos == 10
+      child.publish()
+      parent.record(Stage.LHS_FETCH, 10)
+      snapshot = parent.publishedSnapshot[Stage.LHS_FETCH.ordinal()]
+      assert snapshot.count == 2
+      assert snapshot.sampleNanos == 1010
+      assert snapshot.maxNanos == 1000
+      assert parent.snapshot[Stage.LHS_FETCH.ordinal()].count == 3
+      assert DKMetrics.getLogFields(parent.publishedSnapshot).contains('lhsFetch.count=2')
+   }
+
+   /**
+    * the engine counts every stage, and publishes its metrics over JMX for
+    * exactly as long as the diff runs
+    */
+   public void testEngine() {
+      DKTableModel tableModel = this.createTableModel()
+      def lhsRows = []
+      def rhsRows = []
+      for (i in 0..99) {
+         lhsRows << ([(long) i, "value$i"] as Object[])
+         if (i % 25 != 0)
+            rhsRows << ([(long) i, (i % 10 == 0) ? 'xxxx' : "value$i"] as Object[])
+      }
+      def server = ManagementFactory.platformMBeanServer
+      def objectName = null
+      def rowSteps = []
+      DKListSink sink = new DKListSink() {
+         public void record(DKDiff diff_, DKContext context_) throws IOException {
+            objectName = new ObjectName("org.diffkit:type=DiffMetrics,context=${context_._id}")
+            rowSteps << server.getAttribute(objectName, 'RowStep')
+            super.record(diff_, context_)
+         }
+      }
+      DKDiffEngine engine = new DKDiffEngine(false, null, 0, 0)
+      DKContext context = engine.diff(new DKListSource(tableModel, lhsRows),
+         new DKListSource(tableModel, rhsRows), sink, this.createComparison(tableModel), null)
+
+      // 4 missing on the rhs, 8 of the rest with a different value
+      assert sink.diffCount == 12
+      assert rowSteps.size() == 12
+      // nothing is published before the first PROGRESS_BATCH_SIZE rowSteps
+      assert rowSteps.every { it == 0 }
+      assert !server.isRegistered(objectName)
+      assert context.publishedRowStep == context.rowStep
+      assert context.publishedDiffCount == 12
+      DKMetrics metrics = context.metrics
+      // the last fetch of each side finds the end
+      assert metrics.getCount(Stage.LHS_FETCH) == 101
+      assert metrics.getCount(Stage.RHS_FETCH) == 97
+      assert metrics.getCount(Stage.KEY_COMPARE) == 100
+      assert metrics.getCount(Stage.COLUMN_DIFF) == 96
+      assert metrics.getCount(Stage.SINK_RECORD) == 12
+      assert metrics.getCount(Stage.SINK_FLUSH) == 1
+      def snapshot = metrics.snapshot[Stage.LHS_FETCH.ordinal()]
+      assert snapshot.sampleCount > 0
+      assert snapshot.sampleCount < snapshot.count
+      assert metrics.publishedSnapshot*.count == metrics.snapshot*.count
+      assert metrics.publishedSnapshot*.sampleNanos == metrics.snapshot*.sampleNanos
+   }
+
+   /**
+    * JMX sees the rowStep and diff count as of the last PROGRESS_BATCH_SIZE
+    * boundary
+    */
+   public void testPublishedProgress() {
+      DKTableModel tableModel = this.createTableModel()
+      def lhsRows = []
+      def rhsRows = []
+      for (i in 0..2499) {
+         lhsRows << ([(long) i, "value$i"] as Object[])
+         rhsRows << ([(long) i, (i % 100 == 50) ? 'xxxx' : "value$i"] as Object[])
+      }
+      def server = ManagementFactory.platformMBeanServer
+      def progress = []
+      DKListSink sink = new DKListSink() {
+         public void record(DKDiff diff_, DKContext context_) throws IOException {
+            def objectName = new ObjectName("org.diffkit:type=DiffMetrics,context=${context_._id}")
+            progress << [server.getAttribute(objectName, 'RowStep'),
+               server.getAttribute(objectName, 'DiffCount')]
+            super.record(diff_, context_)
+         }
+      }
+      DKDiffEngine engine = new DKDiffEngine(false, null, 0, 0)
+      DKContext context = engine.diff(new DKListSource(tableModel, lhsRows),
+         new DKListSource(tableModel, rhsRows), sink, this.createComparison(tableModel), null)
+
+      assert sink.diffCount == 25
+      // the diffs at rowSteps 51..951 see nothing published, those at
+      // 1051..1951 see rowStep 1000, after the 10 diffs before it
+      assert progress[0] == [0L, 0L]
+      assert progress[9] == [0L, 0L]
+      assert progress[10] == [1000L, 10L]
+      assert progress[19] == [1000L, 10L]
+      assert progress[20] == [2000L, 20L]
+      assert context.publishedRowStep == context.rowStep
+      assert context.publishedDiffCount == 25
+   }
+
+   private DKStandardTableComparison createComparison(DKTableModel tableModel_) {
+      DKColumnComparison[] map = DKColumnComparison.createColumnPlans( tableModel_, tableModel_, (int[]) [1], DKEqualsDiffor.instance)
+      return new DKStandardTableComparison(tableModel_, tableModel_, DKDiff.Kind.BOTH, map, (int[])[0], (int[][])[[0],[0]], (long)100)
+   }
+
+   private DKTableModel createTableModel(){
+      DKColumnModel column1 = [0, 'column1', DKColumnModel.Type.INTEGER]
+      DKColumnModel column2 = [1, 'column2', DKColumnModel.Type.STRING]
+      DKColumnModel[] columns = [column1, column2]
+      return new DKTableModel('metrics_table_model', columns, (int[])[0])
+   }
+}
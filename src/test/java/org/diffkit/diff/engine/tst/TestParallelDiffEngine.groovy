@@ -0,0 +1,167 @@
+/**
+ * Copyright 2010-2011 Joseph Panico
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.diffkit.diff.engine.tst
+
+
+import groovy.util.GroovyTestCase
+
+import org.diffkit.db.DKDBColumn
+import org.diffkit.db.DKDBConnectionInfo
+import org.diffkit.db.DKDatabase
+import org.diffkit.db.DKDBFlavor
+import org.diffkit.db.DKDBPrimaryKey
+import org.diffkit.db.DKDBTable;
+import org.diffkit.diff.diffor.DKEqualsDiffor;
+import org.diffkit.diff.engine.DKColumnComparison
+import org.diffkit.diff.engine.DKContext
+import org.diffkit.diff.engine.DKDiff;
+import org.diffkit.diff.engine.DKDiffEngine
+import org.diffkit.diff.engine.DKParallelDiffEngine
+import org.diffkit.diff.engine.DKStandardTableComparison
+import org.diffkit.diff.engine.DKTableModel
+import org.diffkit.diff.sns.DKDBSource
+import org.diffkit.diff.sns.DKListSink
+import org.diffkit.diff.sns.DKTableModelUtil;
+
+
+/**
+ * @author jpanico
+ */
+public class TestParallelDiffEngine extends GroovyTestCase {
+
+   public void testIntegerKey(){
+      this.runComparison('INTEGER')
+   }
+
+   public void testStringKey(){
+      this.runComparison('VARCHAR')
+   }
+
+   /**
+    * integral boundaries outside the range of a long are not truncated
+    */
+   public void testWideIntegerBoundaries(){
+      def min = BigInteger.valueOf(Long.MAX_VALUE) - 10
+      def max = BigInteger.valueOf(Long.MAX_VALUE) * 4
+      def boundaries = DKDBSource.interpolateBoundaries(min, max, 4)
+      assert boundaries.length == 3
+      assert boundaries.every { it instanceof BigInteger }
+      assert boundaries as List == (boundaries as List).sort()
+      assert boundaries[0] > min
+      assert boundaries[2] < max
+
+      boundaries = DKDBSource.interpolateBoundaries(BigInteger.valueOf(-10), BigInteger.valueOf(10), 4)
+      assert boundaries as List == [-5L, 0L, 5L]
+      assert boundaries.every { it instanceof Long }
+   }
+
+   /**
+    * the parallel engine must produce exactly the same diffs, in the same
+    * order, with the same steps, as the sequential engine
+    */
+   private void runComparison(String keyType_){
+      def database = this.getDatabase()
+      def connection = database.connection
+      def lhsDBTable = this.createDBTable('PARALLEL_LHS', keyType_)
+      def rhsDBTable = this.createDBTable('PARALLEL_RHS', keyType_)
+      assert database.createTable( lhsDBTable)
+      assert database.createTable( rhsDBTable)
+      try {
+         this.runComparison(lhsDBTable, rhsDBTable, keyType_, database)
+      }
+      finally {
+         assert database.dropTable( lhsDBTable)
+         assert database.dropTable( rhsDBTable)
+         connection.close()
+      }
+   }
+
+   private void runComparison(DKDBTable lhsDBTable_, DKDBTable rhsDBTable_, String keyType_, DKDatabase database_){
+      for (i in 0..199) {
+         def key = (keyType_ == 'INTEGER') ? "$i" : "'${String.format('%04d', i)}'"
+         if (i % 17 != 0)
+            database_.executeUpdate("INSERT INTO PARALLEL_LHS VALUES ($key, 'value$i')")
+         if (i % 23 != 0)
+            database_.executeUpdate("INSERT INTO PARALLEL_RHS VALUES ($key, '${(i % 11 == 0) ? 'xxxx' : 'value'+i}')")
+      }
+
+      def sequentialDiffs = this.diff(new DKDiffEngine(), lhsDBTable_, rhsDBTable_, database_)
+      def parallelDiffs = this.diff(new DKParallelDiffEngine(3, 7), lhsDBTable_, rhsDBTable_, database_)
+      assert sequentialDiffs.size() == 36
+      assert parallelDiffs == sequentialDiffs
+      // every worker has to wait for the sink, one diff at a time
+      assert this.diff(new DKParallelDiffEngine(3, 7, 1), lhsDBTable_, rhsDBTable_, database_) == sequentialDiffs
+
+      // the sink is closed, and the workers stopped, even when it fails
+      def closed = false
+      DKListSink failingSink = new DKListSink() {
+         public void record(DKDiff diff_, DKContext context_) {
+            if (diffCount >= 10)
+               throw new IOException('sink failed')
+            super.record(diff_, context_)
+         }
+         public void close(DKContext context_) {
+            closed = true
+            super.close(context_)
+         }
+      }
+      def lhsSource = this.createDBSource(lhsDBTable_, database_)
+      def rhsSource = this.createDBSource(rhsDBTable_, database_)
+      shouldFail(IOException) {
+         new DKParallelDiffEngine(3, 7, 1).diff(lhsSource, rhsSource, failingSink, this.createComparison(lhsSource.model, rhsSource.model), null)
+      }
+      assert closed
+      assert failingSink.diffCount == 10
+
+      def boundaries = lhsSource.getPartitionBoundaries(7)
+      assert boundaries
+      assert boundaries.length <= 6
+   }
+
+   private List diff(DKDiffEngine engine_, DKDBTable lhsDBTable_, DKDBTable rhsDBTable_, DKDatabase database_){
+      def lhsSource = this.createDBSource(lhsDBTable_, database_)
+      def rhsSource = this.createDBSource(rhsDBTable_, database_)
+      DKListSink sink = new DKListSink()
+      engine_.diff(lhsSource, rhsSource, sink, this.createComparison(lhsSource.model, rhsSource.model), null)
+      return sink.diffs.collect { [it.kind, it.rowStep, it.columnStep, it.rowKeyValues as List] }
+   }
+
+   private DKStandardTableComparison createComparison(DKTableModel lhsTableModel_, DKTableModel rhsTableModel_) {
+      DKColumnComparison[] map = DKColumnComparison.createColumnPlans( lhsTableModel_, rhsTableModel_, (int[]) [1], DKEqualsDiffor.instance)
+      return new DKStandardTableComparison(lhsTableModel_, rhsTableModel_, DKDiff.Kind.BOTH, map, (int[])[0], (int[][])[[0],[0]], (long)1000)
+   }
+
+   private DKDBSource createDBSource(DKDBTable table_, DKDatabase database_) {
+      def tableModel = DKTableModelUtil.createDefaultTableModel(database_.flavor,table_, null)
+      assert tableModel
+      return new DKDBSource(table_.tableName, null, database_, tableModel, null, null)
+   }
+
+   private DKDatabase getDatabase(){
+      DKDBConnectionInfo connectionInfo = ['test', DKDBFlavor.H2,"mem:test.parallel", null, null, 'test', 'test']
+      return  new DKDatabase(connectionInfo)
+   }
+
+   private DKDBTable createDBTable(String tablename_, String keyType_){
+      DKDBColumn column1 = ['column1', 1, keyType_, 20, true]
+      DKDBColumn column2 = ['column2', 2, 'VARCHAR', 20, true]
+      DKDBColumn[] columns = [column1, column2]
+      String[] pkColNames = ['column1']
+      DKDBPrimaryKey pk = ['pk_' + tablename_, pkColNames]
+      DKDBTable table = [null, null, tablename_, columns, pk]
+      return table
+   }
+}
@@ -0,0 +1,134 @@
+/**
+ * Copyright 2010-2011 Joseph Panico
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.diffkit.diff.engine.tst
+
+
+import java.sql.Timestamp
+
+import org.diffkit.diff.diffor.DKEqualsDiffor
+import org.diffkit.diff.diffor.DKNumberDiffor
+import org.diffkit.diff.engine.DKColumnComparison
+import org.diffkit.diff.engine.DKColumnModel
+import org.diffkit.diff.engine.DKDiff
+import org.diffkit.diff.engine.DKDiffEngine
+import org.diffkit.diff.engine.DKRowHashSource
+import org.diffkit.diff.engine.DKRowHasher
+import org.diffkit.diff.engine.DKStandardTableComparison
+import org.diffkit.diff.engine.DKTableModel
+import org.diffkit.diff.sns.DKListSink
+import org.diffkit.diff.sns.DKListSource
+
+import groovy.util.GroovyTestCase
+
+
+/**
+ * @author jpanico
+ */
+public class TestRowHasher extends GroovyTestCase {
+
+   public void testHash() {
+      DKRowHasher hasher = [(int[])[1, 2]]
+      Object[] row = ['ignored', 'abc', 12L]
+      assert hasher.hash(row) == hasher.hash((Object[])['other', 'abc', 12L])
+      assert hasher.hash(row) != hasher.hash((Object[])['ignored', 'abd', 12L])
+      assert hasher.hash(row) != hasher.hash((Object[])['ignored', 'abc', 13L])
+      // same content, different class
+      assert hasher.hash(row) != hasher.hash((Object[])['ignored', 'abc', 12])
+      // values can't run together
+      assert hasher.hash((Object[])[null, 'ab', 'c']) != hasher.hash((Object[])[null, 'a', 'bc'])
+      assert hasher.hash((Object[])[null, null, 'c']) != hasher.hash((Object[])[null, '', 'c'])
+   }
+
+   public void testValueClasses() {
+      DKRowHasher hasher = [(int[])[0]]
+      assert hasher.hash((Object[])[new BigDecimal('1.0')]) != hasher.hash((Object[])[new BigDecimal('1.00')])
+      assert hasher.hash((Object[])[new BigDecimal('1.50')]) == hasher.hash((Object[])[new BigDecimal('1.50')])
+      def big = new BigDecimal('123456789012345678901234567890.5')
+      assert hasher.hash((Object[])[big]) == hasher.hash((Object[])[new BigDecimal(big.toString())])
+      assert hasher.hash((Object[])[big]) != hasher.hash((Object[])[big.add(BigDecimal.ONE)])
+      def timestamp1 = new Timestamp(1000L)
+      def timestamp2 = new Timestamp(1000L)
+      timestamp2.nanos = 5
+      assert hasher.hash((Object[])[timestamp1]) != hasher.hash((Object[])[timestamp2])
+      assert hasher.hash((Object[])[new Date(1000L)]) == hasher.hash((Object[])[new Date(1000L)])
+      assert hasher.hash((Object[])[new Date(1000L)]) != hasher.hash((Object[])[new Date(1001L)])
+      assert hasher.hash((Object[])[true]) != hasher.hash((Object[])[false])
+      assert hasher.hash((Object[])[1.5d]) != hasher.hash((Object[])[2.5d])
+   }
+
+   /**
+    * sources that report the same hash for every row; so the engine believes
+    * that no matched row has diffs, whenever it uses the hashes
+    */
+   public void testEngineSkipsEqualHashes() {
+      def model = this.createModel()
+      def lhsRows = [(Object[])[1L, 10L], (Object[])[2L, 20L], (Object[])[3L, 30L]]
+      def rhsRows = [(Object[])[1L, 10L], (Object[])[2L, 21L], (Object[])[4L, 40L]]
+
+      def equalsComparison = this.createComparison(model, DKEqualsDiffor.instance)
+      def lhs = new ConstantHashSource(model, lhsRows)
+      def rhs = new ConstantHashSource(model, rhsRows)
+      DKListSink sink = new DKListSink()
+      new DKDiffEngine().diff(lhs, rhs, sink, equalsComparison, null)
+      assert lhs.hasher
+      // only the row diffs
+      assert sink.diffCount == 2
+
+      // a tolerance diffor can't use hashes
+      def numberComparison = this.createComparison(model, new DKNumberDiffor(0, false))
+      lhs = new ConstantHashSource(model, lhsRows)
+      rhs = new ConstantHashSource(model, rhsRows)
+      sink = new DKListSink()
+      new DKDiffEngine().diff(lhs, rhs, sink, numberComparison, null)
+      assert !lhs.hasher
+      assert sink.diffCount == 3
+
+      // nor can sources that don't hash
+      sink = new DKListSink()
+      new DKDiffEngine().diff(new DKListSource(model, lhsRows),
+         new DKListSource(model, rhsRows), sink, equalsComparison, null)
+      assert sink.diffCount == 3
+   }
+
+   private DKTableModel createModel() {
+      DKColumnModel column1 = [0, 'id', DKColumnModel.Type.INTEGER]
+      DKColumnModel column2 = [1, 'value', DKColumnModel.Type.INTEGER]
+      DKColumnModel[] columns = [column1, column2]
+      return new DKTableModel('table', columns, (int[])[0])
+   }
+
+   private DKStandardTableComparison createComparison(DKTableModel model_, def diffor_) {
+      DKColumnComparison[] map = DKColumnComparison.createColumnPlans(model_, model_, (int[])[0, 1], diffor_)
+      return new DKStandardTableComparison(model_, model_, DKDiff.Kind.BOTH, map, (int[])[1], (int[][])[[0], [0]], 100)
+   }
+
+   public static class ConstantHashSource extends DKListSource implements DKRowHashSource {
+      DKRowHasher hasher
+
+      public ConstantHashSource(DKTableModel model_, List<Object[]> rows_) {
+         super(model_, rows_)
+      }
+
+      public boolean setRowHasher(DKRowHasher hasher_) {
+         hasher = hasher_
+         return true
+      }
+
+      public long getRowHash() {
+         return 17L
+      }
+   }
+}
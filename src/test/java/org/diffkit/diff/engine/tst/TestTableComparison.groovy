@@ -17,12 +17,12 @@ package org.diffkit.diff.engine.tst
 
 
 
-import org.apache.commons.collections.comparators.ComparatorChain 
 
 import org.diffkit.diff.diffor.DKEqualsDiffor;
 import org.diffkit.diff.engine.DKColumnComparison 
 import org.diffkit.diff.engine.DKColumnModel
 import org.diffkit.diff.engine.DKDiff;
+import org.diffkit.diff.engine.DKKeyComparator 
 import org.diffkit.diff.engine.DKSide;
 import org.diffkit.diff.engine.DKStandardTableComparison 
 import org.diffkit.diff.engine.DKTableModel 
@@ -171,8 +171,8 @@ public class TestTableComparison extends GroovyTestCase {
 		DKStandardTableComparison plan = [tableModel, tableModel, DKDiff.Kind.BOTH, map, (int[])[1], null, 100]
 		def comparator = plan.rowComparator
 		assert comparator
-		assert comparator instanceof ComparatorChain
-		assert comparator.size() == 1
+		assert comparator instanceof DKKeyComparator
+		assert comparator.keyLength == 1
 		
 		Object[] lhs = ['1111', 'aaaa', 3, 'value4'] 
 		Object[] rhs = ['2222', 'bbbb', 3, 'value4'] 
@@ -241,7 +241,7 @@ public class TestTableComparison extends GroovyTestCase {
 		DKStandardTableComparison plan = new DKStandardTableComparison(lhsTable, rhsTable, DKDiff.Kind.BOTH, map,  (int[])[1], null, 100)
 		def comparator = plan.rowComparator
 		assert comparator
-		assert comparator instanceof ComparatorChain
-		assert comparator.size() == 2
+		assert comparator instanceof DKKeyComparator
+		assert comparator.keyLength == 2
 	}
 }
@@ -42,4 +42,29 @@ public class TestTableModel extends GroovyTestCase {
 		assert lhsTable.getKeyValues((Object[])['zzzz', 'zzzz', 2]) == ['zzzz',2]
 	}
 	
+	public void testCopyWithColumns(){
+		DKColumnModel column1_1 = [0, 'column1_1', DKColumnModel.Type.STRING]
+		DKColumnModel column1_2 = [1, 'column1_2', DKColumnModel.Type.STRING]
+		DKColumnModel column1_3 = [2, 'column1_3', DKColumnModel.Type.INTEGER, '###']
+		DKColumnModel column1_4 = [3, 'column1_4', DKColumnModel.Type.STRING]
+		DKColumnModel[] columns = [column1_1, column1_2, column1_3, column1_4]
+		DKTableModel table = ["table",columns, (int[])[2]]
+		
+		DKTableModel narrowed = table.copyWithColumns((int[])[1,2])
+		assert narrowed.name == 'table'
+		assert narrowed.columnNames == ['column1_2', 'column1_3']
+		assert narrowed.columns*.index == [0,1]
+		assert narrowed.columns[1].formatString == '###'
+		assert narrowed.columns[1].table.is(narrowed)
+		assert narrowed.key == [1]
+		assert narrowed.getKeyValues((Object[])['aaaa', 1]) == [1]
+		
+		shouldFail(RuntimeException) {
+			table.copyWithColumns((int[])[0,1])
+		}
+		shouldFail(RuntimeException) {
+			table.copyWithColumns((int[])[2,4])
+		}
+	}
+	
 }
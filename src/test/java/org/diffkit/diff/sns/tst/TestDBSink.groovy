@@ -0,0 +1,90 @@
+/**
+ * Copyright 2010-2011 Joseph Panico
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.diffkit.diff.sns.tst
+
+
+import groovy.util.GroovyTestCase;
+
+import org.diffkit.db.DKDBConnectionInfo
+import org.diffkit.db.DKDBFlavor
+import org.diffkit.db.DKDatabase
+import org.diffkit.diff.diffor.DKEqualsDiffor
+import org.diffkit.diff.engine.DKColumnComparison
+import org.diffkit.diff.engine.DKDiff
+import org.diffkit.diff.engine.DKDiffEngine
+import org.diffkit.diff.engine.DKStandardTableComparison
+import org.diffkit.diff.engine.DKMetrics
+import org.diffkit.diff.engine.DKTableModel
+import org.diffkit.diff.sns.DKDBSink
+import org.diffkit.diff.sns.DKListSink
+import org.diffkit.diff.sns.DKListSource
+
+
+/**
+ * @author jpanico
+ */
+public class TestDBSink extends GroovyTestCase {
+
+   /**
+    * batchSize and commitInterval don't divide the diff count, so the last
+    * partial batch is only written by close()
+    */
+   public void testBatchedWrites(){
+      DKDBConnectionInfo connectionInfo = ['test', DKDBFlavor.H2,"mem:test.dbsink", null, null, 'test', 'test']
+      DKDatabase database = [connectionInfo]
+      def connection = database.connection
+      try {
+         DKTableModel model = DKTableModel.createGenericStringModel(2, (int[])[0]);
+         def lhsRows = (0..99).findAll { it % 10 != 3 }.collect { [String.format('%03d', it), "value$it".toString()] as Object[] }
+         def rhsRows = (0..99).findAll { it % 10 != 7 }.collect { [String.format('%03d', it), (it % 10 == 5) ? 'xxxx' : "value$it".toString()] as Object[] }
+         DKColumnComparison[] map = DKColumnComparison.createColumnPlans( model, model, (int[]) [1], DKEqualsDiffor.instance)
+         def tableComparison = new DKStandardTableComparison(model, model, DKDiff.Kind.BOTH, map, (int[])[0], (int[][])[[0],[0]], (long)1000)
+
+         DKListSink listSink = []
+         new DKDiffEngine().diff(new DKListSource(model, lhsRows), new DKListSource(model, rhsRows), listSink, tableComparison, null)
+         DKDBSink sink = new DKDBSink(database, 7, 15)
+         assert sink.batchSize == 7
+         assert sink.commitInterval == 15
+         def context = new DKDiffEngine().diff(new DKListSource(model, lhsRows), new DKListSource(model, rhsRows), sink, tableComparison, null)
+         assert listSink.diffs.size() == 30
+         // 4 full batches along the way, and the last partial one on close()
+         assert context._metrics.getCount(DKMetrics.Stage.SINK_FLUSH) == 5
+
+         def contexts = database.readAllRows( sink.diffContextTable)
+         assert contexts.size() == 1
+         def diffs = database.readAllRows( sink.diffTable).sort { it['ROW_STEP'] }
+         assert diffs.size() == listSink.diffs.size()
+         diffs.eachWithIndex { row, i ->
+            def diff = listSink.diffs[i]
+            assert row['CONTEXT_ID'] == contexts[0]['ID']
+            assert row['ROW_STEP'] == diff.rowStep
+            assert row['COLUMN_STEP'] == diff.columnStep
+            assert row['KIND'] == diff.kind.ordinal()
+            if (diff.kind == DKDiff.Kind.COLUMN_DIFF) {
+               assert row['LHS'] == diff.lhs
+               assert row['RHS'] == 'xxxx'
+            }
+            else
+               assert [row['LHS'], row['RHS']] == ((diff.side.toString() == 'LEFT') ? ['<', null] : [null, '>'])
+         }
+         assert database.dropTable( sink.diffTable)
+         assert database.dropTable( sink.diffContextTable)
+      }
+      finally {
+         connection.close()
+      }
+   }
+}
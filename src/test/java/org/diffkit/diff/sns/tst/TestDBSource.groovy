@@ -150,6 +150,91 @@ public class TestDBSource extends GroovyTestCase {
       assert database.dropTable( dbTable)
    }
    
+   public void testFetchSize(){
+      DKDBConnectionInfo connectionInfo = ['test', DKDBFlavor.H2,"mem:test.fetchsize", null, null, 'test', 'test']
+      DKDatabase database = [connectionInfo]
+      def dbTable = this.createCustomerMetaTable()
+      assert database.createTable( dbTable)
+      DKDBH2Loader loader = [database]
+      assert loader.load(dbTable, this.getCsvFile())
+      def tableModel = DKTableModelUtil.createDefaultTableModel(database.flavor,dbTable, null)
+      
+      // narrow rows get the max fetch size
+      DKDBSource source = new DKDBSource(dbTable.tableName, null, database, tableModel, null, null)
+      assert source.getFetchSize(tableModel.columnNames) == 10000
+      
+      // the plan's fetch size is used verbatim
+      source = new DKDBSource(dbTable.tableName, null, database, tableModel, null, null, 1)
+      assert source.getFetchSize(tableModel.columnNames) == 1
+      source.open(null)
+      assert source.nextRow
+      assert source.nextRow
+      assert !source.nextRow
+      source.close(null)
+      
+      shouldFail(IllegalArgumentException){
+         new DKDBSource(dbTable.tableName, null, database, tableModel, null, null, -1)
+      }
+      assert database.dropTable( dbTable)
+      
+      // wide rows get a smaller fetch size
+      DKDBColumn[] wideColumns = [['ID', 1, 'INTEGER', -1, true]]
+      (2..9).each { wideColumns += new DKDBColumn("TEXT$it", it, 'CLOB', -1, true) }
+      DKDBTable wideTable = [ null, null, 'WIDE', wideColumns, new DKDBPrimaryKey('pk_wide', (String[])['ID'])]
+      assert database.createTable( wideTable)
+      tableModel = DKTableModelUtil.createDefaultTableModel(database.flavor,wideTable, null)
+      source = new DKDBSource(wideTable.tableName, null, database, tableModel, null, null)
+      def fetchSize = source.getFetchSize(tableModel.columnNames)
+      assert fetchSize > 100
+      assert fetchSize < 1000
+      assert database.dropTable( wideTable)
+   }
+   
+   public void testResume(){
+      DKDBConnectionInfo connectionInfo = ['test', DKDBFlavor.H2,"mem:test.resume", null, null, 'test', 'test']
+      DKDatabase database = [connectionInfo]
+      def dbTable = this.createCustomerMetaTable()
+      assert database.createTable( dbTable)
+      DKDBH2Loader loader = [database]
+      assert loader.load(dbTable, this.getCsvFile())
+      def tableModel = DKTableModelUtil.createDefaultTableModel(database.flavor,dbTable, null)
+      
+      DKDBSource source = new DKDBSource(dbTable.tableName, null, database, tableModel, null, null)
+      source.open(null)
+      def emptyPoint = source.resumePoint
+      def firstRow = source.nextRow
+      assert firstRow[0] == 'rob'
+      def firstPoint = source.resumePoint
+      def secondRow = source.nextRow
+      def secondPoint = source.resumePoint
+      assert !source.nextRow
+      source.close(null)
+      
+      // nothing read yet means start from the top
+      source = new DKDBSource(dbTable.tableName, null, database, tableModel, null, null)
+      source.resumePoint = emptyPoint
+      source.open(null)
+      assert source.nextRow == firstRow
+      source.close(null)
+      
+      // (FIRST_NAME, LAST_NAME) > ('rob', 'smith')
+      source = new DKDBSource(dbTable.tableName, null, database, tableModel, null, null)
+      source.resumePoint = firstPoint
+      source.open(null)
+      // no rows read since resuming, so it is still where it started
+      assert source.resumePoint.toString() == firstPoint.toString()
+      assert source.nextRow == secondRow
+      assert !source.nextRow
+      source.close(null)
+      
+      source = new DKDBSource(dbTable.tableName, null, database, tableModel, null, null)
+      source.resumePoint = secondPoint
+      source.open(null)
+      assert !source.nextRow
+      source.close(null)
+      assert database.dropTable( dbTable)
+   }
+   
    private File getCsvFile(){
       def csvFile = DKResourceUtil.findResourceAsFile('org/diffkit/db/tst/customers.csv')
       println "csvFile->$csvFile"
@@ -0,0 +1,109 @@
+/**
+ * Copyright 2010-2011 Joseph Panico
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.diffkit.diff.sns.tst
+
+
+import org.diffkit.diff.engine.DKTableModel;
+import org.diffkit.diff.sns.DKExternalRowSorter
+import org.diffkit.diff.sns.DKTableModelUtil
+
+import groovy.util.GroovyTestCase;
+
+
+/**
+ * @author jpanico
+ */
+public class TestExternalRowSorter extends GroovyTestCase {
+
+	public void testInMemory(){
+		DKTableModel model = DKTableModel.createGenericStringModel(2, (int[])[0]);
+		DKExternalRowSorter sorter = [DKTableModelUtil.createKeyComparator(model), 1000000L, null, 2]
+		['c', 'a', 'b'].each { sorter.add([it, "value$it"] as Object[]) }
+		assert sorter.sort().collect { it[0] } == ['a', 'b', 'c']
+		assert sorter.rowCount == 3
+		sorter.close()
+	}
+
+	public void testSpill(){
+		DKTableModel model = DKTableModel.createGenericStringModel(2, (int[])[0]);
+		def tempDir = File.createTempFile('dksorttest', null)
+		tempDir.delete()
+		tempDir.mkdirs()
+		// tiny budget, so that nearly every add spills a run
+		DKExternalRowSorter sorter = [DKTableModelUtil.createKeyComparator(model), 3000L, tempDir, 3]
+		def random = new Random(17)
+		def keys = (0..<2000).collect { String.format('%05d', random.nextInt(500)) }
+		keys.eachWithIndex { key, i -> sorter.add([key, "$i"] as Object[]) }
+		assert tempDir.listFiles().length > 0
+
+		def sorted = sorter.sort().collect { it as List }
+		assert sorted.size() == 2000
+		// stable: equal keys come back in the order they were added
+		def expected = []
+		keys.eachWithIndex { key, i -> expected << [key, "$i"] }
+		assert sorted == expected.sort { a, b -> a[0] <=> b[0] ?: (a[1] as int) <=> (b[1] as int) }
+		sorter.close()
+		assert tempDir.listFiles().length == 0
+		tempDir.delete()
+	}
+
+	/**
+	 * more runs than mergeFanIn, so that runs are merged over several passes
+	 * before the last one
+	 */
+	public void testMergePasses(){
+		DKTableModel model = DKTableModel.createGenericStringModel(2, (int[])[0]);
+		def tempDir = File.createTempFile('dksorttest', null)
+		tempDir.delete()
+		tempDir.mkdirs()
+		DKExternalRowSorter sorter = [DKTableModelUtil.createKeyComparator(model), 3000L, tempDir, 3, 3]
+		assert sorter.mergeFanIn == 3
+		def random = new Random(23)
+		def keys = (0..<2000).collect { String.format('%05d', random.nextInt(500)) }
+		keys.eachWithIndex { key, i -> sorter.add([key, "$i"] as Object[]) }
+		assert tempDir.listFiles().length > 9
+
+		def iterator = sorter.sort()
+		// the last merge reads the in memory run, plus at most 2 files
+		assert tempDir.listFiles().length <= 2
+		def sorted = iterator.collect { it as List }
+		def expected = []
+		keys.eachWithIndex { key, i -> expected << [key, "$i"] }
+		assert sorted == expected.sort { a, b -> a[0] <=> b[0] ?: (a[1] as int) <=> (b[1] as int) }
+		sorter.close()
+		assert tempDir.listFiles().length == 0
+		tempDir.delete()
+
+		shouldFail(IllegalArgumentException) {
+			new DKExternalRowSorter(DKTableModelUtil.createKeyComparator(model), 3000L, tempDir, 3, 1)
+		}
+	}
+
+	/**
+	 * close() before sort(), with spills still queued or being written
+	 */
+	public void testCloseWhileSpilling(){
+		DKTableModel model = DKTableModel.createGenericStringModel(2, (int[])[0]);
+		def tempDir = File.createTempFile('dksorttest', null)
+		tempDir.delete()
+		tempDir.mkdirs()
+		DKExternalRowSorter sorter = [DKTableModelUtil.createKeyComparator(model), 30000L, tempDir, 2]
+		(0..<20000).each { sorter.add([String.format('%05d', 20000 - it), "$it"] as Object[]) }
+		sorter.close()
+		assert tempDir.listFiles().length == 0
+		tempDir.delete()
+	}
+}
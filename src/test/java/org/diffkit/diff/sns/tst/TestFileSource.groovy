@@ -18,6 +18,7 @@ package org.diffkit.diff.sns.tst
 import org.apache.commons.lang.ClassUtils;
 
 import org.diffkit.diff.engine.DKColumnModel 
+import org.diffkit.diff.engine.DKRowHasher
 import org.diffkit.diff.engine.DKTableModel;
 import org.diffkit.diff.sns.DKFileSource 
 import org.diffkit.util.DKResourceUtil;
@@ -63,6 +64,26 @@ public class TestFileSource extends GroovyTestCase {
 		assert model.key == [0]
 	}
 	
+	// reading the header for the default model opens the file
+	public void testRowHasherAfterDefaultModel(){
+		String sourceFileName = 'lhs1.csv'
+		String sourceFilePath = ClassUtils.getPackageName(this.getClass()) 
+		sourceFilePath = DKStringUtil.packageNameToResourcePath(sourceFilePath) + sourceFileName
+		def sourceFile = DKResourceUtil.findResourceAsFile(sourceFilePath)
+		DKFileSource source = new DKFileSource(sourceFile.absolutePath, null, null, null,'\\,',  true, true)
+		assert source.model
+		DKRowHasher hasher = new DKRowHasher((int[])[1, 2])
+		assert source.setRowHasher(hasher)
+		source.open(null)
+		def row = source.nextRow
+		assert row
+		assert source.rowHash == hasher.hash(row)
+		shouldFail(RuntimeException) {
+			source.setRowHasher(null)
+		}
+		source.close(null)
+	}
+	
 	public void testRead(){
 		String sourceFileName = 'lhs1.csv'
 		String sourceFilePath = ClassUtils.getPackageName(this.getClass()) 
@@ -86,6 +107,136 @@ public class TestFileSource extends GroovyTestCase {
 		source.close(null)
 	}
 	
+	public void testUnsortedRead(){
+		String sourceFileName = 'lhs1.unsorted.csv'
+		String sourceFilePath = ClassUtils.getPackageName(this.getClass()) 
+		sourceFilePath = DKStringUtil.packageNameToResourcePath(sourceFilePath) + sourceFileName
+		def sourceFile = DKResourceUtil.findResourceAsFile(sourceFilePath)
+		println "sourceFile->$sourceFile"
+		
+		DKTableModel model = this.createSimpleTableModel()
+		DKFileSource source = new DKFileSource(sourceFile.absolutePath, model, null, null,'\\,',  false, true)
+		println "source->$source"
+		
+		source.open(null)
+		assert source.getNextRow() == (Object[])['1111', '1111', 1]
+		assert source.getNextRow() == (Object[])['1111', '1111', 2]
+		assert source.getNextRow() == (Object[])['4444', '4444', 1]
+		assert source.getNextRow() == (Object[])['4444', '4444', 2]
+		assert source.getNextRow() == (Object[])['6666', '6666', null]
+		assert source.getNextRow() == (Object[])['6666', '6666', 2]
+		assert !source.getNextRow()
+		assert source.lastIndex == 5
+		source.close(null)
+	}
+	
+	public void testMappedRead(){
+		['lhs1.csv', 'lhs1.unsorted.csv'].each { sourceFileName ->
+			String sourceFilePath = ClassUtils.getPackageName(this.getClass()) 
+			sourceFilePath = DKStringUtil.packageNameToResourcePath(sourceFilePath) + sourceFileName
+			def sourceFile = DKResourceUtil.findResourceAsFile(sourceFilePath)
+			
+			DKTableModel model = this.createSimpleTableModel()
+			DKFileSource lineSource = new DKFileSource(sourceFile.absolutePath, model, null, null,'\\,',  false, true)
+			DKFileSource mappedSource = new DKFileSource(sourceFile.absolutePath, model, null, null, null, null, '\\,', false, true, null, null, true, null)
+			lineSource.open(null)
+			mappedSource.open(null)
+			for (i in 0..6)
+				assert mappedSource.getNextRow() == lineSource.getNextRow()
+			assert mappedSource.lastIndex == 5
+			lineSource.close(null)
+			mappedSource.close(null)
+		}
+	}
+	
+	public void testParallelRead(){
+		['lhs1.csv', 'lhs1.unsorted.csv'].each { sourceFileName ->
+			String sourceFilePath = ClassUtils.getPackageName(this.getClass()) 
+			sourceFilePath = DKStringUtil.packageNameToResourcePath(sourceFilePath) + sourceFileName
+			def sourceFile = DKResourceUtil.findResourceAsFile(sourceFilePath)
+			
+			DKTableModel model = this.createSimpleTableModel()
+			DKFileSource lineSource = new DKFileSource(sourceFile.absolutePath, model, null, null,'\\,',  false, true)
+			DKFileSource parallelSource = new DKFileSource(sourceFile.absolutePath, model, null, null, null, null, '\\,', false, true, null, null, null, 2)
+			assert parallelSource.memoryMapped
+			assert parallelSource.parseThreadCount == 2
+			lineSource.open(null)
+			parallelSource.open(null)
+			for (i in 0..6)
+				assert parallelSource.getNextRow() == lineSource.getNextRow()
+			assert parallelSource.lastIndex == 5
+			lineSource.close(null)
+			parallelSource.close(null)
+		}
+	}
+	
+	/**
+	 * closing part way through stops the chunks that are still being parsed
+	 */
+	public void testParallelCloseEarly(){
+		def sourceFile = File.createTempFile('TestFileSource', '.csv')
+		sourceFile.deleteOnExit()
+		sourceFile.withWriter { writer ->
+			writer.write('column1,column2,column3\n')
+			for (i in 0..<200000)
+				writer.write(String.format('%08d,value%d,%d\n', i, i, i % 1000))
+		}
+		DKFileSource source = new DKFileSource(sourceFile.absolutePath, this.createSimpleTableModel(), null, null, null, null, '\\,', true, true, null, null, null, 4)
+		source.open(null)
+		assert source.getNextRow() == ['00000000', 'value0', 0] as Object[]
+		def executor = source._chunkedParser._executor
+		source.close(null)
+		assert executor.isShutdown()
+		assert executor.awaitTermination(5, java.util.concurrent.TimeUnit.SECONDS)
+		sourceFile.delete()
+	}
+	
+	public void testProjectedRead(){
+		['lhs1.csv', 'lhs1.unsorted.csv'].each { sourceFileName ->
+			String sourceFilePath = ClassUtils.getPackageName(this.getClass()) 
+			sourceFilePath = DKStringUtil.packageNameToResourcePath(sourceFilePath) + sourceFileName
+			def sourceFile = DKResourceUtil.findResourceAsFile(sourceFilePath)
+			
+			DKTableModel model = this.createSimpleTableModel()
+			DKFileSource fullSource = new DKFileSource(sourceFile.absolutePath, model, null, null,'\\,',  false, true)
+			def projectedSources = [
+				new DKFileSource(sourceFile.absolutePath, model, null, (int[])[2], null, null, '\\,', false, true, null, null, null, null),
+				new DKFileSource(sourceFile.absolutePath, model, null, null, null, (String[])['column2'], '\\,', false, true, null, null, true, null),
+				new DKFileSource(sourceFile.absolutePath, model, null, null, (String[])['column3', 'xxx'], null, '[,]', false, true, null, null, null, 2),
+			]
+			projectedSources.each { projectedSource ->
+				assert projectedSource.model.columnNames == ['column1', 'column3']
+				assert projectedSource.model.key == [0,1]
+				assert projectedSource.model.columns*.index == [0,1]
+				assert projectedSource.fileModel == model
+				fullSource.open(null)
+				projectedSource.open(null)
+				for (i in 0..6) {
+					def row = fullSource.getNextRow()
+					assert projectedSource.getNextRow() == (row ? [row[0], row[2]] as Object[] : null)
+				}
+				fullSource.close(null)
+				projectedSource.close(null)
+			}
+		}
+	}
+	
+	public void testProjectedDefaultModel(){
+		String sourceFilePath = ClassUtils.getPackageName(this.getClass()) 
+		sourceFilePath = DKStringUtil.packageNameToResourcePath(sourceFilePath) + 'lhs1.csv'
+		def sourceFile = DKResourceUtil.findResourceAsFile(sourceFilePath)
+		DKFileSource source = new DKFileSource(sourceFile.absolutePath, null, (String[])['column2'], null, (String[])['column3'], null, '\\,', true, true, null, null, null, null)
+		assert source.model.columnNames == ['column2', 'column3']
+		assert source.model.keyColumnNames == ['column2']
+		source.open(null)
+		assert source.getNextRow() == ['1111', '1'] as Object[]
+		source.close(null)
+		
+		shouldFail(RuntimeException) {
+			new DKFileSource(sourceFile.absolutePath, null, null, (int[])[3], null, null, '\\,', true, true, null, null, null, null).model
+		}
+	}
+	
 	private DKTableModel createSimpleTableModel(){
 		DKColumnModel column1 = [0, 'column1', DKColumnModel.Type.STRING]
 		DKColumnModel column2 = [1, 'column2', DKColumnModel.Type.STRING]
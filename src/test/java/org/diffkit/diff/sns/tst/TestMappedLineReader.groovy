@@ -0,0 +1,162 @@
+/**
+ * Copyright 2010-2011 Joseph Panico
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.diffkit.diff.sns.tst
+
+
+import java.nio.charset.Charset
+
+import org.diffkit.diff.engine.DKColumnModel
+import org.diffkit.diff.engine.DKTableModel
+import org.diffkit.diff.sns.DKChunkedLineParser
+import org.diffkit.diff.sns.DKMappedLineReader
+
+import groovy.util.GroovyTestCase;
+
+
+/**
+ * @author jpanico
+ */
+public class TestMappedLineReader extends GroovyTestCase {
+
+	public void testToLiteral(){
+		assert DKMappedLineReader.toLiteral('\\,') == ','
+		assert DKMappedLineReader.toLiteral(',') == ','
+		assert DKMappedLineReader.toLiteral('\\t') == '\t'
+		assert DKMappedLineReader.toLiteral('\\|') == '|'
+		assert DKMappedLineReader.toLiteral('::') == '::'
+		assert DKMappedLineReader.toLiteral('\\Q|*\\E') == '|*'
+		assert !DKMappedLineReader.toLiteral('\\s+')
+		assert !DKMappedLineReader.toLiteral('[,;]')
+		assert !DKMappedLineReader.toLiteral('|')
+	}
+
+	/**
+	 * windows much smaller than the file, so that lines straddle them
+	 */
+	public void testLines(){
+		def file = this.createFile('header\r\n  a,b  \n\n\r\nc,,d\r\n\t\ne\r')
+		for (windowSize in [8, 9, 10, 64]) {
+			DKMappedLineReader reader = [file, ',', Charset.forName('US-ASCII'), windowSize]
+			assert reader.readLine() == 'header'
+			assert reader.nextLine()
+			assert reader.line == 'a,b'
+			assert reader.scanFields() == 2
+			assert reader.nextLine()
+			assert reader.scanFields() == 3
+			DKColumnModel column = [0, 'column', DKColumnModel.Type.STRING]
+			assert reader.parseField(0, column, DKMappedLineReader.ParseKind.STRING) == 'c'
+			assert reader.parseField(1, column, DKMappedLineReader.ParseKind.STRING) == null
+			assert reader.parseField(2, column, DKMappedLineReader.ParseKind.STRING) == 'd'
+			assert reader.readLine() == 'e'
+			assert !reader.nextLine()
+			assert !reader.nextLine()
+			reader.close()
+		}
+		shouldFail(RuntimeException) {
+			DKMappedLineReader reader = [file, ',', Charset.forName('US-ASCII'), 4]
+			reader.readLine()
+		}
+		file.delete()
+	}
+
+	/**
+	 * the byte parse must produce exactly what DecimalFormat produces
+	 */
+	public void testNumbers(){
+		def values = ['1', '1.0', '1.50', '-0', '-0.0', '0', '0.000', '1.', '-.5', '.5', '007', '0.1', '123.456',
+			'-12.25', '9007199254740993.5', '12345678901234567890', '999999999999999999', '1,000', '1e5', '12abc',
+			'3.14159265358979', '-', '.']
+		def file = this.createFile('header\n' + values.join('\n') + '\n')
+		DKColumnModel column = [0, 'column', DKColumnModel.Type.REAL, '###']
+		assert DKMappedLineReader.getParseKind(column) == DKMappedLineReader.ParseKind.NUMBER
+		DKMappedLineReader reader = [file, '|', Charset.forName('UTF-8'), 64]
+		reader.readLine()
+		values.each { value ->
+			assert reader.nextLine()
+			reader.scanFields()
+			def expected = null
+			def actual = null
+			try {
+				expected = column.parseObject(value)
+			}
+			catch (java.text.ParseException e_) {
+				expected = e_.class
+			}
+			try {
+				actual = reader.parseField(0, column, DKMappedLineReader.ParseKind.NUMBER)
+			}
+			catch (java.text.ParseException e_) {
+				actual = e_.class
+			}
+			assert actual == expected
+			assert actual?.class == expected?.class
+		}
+		reader.close()
+		file.delete()
+	}
+
+	/**
+	 * chunks much smaller than the file, so that lines straddle them; rows must
+	 * come back in file order regardless of which chunk finishes first
+	 */
+	public void testChunkedParse(){
+		def lines = (0..<500).collect { "key$it,${it * 3}" }
+		def file = this.createFile('header\n' + lines.join('\n'))
+		DKColumnModel column1 = [0, 'column1', DKColumnModel.Type.STRING]
+		DKColumnModel column2 = [1, 'column2', DKColumnModel.Type.INTEGER, '###']
+		DKColumnModel[] columns = [column1, column2]
+		DKTableModel model = ['chunked', columns, (int[])[0]]
+		for (chunkSize in [1, 7, 64, 100000]) {
+			for (threadCount in [1, 3]) {
+				DKChunkedLineParser parser = [file, ',', Charset.forName('US-ASCII'), 7, model, columns, null, 2, threadCount, chunkSize]
+				lines.eachWithIndex { line, i ->
+					assert parser.next() == ["key$i".toString(), (long) i * 3] as Object[]
+				}
+				assert !parser.next()
+				assert !parser.next()
+				parser.close()
+				DKColumnModel[] projectedColumns = [column2]
+				parser = [file, ',', Charset.forName('US-ASCII'), 7, model, projectedColumns, (int[])[1], 2, threadCount, chunkSize]
+				lines.eachWithIndex { line, i ->
+					assert parser.next() == [(long) i * 3] as Object[]
+				}
+				assert !parser.next()
+				parser.close()
+			}
+		}
+		def badFile = this.createFile('header\n' + lines.join('\n') + '\nbad\n')
+		DKChunkedLineParser parser = [badFile, ',', Charset.forName('US-ASCII'), 7, model, columns, null, 2, 2, 64]
+		shouldFail(RuntimeException) {
+			while (parser.next()) {}
+		}
+		parser.close()
+		file.delete()
+		badFile.delete()
+	}
+
+	public void testParseKind(){
+		assert DKMappedLineReader.getParseKind(new DKColumnModel(0, 'c', DKColumnModel.Type.STRING)) == DKMappedLineReader.ParseKind.STRING
+		assert DKMappedLineReader.getParseKind(new DKColumnModel(0, 'c', DKColumnModel.Type.INTEGER)) == DKMappedLineReader.ParseKind.STRING
+		assert DKMappedLineReader.getParseKind(new DKColumnModel(0, 'c', DKColumnModel.Type.DATE)) == DKMappedLineReader.ParseKind.FORMAT
+	}
+
+	private File createFile(String content_){
+		def file = File.createTempFile('mapped', '.csv')
+		file.deleteOnExit()
+		file.setText(content_, 'US-ASCII')
+		return file
+	}
+}
@@ -0,0 +1,71 @@
+/**
+ * Copyright 2010-2011 Joseph Panico
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.diffkit.diff.sns.tst
+
+
+import org.diffkit.diff.engine.DKSource;
+import org.diffkit.diff.engine.DKTableModel;
+import org.diffkit.diff.sns.DKListSource
+import org.diffkit.diff.sns.DKPipelinedSource
+
+import groovy.util.GroovyTestCase;
+
+
+/**
+ * @author jpanico
+ */
+public class TestPipelinedSource extends GroovyTestCase {
+
+	public void testSource(){
+		DKTableModel model = DKTableModel.createGenericStringModel(2, (int[])[0]);
+		def rows = (0..<1001).collect { [it, "value$it"] as Object[] }
+
+		DKPipelinedSource source = [new DKListSource(model, rows), 2, 10]
+		assert source.model == model
+		source.open(null)
+		rows.each {
+			assert source.nextRow == it
+		}
+		assert !source.nextRow
+		assert !source.nextRow
+		assert source.lastIndex == 1000
+		source.close(null)
+	}
+
+	public void testEarlyClose(){
+		DKTableModel model = DKTableModel.createGenericStringModel(2, (int[])[0]);
+		def rows = (0..<1000).collect { [it, "value$it"] as Object[] }
+
+		DKPipelinedSource source = [new DKListSource(model, rows), 1, 3]
+		source.open(null)
+		assert source.nextRow == rows[0]
+		source.close(null)
+	}
+
+	public void testError(){
+		DKTableModel model = DKTableModel.createGenericStringModel(2, (int[])[0]);
+		def badSource = [getModel: { model }, getURI: { null }, getKind: { DKSource.Kind.MEMORY },
+			getLastIndex: { -1 }, open: { }, close: { },
+			getNextRow: { throw new IOException('bad read') }] as DKSource
+
+		DKPipelinedSource source = [badSource]
+		source.open(null)
+		shouldFail(IOException) {
+			source.nextRow
+		}
+		source.close(null)
+	}
+}
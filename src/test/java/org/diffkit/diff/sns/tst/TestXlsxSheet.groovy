@@ -0,0 +1,194 @@
+/**
+ * Copyright 2010-2011 Joseph Panico
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.diffkit.diff.sns.tst
+
+
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+
+import groovy.util.GroovyTestCase;
+import org.diffkit.diff.engine.DKColumnModel;
+import org.diffkit.diff.engine.DKTableModel
+import org.diffkit.diff.sns.DKPoiSheet
+import org.diffkit.diff.sns.DKXlsxSheet
+
+
+/**
+ * @author jpanico
+ */
+public class TestXlsxSheet extends GroovyTestCase {
+
+   public void testSameModelAsPoi() {
+      def file = this.createWorkbook()
+      DKXlsxSheet xlsxSheet = [file, 'Data', false, true, false]
+      DKPoiSheet poiSheet = [file, 'Data', false, true, false]
+      DKTableModel xlsxModel = xlsxSheet.modelFromSheet
+      DKTableModel poiModel = poiSheet.modelFromSheet
+      assert xlsxModel.name == 'Data'
+      assert xlsxModel.columnNames == poiModel.columnNames
+      assert xlsxModel.columnTypes == poiModel.columnTypes
+      assert xlsxModel.columnNames == (String[])['<ROW_NUM>', 'ID', 'NAME', 'AMOUNT', 'WHEN', 'FLAG']
+      xlsxSheet.close()
+      poiSheet.close()
+   }
+
+   public void testSameRowsAsPoi() {
+      def file = this.createWorkbook()
+      DKXlsxSheet xlsxSheet = [file, 'Data', false, true, false]
+      DKPoiSheet poiSheet = [file, 'Data', false, true, false]
+      DKTableModel model = poiSheet.modelFromSheet
+      def xlsxRows = xlsxSheet.getRowIterator(model).collect { it as List }
+      def poiRows = poiSheet.getRowIterator(model).collect { it as List }
+      assert xlsxRows.size() == 5
+      assert xlsxRows == poiRows
+      assert xlsxRows[0][0] == 2
+      assert xlsxRows[4][2] == 'e'
+      assert xlsxRows[1][5] == null
+      xlsxSheet.close()
+      poiSheet.close()
+   }
+
+   // isSorted = false, so the rows get sorted on the user supplied key
+   public void testUnsortedKey() {
+      DKColumnModel col1 = [0, 'ID', DKColumnModel.Type.INTEGER]
+      DKColumnModel col2 = [1, 'NAME', DKColumnModel.Type.STRING]
+      DKColumnModel[] cols = [col1, col2]
+      DKTableModel model = ['MyModel', cols, (int[])[0]]
+
+      def file = this.createWorkbook()
+      DKXlsxSheet xlsxSheet = [file, 'Data', false, true, false]
+      DKPoiSheet poiSheet = [file, 'Data', false, true, false]
+      def xlsxRows = xlsxSheet.getRowIterator(model).collect { it as List }
+      def poiRows = poiSheet.getRowIterator(model).collect { it as List }
+      assert xlsxRows.collect { it[0] } == [-7L, 1L, 3L, 5L, 9L]
+      assert xlsxRows == poiRows
+      xlsxSheet.close()
+      poiSheet.close()
+
+      // isSorted = true, so they come back in sheet order
+      xlsxSheet = [file, 'Data', true, true, false]
+      xlsxRows = xlsxSheet.getRowIterator(model).collect { it[0] }
+      assert xlsxRows == [5L, 1L, 9L, -7L, 3L]
+      xlsxSheet.close()
+   }
+
+   public void testFirstSheet() {
+      def file = this.createWorkbook()
+      DKXlsxSheet xlsxSheet = [file, null, false, true, false]
+      assert xlsxSheet.name == 'Data'
+      xlsxSheet.close()
+
+      xlsxSheet = [file, 'NoSuchSheet', false, true, true]
+      shouldFail(IOException) {
+         xlsxSheet.name
+      }
+      xlsxSheet.close()
+   }
+
+   // formula cells are read from their cached results
+   public void testFormulas() {
+      def workbook = new XSSFWorkbook()
+      def sheet = workbook.createSheet('Data')
+      def header = sheet.createRow(0)
+      ['ID', 'TOTAL', 'FLAG', 'LABEL'].eachWithIndex { name, i ->
+         header.createCell(i).setCellValue(name)
+      }
+      def evaluator = workbook.creationHelper.createFormulaEvaluator()
+      (1..2).each { r ->
+         def row = sheet.createRow(r)
+         row.createCell(0).setCellValue((double) r)
+         row.createCell(1).setCellFormula("A${r + 1}*2.5")
+         row.createCell(2).setCellFormula("A${r + 1}>1")
+         row.createCell(3).setCellFormula("\"x\"&A${r + 1}")
+         (1..3).each { evaluator.evaluateFormulaCell(row.getCell(it)) }
+      }
+      def file = File.createTempFile('TestXlsxSheet', '.xlsx')
+      file.deleteOnExit()
+      def out = new FileOutputStream(file)
+      workbook.write(out)
+      out.close()
+
+      DKColumnModel col1 = [0, 'ID', DKColumnModel.Type.INTEGER]
+      DKColumnModel col2 = [1, 'TOTAL', DKColumnModel.Type.REAL]
+      DKColumnModel col3 = [2, 'FLAG', DKColumnModel.Type.BOOLEAN]
+      DKColumnModel[] cols = [col1, col2, col3]
+      DKTableModel model = ['MyModel', cols, (int[])[0]]
+      DKXlsxSheet xlsxSheet = [file, 'Data', true, true, false]
+      def rows = xlsxSheet.getRowIterator(model).collect { it as List }
+      assert rows == [[1L, 2.5d, false], [2L, 5.0d, true]]
+      xlsxSheet.close()
+
+      // a string result can't be read as a number
+      DKColumnModel col4 = [3, 'LABEL', DKColumnModel.Type.REAL]
+      cols = [col1, col2, col3, col4]
+      model = ['MyModel', cols, (int[])[0]]
+      xlsxSheet = [file, 'Data', true, true, false]
+      def message = shouldFail(RuntimeException) {
+         xlsxSheet.getRowIterator(model).collect { it as List }
+      }
+      assert message.contains('unable to read cell_')
+      xlsxSheet.close()
+
+      // nor as a boolean
+      DKColumnModel col5 = [3, 'LABEL', DKColumnModel.Type.BOOLEAN]
+      cols = [col1, col2, col3, col5]
+      model = ['MyModel', cols, (int[])[0]]
+      xlsxSheet = [file, 'Data', true, true, false]
+      shouldFail(RuntimeException) {
+         xlsxSheet.getRowIterator(model).collect { it as List }
+      }
+      xlsxSheet.close()
+   }
+
+   private File createWorkbook() {
+      def workbook = new XSSFWorkbook()
+      def sheet = workbook.createSheet('Data')
+      def dateStyle = workbook.createCellStyle()
+      dateStyle.dataFormat = workbook.creationHelper.createDataFormat().getFormat('m/d/yy')
+      def decimalStyle = workbook.createCellStyle()
+      decimalStyle.dataFormat = workbook.creationHelper.createDataFormat().getFormat('0.00')
+      def header = sheet.createRow(0)
+      ['ID', 'NAME', 'AMOUNT', 'WHEN', 'FLAG'].eachWithIndex { name, i ->
+         header.createCell(i).setCellValue(name)
+      }
+      def data = [
+         [5, 'a', 1.5, new Date(110, 0, 1), true],
+         [1, 'b', 22.25, new Date(110, 5, 30), null],
+         [9, 'c', -3.75, new Date(111, 11, 31), false],
+         [-7, 'd', 0.5, new Date(100, 1, 29), true],
+         [3, 'e', 1000.01, new Date(99, 11, 31), false]]
+      data.eachWithIndex { values, r ->
+         def row = sheet.createRow(r + 1)
+         row.createCell(0).setCellValue((double) values[0])
+         row.createCell(1).setCellValue(values[1])
+         def amount = row.createCell(2)
+         amount.setCellValue((double) values[2])
+         amount.cellStyle = decimalStyle
+         def when = row.createCell(3)
+         when.setCellValue(values[3])
+         when.cellStyle = dateStyle
+         if (values[4] != null)
+            row.createCell(4).setCellValue(values[4])
+         else
+            row.createCell(4)
+      }
+      def file = File.createTempFile('TestXlsxSheet', '.xlsx')
+      file.deleteOnExit()
+      def out = new FileOutputStream(file)
+      workbook.write(out)
+      out.close()
+      return file
+   }
+}
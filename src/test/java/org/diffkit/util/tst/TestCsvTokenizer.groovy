@@ -0,0 +1,65 @@
+/**
+ * Copyright 2010-2011 Joseph Panico
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.diffkit.util.tst
+
+
+import org.diffkit.util.DKCsvTokenizer;
+
+import groovy.util.GroovyTestCase;
+
+
+/**
+ * @author jpanico
+ */
+public class TestCsvTokenizer extends GroovyTestCase {
+   
+   public void testSimple(){
+      DKCsvTokenizer tokenizer = new DKCsvTokenizer(new StringReader('a,b,c\n1,,3\n'))
+      assert tokenizer.next() == (String[])['a','b','c']
+      assert tokenizer.next() == (String[])['1','','3']
+      assert tokenizer.next() == null
+      assert tokenizer.recordNumber == 2
+   }
+   
+   public void testQuotes(){
+      def text = 'a,"infinite, loop","say ""hi""",""\r\n"multi\nline",x,,\n'
+      DKCsvTokenizer tokenizer = new DKCsvTokenizer(new StringReader(text))
+      assert tokenizer.next() == (String[])['a','infinite, loop','say "hi"','']
+      assert tokenizer.next() == (String[])['multi\nline','x','','']
+      assert tokenizer.next() == null
+      assert tokenizer.lineNumber == 4
+   }
+   
+   public void testLineEndings(){
+      def text = '\n1,2\r\n\r\n3,4\r5,6'
+      DKCsvTokenizer tokenizer = new DKCsvTokenizer(new StringReader(text))
+      assert tokenizer.next() == (String[])['1','2']
+      assert tokenizer.next() == (String[])['3','4']
+      assert tokenizer.next() == (String[])['5','6']
+      assert tokenizer.next() == null
+   }
+   
+   public void testDelimiter(){
+      DKCsvTokenizer tokenizer = new DKCsvTokenizer(new StringReader('a|"b|c"|d'), '|' as char)
+      assert tokenizer.next() == (String[])['a','b|c','d']
+      assert tokenizer.next() == null
+   }
+   
+   public void testUnterminatedQuote(){
+      DKCsvTokenizer tokenizer = new DKCsvTokenizer(new StringReader('a,"b\nc'))
+      shouldFail(IOException) { tokenizer.next() }
+   }
+}
@@ -0,0 +1,138 @@
+/**
+ * Copyright 2010-2011 Joseph Panico
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.diffkit.util.tst
+
+
+import groovy.util.GroovyTestCase;
+
+import org.diffkit.db.DKDatabase
+import org.diffkit.diff.diffor.DKEqualsDiffor
+import org.diffkit.diff.engine.DKColumnComparison
+import org.diffkit.diff.engine.DKDiff
+import org.diffkit.diff.engine.DKDiffEngine
+import org.diffkit.diff.engine.DKStandardTableComparison
+import org.diffkit.diff.engine.DKTableModel
+import org.diffkit.diff.sns.DKFileSource
+import org.diffkit.diff.sns.DKListSink
+import org.diffkit.util.DKDataGenerator
+
+
+/**
+ * @author jpanico
+ */
+public class TestDataGenerator extends GroovyTestCase {
+
+   public void testWriteFiles() {
+      def columns = DKDataGenerator.Column.parseColumns(DKDataGenerator.DEFAULT_COLUMNS)
+      DKDataGenerator generator = [1000, columns, DKDataGenerator.KeyDistribution.SPARSE, 0.1, 7]
+      File lhsFile = this.createTempFile('lhs')
+      File rhsFile = this.createTempFile('rhs')
+      def counts = generator.writeFiles(lhsFile, rhsFile)
+      assert counts.lhsRowCount == 1000
+      assert counts.columnDiffCount > 0
+      assert counts.lhsOnlyCount > 0
+      assert counts.rhsOnlyCount > 0
+      assert counts.rhsRowCount == 1000 - counts.lhsOnlyCount + counts.rhsOnlyCount
+      def lhsLines = lhsFile.readLines()
+      assert lhsLines.size() == 1001
+      assert lhsLines[0] == 'ID,COLUMN1,COLUMN2,COLUMN3,COLUMN4'
+      assert rhsFile.readLines().size() == counts.rhsRowCount + 1
+
+      // same seed, same data
+      File lhsFile2 = this.createTempFile('lhs2')
+      File rhsFile2 = this.createTempFile('rhs2')
+      generator.writeFiles(lhsFile2, rhsFile2)
+      assert lhsFile2.text == lhsFile.text
+      assert rhsFile2.text == rhsFile.text
+
+      // and the engine finds exactly the generated diffs
+      this.assertDiffs(lhsFile, rhsFile, counts)
+   }
+
+   // every row is mutated, and the narrowest columns have the fewest values
+   // to change to
+   public void testNarrowColumns() {
+      def columns = DKDataGenerator.Column.parseColumns('STRING:1,INTEGER:1,DECIMAL:1,DATE')
+      DKDataGenerator generator = [1000, columns, DKDataGenerator.KeyDistribution.SEQUENTIAL, 1.0, 5]
+      File lhsFile = this.createTempFile('lhs')
+      File rhsFile = this.createTempFile('rhs')
+      def counts = generator.writeFiles(lhsFile, rhsFile)
+      assert counts.columnDiffCount > 0
+      this.assertDiffs(lhsFile, rhsFile, counts)
+   }
+
+   public void testShuffledKeys() {
+      def columns = DKDataGenerator.Column.parseColumns('INTEGER:5')
+      DKDataGenerator generator = [1000, columns, DKDataGenerator.KeyDistribution.SHUFFLED, 0, 11]
+      File lhsFile = this.createTempFile('lhs')
+      File rhsFile = this.createTempFile('rhs')
+      def counts = generator.writeFiles(lhsFile, rhsFile)
+      assert counts.expectedDiffCount == 0
+      def keys = lhsFile.readLines().drop(1).collect { Long.parseLong(it.split(',')[0]) }
+      assert keys != keys.sort(false)
+      assert keys.sort(false) == (0..999).collect { 2L * it }
+      assert rhsFile.text == lhsFile.text
+   }
+
+   public void testGenerateTables() {
+      File dir = File.createTempFile('TestDataGenerator', '')
+      dir.delete()
+      dir.deleteOnExit()
+      def columns = DKDataGenerator.Column.parseColumns('STRING:8,DECIMAL:6:2,DATE')
+      DKDataGenerator generator = [200, columns, DKDataGenerator.KeyDistribution.SEQUENTIAL, 0.2, 3]
+      def counts = generator.generate(DKDataGenerator.Target.H2, dir, 'gen')
+      assert DKDataGenerator.getLhsFile(dir, 'gen').exists()
+      assert DKDataGenerator.getRhsFile(dir, 'gen').exists()
+      DKDatabase database = [DKDataGenerator.getConnectionInfo(DKDataGenerator.Target.H2, dir, 'gen')]
+      def lhsRows = database.readAllRows(database.getTable('GEN_LHS'))
+      def rhsRows = database.readAllRows(database.getTable('GEN_RHS'))
+      assert lhsRows.size() == counts.lhsRowCount
+      assert rhsRows.size() == counts.rhsRowCount
+      assert lhsRows.find { it['ID'] == 0L }['COLUMN2'] instanceof BigDecimal
+      dir.eachFile { it.deleteOnExit() }
+   }
+
+   public void testInvalidColumns() {
+      shouldFail(org.diffkit.common.DKUserException) {
+         DKDataGenerator.Column.parseColumns('STRING:10,BLOB')
+      }
+      shouldFail(org.diffkit.common.DKUserException) {
+         DKDataGenerator.Column.parseColumns('INTEGER:19')
+      }
+      shouldFail(IllegalArgumentException) {
+         new DKDataGenerator.Column(DKDataGenerator.ColumnType.DECIMAL, 4, 4)
+      }
+   }
+
+   private void assertDiffs(File lhsFile_, File rhsFile_, def counts_) {
+      String[] columnNames = lhsFile_.readLines()[0].split(',')
+      DKTableModel model = DKTableModel.createGenericStringModel(columnNames, (int[])[0])
+      int[] valueIndices = (1..<columnNames.length) as int[]
+      DKColumnComparison[] map = DKColumnComparison.createColumnPlans( model, model, valueIndices, DKEqualsDiffor.instance)
+      DKStandardTableComparison tableComparison = [model, model, DKDiff.Kind.BOTH, map, (0..<columnNames.length - 1) as int[], (int[][])[[0],[0]], (long)Long.MAX_VALUE]
+      DKListSink sink = []
+      new DKDiffEngine().diff(new DKFileSource(lhsFile_.absolutePath, model, null, null, ',', true, true),
+         new DKFileSource(rhsFile_.absolutePath, model, null, null, ',', true, true), sink, tableComparison, null)
+      assert sink.diffCount == counts_.expectedDiffCount
+      assert sink.columnDiffCount == counts_.columnDiffCount
+   }
+
+   private File createTempFile(String prefix_) {
+      File file = File.createTempFile("TestDataGenerator.${prefix_}", '.csv')
+      file.deleteOnExit()
+      return file
+   }
+}
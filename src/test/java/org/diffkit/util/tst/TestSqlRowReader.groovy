@@ -0,0 +1,71 @@
+/**
+ * Copyright 2010-2011 Joseph Panico
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.diffkit.util.tst
+
+
+import org.diffkit.db.DKDBConnectionInfo 
+import org.diffkit.db.DKDBFlavor 
+import org.diffkit.db.DKDatabase 
+import org.diffkit.util.DKSqlRowReader 
+import org.diffkit.util.DKSqlUtil 
+import org.diffkit.util.DKSqlUtil.ReadType 
+
+import groovy.util.GroovyTestCase;
+
+
+/**
+ * @author jpanico
+ */
+public class TestSqlRowReader extends GroovyTestCase {
+   
+   public void testSameAsReadRow(){
+      DKDBConnectionInfo connectionInfo = ['test', DKDBFlavor.H2,"mem:test.rowreader", null, null, 'test', 'test']
+      DKDatabase database = [connectionInfo]
+      def connection = database.connection
+      assert DKSqlUtil.executeUpdate('''CREATE TABLE ROWREADER (
+         ID INTEGER, SMALL SMALLINT, BIG BIGINT, DEC DECIMAL(10,2), DBL DOUBLE,
+         NAME VARCHAR(20), TXT CLOB, BORN DATE, TS TIMESTAMP, FLAG BOOLEAN)''', connection)
+      assert DKSqlUtil.executeUpdate('''INSERT INTO ROWREADER VALUES (1, 2, 3, 4.50, 5.5,
+         'bob', 'text', '2011-01-02', '2011-01-02 03:04:05.6', TRUE)''', connection)
+      assert DKSqlUtil.executeUpdate('''INSERT INTO ROWREADER VALUES (NULL, NULL, NULL, NULL, NULL,
+         NULL, NULL, NULL, NULL, NULL)''', connection)
+      
+      String[] columnNames = ['NAME', 'ID', 'SMALL', 'BIG', 'DEC', 'DBL', 'TXT', 'BORN', 'TS', 'FLAG']
+      ReadType[] readTypes = [ReadType.STRING, ReadType.OBJECT, ReadType.OBJECT, ReadType.OBJECT,
+         ReadType.OBJECT, ReadType.OBJECT, ReadType.TEXT, ReadType.OBJECT, ReadType.TIMESTAMP,
+         ReadType.OBJECT]
+      def resultSet = DKSqlUtil.executeQuery('SELECT * FROM ROWREADER ORDER BY ID', connection)
+      DKSqlRowReader reader = new DKSqlRowReader(resultSet, columnNames, readTypes)
+      Object[] buffer = new Object[columnNames.length]
+      def rowCount = 0
+      while(resultSet.next()){
+         def expected = DKSqlUtil.readRow(resultSet, columnNames, readTypes)
+         def actual = reader.readRow()
+         assert actual == expected
+         actual.eachWithIndex { value, i ->
+            assert value?.class == expected[i]?.class
+         }
+         assert reader.readRow(buffer).is(buffer)
+         assert buffer == expected
+         rowCount++
+      }
+      assert rowCount == 2
+      
+      DKSqlUtil.close(resultSet)
+      assert DKSqlUtil.executeUpdate('DROP TABLE ROWREADER', connection)
+      DKSqlUtil.close(connection)
+   }
+}